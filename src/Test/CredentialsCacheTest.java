@@ -0,0 +1,58 @@
+import Database.CredentialsCache;
+import Database.HibernateClasses.User;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class for the credentials cache.
+ */
+class CredentialsCacheTest {
+
+    @Test
+    void get_PutUser_CopyOfCredentials() {
+        CredentialsCache cache = new CredentialsCache(10, 60000);
+        User user = new User("bob", "hash", "salt");
+        user.setId(7);
+        cache.put(user);
+        User cachedUser = cache.get("bob");
+        assertNotSame(user, cachedUser);
+        assertEquals(7, cachedUser.getId());
+        assertEquals("hash", cachedUser.getHash());
+        assertEquals("salt", cachedUser.getSalt());
+    }
+
+    @Test
+    void get_UnknownUser_Null() {
+        assertNull(new CredentialsCache(10, 60000).get("bob"));
+    }
+
+    /**
+     * Checks that the least recently used user is removed when the cache is full.
+     */
+    @Test
+    void put_CacheFull_LeastRecentlyUsedRemoved() {
+        CredentialsCache cache = new CredentialsCache(2, 60000);
+        cache.put(new User("a", "hash", "salt"));
+        cache.put(new User("b", "hash", "salt"));
+        cache.get("a");
+        cache.put(new User("c", "hash", "salt"));
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+    }
+
+    @Test
+    void get_Expired_Null() {
+        CredentialsCache cache = new CredentialsCache(10, 0);
+        cache.put(new User("bob", "hash", "salt"));
+        assertNull(cache.get("bob"));
+    }
+
+    @Test
+    void remove_CachedUser_Null() {
+        CredentialsCache cache = new CredentialsCache(10, 60000);
+        cache.put(new User("bob", "hash", "salt"));
+        cache.remove("bob");
+        assertNull(cache.get("bob"));
+    }
+}
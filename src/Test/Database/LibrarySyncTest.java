@@ -0,0 +1,131 @@
+package Database;
+
+import Database.HibernateClasses.Album;
+import Database.HibernateClasses.Photo;
+import Database.HibernateClasses.Tag;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class for the local library and its sync, with shard 1 as the remote database.
+ */
+class LibrarySyncTest {
+
+    private static int userId;
+
+    @BeforeAll
+    static void openLibrary() throws InterruptedException {
+        TestDatabases.setUp();
+        userId = TestDatabases.registerUserInShard("sync", 1);
+        Hibernate.useShardOf(userId);
+        LocalLibrary.open(userId);
+        TestDatabases.await(() -> LocalLibrary.isServing(userId));
+    }
+
+    @AfterAll
+    static void closeLibrary() throws InterruptedException {
+        LocalLibrary.close();
+        TestDatabases.await(() -> !LocalLibrary.isOpen());
+    }
+
+    @Test
+    void isServing_OtherUser_False() {
+        assertTrue(LocalLibrary.isServing(userId));
+        assertFalse(LocalLibrary.isServing(userId + 1));
+    }
+
+    @Test
+    void sync_LocalChange_Sent() throws SQLException {
+        int photoId = insertPhoto("sent");
+        assertTrue(Repository.addTags(userId, photoId, Collections.singletonList("sea")));
+        assertEquals(1, LocalLibrary.getPendingChanges());
+        assertEquals(0, countRemoteTags(photoId));
+        LibrarySync.sync();
+        assertEquals(0, LocalLibrary.getPendingChanges());
+        assertEquals(1, countRemoteTags(photoId));
+        assertEquals(Collections.singleton("sea"), getLocalTags(photoId));
+    }
+
+    /**
+     * Checks that a local change is not sent when another client changed the photo after it, and that the local photo is read again.
+     */
+    @Test
+    void sync_RemoteChangeAfterLocalChange_RemoteWins() throws SQLException, InterruptedException {
+        int photoId = insertPhoto("local");
+        assertTrue(Repository.addTags(userId, photoId, Collections.singletonList("lost")));
+        Thread.sleep(50);
+        TestDatabases.execute(TestDatabases.SHARD_1_URL, "update PHOTOS set title = 'remote' where id = " + photoId);
+        LibrarySync.sync();
+        assertEquals(0, LocalLibrary.getPendingChanges());
+        assertEquals(0, countRemoteTags(photoId));
+        assertEquals("remote", Repository.getPhoto(userId, photoId, PhotoFetchPlan.PHOTO_ONLY).getTitle());
+        assertEquals(Collections.emptySet(), getLocalTags(photoId));
+    }
+
+    @Test
+    void sync_PhotoDeletedRemotely_DeletedLocally() throws SQLException {
+        int photoId = insertPhoto("deleted");
+        LibrarySync.sync();
+        assertNotNull(Repository.getPhoto(userId, photoId, PhotoFetchPlan.PHOTO_ONLY));
+        TestDatabases.execute(TestDatabases.SHARD_1_URL, "delete from PHOTOS where id = " + photoId);
+        LibrarySync.sync();
+        assertNull(Repository.getPhoto(userId, photoId, PhotoFetchPlan.PHOTO_ONLY));
+    }
+
+    /**
+     * Checks that a change the remote database does not accept is given up after five syncs, and that the album goes back to its remote version.
+     * The remote changes to other rows are applied while the change is waiting.
+     */
+    @Test
+    void sync_ChangeKeepsFailing_GivenUpAndRemoteVersionKept() throws SQLException {
+        Album album = new Album("failing", userId);
+        assertTrue(Repository.insertAlbum(album));
+        int photoId = insertPhoto("linked");
+        int otherPhotoId = insertPhoto("other");
+        TestDatabases.execute(TestDatabases.SHARD_1_URL, "create trigger REJECT_LINKS before insert on ALBUMPHOTO for each row call \""
+                + TestDatabases.RejectingTrigger.class.getName() + "\"");
+        try {
+            assertTrue(Repository.linkPhotosToAlbum(userId, album.getId(), Collections.singletonList(photoId)));
+            assertEquals(1, getLocalPhotoCount(album.getId()));
+            TestDatabases.execute(TestDatabases.SHARD_1_URL, "update PHOTOS set title = 'renamed' where id = " + otherPhotoId);
+            LibrarySync.sync();
+            assertEquals(1, LocalLibrary.getPendingChanges());
+            assertEquals("renamed", Repository.getPhoto(userId, otherPhotoId, PhotoFetchPlan.PHOTO_ONLY).getTitle());
+            assertEquals(1, getLocalPhotoCount(album.getId()));
+            for (int i = 0; i < 4; i++) {
+                LibrarySync.sync();
+            }
+            assertEquals(0, LocalLibrary.getPendingChanges());
+            assertEquals(0, getLocalPhotoCount(album.getId()));
+            assertEquals(0, TestDatabases.queryInt(TestDatabases.SHARD_1_URL, "select count(*) from ALBUMPHOTO where album_id = " + album.getId()));
+        } finally {
+            TestDatabases.execute(TestDatabases.SHARD_1_URL, "drop trigger REJECT_LINKS");
+        }
+    }
+
+    private static int insertPhoto(String title) {
+        Photo photo = new Photo(title, "http://example.com/" + title + ".jpg", null, null, 10, 10, "jpg", 1, null, null, null, null, userId);
+        assertTrue(Repository.insertPhoto(photo));
+        return photo.getId();
+    }
+
+    private static int countRemoteTags(int photoId) throws SQLException {
+        return TestDatabases.queryInt(TestDatabases.SHARD_1_URL, "select count(*) from PHOTO_TAG where photo_id = " + photoId);
+    }
+
+    private static Set<String> getLocalTags(int photoId) {
+        return Repository.getPhoto(userId, photoId, PhotoFetchPlan.WITH_TAGS).getTags().stream().map(Tag::getName).collect(Collectors.toSet());
+    }
+
+    private static long getLocalPhotoCount(int albumId) {
+        return Repository.getAlbumSummaries(userId).stream().filter(album -> album.getId() == albumId).findFirst().orElseThrow().getPhotoCount();
+    }
+}
@@ -0,0 +1,87 @@
+package Database;
+
+import Database.HibernateClasses.Album;
+import Database.HibernateClasses.Photo;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class for the library watcher, with the changes of another program made directly in shard 1.
+ */
+class LibraryWatcherTest {
+
+    private static int userId;
+
+    @BeforeAll
+    static void startWatcher() throws InterruptedException {
+        TestDatabases.setUp();
+        userId = TestDatabases.registerUserInShard("watcher", 1);
+        Hibernate.useShardOf(userId);
+        LibraryWatcher.start(userId);
+        // The first refresh only remembers the state of the library, and runs on the thread of the watcher
+        TestDatabases.await(() -> DatabaseMetrics.getSummary().contains("refreshLibrary:"));
+    }
+
+    @AfterAll
+    static void stopWatcher() {
+        LibraryWatcher.stop();
+    }
+
+    @Test
+    void refresh_NoChanges_Empty() {
+        assertTrue(LibraryWatcher.refresh().isEmpty());
+    }
+
+    @Test
+    void refresh_PhotosChangedRemotely_Reported() throws SQLException {
+        int changedId = insertPhoto("changed");
+        int deletedId = insertPhoto("deleted");
+        LibraryWatcher.refresh();
+        TestDatabases.execute(TestDatabases.SHARD_1_URL, "update PHOTOS set title = 'renamed' where id = " + changedId);
+        TestDatabases.execute(TestDatabases.SHARD_1_URL, "delete from PHOTOS where id = " + deletedId);
+        LibraryChanges changes = LibraryWatcher.refresh();
+        assertTrue(changes.getPhotos().stream().anyMatch(photo -> photo.getId() == changedId && photo.getTitle().equals("renamed")));
+        assertTrue(changes.getDeletedPhotoIds().contains(deletedId));
+        assertTrue(LibraryWatcher.refresh().isEmpty());
+    }
+
+    @Test
+    void refresh_AlbumChangedRemotely_Reported() throws SQLException {
+        Album album = new Album("album", userId);
+        assertTrue(Repository.insertAlbum(album));
+        LibraryWatcher.refresh();
+        TestDatabases.execute(TestDatabases.SHARD_1_URL, "update ALBUMS set name = 'renamed' where id = " + album.getId());
+        LibraryChanges changes = LibraryWatcher.refresh();
+        assertTrue(changes.getAlbums().stream().anyMatch(summary -> summary.getId() == album.getId() && summary.getName().equals("renamed")));
+    }
+
+    /**
+     * Checks that the user is not refreshed while the local library serves it, and that the changes are found after it has closed.
+     */
+    @Test
+    void refresh_LibraryServedLocally_Skipped() throws SQLException, InterruptedException {
+        int photoId = insertPhoto("local");
+        LibraryWatcher.refresh();
+        LocalLibrary.open(userId);
+        try {
+            TestDatabases.await(() -> LocalLibrary.isServing(userId));
+            TestDatabases.execute(TestDatabases.SHARD_1_URL, "update PHOTOS set title = 'renamed' where id = " + photoId);
+            assertTrue(LibraryWatcher.refresh().isEmpty());
+        } finally {
+            LocalLibrary.close();
+            TestDatabases.await(() -> !LocalLibrary.isOpen());
+        }
+        assertTrue(LibraryWatcher.refresh().getPhotos().stream().anyMatch(photo -> photo.getId() == photoId));
+    }
+
+    private static int insertPhoto(String title) {
+        Photo photo = new Photo(title, "http://example.com/" + title + ".jpg", null, null, 10, 10, "jpg", 1, null, null, null, null, userId);
+        assertTrue(Repository.insertPhoto(photo));
+        return photo.getId();
+    }
+}
@@ -0,0 +1,60 @@
+package Database;
+
+import org.h2.api.ErrorCode;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class for the password of the local libraries, with the libraries in target/test-library.
+ */
+class LocalLibraryPasswordTest {
+
+    private static final String LIBRARY_DIRECTORY = "target/test-library";
+
+    @BeforeAll
+    static void setUp() {
+        TestDatabases.setUp();
+    }
+
+    /**
+     * Checks that a library made without a password, like the libraries of older versions, keeps its tables and gets the password of the install when it is opened.
+     */
+    @Test
+    void open_LibraryWithoutPassword_PasswordSet() throws SQLException, InterruptedException, IOException {
+        int userId = TestDatabases.registerUserInShard("password", 1);
+        String url = "jdbc:h2:file:" + new File(LIBRARY_DIRECTORY, "library-" + userId).getAbsolutePath() + ";MODE=MySQL";
+        try (Connection connection = DriverManager.getConnection(url, "sa", "");
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate("create table OLD_LIBRARY (id int)");
+        }
+        Hibernate.useShardOf(userId);
+        LocalLibrary.open(userId);
+        try {
+            TestDatabases.await(LocalLibrary::isOpen);
+        } finally {
+            LocalLibrary.close();
+            TestDatabases.await(() -> !LocalLibrary.isOpen());
+        }
+        String password = new String(Files.readAllBytes(new File(LIBRARY_DIRECTORY, "library.key").toPath()), StandardCharsets.US_ASCII);
+        try (Connection connection = DriverManager.getConnection(url, "sa", password);
+             Statement statement = connection.createStatement();
+             ResultSet tables = statement.executeQuery("select count(*) from information_schema.tables where table_name = 'OLD_LIBRARY'")) {
+            tables.next();
+            assertEquals(1, tables.getInt(1));
+        }
+        SQLException e = assertThrows(SQLException.class, () -> DriverManager.getConnection(url, "sa", "").close());
+        assertEquals(ErrorCode.WRONG_USER_OR_PASSWORD, e.getErrorCode());
+    }
+}
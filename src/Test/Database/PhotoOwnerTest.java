@@ -0,0 +1,32 @@
+package Database;
+
+import Database.HibernateClasses.Photo;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class for reading a photo by id, with both users in shard 1.
+ */
+class PhotoOwnerTest {
+
+    private static int ownerId;
+    private static int otherUserId;
+
+    @BeforeAll
+    static void setUp() {
+        TestDatabases.setUp();
+        ownerId = TestDatabases.registerUserInShard("owner", 1);
+        otherUserId = TestDatabases.registerUserInShard("stranger", 1);
+    }
+
+    @Test
+    void getPhoto_OtherUsersPhoto_Null() {
+        Hibernate.useShardOf(ownerId);
+        Photo photo = new Photo("owned", "http://example.com/owned.jpg", null, null, 10, 10, "jpg", 1, null, null, null, null, ownerId);
+        assertTrue(Repository.insertPhoto(photo));
+        assertNotNull(Repository.getPhoto(ownerId, photo.getId(), PhotoFetchPlan.PHOTO_ONLY));
+        assertNull(Repository.getPhoto(otherUserId, photo.getId(), PhotoFetchPlan.PHOTO_ONLY));
+    }
+}
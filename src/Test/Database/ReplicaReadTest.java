@@ -0,0 +1,60 @@
+package Database;
+
+import Database.HibernateClasses.Album;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class for sending reads to the read replica and writes to the primary database, with shard 0 as the primary.
+ * The replica is a copy of the primary that is not kept up to date, so a read shows which database it reached.
+ * replica_read_after_write_ms is 500 in the test configuration.
+ */
+class ReplicaReadTest {
+
+    private static final long AFTER_WRITE_MILLIS = 600;
+    private static int userId;
+
+    @BeforeAll
+    static void copyPrimaryToReplica() throws SQLException {
+        TestDatabases.setUp();
+        userId = TestDatabases.registerUserInShard("replica", 0);
+        Hibernate.useShardOf(userId);
+        TestDatabases.execute(TestDatabases.SHARD_0_URL, "script to 'target/replica.sql'");
+        TestDatabases.execute(TestDatabases.REPLICA_URL, "drop all objects");
+        TestDatabases.execute(TestDatabases.REPLICA_URL, "runscript from 'target/replica.sql'");
+    }
+
+    @Test
+    void read_NoRecentWrite_Replica() throws SQLException, InterruptedException {
+        TestDatabases.execute(TestDatabases.REPLICA_URL, "insert into ALBUMS (name, user_id) values ('replica only', " + userId + ")");
+        Thread.sleep(AFTER_WRITE_MILLIS);
+        assertTrue(getAlbumNames().contains("replica only"));
+    }
+
+    /**
+     * Checks that a write reaches the primary only, that it is read from the primary just after, and that later reads go to the replica again.
+     */
+    @Test
+    void write_Primary_ReadFromPrimaryUntilWindowHasPassed() throws SQLException, InterruptedException {
+        assertTrue(Repository.insertAlbum(new Album("primary only", userId)));
+        assertEquals(1, countAlbums(TestDatabases.SHARD_0_URL, "primary only"));
+        assertEquals(0, countAlbums(TestDatabases.REPLICA_URL, "primary only"));
+        assertTrue(getAlbumNames().contains("primary only"));
+        Thread.sleep(AFTER_WRITE_MILLIS);
+        assertFalse(getAlbumNames().contains("primary only"));
+    }
+
+    private static List<String> getAlbumNames() {
+        return Repository.getAlbumSummaries(userId).stream().map(AlbumSummary::getName).collect(Collectors.toList());
+    }
+
+    private static int countAlbums(String url, String name) throws SQLException {
+        return TestDatabases.queryInt(url, "select count(*) from ALBUMS where name = '" + name + "'");
+    }
+}
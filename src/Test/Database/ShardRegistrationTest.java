@@ -0,0 +1,64 @@
+package Database;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class for registering users in the shards, with shard 0 and shard 1 in two embedded databases.
+ */
+class ShardRegistrationTest {
+
+    @BeforeAll
+    static void setUp() {
+        TestDatabases.setUp();
+    }
+
+    @Test
+    void registerUser_UserInShard1_SavedInShard1Only() throws SQLException {
+        int userId = TestDatabases.registerUserInShard("sharded", 1);
+        assertEquals(1, countUsers(TestDatabases.SHARD_1_URL, userId));
+        assertEquals(0, countUsers(TestDatabases.SHARD_0_URL, userId));
+        assertEquals(1, TestDatabases.queryInt(TestDatabases.SHARD_0_URL, "select shard from USER_DIRECTORY where user_id = " + userId));
+    }
+
+    @Test
+    void setupDatabase_TwoShards_DirectoryInShard0Only() throws SQLException {
+        assertEquals(1, countDirectoryTables(TestDatabases.SHARD_0_URL));
+        assertEquals(0, countDirectoryTables(TestDatabases.SHARD_1_URL));
+    }
+
+    /**
+     * Checks that a user whose shard could not be set in the directory is neither left in its shard nor in the directory.
+     */
+    @Test
+    void registerUser_DirectoryNotUpdated_UserNotSaved() throws SQLException {
+        TestDatabases.execute(TestDatabases.SHARD_0_URL, "create trigger REJECT_SHARDS before update on USER_DIRECTORY for each row call \""
+                + TestDatabases.RejectingTrigger.class.getName() + "\"");
+        try {
+            // Users in shard 0 are not updated in the directory, so the first user that is not registered is in shard 1
+            String username = null;
+            for (int i = 0; i < 100 && username == null; i++) {
+                if (!Hibernate.registerUser("rejected" + i, "hash", "salt")) {
+                    username = "rejected" + i;
+                }
+            }
+            assertNotNull(username);
+            assertEquals(0, TestDatabases.queryInt(TestDatabases.SHARD_1_URL, "select count(*) from USERS where username = '" + username + "'"));
+            assertEquals(0, TestDatabases.queryInt(TestDatabases.SHARD_0_URL, "select count(*) from USER_DIRECTORY where username = '" + username + "'"));
+        } finally {
+            TestDatabases.execute(TestDatabases.SHARD_0_URL, "drop trigger REJECT_SHARDS");
+        }
+    }
+
+    private static int countDirectoryTables(String url) throws SQLException {
+        return TestDatabases.queryInt(url, "select count(*) from information_schema.tables where table_name = 'USER_DIRECTORY'");
+    }
+
+    private static int countUsers(String url, int userId) throws SQLException {
+        return TestDatabases.queryInt(url, "select count(*) from USERS where id = " + userId);
+    }
+}
@@ -0,0 +1,115 @@
+package Database;
+
+import org.h2.api.Trigger;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The embedded H2 databases the tests of the database classes run against, as configured in Assets/test_config.properties:
+ * shard 0, shard 1 and a read replica of shard 0
+ */
+final class TestDatabases {
+
+    static final String SHARD_0_URL = "jdbc:h2:mem:shard0;DB_CLOSE_DELAY=-1;MODE=MySQL;CASE_INSENSITIVE_IDENTIFIERS=TRUE";
+    static final String SHARD_1_URL = "jdbc:h2:mem:shard1;DB_CLOSE_DELAY=-1;MODE=MySQL;CASE_INSENSITIVE_IDENTIFIERS=TRUE";
+    static final String REPLICA_URL = "jdbc:h2:mem:replica;DB_CLOSE_DELAY=-1;MODE=MySQL;CASE_INSENSITIVE_IDENTIFIERS=TRUE";
+    private static final File LIBRARY_DIRECTORY = new File("target/test-library");
+    private static boolean isSetUp;
+
+    static {
+        // Hibernate reads the shards when it is loaded, so the configuration is set before it is used
+        if (System.getProperty("picturerama.config") == null) {
+            System.setProperty("picturerama.config", "src/Test/Assets/test_config.properties");
+        }
+    }
+
+    private TestDatabases() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * Creates the tables in both shards, and deletes the local libraries of earlier runs, whose user ids are given out again
+     */
+    static synchronized void setUp() {
+        if (isSetUp) {
+            return;
+        }
+        File[] libraries = LIBRARY_DIRECTORY.listFiles();
+        if (libraries != null) {
+            for (File library : libraries) {
+                assertTrue(library.delete());
+            }
+        }
+        Hibernate.setupDatabase();
+        isSetUp = true;
+    }
+
+    /**
+     * Registers users until one is saved in a shard
+     *
+     * @param prefix the start of the usernames
+     * @param shard  the shard
+     * @return the id of the user in the shard
+     */
+    static int registerUserInShard(String prefix, int shard) {
+        for (int i = 0; ; i++) {
+            String username = prefix + i;
+            assertTrue(Hibernate.registerUser(username, "hash", "salt"));
+            int userId = Hibernate.getUser(username).getId();
+            if (Hibernate.getShardOf(userId) == shard) {
+                return userId;
+            }
+        }
+    }
+
+    static void execute(String url, String sql) throws SQLException {
+        try (Connection connection = DriverManager.getConnection(url, "sa", "");
+             Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    static String queryString(String url, String sql) throws SQLException {
+        try (Connection connection = DriverManager.getConnection(url, "sa", "");
+             Statement statement = connection.createStatement();
+             ResultSet row = statement.executeQuery(sql)) {
+            return row.next() ? row.getString(1) : null;
+        }
+    }
+
+    static int queryInt(String url, String sql) throws SQLException {
+        return Integer.parseInt(queryString(url, sql));
+    }
+
+    /**
+     * Waits until a condition holds, for the work the database classes do on their own threads
+     *
+     * @param condition the condition
+     */
+    static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out");
+            Thread.sleep(20);
+        }
+    }
+
+    /**
+     * Trigger that makes the statements on a table fail, for the tests of writes the database does not accept
+     */
+    public static final class RejectingTrigger implements Trigger {
+
+        @Override
+        public void fire(Connection connection, Object[] oldRow, Object[] newRow) throws SQLException {
+            throw new SQLException("Rejected by the test");
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package Database;
+
+import Database.HibernateClasses.Photo;
+import Database.HibernateClasses.Tag;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class for reading the changes queued by WriteBehind, with shard 1 as the database.
+ * write_behind_millis is 60000 in the test configuration, so the queue is only written by the reads.
+ */
+class WriteBehindReadTest {
+
+    private static int userId;
+
+    @BeforeAll
+    static void startQueue() {
+        TestDatabases.setUp();
+        userId = TestDatabases.registerUserInShard("behind", 1);
+        Hibernate.useShardOf(userId);
+        WriteBehind.start(userId);
+    }
+
+    @AfterAll
+    static void stopQueue() {
+        WriteBehind.stop();
+    }
+
+    @Test
+    void getPhoto_OtherPhotoChanged_QueueKept() {
+        int changedId = insertPhoto("queued");
+        int otherId = insertPhoto("other");
+        WriteBehind.addTags(changedId, Collections.singletonList("sea"));
+        assertNotNull(Repository.getPhoto(userId, otherId, PhotoFetchPlan.WITH_TAGS));
+        assertEquals(1, WriteBehind.getPendingCount());
+        assertEquals(Collections.singleton("sea"), getTags(changedId));
+        assertEquals(0, WriteBehind.getPendingCount());
+    }
+
+    @Test
+    void getAlbumSummaries_PhotoDeleted_QueueWrittenAndCountUpdated() {
+        int photoId = insertPhoto("deleted");
+        WriteBehind.deletePhotos(Collections.singletonList(photoId));
+        assertEquals(1, WriteBehind.getPendingCount());
+        Repository.getAlbumSummaries(userId);
+        assertEquals(0, WriteBehind.getPendingCount());
+        assertNull(Repository.getPhoto(userId, photoId, PhotoFetchPlan.PHOTO_ONLY));
+    }
+
+    private static int insertPhoto(String title) {
+        Photo photo = new Photo(title, "http://example.com/" + title + ".jpg", null, null, 10, 10, "jpg", 1, null, null, null, null, userId);
+        assertTrue(Repository.insertPhoto(photo));
+        return photo.getId();
+    }
+
+    private static Set<String> getTags(int photoId) {
+        return Repository.getPhoto(userId, photoId, PhotoFetchPlan.WITH_TAGS).getTags().stream().map(Tag::getName).collect(Collectors.toSet());
+    }
+}
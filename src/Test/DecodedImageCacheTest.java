@@ -0,0 +1,49 @@
+import Components.DecodedImageCache;
+import javafx.scene.image.Image;
+import javafx.scene.image.WritableImage;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class for the cache of decoded photos in memory
+ */
+class DecodedImageCacheTest {
+
+    @Test
+    void get_PutImage_HitForSamePhotoSizeAndUrl() {
+        DecodedImageCache cache = new DecodedImageCache(1000000);
+        Image image = new WritableImage(150, 100);
+        cache.put(1, 150, "http://example.com/a.jpg", image);
+        assertSame(image, cache.get(1, 150, "http://example.com/a.jpg"));
+        assertNull(cache.get(1, 255, "http://example.com/a.jpg"));
+        assertNull(cache.get(1, 150, "http://example.com/b.jpg"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(1.0 / 3, cache.getHitRate(), 0.0001);
+        assertEquals(150 * 100 * 4, cache.getResidentBytes());
+    }
+
+    @Test
+    void put_BudgetUsedUp_LeastRecentlyUsedEvicted() {
+        DecodedImageCache cache = new DecodedImageCache(2 * 100 * 100 * 4);
+        cache.put(1, 100, "a", new WritableImage(100, 100));
+        cache.put(2, 100, "b", new WritableImage(100, 100));
+        cache.get(1, 100, "a");
+        cache.put(3, 100, "c", new WritableImage(100, 100));
+        assertNotNull(cache.get(1, 100, "a"));
+        assertNull(cache.get(2, 100, "b"));
+        assertNotNull(cache.get(3, 100, "c"));
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(2, cache.getImageCount());
+        assertEquals(2 * 100 * 100 * 4, cache.getResidentBytes());
+    }
+
+    @Test
+    void put_LargerThanBudget_NotKept() {
+        DecodedImageCache cache = new DecodedImageCache(100);
+        cache.put(1, 100, "a", new WritableImage(100, 100));
+        assertNull(cache.get(1, 100, "a"));
+        assertEquals(0, cache.getResidentBytes());
+    }
+}
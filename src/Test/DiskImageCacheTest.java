@@ -0,0 +1,65 @@
+import Components.DiskImageCache;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class for the cache of downloaded images on disk
+ */
+class DiskImageCacheTest {
+
+    @TempDir
+    File directory;
+
+    @Test
+    void get_PutImage_SameBytesForSameUrlAndSize() {
+        DiskImageCache cache = new DiskImageCache(directory, 1000);
+        cache.put("http://example.com/a.jpg", 150, new byte[]{1, 2, 3});
+        assertArrayEquals(new byte[]{1, 2, 3}, cache.get("http://example.com/a.jpg", 150));
+        assertNull(cache.get("http://example.com/a.jpg", 255));
+        assertNull(cache.get("http://example.com/b.jpg", 150));
+    }
+
+    @Test
+    void put_CacheFull_LeastRecentlyUsedEvicted() {
+        DiskImageCache cache = new DiskImageCache(directory, 250);
+        cache.put("a", 150, new byte[100]);
+        cache.put("b", 150, new byte[100]);
+        cache.get("a", 150);
+        cache.put("c", 150, new byte[100]);
+        assertNotNull(cache.get("a", 150));
+        assertNull(cache.get("b", 150));
+        assertNotNull(cache.get("c", 150));
+        assertEquals(200, cache.getTotalBytes());
+        cache.put("too large", 150, new byte[300]);
+        assertNull(cache.get("too large", 150));
+    }
+
+    @Test
+    void constructor_SavedIndex_ImagesAndOrderKept() {
+        DiskImageCache cache = new DiskImageCache(directory, 250);
+        cache.put("a", 150, new byte[100]);
+        cache.put("b", 150, new byte[100]);
+        cache.get("a", 150);
+        cache.saveIndex();
+
+        DiskImageCache reopened = new DiskImageCache(directory, 250);
+        assertEquals(2, reopened.getCount());
+        assertEquals(200, reopened.getTotalBytes());
+        reopened.put("c", 150, new byte[100]);
+        assertNull(reopened.get("b", 150));
+        assertNotNull(reopened.get("a", 150));
+    }
+
+    @Test
+    void constructor_IndexNotSaved_ImagesFoundInDirectory() {
+        DiskImageCache cache = new DiskImageCache(directory, 1000);
+        cache.put("a", 150, new byte[]{7});
+
+        DiskImageCache reopened = new DiskImageCache(directory, 1000);
+        assertArrayEquals(new byte[]{7}, reopened.get("a", 150));
+    }
+}
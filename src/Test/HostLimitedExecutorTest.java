@@ -0,0 +1,61 @@
+import Components.HostLimitedExecutor;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class for the executor that limits the tasks against each host
+ */
+class HostLimitedExecutorTest {
+
+    @Test
+    void execute_ManyTasks_LimitsThreadsAndHosts() throws InterruptedException {
+        HostLimitedExecutor executor = new HostLimitedExecutor("test", 4, 2);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        Map<String, AtomicInteger> runningByHost = new ConcurrentHashMap<>();
+        Map<String, AtomicInteger> maxByHost = new ConcurrentHashMap<>();
+        CountDownLatch done = new CountDownLatch(30);
+        for (int i = 0; i < 30; i++) {
+            String host = "host" + i % 3;
+            executor.execute(host, () -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                int onHost = runningByHost.computeIfAbsent(host, h -> new AtomicInteger()).incrementAndGet();
+                maxByHost.computeIfAbsent(host, h -> new AtomicInteger()).accumulateAndGet(onHost, Math::max);
+                sleep();
+                runningByHost.get(host).decrementAndGet();
+                running.decrementAndGet();
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue(maxRunning.get() <= 4);
+        maxByHost.values().forEach(max -> assertTrue(max.get() <= 2));
+        assertEquals(0, executor.getWaitingCount());
+    }
+
+    @Test
+    void execute_TaskThrows_OthersStillRun() throws InterruptedException {
+        HostLimitedExecutor executor = new HostLimitedExecutor("test", 1, 1);
+        CountDownLatch done = new CountDownLatch(1);
+        executor.execute("host", () -> {
+            throw new IllegalStateException("broken image");
+        });
+        executor.execute("host", done::countDown);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(20);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
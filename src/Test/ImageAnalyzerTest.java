@@ -1,9 +1,18 @@
+import Components.AnalysisRequest;
+import Components.AnalysisResult;
 import Components.FileLogger;
 import Components.ImageAnalyzer;
 import Components.UserInfo;
 import Database.HibernateClasses.Photo;
 import Database.HibernateClasses.User;
 import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
@@ -111,4 +120,66 @@ class ImageAnalyzerTest {
       ImageAnalyzer.analyze(null, null);
     });
   }
+
+  /**
+   * Tests that a batch gives a result for every image, and that an image that can not be read does not stop the others.
+   */
+  @Test
+  void analyzeAll_OneBrokenUrl_OtherAnalyzed() throws Exception {
+    List<AnalysisRequest> requests = Arrays.asList(
+        new AnalysisRequest("TestPicture", "file:src/Test/Assets/test_image.jpg"),
+        new AnalysisRequest("Missing", "file:src/Test/Assets/missing.jpg"));
+    AtomicInteger callbacks = new AtomicInteger();
+    List<AnalysisResult> results = ImageAnalyzer.analyzeAll(requests, result -> callbacks.incrementAndGet()).get(10, TimeUnit.SECONDS);
+    assertEquals(2, results.size());
+    assertEquals(2, callbacks.get());
+    assertTrue(results.get(0).isSuccess());
+    assertEquals(user.getId(), results.get(0).getPhoto().getUserId());
+    assertFalse(results.get(1).isSuccess());
+    assertTrue(results.get(1).getError() instanceof IOException);
+  }
+
+  /**
+   * Tests that the same url with two titles gives two results.
+   */
+  @Test
+  void analyzeAll_SameUrlTwice_BothAnalyzed() throws Exception {
+    List<AnalysisRequest> requests = Arrays.asList(
+        new AnalysisRequest("First", "file:src/Test/Assets/test_image.jpg"),
+        new AnalysisRequest("Second", "file:src/Test/Assets/test_image.jpg"));
+    List<AnalysisResult> results = ImageAnalyzer.analyzeAll(requests, null).get(10, TimeUnit.SECONDS);
+    assertEquals(2, results.size());
+    assertEquals("First", results.get(0).getPhoto().getTitle());
+    assertEquals("Second", results.get(1).getPhoto().getTitle());
+  }
+
+  /**
+   * Tests that an Error on a thread of the pool fails the batch instead of leaving it waiting.
+   */
+  @Test
+  void analyzeAll_ErrorInCallback_CompletedExceptionally() {
+    List<AnalysisRequest> requests = Collections.singletonList(new AnalysisRequest("TestPicture", "file:src/Test/Assets/test_image.jpg"));
+    ExecutionException e = assertThrows(ExecutionException.class, () -> ImageAnalyzer.analyzeAll(requests, result -> {
+      throw new AssertionError("Thrown by the test");
+    }).get(10, TimeUnit.SECONDS));
+    assertTrue(e.getCause() instanceof AssertionError);
+  }
+
+  /**
+   * Tests that a time in the EXIF format is parsed.
+   */
+  @Test
+  void parseTime_ValidExifTime_IsEqual() {
+    assertEquals(LocalDateTime.of(2019, 4, 2, 13, 37, 5), ImageAnalyzer.parseTime("2019:04:02 13:37:05"));
+  }
+
+  /**
+   * Tests that missing, placeholder and malformed times are not parsed.
+   */
+  @Test
+  void parseTime_InvalidExifTime_IsNull() {
+    assertNull(ImageAnalyzer.parseTime(null));
+    assertNull(ImageAnalyzer.parseTime("0000:00:00 00:00:00"));
+    assertNull(ImageAnalyzer.parseTime("2019-04-02 13:37:05"));
+  }
 }
@@ -0,0 +1,59 @@
+import Components.ImageHeader;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class for reading the dimensions and metadata of images from their headers
+ */
+class ImageHeaderTest {
+
+    private static final String TEST_IMAGE = "src/Test/Assets/test_image.jpg";
+
+    @Test
+    void read_JpegHeader_DimensionsAndExif() throws IOException {
+        try (InputStream in = new FileInputStream(TEST_IMAGE)) {
+            ImageHeader header = ImageHeader.read(in, 256 * 1024);
+            assertNotNull(header);
+            assertEquals(4000, header.getWidth());
+            assertEquals(3000, header.getHeight());
+            assertEquals("2019:10:18 10:18:19", header.getExifTags().get(0x0132));
+            assertEquals("Redmi Note 7", header.getExifTags().get(0x0110));
+            assertEquals("1/50", header.getExifTags().get(0x829A));
+            assertNotNull(header.getGpsCoordinate());
+            assertEquals(10.388, header.getGpsCoordinate()[0], 0.001);
+            assertEquals(63.429, header.getGpsCoordinate()[1], 0.001);
+        }
+    }
+
+    @Test
+    void read_FrameHeaderNotRead_Null() throws IOException {
+        try (InputStream in = new FileInputStream(TEST_IMAGE)) {
+            assertNull(ImageHeader.read(in, 5000));
+        }
+    }
+
+    @Test
+    void read_PngHeader_Dimensions() throws IOException {
+        byte[] png = {
+                (byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A,
+                0, 0, 0, 13, 'I', 'H', 'D', 'R', 0, 0, 0x01, 0x40, 0, 0, 0, (byte) 0xF0, 8, 6, 0, 0, 0, 0, 0, 0, 0,
+                0, 0, 0, 0, 'I', 'D', 'A', 'T', 0, 0, 0, 0
+        };
+        ImageHeader header = ImageHeader.read(new ByteArrayInputStream(png), 1024);
+        assertNotNull(header);
+        assertEquals(320, header.getWidth());
+        assertEquals(240, header.getHeight());
+        assertNull(header.getGpsCoordinate());
+    }
+
+    @Test
+    void read_UnknownFormat_Null() throws IOException {
+        assertNull(ImageHeader.read(new ByteArrayInputStream("GIF89a".getBytes()), 1024));
+    }
+}
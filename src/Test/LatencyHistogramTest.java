@@ -0,0 +1,46 @@
+import Database.LatencyHistogram;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class for the latency histogram of the database metrics
+ */
+class LatencyHistogramTest {
+
+    @Test
+    void getPercentileMillis_Empty_Zero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentileMillis(99));
+        assertEquals(0, histogram.getMeanMillis());
+    }
+
+    @Test
+    void getPercentileMillis_WithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(50.5, histogram.getMeanMillis(), 0.001);
+        assertEquals(100, histogram.getMaxMillis(), 0.001);
+        double median = histogram.getPercentileMillis(50);
+        assertTrue(median >= 50 && median <= 50 * 1.19, "median was " + median);
+        assertEquals(100, histogram.getPercentileMillis(100), 0.001);
+    }
+
+    @Test
+    void record_AboveLastBucket_CountedWithMax() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(TimeUnit.MINUTES.toNanos(5));
+        assertEquals(TimeUnit.MINUTES.toMillis(5), histogram.getPercentileMillis(99), 0.001);
+    }
+
+    @Test
+    void getPercentileMillis_OutOfRange_Throws() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertThrows(IllegalArgumentException.class, () -> histogram.getPercentileMillis(101));
+    }
+}
@@ -0,0 +1,92 @@
+import Database.PendingWrites;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class for the coalescing of queued changes
+ */
+class PendingWritesTest {
+
+    @Test
+    void addTags_ThenRemoved_OnlyRemoveKept() {
+        PendingWrites writes = new PendingWrites();
+        writes.addTags(1, Arrays.asList("sea", "sun"));
+        writes.removeTags(1, Collections.singletonList("sea"));
+        assertEquals(Map.of(1, Set.of("sun")), writes.getAddedTags());
+        assertEquals(Map.of(1, Set.of("sea")), writes.getRemovedTags());
+        assertEquals(2, writes.size());
+    }
+
+    @Test
+    void deletePhotos_DropsTagsAndMemberships() {
+        PendingWrites writes = new PendingWrites();
+        writes.addTags(1, Collections.singletonList("sea"));
+        writes.linkPhotos(7, Arrays.asList(1, 2));
+        writes.deletePhotos(Collections.singletonList(1));
+        writes.addTags(1, Collections.singletonList("sun"));
+        assertTrue(writes.getAddedTags().isEmpty());
+        assertEquals(Map.of(7, Set.of(2)), writes.getLinkedPhotos());
+        assertEquals(Set.of(1), writes.getDeletedPhotoIds());
+    }
+
+    @Test
+    void removeAlbums_DropsMemberships() {
+        PendingWrites writes = new PendingWrites();
+        writes.linkPhotos(7, Collections.singletonList(1));
+        writes.unlinkPhotos(8, Collections.singletonList(1));
+        writes.removeAlbums(Collections.singletonList(7));
+        writes.linkPhotos(7, Collections.singletonList(2));
+        assertTrue(writes.getLinkedPhotos().isEmpty());
+        assertEquals(Map.of(8, Set.of(1)), writes.getUnlinkedPhotos());
+        assertEquals(2, writes.size());
+    }
+
+    @Test
+    void addAll_LaterChangesWin() {
+        PendingWrites failed = new PendingWrites();
+        failed.linkPhotos(7, Collections.singletonList(1));
+        failed.addTags(2, Collections.singletonList("sea"));
+        PendingWrites later = new PendingWrites();
+        later.unlinkPhotos(7, Collections.singletonList(1));
+        later.deletePhotos(Collections.singletonList(2));
+        failed.addAll(later);
+        assertEquals(Map.of(7, Set.of(1)), failed.getUnlinkedPhotos());
+        assertTrue(failed.getLinkedPhotos().isEmpty());
+        assertTrue(failed.getAddedTags().isEmpty());
+        assertEquals(Set.of(2), failed.getDeletedPhotoIds());
+    }
+
+    @Test
+    void changesPhotos_TaggedOrLinkedPhoto_True() {
+        PendingWrites writes = new PendingWrites();
+        writes.addTags(1, Collections.singletonList("sea"));
+        writes.linkPhotos(7, Collections.singletonList(2));
+        assertTrue(writes.changesPhotos(Arrays.asList(1, 3)));
+        assertTrue(writes.changesPhotos(Collections.singletonList(2)));
+        assertFalse(writes.changesPhotos(Arrays.asList(3, 4)));
+    }
+
+    @Test
+    void changesAlbums_LinkedOrRemovedAlbum_True() {
+        PendingWrites writes = new PendingWrites();
+        writes.unlinkPhotos(7, Collections.singletonList(1));
+        writes.removeAlbums(Collections.singletonList(8));
+        assertTrue(writes.changesAlbums(Collections.singletonList(7)));
+        assertTrue(writes.changesAlbums(Collections.singletonList(8)));
+        assertFalse(writes.changesAlbums(Collections.singletonList(9)));
+        assertFalse(writes.changesTags());
+    }
+
+    @Test
+    void isEmpty_NoChanges_True() {
+        PendingWrites writes = new PendingWrites();
+        writes.addTags(1, Collections.emptyList());
+        assertTrue(writes.isEmpty());
+    }
+}
@@ -0,0 +1,42 @@
+import Database.PhotoDerivatives;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class for the scaled down copies of photos
+ */
+class PhotoDerivativesTest {
+
+    private static final String URL = "http://res.cloudinary.com/picturerama/image/upload/v1581234567/sample.jpg";
+
+    @Test
+    void getEagerTransformations_AllSizes() {
+        assertEquals("c_limit,h_64,w_64|c_limit,h_160,w_160|c_limit,h_320,w_320|c_limit,h_1024,w_1024",
+                PhotoDerivatives.getEagerTransformations());
+    }
+
+    @Test
+    void getSizes_SomeDerivativesMade_OnlyMadeSizes() {
+        assertEquals("64,320", PhotoDerivatives.getSizes(Arrays.asList("c_limit,h_320,w_320", "c_limit,h_64,w_64")));
+        assertNull(PhotoDerivatives.getSizes(Collections.emptyList()));
+    }
+
+    @Test
+    void getUrl_DerivativeFits_SmallestThatFits() {
+        assertEquals("http://res.cloudinary.com/picturerama/image/upload/c_limit,h_160,w_160/v1581234567/sample.jpg",
+                PhotoDerivatives.getUrl(URL, "64,160,320,1024", 150));
+        assertEquals("http://res.cloudinary.com/picturerama/image/upload/c_limit,h_64,w_64/v1581234567/sample.jpg",
+                PhotoDerivatives.getUrl(URL, "64,160,320,1024", 60));
+    }
+
+    @Test
+    void getUrl_NoDerivativeFits_Original() {
+        assertEquals(URL, PhotoDerivatives.getUrl(URL, null, 150));
+        assertEquals(URL, PhotoDerivatives.getUrl(URL, "64,160", 255));
+        assertEquals("https://example.com/image.jpg", PhotoDerivatives.getUrl("https://example.com/image.jpg", "64,160", 150));
+    }
+}
@@ -0,0 +1,65 @@
+import Database.ReplicaRouter;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class for the replica router, with strings standing in for the replicas.
+ */
+class ReplicaRouterTest {
+
+    private final AtomicLong clock = new AtomicLong();
+
+    @Test
+    void route_NoReplicas_Primary() {
+        ReplicaRouter<String> router = new ReplicaRouter<>(Collections.emptyList(), replica -> true, 1000, clock::get);
+        assertEquals(Optional.empty(), router.route());
+    }
+
+    @Test
+    void route_TwoReplicas_RoundRobin() {
+        ReplicaRouter<String> router = new ReplicaRouter<>(Arrays.asList("a", "b"), replica -> true, 1000, clock::get);
+        assertEquals(Optional.of("a"), router.route());
+        assertEquals(Optional.of("b"), router.route());
+        assertEquals(Optional.of("a"), router.route());
+    }
+
+    @Test
+    void route_ReplicaMarkedUnhealthy_Skipped() {
+        ReplicaRouter<String> router = new ReplicaRouter<>(Arrays.asList("a", "b"), replica -> true, 1000, clock::get);
+        router.markUnhealthy("a");
+        assertEquals(Optional.of("b"), router.route());
+        assertEquals(Optional.of("b"), router.route());
+        assertEquals(1, router.getHealthyCount());
+    }
+
+    /**
+     * Checks that a replica comes back when it passes the health check, and that reads go to the primary when no replica is healthy.
+     */
+    @Test
+    void checkHealth_ReplicaRecovers_RoutedAgain() {
+        boolean[] isUp = {false};
+        ReplicaRouter<String> router = new ReplicaRouter<>(Collections.singletonList("a"), replica -> isUp[0], 1000, clock::get);
+        router.checkHealth();
+        assertEquals(Optional.empty(), router.route());
+        isUp[0] = true;
+        router.checkHealth();
+        assertEquals(Optional.of("a"), router.route());
+    }
+
+    @Test
+    void route_AfterWrite_PrimaryUntilWindowHasPassed() {
+        ReplicaRouter<String> router = new ReplicaRouter<>(Collections.singletonList("a"), replica -> true, 1000, clock::get);
+        router.recordWrite();
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(999));
+        assertEquals(Optional.empty(), router.route());
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+        assertEquals(Optional.of("a"), router.route());
+    }
+}
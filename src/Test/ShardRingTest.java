@@ -0,0 +1,61 @@
+import Database.ShardRing;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class for the consistent hashing of user ids to shards.
+ */
+class ShardRingTest {
+
+    @Test
+    void getShard_OneShard_AlwaysZero() {
+        ShardRing ring = new ShardRing(1, 100);
+        for (int userId = 1; userId <= 100; userId++) {
+            assertEquals(0, ring.getShard(userId));
+        }
+    }
+
+    @Test
+    void getShard_SameUser_SameShard() {
+        ShardRing ring = new ShardRing(4, 100);
+        assertEquals(ring.getShard(42), new ShardRing(4, 100).getShard(42));
+    }
+
+    /**
+     * Checks that every shard gets a fair share of the users.
+     */
+    @Test
+    void getShard_ManyUsers_SpreadOverAllShards() {
+        ShardRing ring = new ShardRing(4, 100);
+        int[] counts = new int[4];
+        for (int userId = 1; userId <= 10000; userId++) {
+            counts[ring.getShard(userId)]++;
+        }
+        for (int count : counts) {
+            assertTrue(count > 1500, "A shard only got " + count + " of 10000 users");
+        }
+    }
+
+    /**
+     * Checks that adding a shard only moves users to the new shard, and only about a fifth of them.
+     */
+    @Test
+    void getShard_ShardAdded_FewUsersMove() {
+        ShardRing before = new ShardRing(4, 100);
+        ShardRing after = new ShardRing(5, 100);
+        int moved = 0;
+        for (int userId = 1; userId <= 10000; userId++) {
+            if (before.getShard(userId) != after.getShard(userId)) {
+                assertEquals(4, after.getShard(userId));
+                moved++;
+            }
+        }
+        assertTrue(moved < 3000, moved + " of 10000 users moved");
+    }
+
+    @Test
+    void constructor_NoShards_IllegalArgumentException() {
+        assertThrows(IllegalArgumentException.class, () -> new ShardRing(0, 100));
+    }
+}
@@ -0,0 +1,39 @@
+import Database.HibernateClasses.Photo;
+import Database.HibernateClasses.Tag;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class for tag.
+ */
+class TagTest {
+
+    /**
+     * Checks that tag names are trimmed and case folded.
+     */
+    @Test
+    void getName_MixedCaseWithSpaces_IsFolded() {
+        assertEquals("beach", new Tag("  BeAcH ").getName());
+    }
+
+    @Test
+    void equals_SameNameDifferentCase_IsEqual() {
+        assertEquals(new Tag("Beach"), new Tag("beach"));
+        assertEquals(new Tag("Beach").hashCode(), new Tag("beach").hashCode());
+    }
+
+    @Test
+    void equals_DifferentName_NotEqual() {
+        assertNotEquals(new Tag("beach"), new Tag("mountain"));
+    }
+
+    /**
+     * Checks that a photo can not get the same tag twice.
+     */
+    @Test
+    void getTags_AddSameTagTwice_False() {
+        Photo photo = new Photo();
+        assertTrue(photo.getTags().add(new Tag("sun")));
+        assertFalse(photo.getTags().add(new Tag("SUN")));
+    }
+}
@@ -1,33 +1,38 @@
 package Components;
 
 import Css.Css;
-import Database.HibernateClasses.Album;
+import Database.AlbumSummary;
 import javafx.geometry.Pos;
 import javafx.scene.control.Button;
 import javafx.scene.control.CheckBox;
+import javafx.scene.control.Label;
 import javafx.scene.layout.HBox;
 
+import java.time.format.DateTimeFormatter;
+
 /**
  * Class that is used to display albums in the album root
  */
 public class AlbumContainer {
 
-	private final Album ALBUM;
+	private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd.MM.yyyy");
+	private final AlbumSummary ALBUM;
 	private CheckBox checkBox;
+	private Label infoLabel;
 	private Button albumButton;
 	private HBox albumContainerHBox;
 
 	/**
-	 * Constructor that takes a album object and initializes the album container
+	 * Constructor that takes a album summary and initializes the album container
 	 *
-	 * @param album a album object
+	 * @param album a album summary
 	 */
-	public AlbumContainer(Album album) {
+	public AlbumContainer(AlbumSummary album) {
 		this.ALBUM = album;
 		setupAlbumContainer(album);
 	}
 
-	public Album getALBUM() {
+	public AlbumSummary getALBUM() {
 		return ALBUM;
 	}
 
@@ -48,19 +53,35 @@ public class AlbumContainer {
 	}
 
 	/**
-	 * Makes a album container that is a button that contains an album title and a checkbox
+	 * Makes a album container that is a button that contains an album title, the number of photos in the album and a checkbox
 	 *
-	 * @param album a album object
+	 * @param album a album summary
 	 */
-	private void setupAlbumContainer(Album album) {
+	private void setupAlbumContainer(AlbumSummary album) {
 		albumButton = new Button(album.getName());
+		infoLabel = new Label(getInfoText(album));
 		checkBox = new CheckBox();
 		checkBox.getStyleClass().add("check-box");
-		albumContainerHBox = new HBox(albumButton, checkBox);
+		albumContainerHBox = new HBox(albumButton, infoLabel, checkBox);
 		albumContainerHBox.getStylesheets().add("file:src/main/App/Css/CheckBoxStyle.css");
 		albumContainerHBox.setSpacing(10);
 		albumContainerHBox.setAlignment(Pos.CENTER_LEFT);
 		Css.setContainer(albumButton, albumContainerHBox, 80, 160);
 		albumButton.setStyle("-fx-font-size: 28");
 	}
+
+	/**
+	 * Makes the text with the number of photos in the album and when the newest of them was taken
+	 * Used in setupAlbumContainer
+	 *
+	 * @param album a album summary
+	 * @return the text
+	 */
+	private static String getInfoText(AlbumSummary album) {
+		String count = album.getPhotoCount() == 1 ? "1 photo" : album.getPhotoCount() + " photos";
+		if (album.getNewestTakenAt() == null) {
+			return count;
+		}
+		return count + "\nNewest: " + DATE_FORMAT.format(album.getNewestTakenAt());
+	}
 }
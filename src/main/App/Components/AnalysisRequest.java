@@ -0,0 +1,31 @@
+package Components;
+
+/**
+ * Class for one image of a batch that is analyzed, its title and url
+ * The same url can be in a batch more than once, with different titles
+ * Used by ImageAnalyzer.analyzeAll
+ */
+public final class AnalysisRequest {
+
+	private final String TITLE;
+	private final String URL;
+
+	/**
+	 * Constructor for an image to analyze
+	 *
+	 * @param title the title of the image
+	 * @param url   the url of the image
+	 */
+	public AnalysisRequest(String title, String url) {
+		this.TITLE = title;
+		this.URL = url;
+	}
+
+	public String getTitle() {
+		return TITLE;
+	}
+
+	public String getUrl() {
+		return URL;
+	}
+}
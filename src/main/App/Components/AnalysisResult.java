@@ -0,0 +1,55 @@
+package Components;
+
+import Database.HibernateClasses.Photo;
+
+/**
+ * Class for the result of analyzing one image of a batch, either the analyzed photo or why it could not be analyzed
+ * Used by ImageAnalyzer.analyzeAll
+ */
+public final class AnalysisResult {
+
+	private final String TITLE;
+	private final String URL;
+	private final Photo PHOTO;
+	private final Exception ERROR;
+
+	/**
+	 * Constructor for the result of one image
+	 *
+	 * @param title the title of the image
+	 * @param url   the url of the image
+	 * @param photo the analyzed photo, null if it could not be analyzed
+	 * @param error why the image could not be analyzed, null if it was analyzed
+	 */
+	AnalysisResult(String title, String url, Photo photo, Exception error) {
+		this.TITLE = title;
+		this.URL = url;
+		this.PHOTO = photo;
+		this.ERROR = error;
+	}
+
+	public String getTitle() {
+		return TITLE;
+	}
+
+	public String getUrl() {
+		return URL;
+	}
+
+	public Photo getPhoto() {
+		return PHOTO;
+	}
+
+	public Exception getError() {
+		return ERROR;
+	}
+
+	/**
+	 * Checks if the image was analyzed
+	 *
+	 * @return if there is a photo
+	 */
+	public boolean isSuccess() {
+		return PHOTO != null;
+	}
+}
@@ -1,10 +1,16 @@
 package Components;
 
 import Database.Hibernate;
+import Database.LibraryWatcher;
+import Database.LocalLibrary;
+import Database.WriteBehind;
+import Database.HibernateClasses.User;
 import Main.ApplicationManager;
 import Roots.LoginRoot;
 
 import javax.persistence.PersistenceException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.logging.Level;
 
 /**
@@ -49,27 +55,28 @@ public final class Authentication {
 
 	/**
 	 * LogIn method is used when the user is trying to log in
-	 * will compare password from db to the entered password
+	 * The user is fetched once by username, from the credentials cache or the database, and the password is verified in memory.
+	 * The time used to look up the user and to verify the password is logged
 	 *
 	 * @param username of user
 	 * @param password of user
 	 * @return if login was successful
 	 */
 	public static boolean logIn(String username, String password) {
+		long start = System.nanoTime();
 		try {
-			// Getting salt from db using username
-			String salt = Hibernate.getSalt(username);
-			// Generating hash using salt
-			String encrypter = Encrypter.encrypt(password, salt);
-			String hash = Encrypter.getHash(encrypter);
-
-			// Try to login
-			if (Hibernate.login(username, hash)) {
-				UserInfo.initializeUser(Hibernate.getUser(username));
-				return true;
-			} else {
-				return false;
+			User user = Hibernate.getUser(username);
+			long lookedUp = System.nanoTime();
+			boolean isValid = isPassword(user, password);
+			logLoginLatency(start, lookedUp, System.nanoTime());
+			if (isValid) {
+				Hibernate.useShardOf(user.getId());
+				UserInfo.initializeUser(user);
+				WriteBehind.start(user.getId());
+				LocalLibrary.open(user.getId());
+				LibraryWatcher.start(user.getId());
 			}
+			return isValid;
 		} catch (ExceptionInInitializerError | NoClassDefFoundError e) {
 			FileLogger.getLogger().log(Level.FINE, e.getMessage());
 			FileLogger.closeHandler();
@@ -83,31 +90,49 @@ public final class Authentication {
 
 	/**
 	 * Checks if a user with a username and password is the current user logged in
+	 * The credentials of the current user are already loaded, so the database is not used
 	 *
 	 * @param username of user
 	 * @param password of user
 	 * @return if this user is the current user
 	 */
 	public static boolean isCurrentUser(String username, String password) {
-		try {
-			// Getting salt from db using username
-			String salt = Hibernate.getSalt(username);
-			// Generating hash using salt
-			String encrypter = Encrypter.encrypt(password, salt);
-			String hash = Encrypter.getHash(encrypter);
+		User currentUser = UserInfo.getUser();
+		return currentUser != null && currentUser.getUsername().equals(username) && isPassword(currentUser, password);
+	}
 
-			// Checks if the current user's hash is equal to the hash from the password entered
-			return UserInfo.getUser().getHash().equals(hash);
-		} catch (ExceptionInInitializerError | NoClassDefFoundError | PersistenceException e) {
-			FileLogger.getLogger().log(Level.FINE, e.getMessage());
-			FileLogger.closeHandler();
-			throw e;
-		}
+	/**
+	 * Checks if a password is the password of a user, by hashing it with the salt of the user
+	 * The hashes are compared in constant time
+	 * Used in logIn and isCurrentUser
+	 *
+	 * @param user     the user with its hash and salt
+	 * @param password the password entered
+	 * @return if the password is correct
+	 */
+	private static boolean isPassword(User user, String password) {
+		String encrypter = Encrypter.encrypt(password, user.getSalt());
+		String hash = encrypter == null ? null : Encrypter.getHash(encrypter);
+		return hash != null && MessageDigest.isEqual(hash.getBytes(StandardCharsets.UTF_8), user.getHash().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Logs how long the phases of a login took
+	 * Used in logIn
+	 *
+	 * @param start    when the login started, from System.nanoTime
+	 * @param lookedUp when the user was looked up
+	 * @param verified when the password was verified
+	 */
+	private static void logLoginLatency(long start, long lookedUp, long verified) {
+		FileLogger.getLogger().log(Level.INFO, String.format("Login: user lookup %.1f ms, password verification %.1f ms, total %.1f ms",
+				(lookedUp - start) / 1e6, (verified - lookedUp) / 1e6, (verified - start) / 1e6));
+		FileLogger.closeHandler();
 	}
 
 	/**
 	 * Deletes the current logged in user
-	 * will compare password from db to the entered password
+	 * will compare the entered password to the password of the current user
 	 *
 	 * @param username     of user
 	 * @param password     of user
@@ -117,12 +142,11 @@ public final class Authentication {
 	public static boolean deleteUser(String username, String password, boolean confirmation) {
 		try {
 			// Checks if this is the current user and the user has given consent
-			if (isCurrentUser(username, password) && confirmation) {
-				Hibernate.deleteUser(username);
+			if (isCurrentUser(username, password) && confirmation && Hibernate.deleteUser(username)) {
+				LocalLibrary.delete();
 				return true;
-			} else {
-				return false;
 			}
+			return false;
 		} catch (ExceptionInInitializerError | NoClassDefFoundError | PersistenceException e) {
 			FileLogger.getLogger().log(Level.FINE, e.getMessage());
 			FileLogger.closeHandler();
@@ -136,8 +160,11 @@ public final class Authentication {
 	 * @return loginRoot the root the user is sent to
 	 */
 	public static LoginRoot logout() {
+		// The queued changes are written before the local library of the user stops serving
+		WriteBehind.stop();
+		LibraryWatcher.stop();
+		LocalLibrary.close();
 		UserInfo.logOut();
-		Hibernate.getEm().clear();
 		LoginRoot loginRoot = new LoginRoot();
 		ApplicationManager.setRoot(loginRoot);
 		// Returning loginRoot allows adding a message when logging out the user
@@ -0,0 +1,148 @@
+package Components;
+
+import javafx.scene.image.Image;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Class for a cache of decoded photos in memory, keyed by the id of the photo and the size it is shown with,
+ * so a photo that was shown a moment ago in another view is not read and decoded again.
+ * Every photo is charged four bytes per pixel against a budget, and the least recently used photos are removed
+ * when the budget is used up. A photo whose url has changed since it was cached is not served
+ * Used by ImageLoader
+ */
+public final class DecodedImageCache implements ImageCacheMXBean {
+
+	private static final int BYTES_PER_PIXEL = 4;
+
+	private final long BUDGET_BYTES;
+	// Photos by photo id in the high and size in the low half of the key, from least to most recently used
+	private final LinkedHashMap<Long, Entry> IMAGES = new LinkedHashMap<>(16, 0.75f, true);
+	private long residentBytes;
+	private long hitCount;
+	private long missCount;
+	private long evictionCount;
+
+	/**
+	 * Constructor for an empty cache
+	 *
+	 * @param budgetBytes the largest number of bytes the decoded photos can use
+	 */
+	public DecodedImageCache(long budgetBytes) {
+		this.BUDGET_BYTES = budgetBytes;
+	}
+
+	/**
+	 * Gets a decoded photo, and marks it as the most recently used
+	 *
+	 * @param photoId the id of the photo
+	 * @param size    the size the photo is shown with
+	 * @param url     the url the photo is loaded from
+	 * @return the photo, null if it is not in the cache or was cached from another url
+	 */
+	public synchronized Image get(int photoId, int size, String url) {
+		Entry entry = IMAGES.get(getKey(photoId, size));
+		if (entry == null || !entry.URL.equals(url)) {
+			missCount++;
+			return null;
+		}
+		hitCount++;
+		return entry.IMAGE;
+	}
+
+	/**
+	 * Puts a decoded photo in the cache as the most recently used, and removes the least recently used photos
+	 * until the cache is within its budget. A photo that is larger than the budget is not kept
+	 *
+	 * @param photoId the id of the photo
+	 * @param size    the size the photo is shown with
+	 * @param url     the url the photo was loaded from
+	 * @param image   the decoded photo
+	 */
+	public synchronized void put(int photoId, int size, String url, Image image) {
+		long bytes = getBytes(image);
+		if (bytes > BUDGET_BYTES) {
+			return;
+		}
+		Entry previous = IMAGES.put(getKey(photoId, size), new Entry(url, image, bytes));
+		residentBytes += bytes - (previous == null ? 0 : previous.BYTES);
+		Iterator<Entry> entries = IMAGES.values().iterator();
+		while (residentBytes > BUDGET_BYTES && entries.hasNext()) {
+			residentBytes -= entries.next().BYTES;
+			entries.remove();
+			evictionCount++;
+		}
+	}
+
+	@Override
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	@Override
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	@Override
+	public synchronized double getHitRate() {
+		long lookups = hitCount + missCount;
+		return lookups == 0 ? 0 : (double) hitCount / lookups;
+	}
+
+	@Override
+	public synchronized long getResidentBytes() {
+		return residentBytes;
+	}
+
+	@Override
+	public long getBudgetBytes() {
+		return BUDGET_BYTES;
+	}
+
+	@Override
+	public synchronized int getImageCount() {
+		return IMAGES.size();
+	}
+
+	@Override
+	public synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+	@Override
+	public synchronized String getSummary() {
+		return String.format("Decoded image cache: %d images, %.1f of %.1f MB, %d hits, %d misses, hit rate %.1f %%, %d evictions",
+				IMAGES.size(), residentBytes / 1048576.0, BUDGET_BYTES / 1048576.0, hitCount, missCount, 100 * getHitRate(), evictionCount);
+	}
+
+	/**
+	 * Gets the number of bytes a decoded photo is charged, four bytes per pixel
+	 *
+	 * @param image the decoded photo
+	 * @return the number of bytes
+	 */
+	static long getBytes(Image image) {
+		return (long) image.getWidth() * (long) image.getHeight() * BYTES_PER_PIXEL;
+	}
+
+	private static long getKey(int photoId, int size) {
+		return ((long) photoId << 32) | (size & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * A decoded photo with the url it was loaded from and the bytes it is charged
+	 */
+	private static final class Entry {
+		private final String URL;
+		private final Image IMAGE;
+		private final long BYTES;
+
+		private Entry(String url, Image image, long bytes) {
+			this.URL = url;
+			this.IMAGE = image;
+			this.BYTES = bytes;
+		}
+	}
+}
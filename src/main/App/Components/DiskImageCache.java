@@ -0,0 +1,326 @@
+package Components;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+
+/**
+ * Class for a cache of downloaded images in a directory, keyed by the url and the size the image is shown with.
+ * The cache holds at most a given number of bytes, and removes the least recently used images when it is full.
+ * Images are written to a temporary file that is moved in place, so a crash never leaves half an image in the cache.
+ * Which images there are, and in which order they were used, is kept in a small index file that is read at startup,
+ * so the images themselves are not looked at before they are needed
+ * Used by ImageLoader
+ */
+public final class DiskImageCache {
+
+	private static final int INDEX_MAGIC = 0x50494331;
+	private static final String INDEX_FILE = "index.bin";
+	private static final String IMAGE_SUFFIX = ".img";
+	private static final String TEMPORARY_SUFFIX = ".tmp";
+
+	private final Path DIRECTORY;
+	private final long MAX_BYTES;
+	// Image lengths by file name, from least to most recently used
+	private final LinkedHashMap<String, Integer> ENTRIES = new LinkedHashMap<>(16, 0.75f, true);
+	private long totalBytes;
+	private boolean isIndexChanged;
+
+	/**
+	 * Constructor that opens a cache directory, and reads its index
+	 * Images that are in the directory but not in the index, because the program stopped before the index was written,
+	 * are added as the least recently used. If the index can not be read, it is made from the images in the directory
+	 *
+	 * @param directory the directory of the cache, which is made if it is missing
+	 * @param maxBytes  the largest number of bytes the images can use
+	 */
+	public DiskImageCache(File directory, long maxBytes) {
+		this.DIRECTORY = directory.toPath();
+		this.MAX_BYTES = maxBytes;
+		try {
+			Files.createDirectories(DIRECTORY);
+			LinkedHashMap<String, Integer> indexed = readIndex();
+			addUnindexedImages(indexed);
+			ENTRIES.putAll(indexed);
+			totalBytes = ENTRIES.values().stream().mapToLong(Integer::longValue).sum();
+			evict();
+		} catch (IOException e) {
+			FileLogger.getLogger().log(Level.FINE, e.getMessage());
+			FileLogger.closeHandler();
+		}
+	}
+
+	/**
+	 * Gets an image from the cache, and marks it as the most recently used
+	 *
+	 * @param url  the url of the image
+	 * @param size the size the image is shown with
+	 * @return the bytes of the image, null if it is not in the cache
+	 */
+	public byte[] get(String url, int size) {
+		String name = getFileName(url, size);
+		synchronized (this) {
+			if (ENTRIES.get(name) == null) {
+				return null;
+			}
+			isIndexChanged = true;
+		}
+		try {
+			return Files.readAllBytes(DIRECTORY.resolve(name));
+		} catch (NoSuchFileException e) {
+			// The image was removed from the directory, or evicted after it was looked up
+			remove(name);
+			return null;
+		} catch (IOException e) {
+			FileLogger.getLogger().log(Level.FINE, e.getMessage());
+			FileLogger.closeHandler();
+			return null;
+		}
+	}
+
+	/**
+	 * Puts an image in the cache as the most recently used, and removes the least recently used images if the cache is full
+	 * An image that is larger than the cache is not kept
+	 *
+	 * @param url   the url of the image
+	 * @param size  the size the image is shown with
+	 * @param image the bytes of the image
+	 */
+	public void put(String url, int size, byte[] image) {
+		if (image.length > MAX_BYTES) {
+			return;
+		}
+		String name = getFileName(url, size);
+		try {
+			writeAtomically(DIRECTORY.resolve(name), out -> out.write(image));
+		} catch (IOException e) {
+			FileLogger.getLogger().log(Level.FINE, e.getMessage());
+			FileLogger.closeHandler();
+			return;
+		}
+		synchronized (this) {
+			Integer previous = ENTRIES.put(name, image.length);
+			totalBytes += image.length - (previous == null ? 0 : previous);
+			isIndexChanged = true;
+			evict();
+		}
+	}
+
+	/**
+	 * Gets the number of bytes the images in the cache use
+	 *
+	 * @return the number of bytes
+	 */
+	public synchronized long getTotalBytes() {
+		return totalBytes;
+	}
+
+	/**
+	 * Gets the number of images in the cache
+	 *
+	 * @return the number of images
+	 */
+	public synchronized int getCount() {
+		return ENTRIES.size();
+	}
+
+	/**
+	 * Writes the index, if images were added or used since it was last written
+	 * The index holds the name and length of every image, from least to most recently used
+	 */
+	public void saveIndex() {
+		Map<String, Integer> entries;
+		synchronized (this) {
+			if (!isIndexChanged) {
+				return;
+			}
+			entries = new LinkedHashMap<>(ENTRIES);
+			isIndexChanged = false;
+		}
+		try {
+			writeAtomically(DIRECTORY.resolve(INDEX_FILE), out -> {
+				DataOutputStream data = new DataOutputStream(out);
+				data.writeInt(INDEX_MAGIC);
+				data.writeInt(entries.size());
+				for (Map.Entry<String, Integer> entry : entries.entrySet()) {
+					data.write(fromHex(entry.getKey().substring(0, entry.getKey().length() - IMAGE_SUFFIX.length())));
+					data.writeInt(entry.getValue());
+				}
+				data.flush();
+			});
+		} catch (IOException e) {
+			FileLogger.getLogger().log(Level.FINE, e.getMessage());
+			FileLogger.closeHandler();
+		}
+	}
+
+	/**
+	 * Removes the least recently used images until the images fit in the cache
+	 * Used in the constructor and in put
+	 */
+	private synchronized void evict() {
+		Iterator<Map.Entry<String, Integer>> entries = ENTRIES.entrySet().iterator();
+		while (totalBytes > MAX_BYTES && entries.hasNext()) {
+			Map.Entry<String, Integer> eldest = entries.next();
+			totalBytes -= eldest.getValue();
+			entries.remove();
+			isIndexChanged = true;
+			try {
+				Files.deleteIfExists(DIRECTORY.resolve(eldest.getKey()));
+			} catch (IOException e) {
+				FileLogger.getLogger().log(Level.FINE, e.getMessage());
+				FileLogger.closeHandler();
+			}
+		}
+	}
+
+	/**
+	 * Removes an image that is no longer in the directory from the index
+	 *
+	 * @param name the file name of the image
+	 */
+	private synchronized void remove(String name) {
+		Integer length = ENTRIES.remove(name);
+		if (length != null) {
+			totalBytes -= length;
+			isIndexChanged = true;
+		}
+	}
+
+	/**
+	 * Reads the index. Images in the index that were removed from the directory are left out when get does not find them
+	 * Used in the constructor
+	 *
+	 * @return the image lengths by file name, from least to most recently used, empty if there is no index that can be read
+	 */
+	private LinkedHashMap<String, Integer> readIndex() {
+		LinkedHashMap<String, Integer> entries = new LinkedHashMap<>();
+		Path index = DIRECTORY.resolve(INDEX_FILE);
+		if (!Files.exists(index)) {
+			return entries;
+		}
+		try (DataInputStream data = new DataInputStream(new BufferedInputStream(Files.newInputStream(index)))) {
+			if (data.readInt() != INDEX_MAGIC) {
+				return entries;
+			}
+			int count = data.readInt();
+			byte[] hash = new byte[20];
+			for (int i = 0; i < count; i++) {
+				data.readFully(hash);
+				entries.put(toHex(hash) + IMAGE_SUFFIX, data.readInt());
+			}
+		} catch (IOException e) {
+			FileLogger.getLogger().log(Level.FINE, e.getMessage());
+			FileLogger.closeHandler();
+			entries.clear();
+		}
+		return entries;
+	}
+
+	/**
+	 * Adds the images in the directory that are not in the index as the least recently used, oldest first,
+	 * and deletes temporary files left by writes that did not finish
+	 * Used in the constructor
+	 *
+	 * @param indexed the image lengths by file name that were read from the index
+	 * @throws IOException if the directory could not be listed
+	 */
+	private void addUnindexedImages(LinkedHashMap<String, Integer> indexed) throws IOException {
+		LinkedHashMap<String, Integer> unindexed = new LinkedHashMap<>();
+		File[] files = DIRECTORY.toFile().listFiles();
+		if (files == null) {
+			return;
+		}
+		Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+		for (File file : files) {
+			String name = file.getName();
+			if (name.endsWith(TEMPORARY_SUFFIX)) {
+				Files.deleteIfExists(file.toPath());
+			} else if (name.endsWith(IMAGE_SUFFIX) && !indexed.containsKey(name)) {
+				unindexed.put(name, (int) file.length());
+			}
+		}
+		if (!unindexed.isEmpty()) {
+			unindexed.putAll(indexed);
+			indexed.clear();
+			indexed.putAll(unindexed);
+			isIndexChanged = true;
+		}
+	}
+
+	/**
+	 * Writes a file by writing a temporary file in the same directory and moving it in place,
+	 * so readers see either the old or the whole new file
+	 *
+	 * @param file   the file
+	 * @param writer what writes the content of the file
+	 * @throws IOException if the file could not be written
+	 */
+	private static void writeAtomically(Path file, ContentWriter writer) throws IOException {
+		Path temporary = Files.createTempFile(file.getParent(), file.getFileName().toString(), TEMPORARY_SUFFIX);
+		try {
+			try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temporary))) {
+				writer.write(out);
+			}
+			Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+	}
+
+	/**
+	 * Gets the file name of an image, the SHA-1 hash of the url and size in hex
+	 *
+	 * @param url  the url of the image
+	 * @param size the size the image is shown with
+	 * @return the file name
+	 */
+	private static String getFileName(String url, int size) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			return toHex(digest.digest((url + "@" + size).getBytes(StandardCharsets.UTF_8))) + IMAGE_SUFFIX;
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+
+	private static byte[] fromHex(String hex) {
+		byte[] bytes = new byte[hex.length() / 2];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Writes the content of a file
+	 */
+	private interface ContentWriter {
+		void write(OutputStream out) throws IOException;
+	}
+}
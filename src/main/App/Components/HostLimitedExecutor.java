@@ -0,0 +1,130 @@
+package Components;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * Class that runs tasks on a bounded pool of threads, with at most a few tasks against the same host at a time
+ * Tasks wait in a queue per host, and the hosts take turns, so a batch of images on one slow server does not hold up
+ * the images on other servers, and no server gets more connections than it allows
+ * Used by ImageAnalyzer
+ */
+public final class HostLimitedExecutor {
+
+	private final int THREADS;
+	private final int MAX_PER_HOST;
+	private final ExecutorService EXECUTOR;
+	// Tasks that wait for a thread, by host in the order the hosts take turns
+	private final Map<String, ArrayDeque<Runnable>> WAITING = new LinkedHashMap<>();
+	private final Map<String, Integer> RUNNING_BY_HOST = new HashMap<>();
+	private int running;
+
+	/**
+	 * Constructor for an executor with daemon threads
+	 *
+	 * @param name       the name of the threads, which are numbered
+	 * @param threads    the largest number of tasks that run at a time
+	 * @param maxPerHost the largest number of tasks against one host that run at a time
+	 */
+	public HostLimitedExecutor(String name, int threads, int maxPerHost) {
+		if (threads < 1 || maxPerHost < 1) {
+			throw new IllegalArgumentException("There must be at least one thread, and one task per host");
+		}
+		this.THREADS = threads;
+		this.MAX_PER_HOST = maxPerHost;
+		AtomicInteger threadCount = new AtomicInteger();
+		this.EXECUTOR = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, name + "-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Runs a task against a host when a thread is free and the host has fewer than maxPerHost running tasks
+	 * A task that throws is logged, and does not affect the other tasks
+	 *
+	 * @param host the host the task connects to, an empty string for local files
+	 * @param task the task
+	 */
+	public synchronized void execute(String host, Runnable task) {
+		WAITING.computeIfAbsent(host, waitingHost -> new ArrayDeque<>()).add(task);
+		dispatch();
+	}
+
+	/**
+	 * Gets the number of tasks that wait for a thread
+	 *
+	 * @return the number of waiting tasks
+	 */
+	public synchronized int getWaitingCount() {
+		return WAITING.values().stream().mapToInt(ArrayDeque::size).sum();
+	}
+
+	/**
+	 * Starts waiting tasks while there are free threads, one task per host in turn, skipping hosts that are at their limit
+	 * Used when a task is added and when a task is finished
+	 */
+	private synchronized void dispatch() {
+		boolean isStarted = true;
+		while (running < THREADS && isStarted) {
+			isStarted = false;
+			// A host that got a thread goes to the back, so the next free thread goes to the host after it
+			Map<String, ArrayDeque<Runnable>> served = new LinkedHashMap<>();
+			Iterator<Map.Entry<String, ArrayDeque<Runnable>>> hosts = WAITING.entrySet().iterator();
+			while (running < THREADS && hosts.hasNext()) {
+				Map.Entry<String, ArrayDeque<Runnable>> waiting = hosts.next();
+				String host = waiting.getKey();
+				if (RUNNING_BY_HOST.getOrDefault(host, 0) >= MAX_PER_HOST) {
+					continue;
+				}
+				start(host, waiting.getValue().poll());
+				hosts.remove();
+				if (!waiting.getValue().isEmpty()) {
+					served.put(host, waiting.getValue());
+				}
+				isStarted = true;
+			}
+			WAITING.putAll(served);
+		}
+	}
+
+	/**
+	 * Starts a task on a thread of the pool
+	 *
+	 * @param host the host of the task
+	 * @param task the task
+	 */
+	private void start(String host, Runnable task) {
+		running++;
+		RUNNING_BY_HOST.merge(host, 1, Integer::sum);
+		EXECUTOR.execute(() -> {
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				FileLogger.getLogger().log(Level.FINE, e.getMessage());
+				FileLogger.closeHandler();
+			} finally {
+				finish(host);
+			}
+		});
+	}
+
+	/**
+	 * Frees the thread and the place of the host of a finished task, and starts the tasks that were waiting for them
+	 *
+	 * @param host the host of the task
+	 */
+	private synchronized void finish(String host) {
+		running--;
+		RUNNING_BY_HOST.computeIfPresent(host, (runningHost, count) -> count == 1 ? null : count - 1);
+		dispatch();
+	}
+}
@@ -4,14 +4,33 @@ import Database.HibernateClasses.Photo;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
 
 /**
  * Class that is used to analyze a image and extract all its metadata
  */
 public final class ImageAnalyzer {
 
+	// The headers with the dimensions and the EXIF tags are in the first bytes of nearly every image
+	private static final int HEADER_BYTES = 256 * 1024;
+	private static final HostLimitedExecutor ANALYZERS = new HostLimitedExecutor("image-analyzer", 8, 4);
+	private static final DateTimeFormatter EXIF_TIME_FORMAT = DateTimeFormatter.ofPattern("uuuu:MM:dd HH:mm:ss")
+			.withResolverStyle(ResolverStyle.STRICT);
+
 	/**
 	 * Private constructor to hinder creation of utility class
 	 */
@@ -21,6 +40,8 @@ public final class ImageAnalyzer {
 
 	/**
 	 * Analyze an image located at given url
+	 * Only the first bytes of the image are read, with a range request if the image is on a web server, and the dimensions
+	 * and metadata are parsed from the header. The whole image is only downloaded and decoded if they are not in those bytes
 	 *
 	 * @param title Is the title of the image that is getting analyzed
 	 * @param url   Is the url to where the image is saved
@@ -29,29 +50,191 @@ public final class ImageAnalyzer {
 	 * @throws NullPointerException Is thrown when if something is set ass null in the metadata, that cant be null
 	 */
 	public static Photo analyze(String title, String url) throws IOException {
+		return analyze(title, url, UserInfo.getUser().getId());
+	}
+
+	/**
+	 * Analyzes many images at a time, on a bounded pool of threads with at most a few images from the same host at a time
+	 * The user is read once here, so the threads do not read UserInfo, which can change when the user logs out.
+	 * An image that can not be analyzed gives a failed result, and does not stop the others.
+	 * An Error on a thread of the pool completes the future exceptionally, so the caller does not wait forever
+	 *
+	 * @param requests the titles and urls of the images, the results are in the same order
+	 * @param onResult called on a thread of the pool with every result as soon as it is ready, can be null
+	 * @return a future that is completed with all the results when every image has been analyzed
+	 */
+	public static CompletableFuture<List<AnalysisResult>> analyzeAll(List<AnalysisRequest> requests, Consumer<AnalysisResult> onResult) {
+		int userId = UserInfo.getUser().getId();
+		List<CompletableFuture<AnalysisResult>> results = new ArrayList<>();
+		for (AnalysisRequest request : requests) {
+			CompletableFuture<AnalysisResult> result = new CompletableFuture<>();
+			results.add(result);
+			ANALYZERS.execute(getHost(request.getUrl()), () -> {
+				try {
+					AnalysisResult analysis = analyzeOne(request.getTitle(), request.getUrl(), userId);
+					if (onResult != null) {
+						try {
+							onResult.accept(analysis);
+						} catch (RuntimeException e) {
+							FileLogger.getLogger().log(Level.FINE, e.getMessage());
+							FileLogger.closeHandler();
+						}
+					}
+					result.complete(analysis);
+				} catch (Error e) {
+					result.completeExceptionally(e);
+					throw e;
+				}
+			});
+		}
+		return CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0]))
+				.thenApply(done -> results.stream().map(CompletableFuture::join).collect(Collectors.toList()));
+	}
+
+	/**
+	 * Analyzes one image of a batch
+	 * Used in analyzeAll
+	 *
+	 * @param title  the title of the image
+	 * @param url    the url of the image
+	 * @param userId the id of the user the photo belongs to
+	 * @return the result, with the photo or why it could not be analyzed
+	 */
+	private static AnalysisResult analyzeOne(String title, String url, int userId) {
+		try {
+			return new AnalysisResult(title, url, analyze(title, url, userId), null);
+		} catch (IOException | RuntimeException e) {
+			FileLogger.getLogger().log(Level.FINE, e.getMessage());
+			FileLogger.closeHandler();
+			return new AnalysisResult(title, url, null, e);
+		}
+	}
+
+	/**
+	 * Gets the host of an image, which limits how many of its images are analyzed at a time
+	 *
+	 * @param url the url of the image
+	 * @return the host, an empty string for local files and urls that are not valid
+	 */
+	private static String getHost(String url) {
+		try {
+			String host = new URL(url).getHost();
+			return host == null ? "" : host.toLowerCase();
+		} catch (MalformedURLException e) {
+			return "";
+		}
+	}
+
+	/**
+	 * Analyzes an image for a user
+	 * Used in analyze and by the threads of analyzeAll
+	 *
+	 * @param title  the title of the image
+	 * @param url    the url of the image
+	 * @param userId the id of the user the photo belongs to
+	 * @return the photo with the metadata of the image
+	 * @throws IOException if the image could not be read
+	 */
+	private static Photo analyze(String title, String url, int userId) throws IOException {
 		URL path = new URL(url);
 		URLConnection conn = path.openConnection();
-		InputStream in = conn.getInputStream();
-		javaxt.io.Image image = new javaxt.io.Image(in);
-		java.util.HashMap<Integer, Object> exif = image.getExifTags();
+		if (conn instanceof HttpURLConnection) {
+			conn.setRequestProperty("Range", "bytes=0-" + (HEADER_BYTES - 1));
+		}
+		ImageHeader header;
+		try (InputStream in = conn.getInputStream()) {
+			header = ImageHeader.read(in, HEADER_BYTES);
+		}
+		long fileSize = getFileSize(conn);
+		String fileType = conn.getContentType();
+		if (header == null) {
+			conn = path.openConnection();
+			try (InputStream in = conn.getInputStream()) {
+				header = decode(in);
+			}
+			fileSize = conn.getContentLengthLong();
+		}
+		Map<Integer, Object> exif = header.getExifTags();
 
 		Photo photo = new Photo();
-		double[] coord = image.getGPSCoordinate();
+		double[] coord = header.getGpsCoordinate();
 		photo.setTitle(title);
 		photo.setUrl(url);
-		photo.setTime((String) exif.get(0x0132));
-		photo.setCamera((String) exif.get(0x0110));
-		photo.setExposureTime((String) exif.get(0x829A));
-		photo.setAperture((String) exif.get(0x9202));
+		photo.setTime(getText(exif, 0x0132));
+		photo.setTakenAt(parseTime(photo.getTime()));
+		photo.setCamera(getText(exif, 0x0110));
+		photo.setExposureTime(getText(exif, 0x829A));
+		photo.setAperture(getText(exif, 0x9202));
 		if (coord != null) {
 			photo.setLongitude(coord[0]);
 			photo.setLatitude(coord[1]);
 		}
-		photo.setHeight(image.getHeight());
-		photo.setWidth(image.getWidth());
-		photo.setFileSize(conn.getContentLength());
-		photo.setFileType(conn.getContentType());
-		photo.setUserId(UserInfo.getUser().getId());
+		photo.setHeight(header.getHeight());
+		photo.setWidth(header.getWidth());
+		photo.setFileSize((int) fileSize);
+		photo.setFileType(fileType);
+		photo.setUserId(userId);
 		return photo;
 	}
+
+	/**
+	 * Decodes a whole image to get its dimensions and metadata
+	 * Used in analyze when they are not in the header
+	 *
+	 * @param in the stream of the image
+	 * @return the header of the decoded image
+	 */
+	private static ImageHeader decode(InputStream in) {
+		javaxt.io.Image image = new javaxt.io.Image(in);
+		return new ImageHeader(image.getWidth(), image.getHeight(), image.getExifTags(), image.getGPSCoordinate());
+	}
+
+	/**
+	 * Gets the size of the whole image. The answer to a range request has the size after the slash in its Content-Range
+	 *
+	 * @param conn the connection the image was read from
+	 * @return the size in bytes, -1 if it is not known
+	 */
+	private static long getFileSize(URLConnection conn) {
+		String range = conn.getHeaderField("Content-Range");
+		if (range != null && range.contains("/")) {
+			try {
+				return Long.parseLong(range.substring(range.indexOf('/') + 1).trim());
+			} catch (NumberFormatException e) {
+				FileLogger.getLogger().log(Level.FINE, e.getMessage());
+				FileLogger.closeHandler();
+			}
+		}
+		return conn.getContentLengthLong();
+	}
+
+	/**
+	 * Gets an EXIF tag as text
+	 *
+	 * @param exif the EXIF tags
+	 * @param tag  the number of the tag
+	 * @return the text of the tag, null if the image does not have it
+	 */
+	private static String getText(Map<Integer, Object> exif, int tag) {
+		Object value = exif.get(tag);
+		return value == null ? null : value.toString();
+	}
+
+	/**
+	 * Parses the time an image was taken, as it is written in the EXIF metadata
+	 * Used in analyze, and when the capture time of photos that were analyzed before is filled in
+	 *
+	 * @param exifTime the time in the EXIF format "yyyy:MM:dd HH:mm:ss", can be null
+	 * @return the time, or null if there is no time or it is not a valid time, such as the placeholder "0000:00:00 00:00:00"
+	 */
+	public static LocalDateTime parseTime(String exifTime) {
+		if (exifTime == null) {
+			return null;
+		}
+		try {
+			return LocalDateTime.parse(exifTime.trim(), EXIF_TIME_FORMAT);
+		} catch (DateTimeParseException e) {
+			return null;
+		}
+	}
 }
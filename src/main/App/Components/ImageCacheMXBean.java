@@ -0,0 +1,44 @@
+package Components;
+
+/**
+ * Management interface of the cache of decoded photos, registered in the platform MBean server as Picturerama:type=ImageCache
+ * so the cache can be watched with JConsole or VisualVM while the program runs
+ */
+public interface ImageCacheMXBean {
+
+	long getHitCount();
+
+	long getMissCount();
+
+	/**
+	 * Gets the share of the lookups that found the photo in the cache
+	 *
+	 * @return the hit rate between 0 and 1, 0 if nothing has been looked up
+	 */
+	double getHitRate();
+
+	/**
+	 * Gets the number of bytes the decoded photos in the cache use, four bytes per pixel
+	 *
+	 * @return the number of bytes
+	 */
+	long getResidentBytes();
+
+	long getBudgetBytes();
+
+	int getImageCount();
+
+	/**
+	 * Gets the number of photos that were removed to keep the cache within its budget
+	 *
+	 * @return the number of evictions
+	 */
+	long getEvictionCount();
+
+	/**
+	 * Gets the summary that is written to the log when the program is closed
+	 *
+	 * @return the summary
+	 */
+	String getSummary();
+}
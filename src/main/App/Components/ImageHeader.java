@@ -0,0 +1,422 @@
+package Components;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Class for the dimensions, EXIF tags and GPS coordinate of an image, read from the first bytes of the file only
+ * The JPEG segments up to the frame header, the PNG chunks up to the image data, and the directories of a TIFF file
+ * are parsed, so the image itself is never decoded
+ * Used by ImageAnalyzer, which decodes the whole image if the header could not be read
+ */
+public final class ImageHeader {
+
+	private static final int EXIF_POINTER = 0x8769;
+	private static final int GPS_POINTER = 0x8825;
+	private static final int TIFF_WIDTH = 0x0100;
+	private static final int TIFF_HEIGHT = 0x0101;
+	// Directories are followed at most this deep, so a broken file can not make the parser loop
+	private static final int MAX_DIRECTORIES = 8;
+	private final int WIDTH;
+	private final int HEIGHT;
+	private final Map<Integer, Object> EXIF_TAGS;
+	private final double[] GPS_COORDINATE;
+
+	/**
+	 * Constructor for a header that was read or decoded
+	 *
+	 * @param width          the width in pixels
+	 * @param height         the height in pixels
+	 * @param exifTags       the EXIF tags of the first directory and the EXIF directory by tag number
+	 * @param gpsCoordinate  the longitude and latitude, null if the image has none
+	 */
+	ImageHeader(int width, int height, Map<Integer, Object> exifTags, double[] gpsCoordinate) {
+		this.WIDTH = width;
+		this.HEIGHT = height;
+		this.EXIF_TAGS = exifTags;
+		this.GPS_COORDINATE = gpsCoordinate;
+	}
+
+	public int getWidth() {
+		return WIDTH;
+	}
+
+	public int getHeight() {
+		return HEIGHT;
+	}
+
+	/**
+	 * Gets the EXIF tags, with text as strings, whole numbers as longs and fractions as "numerator/denominator"
+	 *
+	 * @return the tags by tag number
+	 */
+	public Map<Integer, Object> getExifTags() {
+		return EXIF_TAGS;
+	}
+
+	/**
+	 * Gets where the image was taken
+	 *
+	 * @return the longitude and latitude in degrees, null if the image has no GPS coordinate
+	 */
+	public double[] getGpsCoordinate() {
+		return GPS_COORDINATE;
+	}
+
+	/**
+	 * Reads the header from the first bytes of an image. No more than maxBytes are read from the stream
+	 *
+	 * @param in       the stream of the image, which is not closed
+	 * @param maxBytes the largest number of bytes to read
+	 * @return the header, or null if the format is not known or the dimensions are not within the bytes read
+	 * @throws IOException if the stream could not be read
+	 */
+	public static ImageHeader read(InputStream in, int maxBytes) throws IOException {
+		return parse(in.readNBytes(maxBytes));
+	}
+
+	/**
+	 * Parses the header from the first bytes of a JPEG, PNG or TIFF image
+	 *
+	 * @param data the first bytes of the image
+	 * @return the header, or null if the format is not known or the dimensions are not within the bytes
+	 */
+	static ImageHeader parse(byte[] data) {
+		Bytes bytes = new Bytes(data, false);
+		try {
+			if (bytes.length() >= 2 && bytes.u8(0) == 0xFF && bytes.u8(1) == 0xD8) {
+				return parseJpeg(bytes);
+			}
+			if (bytes.length() >= 8 && bytes.u32(0) == 0x89504E47L && bytes.u32(4) == 0x0D0A1A0AL) {
+				return parsePng(bytes);
+			}
+			if (bytes.length() >= 4 && (bytes.startsWith("II*\0") || bytes.startsWith("MM\0*"))) {
+				return parseTiffImage(bytes);
+			}
+		} catch (IndexOutOfBoundsException e) {
+			// The header goes on after the bytes that were read
+			return null;
+		}
+		return null;
+	}
+
+	/**
+	 * Parses the segments of a JPEG image, up to the frame header with the dimensions
+	 * The EXIF tags are in an APP1 segment that starts with "Exif"
+	 *
+	 * @param bytes the first bytes of the image
+	 * @return the header, or null if there is no frame header before the image data
+	 */
+	private static ImageHeader parseJpeg(Bytes bytes) {
+		Map<Integer, Object> exifTags = new HashMap<>();
+		Map<Integer, Object> gpsTags = new HashMap<>();
+		int position = 2;
+		while (true) {
+			if (bytes.u8(position) != 0xFF) {
+				return null;
+			}
+			int marker = bytes.u8(position + 1);
+			if (marker == 0xFF) {
+				// Fill byte before a marker
+				position++;
+				continue;
+			}
+			if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+				// Markers without a length
+				position += 2;
+				continue;
+			}
+			if (marker == 0xD9 || marker == 0xDA) {
+				// End of image or start of the image data, without a frame header
+				return null;
+			}
+			int length = bytes.u16(position + 2);
+			int segment = position + 4;
+			if (marker == 0xE1 && length >= 8 && bytes.startsWith(segment, "Exif\0\0")) {
+				Bytes tiff = bytes.slice(segment + 6, length - 8);
+				parseTiff(tiff, exifTags, gpsTags);
+			} else if (isStartOfFrame(marker)) {
+				int height = bytes.u16(segment + 1);
+				int width = bytes.u16(segment + 3);
+				return new ImageHeader(width, height, exifTags, toCoordinate(gpsTags));
+			}
+			position += 2 + length;
+		}
+	}
+
+	/**
+	 * Checks if a JPEG marker starts a frame, which has the dimensions of the image
+	 *
+	 * @param marker the marker
+	 * @return if it is one of the start of frame markers
+	 */
+	private static boolean isStartOfFrame(int marker) {
+		return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+	}
+
+	/**
+	 * Parses the chunks of a PNG image, up to the image data
+	 * The dimensions are in the IHDR chunk, and the EXIF tags in an eXIf chunk if the image has one
+	 *
+	 * @param bytes the first bytes of the image
+	 * @return the header, or null if an eXIf chunk could come after the bytes that were read
+	 */
+	private static ImageHeader parsePng(Bytes bytes) {
+		Map<Integer, Object> exifTags = new HashMap<>();
+		Map<Integer, Object> gpsTags = new HashMap<>();
+		int width = 0;
+		int height = 0;
+		int position = 8;
+		while (true) {
+			long length = bytes.u32(position);
+			String type = bytes.text(position + 4, 4);
+			if (type.equals("IDAT") || type.equals("IEND")) {
+				return width == 0 ? null : new ImageHeader(width, height, exifTags, toCoordinate(gpsTags));
+			}
+			if (length > bytes.length()) {
+				return null;
+			}
+			if (type.equals("IHDR")) {
+				width = (int) bytes.u32(position + 8);
+				height = (int) bytes.u32(position + 12);
+			} else if (type.equals("eXIf")) {
+				parseTiff(bytes.slice(position + 8, (int) length), exifTags, gpsTags);
+			}
+			position += 12 + (int) length;
+		}
+	}
+
+	/**
+	 * Parses a TIFF image, where the dimensions are tags in the first directory
+	 *
+	 * @param bytes the first bytes of the image
+	 * @return the header, or null if the directories are not within the bytes
+	 */
+	private static ImageHeader parseTiffImage(Bytes bytes) {
+		Map<Integer, Object> exifTags = new HashMap<>();
+		Map<Integer, Object> gpsTags = new HashMap<>();
+		parseTiff(bytes, exifTags, gpsTags);
+		Object width = exifTags.get(TIFF_WIDTH);
+		Object height = exifTags.get(TIFF_HEIGHT);
+		if (!(width instanceof Long) || !(height instanceof Long)) {
+			return null;
+		}
+		return new ImageHeader(((Long) width).intValue(), ((Long) height).intValue(), exifTags, toCoordinate(gpsTags));
+	}
+
+	/**
+	 * Parses the tags of a TIFF structure, which is how EXIF is stored. The tags of the first directory and the EXIF
+	 * directory are put together, like javaxt does, and the GPS directory is kept apart
+	 *
+	 * @param tiff     the TIFF structure, offsets are from its start
+	 * @param exifTags the map the EXIF tags are put in
+	 * @param gpsTags  the map the GPS tags are put in
+	 */
+	private static void parseTiff(Bytes tiff, Map<Integer, Object> exifTags, Map<Integer, Object> gpsTags) {
+		Bytes ordered = new Bytes(tiff.DATA, tiff.OFFSET, tiff.LENGTH, tiff.u8(0) == 'I');
+		if (ordered.u16(2) != 42) {
+			return;
+		}
+		Map<Integer, Object> first = new HashMap<>();
+		parseDirectory(ordered, (int) ordered.u32(4), first, 0);
+		exifTags.putAll(first);
+		if (first.get(EXIF_POINTER) instanceof Long) {
+			parseDirectory(ordered, ((Long) first.get(EXIF_POINTER)).intValue(), exifTags, 1);
+		}
+		if (first.get(GPS_POINTER) instanceof Long) {
+			parseDirectory(ordered, ((Long) first.get(GPS_POINTER)).intValue(), gpsTags, 1);
+		}
+	}
+
+	/**
+	 * Parses the entries of a TIFF directory
+	 * Text is read as a string, a single whole number as a long, a single fraction as "numerator/denominator",
+	 * and several fractions as an array of doubles. Other values are left out
+	 *
+	 * @param tiff   the TIFF structure, with its byte order
+	 * @param offset the offset of the directory
+	 * @param tags   the map the tags are put in
+	 * @param depth  how many directories were followed to get here
+	 */
+	private static void parseDirectory(Bytes tiff, int offset, Map<Integer, Object> tags, int depth) {
+		if (depth >= MAX_DIRECTORIES || offset < 8) {
+			return;
+		}
+		int entries = tiff.u16(offset);
+		for (int i = 0; i < entries; i++) {
+			int entry = offset + 2 + i * 12;
+			int tag = tiff.u16(entry);
+			int type = tiff.u16(entry + 2);
+			long count = tiff.u32(entry + 4);
+			int size = getTypeSize(type);
+			if (size == 0 || count <= 0 || count > Integer.MAX_VALUE / size) {
+				continue;
+			}
+			// Values of four bytes or less are stored in the entry itself
+			int value = count * size <= 4 ? entry + 8 : (int) tiff.u32(entry + 8);
+			Object parsed = parseValue(tiff, type, (int) count, value);
+			if (parsed != null) {
+				tags.put(tag, parsed);
+			}
+		}
+	}
+
+	/**
+	 * Gets the size of one value of a TIFF type
+	 *
+	 * @param type the TIFF type
+	 * @return the size in bytes, 0 if the type is not read
+	 */
+	private static int getTypeSize(int type) {
+		switch (type) {
+			case 2:
+				return 1;
+			case 3:
+				return 2;
+			case 4:
+				return 4;
+			case 5:
+			case 10:
+				return 8;
+			default:
+				return 0;
+		}
+	}
+
+	/**
+	 * Parses the value of a TIFF directory entry
+	 *
+	 * @param tiff   the TIFF structure
+	 * @param type   the TIFF type, ASCII, SHORT, LONG, RATIONAL or SRATIONAL
+	 * @param count  the number of values
+	 * @param offset where the values are
+	 * @return the value, null if it is not read
+	 */
+	private static Object parseValue(Bytes tiff, int type, int count, int offset) {
+		switch (type) {
+			case 2:
+				String text = tiff.text(offset, count);
+				int end = text.indexOf('\0');
+				return (end < 0 ? text : text.substring(0, end)).trim();
+			case 3:
+				return count == 1 ? (long) tiff.u16(offset) : null;
+			case 4:
+				return count == 1 ? tiff.u32(offset) : null;
+			default:
+				long numerator = type == 10 ? (int) tiff.u32(offset) : tiff.u32(offset);
+				long denominator = type == 10 ? (int) tiff.u32(offset + 4) : tiff.u32(offset + 4);
+				if (count == 1) {
+					return numerator + "/" + denominator;
+				}
+				double[] values = new double[count];
+				for (int i = 0; i < count; i++) {
+					long n = type == 10 ? (int) tiff.u32(offset + i * 8) : tiff.u32(offset + i * 8);
+					long d = type == 10 ? (int) tiff.u32(offset + i * 8 + 4) : tiff.u32(offset + i * 8 + 4);
+					values[i] = d == 0 ? 0 : (double) n / d;
+				}
+				return values;
+		}
+	}
+
+	/**
+	 * Makes a coordinate of the GPS tags
+	 *
+	 * @param gpsTags the GPS tags
+	 * @return the longitude and latitude in degrees, null if the tags have no complete coordinate
+	 */
+	private static double[] toCoordinate(Map<Integer, Object> gpsTags) {
+		Object latitudeRef = gpsTags.get(0x0001);
+		Object latitude = gpsTags.get(0x0002);
+		Object longitudeRef = gpsTags.get(0x0003);
+		Object longitude = gpsTags.get(0x0004);
+		if (!(latitude instanceof double[]) || !(longitude instanceof double[])
+				|| ((double[]) latitude).length != 3 || ((double[]) longitude).length != 3) {
+			return null;
+		}
+		double lat = toDegrees((double[]) latitude) * ("S".equals(latitudeRef) ? -1 : 1);
+		double lon = toDegrees((double[]) longitude) * ("W".equals(longitudeRef) ? -1 : 1);
+		return new double[]{lon, lat};
+	}
+
+	/**
+	 * Converts degrees, minutes and seconds to degrees
+	 *
+	 * @param value the degrees, minutes and seconds
+	 * @return the degrees
+	 */
+	private static double toDegrees(double[] value) {
+		return value[0] + value[1] / 60 + value[2] / 3600;
+	}
+
+	/**
+	 * Class for reading numbers in a byte order from a part of an array
+	 * Reading outside the part throws IndexOutOfBoundsException, which means the header goes on after the bytes that were read
+	 */
+	private static final class Bytes {
+		private final byte[] DATA;
+		private final int OFFSET;
+		private final int LENGTH;
+		private final boolean IS_LITTLE_ENDIAN;
+
+		private Bytes(byte[] data, boolean isLittleEndian) {
+			this(data, 0, data.length, isLittleEndian);
+		}
+
+		private Bytes(byte[] data, int offset, int length, boolean isLittleEndian) {
+			this.DATA = data;
+			this.OFFSET = offset;
+			this.LENGTH = Math.max(0, Math.min(length, data.length - offset));
+			this.IS_LITTLE_ENDIAN = isLittleEndian;
+		}
+
+		private int length() {
+			return LENGTH;
+		}
+
+		private Bytes slice(int from, int sliceLength) {
+			check(from, 0);
+			return new Bytes(DATA, OFFSET + from, sliceLength, IS_LITTLE_ENDIAN);
+		}
+
+		private int u8(int position) {
+			check(position, 1);
+			return DATA[OFFSET + position] & 0xFF;
+		}
+
+		private int u16(int position) {
+			check(position, 2);
+			int first = DATA[OFFSET + position] & 0xFF;
+			int second = DATA[OFFSET + position + 1] & 0xFF;
+			return IS_LITTLE_ENDIAN ? first | second << 8 : first << 8 | second;
+		}
+
+		private long u32(int position) {
+			check(position, 4);
+			long high = u16(IS_LITTLE_ENDIAN ? position + 2 : position);
+			long low = u16(IS_LITTLE_ENDIAN ? position : position + 2);
+			return high << 16 | low;
+		}
+
+		private String text(int position, int textLength) {
+			check(position, textLength);
+			return new String(DATA, OFFSET + position, textLength, StandardCharsets.ISO_8859_1);
+		}
+
+		private boolean startsWith(String prefix) {
+			return startsWith(0, prefix);
+		}
+
+		private boolean startsWith(int position, String prefix) {
+			return position + prefix.length() <= LENGTH && text(position, prefix.length()).equals(prefix);
+		}
+
+		private void check(int position, int size) {
+			if (position < 0 || size < 0 || position + size > LENGTH) {
+				throw new IndexOutOfBoundsException();
+			}
+		}
+	}
+}
@@ -0,0 +1,253 @@
+package Components;
+
+import javafx.application.Platform;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * Utility class that loads the photos the views show, from memory or from the disk cache when they have been shown before
+ * Downloaded photos are kept in image_cache_directory in config.properties (the images directory in .picturerama in the
+ * home directory by default), which holds at most image_cache_mb megabytes (256 by default). Decoded photos are kept in
+ * memory for as long as they fit in image_memory_mb megabytes (64 by default)
+ * Used by PhotoContainer, PhotoViewer and ApplicationManager
+ */
+public final class ImageLoader {
+
+	private static final int TIMEOUT_MILLIS = 10000;
+	private static final long INDEX_SAVE_SECONDS = 30;
+	private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+	private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(4, runnable -> {
+		Thread thread = new Thread(runnable, "image-loader-" + THREAD_COUNT.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	});
+	private static final ScheduledExecutorService INDEX_SAVER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "image-cache-index");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private static final String OBJECT_NAME = "Picturerama:type=ImageCache";
+	private static final DecodedImageCache MEMORY_CACHE = new DecodedImageCache(getConfigMegabytes(getConfig(), "image_memory_mb", 64));
+	private static DiskImageCache diskCache;
+
+	static {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (!server.isRegistered(name)) {
+				server.registerMBean(MEMORY_CACHE, name);
+			}
+		} catch (JMException e) {
+			FileLogger.getLogger().log(Level.FINE, e.getMessage());
+			FileLogger.closeHandler();
+		}
+	}
+
+	/**
+	 * Private constructor to hinder creation of utility class
+	 */
+	private ImageLoader() {
+		throw new IllegalStateException("Utility class");
+	}
+
+	/**
+	 * Loads a photo in the background, scaled down to fit inside a square
+	 * The photo is read from the disk cache if it has been downloaded for this size before, otherwise it is downloaded and cached
+	 *
+	 * @param url  the url of the photo, or of its derivative for the size
+	 * @param size the side of the square in pixels
+	 * @return the photo, which completes exceptionally if the photo could not be downloaded
+	 */
+	private static CompletableFuture<Image> load(String url, int size) {
+		return CompletableFuture.supplyAsync(() -> {
+			DiskImageCache cache = getDiskCache();
+			byte[] bytes = cache.get(url, size);
+			boolean isCached = bytes != null;
+			if (!isCached) {
+				bytes = download(url);
+			}
+			Image image = new Image(new ByteArrayInputStream(bytes), size, size, true, true);
+			if (image.isError()) {
+				throw new UncheckedIOException(new IOException("The image at " + url + " could not be read", image.getException()));
+			}
+			// Only images that could be read are cached, so an error page is downloaded again the next time
+			if (!isCached) {
+				cache.put(url, size, bytes);
+			}
+			return image;
+		}, EXECUTOR);
+	}
+
+	/**
+	 * Loads a photo, from memory if it has been decoded for this size before, otherwise in the background
+	 *
+	 * @param photoId the id of the photo
+	 * @param url     the url of the photo, or of its derivative for the size
+	 * @param size    the side of the square in pixels
+	 * @return the photo, which completes exceptionally if the photo could not be downloaded
+	 */
+	public static CompletableFuture<Image> load(int photoId, String url, int size) {
+		Image cached = MEMORY_CACHE.get(photoId, size, url);
+		if (cached != null) {
+			return CompletableFuture.completedFuture(cached);
+		}
+		return load(url, size).thenApply(image -> {
+			MEMORY_CACHE.put(photoId, size, url, image);
+			return image;
+		});
+	}
+
+	/**
+	 * Shows a photo in an image view, at once if it is in memory, otherwise when it has been loaded in the background
+	 * A photo that could not be loaded is logged, and the view is left empty
+	 * Must be used on the JavaFX application thread
+	 *
+	 * @param imageView the image view
+	 * @param photoId   the id of the photo
+	 * @param url       the url of the photo, or of its derivative for the size
+	 * @param size      the side of the square in pixels the photo is shown in
+	 */
+	public static void show(ImageView imageView, int photoId, String url, int size) {
+		CompletableFuture<Image> image = load(photoId, url, size);
+		if (image.isDone() && !image.isCompletedExceptionally()) {
+			imageView.setImage(image.join());
+			return;
+		}
+		image.whenComplete((loaded, e) -> {
+			if (e != null) {
+				FileLogger.getLogger().log(Level.FINE, e.getMessage());
+				FileLogger.closeHandler();
+			} else {
+				Platform.runLater(() -> imageView.setImage(loaded));
+			}
+		});
+	}
+
+	/**
+	 * Gets the cache of decoded photos, with its hit rate, resident bytes and evictions
+	 *
+	 * @return the cache of decoded photos
+	 */
+	public static ImageCacheMXBean getMemoryCache() {
+		return MEMORY_CACHE;
+	}
+
+	/**
+	 * Writes the index of the disk cache, so the cached photos are found when the program is started again,
+	 * and writes the summary of the memory cache to the log
+	 * Used when the program is closed
+	 */
+	public static synchronized void shutdown() {
+		INDEX_SAVER.shutdown();
+		if (diskCache != null) {
+			diskCache.saveIndex();
+		}
+		FileLogger.getLogger().log(Level.INFO, MEMORY_CACHE.getSummary());
+		FileLogger.closeHandler();
+		try {
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+		} catch (JMException e) {
+			FileLogger.getLogger().log(Level.FINE, e.getMessage());
+			FileLogger.closeHandler();
+		}
+	}
+
+	/**
+	 * Gets the disk cache, and opens it the first time a photo is loaded
+	 * The index is written every INDEX_SAVE_SECONDS seconds while the program runs
+	 *
+	 * @return the disk cache
+	 */
+	private static synchronized DiskImageCache getDiskCache() {
+		if (diskCache == null) {
+			Properties prop = getConfig();
+			String home = System.getProperty("user.home") + File.separator + ".picturerama" + File.separator + "images";
+			diskCache = new DiskImageCache(new File(prop.getProperty("image_cache_directory", home)), getConfigMegabytes(prop, "image_cache_mb", 256));
+			INDEX_SAVER.scheduleWithFixedDelay(diskCache::saveIndex, INDEX_SAVE_SECONDS, INDEX_SAVE_SECONDS, TimeUnit.SECONDS);
+		}
+		return diskCache;
+	}
+
+	/**
+	 * Downloads a photo
+	 *
+	 * @param url the url of the photo
+	 * @return the bytes of the photo
+	 * @throws UncheckedIOException if the photo could not be downloaded
+	 */
+	private static byte[] download(String url) {
+		try {
+			URLConnection connection = new URL(url).openConnection();
+			connection.setConnectTimeout(TIMEOUT_MILLIS);
+			connection.setReadTimeout(TIMEOUT_MILLIS);
+			try (InputStream in = connection.getInputStream()) {
+				ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(connection.getContentLength(), 8192));
+				in.transferTo(out);
+				return out.toByteArray();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Reads a size in megabytes from config.properties
+	 *
+	 * @param prop         the properties from config.properties
+	 * @param key          the key of the size
+	 * @param defaultValue the size used if the key is missing or not a number
+	 * @return the size in bytes
+	 */
+	private static long getConfigMegabytes(Properties prop, String key, long defaultValue) {
+		long megabytes = defaultValue;
+		try {
+			megabytes = Long.parseLong(prop.getProperty(key, String.valueOf(defaultValue)).trim());
+		} catch (NumberFormatException e) {
+			FileLogger.getLogger().log(Level.FINE, e.getMessage());
+			FileLogger.closeHandler();
+		}
+		return megabytes * 1024 * 1024;
+	}
+
+	/**
+	 * Reads config.properties
+	 *
+	 * @return the properties, empty if the file could not be read
+	 */
+	private static Properties getConfig() {
+		Properties prop = new Properties();
+		try (InputStream input = new FileInputStream("config.properties")) {
+			prop.load(input);
+		} catch (IOException e) {
+			FileLogger.getLogger().log(Level.FINE, e.getMessage());
+			FileLogger.closeHandler();
+		}
+		return prop;
+	}
+}
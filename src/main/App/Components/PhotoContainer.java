@@ -1,7 +1,11 @@
 package Components;
 
 import Css.Css;
-import Database.HibernateClasses.Photo;
+import Database.AsyncDatabase;
+import Database.HibernateClasses.Tag;
+import Database.PhotoFetchPlan;
+import Database.PhotoSummary;
+import Database.Repository;
 import javafx.geometry.Pos;
 import javafx.scene.control.Button;
 import javafx.scene.control.CheckBox;
@@ -9,34 +13,35 @@ import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.layout.HBox;
 
+import java.util.stream.Collectors;
+
 /**
  * Class that is used to display photos in the search root
  */
 public final class PhotoContainer {
 
-	private final Photo PHOTO;
-	private Image image;
+	private final PhotoSummary PHOTO;
 	private ImageView imageView;
 	private CheckBox checkBox;
 	private Button photoButton;
 	private HBox photoContainerHBox;
 
 	/**
-	 * Constructor that takes a photo object and initializes the photo container with the photo in it
+	 * Constructor that takes a photo summary and initializes the photo container with the photo in it
 	 *
-	 * @param photo a photo object
+	 * @param photo a photo summary
 	 */
-	public PhotoContainer(Photo photo) {
+	public PhotoContainer(PhotoSummary photo) {
 		this.PHOTO = photo;
 		setupPhotoContainer(photo);
 	}
 
-	public Photo getPhoto() {
+	public PhotoSummary getPhoto() {
 		return PHOTO;
 	}
 
 	public Image getImage() {
-		return image;
+		return imageView.getImage();
 	}
 
 	public ImageView getImageView() {
@@ -58,17 +63,14 @@ public final class PhotoContainer {
 	/**
 	 * Makes a photo container that is a button that contains a photo, a photo title and a checkbox
 	 *
-	 * @param photo a photo object
+	 * @param photo a photo summary
 	 */
-	private void setupPhotoContainer(Photo photo) {
-		image = new Image(photo.getUrl(), 150, 150, true, true, true);
-		imageView = new ImageView(image);
+	private void setupPhotoContainer(PhotoSummary photo) {
+		imageView = new ImageView();
+		ImageLoader.show(imageView, photo.getId(), photo.getUrl(150), 150);
 
 		photoButton = new Button(photo.getTitle(), imageView);
-		photoButton.setOnAction(action -> {
-			PhotoViewer photoViewer = new PhotoViewer(photo);
-			photoViewer.display();
-		});
+		photoButton.setOnAction(action -> openPhotoViewer());
 		checkBox = new CheckBox();
 		checkBox.getStyleClass().add("check-box");
 		photoContainerHBox = new HBox(photoButton, checkBox);
@@ -77,4 +79,22 @@ public final class PhotoContainer {
 		photoContainerHBox.setAlignment(Pos.CENTER_LEFT);
 		Css.setContainer(photoButton, photoContainerHBox, 160, 160);
 	}
+
+	/**
+	 * Loads the whole photo with its tags in the background and opens it in the photo viewer
+	 * The tag names of the summary are updated with the tags edited in the photo viewer
+	 * Used in setupPhotoContainer
+	 */
+	private void openPhotoViewer() {
+		photoButton.setDisable(true);
+		int userId = UserInfo.getUser().getId();
+		AsyncDatabase.supplyOnFx(() -> Repository.getPhoto(userId, PHOTO.getId(), PhotoFetchPlan.WITH_TAGS), photo -> {
+			photoButton.setDisable(false);
+			if (photo != null) {
+				new PhotoViewer(photo).display();
+				PHOTO.getTags().clear();
+				PHOTO.getTags().addAll(photo.getTags().stream().map(Tag::getName).collect(Collectors.toList()));
+			}
+		}, e -> photoButton.setDisable(false));
+	}
 }
@@ -2,10 +2,11 @@ package Components;
 
 import Css.Css;
 import Css.FeedbackType;
-import Database.Hibernate;
 import Database.HibernateClasses.Photo;
-import Database.HibernateClasses.Tags;
+import Database.HibernateClasses.Tag;
+import Database.WriteBehind;
 import Main.ApplicationManager;
+import javafx.application.Platform;
 import javafx.geometry.Insets;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
@@ -19,6 +20,10 @@ import javafx.scene.layout.VBox;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
 
+import java.util.HashSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.Set;
+
 /**
  * Class that is used to display photo metadata
  */
@@ -27,6 +32,8 @@ public final class PhotoViewer {
 	private final FlowPane TAG_CONTAINER = new FlowPane();
 	private final Photo PHOTO;
 	private final Stage STAGE;
+	private final Set<String> ADDED_TAGS = new HashSet<>();
+	private final Set<String> REMOVED_TAGS = new HashSet<>();
 
 	public PhotoViewer(Photo photo) {
 		this.PHOTO = photo;
@@ -88,27 +95,27 @@ public final class PhotoViewer {
 
 		PHOTO.getTags().forEach(t -> {
 			//Creates a new tag container object and adds it to the tagContainer flowpane
-			TagContainer tagContainerObject = new TagContainer(t.getTag());
+			TagContainer tagContainerObject = new TagContainer(t.getName());
 			TAG_CONTAINER.getChildren().add(tagContainerObject.getContainer());
 			setButtonFunctionality(tagContainerObject);
 		});
 
 		//Sets the functionality of the add tag button
 		addTagButton.setOnAction(e -> {
-			Tags tag = new Tags(tagField.getText(), PHOTO.getId());
 			//Checks if there is an input in the textfield
 			if (tagField.getText() == null || tagField.getText().trim().equals("")) {
 				feedbackLabel.setText("Error: The tag must have a name");
 			}
 			//Checks if the photo already has the tag
-			else if (PHOTO.getTags().contains(tag)) {
+			else if (PHOTO.getTags().contains(new Tag(tagField.getText()))) {
 				feedbackLabel.setText("Error: This tag is already registered");
 			} else {
-				tag.setPhotoId(PHOTO.getId());
+				Tag tag = new Tag(tagField.getText());
 				PHOTO.getTags().add(tag);
+				ADDED_TAGS.add(tag.getName());
 
 				//Creates new tag container and gives it functionality
-				TagContainer tagContainerObject = new TagContainer(tagField.getText());
+				TagContainer tagContainerObject = new TagContainer(tag.getName());
 				TAG_CONTAINER.getChildren().add(tagContainerObject.getContainer());
 				this.setButtonFunctionality(tagContainerObject);
 
@@ -130,7 +137,8 @@ public final class PhotoViewer {
 		});
 		closeButton.setOnAction(e -> updateDatabaseAndClose());
 
-		ImageView imageView = new ImageView(new Image(PHOTO.getUrl(), 255, 255, true, true, true));
+		ImageView imageView = new ImageView();
+		ImageLoader.show(imageView, PHOTO.getId(), PHOTO.getUrl(255), 255);
 
 		//Adding child nodes to parent nodes
 		AnchorPane.setLeftAnchor(imageInfoContainer, 10.0);
@@ -155,18 +163,29 @@ public final class PhotoViewer {
 	private void setButtonFunctionality(TagContainer tagContainerObject) {
 		//Programs the delete button each tag to remove the tag
 		tagContainerObject.getDeleteTagButton().setOnAction(e -> {
-			PHOTO.getTags().removeIf(t -> t.getTag().equals(tagContainerObject.getTagAsString()));
+			String tag = tagContainerObject.getTagAsString();
+			PHOTO.getTags().removeIf(t -> t.getName().equals(tag));
+			// A tag that was added in this viewer is not in the database yet, so it is enough to forget it
+			if (!ADDED_TAGS.remove(tag)) {
+				REMOVED_TAGS.add(tag);
+			}
 			TAG_CONTAINER.getChildren().removeIf(t -> t.equals(tagContainerObject.getContainer()));
 		});
 	}
 
 	/**
 	 * Updates the the tags of the photo in the database
+	 * Only the tags that were added or removed in this viewer are queued, and written in the background with the other queued changes.
+	 * The user is told if they could not be saved
 	 */
 	private void updateDatabaseAndClose() {
-		int index = UserInfo.getUser().getPhotos().indexOf(PHOTO);
-		UserInfo.getUser().getPhotos().get(index).setTags(PHOTO.getTags());
-		Hibernate.updateUser(UserInfo.getUser());
+		String title = PHOTO.getTitle();
+		CompletableFuture.allOf(WriteBehind.removeTags(PHOTO.getId(), REMOVED_TAGS), WriteBehind.addTags(PHOTO.getId(), ADDED_TAGS)).exceptionally(e -> {
+			Platform.runLater(() -> PopUpWindow.showMessage("Tags", "The tags of " + title + " could not be saved. Please try again"));
+			return null;
+		});
+		REMOVED_TAGS.clear();
+		ADDED_TAGS.clear();
 		this.STAGE.close();
 	}
 
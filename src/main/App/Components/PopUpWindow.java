@@ -1,6 +1,7 @@
 package Components;
 
 import Css.Css;
+import Main.ApplicationManager;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
@@ -59,7 +60,20 @@ public final class PopUpWindow {
 		DIALOG_WINDOW.show();
 	}
 
-	public Stage getDialogWindow() {
+	/**
+	 * Shows a popup over the main stage with a message, which is closed with the escape key
+	 * Used to tell the user that a change made in the background could not be saved
+	 *
+	 * @param title   the title of the popup
+	 * @param message the message
+	 */
+	public static void showMessage(String title, String message) {
+		PopUpWindow popupWindow = new PopUpWindow(ApplicationManager.getStage(), 500, 100);
+		popupWindow.getDialogWindow().setTitle(title);
+		popupWindow.getDialogText().setText(message);
+	}
+
+		public Stage getDialogWindow() {
 		return DIALOG_WINDOW;
 	}
 
@@ -0,0 +1,76 @@
+package Database;
+
+import java.time.LocalDateTime;
+import java.util.Objects;
+
+/**
+ * Read only summary of an album, with the number of photos in it, the newest capture time and a cover photo
+ * All the summaries of a user are made by one grouped query, so the photos of the albums are never loaded
+ */
+public final class AlbumSummary {
+
+	private final int ID;
+	private final String NAME;
+	private final long PHOTO_COUNT;
+	private final LocalDateTime NEWEST_TAKEN_AT;
+	private final Integer COVER_PHOTO_ID;
+
+	/**
+	 * Constructor used by the constructor expression in Repository, and for albums that were just created
+	 *
+	 * @param id            the id of the album
+	 * @param name          the name of the album
+	 * @param photoCount    the number of photos in the album
+	 * @param newestTakenAt the newest capture time of the photos in the album, null if none of them has one
+	 * @param coverPhotoId  the id of the photo that was added last to the album, null if the album is empty
+	 */
+	public AlbumSummary(int id, String name, long photoCount, LocalDateTime newestTakenAt, Integer coverPhotoId) {
+		this.ID = id;
+		this.NAME = name;
+		this.PHOTO_COUNT = photoCount;
+		this.NEWEST_TAKEN_AT = newestTakenAt;
+		this.COVER_PHOTO_ID = coverPhotoId;
+	}
+
+	public int getId() {
+		return ID;
+	}
+
+	public String getName() {
+		return NAME;
+	}
+
+	public long getPhotoCount() {
+		return PHOTO_COUNT;
+	}
+
+	public LocalDateTime getNewestTakenAt() {
+		return NEWEST_TAKEN_AT;
+	}
+
+	public Integer getCoverPhotoId() {
+		return COVER_PHOTO_ID;
+	}
+
+	/**
+	 * Summaries are equal if they are of the same album
+	 *
+	 * @param o an object o
+	 * @return if the object is a summary of the same album
+	 */
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof AlbumSummary)) {
+			return false;
+		}
+		return ID == ((AlbumSummary) o).ID;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(ID);
+	}
+}
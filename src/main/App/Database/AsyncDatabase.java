@@ -0,0 +1,125 @@
+package Database;
+
+import Components.FileLogger;
+import javafx.application.Platform;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+
+/**
+ * Class that runs database work on a dedicated, bounded pool of background threads
+ * so that no database call blocks the JavaFX Application Thread.
+ * Results are handed back to the JavaFX Application Thread with Platform.runLater
+ */
+public final class AsyncDatabase {
+
+	private static final int THREADS = Hibernate.getConfigInt("database_threads", 4);
+	private static final int QUEUE_SIZE = 100;
+	private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+	private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(THREADS, THREADS, 30, TimeUnit.SECONDS,
+			new ArrayBlockingQueue<>(QUEUE_SIZE), runnable -> {
+		Thread thread = new Thread(runnable, "database-" + THREAD_COUNT.incrementAndGet());
+		// Daemon threads do not keep the application alive after the stage is closed
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * Private constructor to hinder creation of utility class
+	 */
+	private AsyncDatabase() {
+		throw new IllegalStateException("Utility class");
+	}
+
+	/**
+	 * Runs database work that gives a result in the background
+	 *
+	 * @param work the work to run
+	 * @param <T>  the type of the result
+	 * @return a future that is completed with the result, or exceptionally if the work failed or the queue is full
+	 */
+	public static <T> CompletableFuture<T> supply(Supplier<T> work) {
+		try {
+			return CompletableFuture.supplyAsync(work, EXECUTOR);
+		} catch (RejectedExecutionException e) {
+			FileLogger.getLogger().log(Level.FINE, e.getMessage());
+			FileLogger.closeHandler();
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	/**
+	 * Runs database work without a result in the background
+	 *
+	 * @param work the work to run
+	 * @return a future that is completed when the work is done, or exceptionally if the work failed or the queue is full
+	 */
+	public static CompletableFuture<Void> run(Runnable work) {
+		return supply(() -> {
+			work.run();
+			return null;
+		});
+	}
+
+	/**
+	 * Runs database work in the background and hands the result to the JavaFX Application Thread
+	 *
+	 * @param work      the work to run
+	 * @param onSuccess called on the JavaFX Application Thread with the result
+	 * @param onFailure called on the JavaFX Application Thread with the cause if the work failed
+	 * @param <T>       the type of the result
+	 */
+	public static <T> void supplyOnFx(Supplier<T> work, Consumer<T> onSuccess, Consumer<Throwable> onFailure) {
+		onFx(supply(work), onSuccess, onFailure);
+	}
+
+	/**
+	 * Hands the result of work that runs in the background to the JavaFX Application Thread when it is done
+	 * Used in supplyOnFx, and by the views for the changes queued by WriteBehind
+	 *
+	 * @param work      the future of the work
+	 * @param onSuccess called on the JavaFX Application Thread with the result
+	 * @param onFailure called on the JavaFX Application Thread with the cause if the work failed
+	 * @param <T>       the type of the result
+	 */
+	public static <T> void onFx(CompletableFuture<T> work, Consumer<T> onSuccess, Consumer<Throwable> onFailure) {
+		work.whenComplete((result, throwable) -> Platform.runLater(() -> {
+			if (throwable == null) {
+				onSuccess.accept(result);
+			} else {
+				Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+				FileLogger.getLogger().log(Level.FINE, cause.getMessage());
+				FileLogger.closeHandler();
+				onFailure.accept(cause);
+			}
+		}));
+	}
+
+	/**
+	 * Gets the number of database tasks that are waiting for a thread
+	 *
+	 * @return the number of waiting tasks
+	 */
+	public static int getQueuedTasks() {
+		return EXECUTOR.getQueue().size();
+	}
+
+	/**
+	 * Stops accepting new work and waits a short while for the running work to finish
+	 * Used when the program is closed
+	 */
+	public static void shutdown() {
+		EXECUTOR.shutdown();
+		try {
+			if (!EXECUTOR.awaitTermination(5, TimeUnit.SECONDS)) {
+				EXECUTOR.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			EXECUTOR.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+}
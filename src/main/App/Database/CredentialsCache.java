@@ -0,0 +1,109 @@
+package Database;
+
+import Database.HibernateClasses.User;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A small cache of the credentials of users, the id, username, hash and salt, by username
+ * The least recently used credentials are removed when the cache is full, and credentials expire after a time to live,
+ * so users that are deleted by another client are not remembered for long
+ * Used by Hibernate to log in with at most one database round trip
+ */
+public final class CredentialsCache {
+
+	private final int MAX_ENTRIES;
+	private final long TIME_TO_LIVE_NANOS;
+	private final Map<String, Credentials> ENTRIES;
+
+	/**
+	 * Creates an empty cache
+	 *
+	 * @param maxEntries       the largest number of users in the cache
+	 * @param timeToLiveMillis how long credentials are kept, in milliseconds
+	 */
+	public CredentialsCache(int maxEntries, long timeToLiveMillis) {
+		if (maxEntries < 1 || timeToLiveMillis < 0) {
+			throw new IllegalArgumentException("The cache must hold at least one user for a time that is not negative");
+		}
+		this.MAX_ENTRIES = maxEntries;
+		this.TIME_TO_LIVE_NANOS = TimeUnit.MILLISECONDS.toNanos(timeToLiveMillis);
+		this.ENTRIES = new LinkedHashMap<String, Credentials>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Credentials> eldest) {
+				return size() > MAX_ENTRIES;
+			}
+		};
+	}
+
+	/**
+	 * Gets the credentials of a user
+	 *
+	 * @param username the username
+	 * @return a new detached user with only the credentials set, null if the user is not in the cache or has expired
+	 */
+	public synchronized User get(String username) {
+		Credentials credentials = ENTRIES.get(username);
+		if (credentials == null) {
+			return null;
+		}
+		if (System.nanoTime() - credentials.CACHED_AT >= TIME_TO_LIVE_NANOS) {
+			ENTRIES.remove(username);
+			return null;
+		}
+		User user = new User(credentials.USERNAME, credentials.HASH, credentials.SALT);
+		user.setId(credentials.ID);
+		return user;
+	}
+
+	/**
+	 * Puts the credentials of a user in the cache
+	 * The credentials are copied, so later changes to the user do not change the cache
+	 *
+	 * @param user the user
+	 */
+	public synchronized void put(User user) {
+		ENTRIES.put(user.getUsername(), new Credentials(user, System.nanoTime()));
+	}
+
+	/**
+	 * Removes the credentials of a user
+	 * Used when a user is registered or deleted
+	 *
+	 * @param username the username
+	 */
+	public synchronized void remove(String username) {
+		ENTRIES.remove(username);
+	}
+
+	/**
+	 * Gets the number of users in the cache, expired ones included
+	 *
+	 * @return the number of users
+	 */
+	public synchronized int size() {
+		return ENTRIES.size();
+	}
+
+	/**
+	 * The credentials of a user at the time they were cached
+	 */
+	private static final class Credentials {
+
+		private final int ID;
+		private final String USERNAME;
+		private final String HASH;
+		private final String SALT;
+		private final long CACHED_AT;
+
+		private Credentials(User user, long cachedAt) {
+			this.ID = user.getId();
+			this.USERNAME = user.getUsername();
+			this.HASH = user.getHash();
+			this.SALT = user.getSalt();
+			this.CACHED_AT = cachedAt;
+		}
+	}
+}
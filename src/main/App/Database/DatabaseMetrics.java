@@ -0,0 +1,392 @@
+package Database;
+
+import Components.FileLogger;
+import org.hibernate.stat.Statistics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+import java.util.logging.Level;
+
+/**
+ * Class that measures the database operations of the program
+ * Every operation, like getUser or getPhotoPage, gets a latency histogram, a failure count and the number of statements
+ * it sent to the database. Every statement is timed, and statements that take slow_query_ms or more are logged.
+ * The metrics and the Hibernate statistics of the open shards are published over JMX, and are written to metrics_dump_file
+ * every metrics_dump_seconds and when the program is closed
+ */
+public final class DatabaseMetrics {
+
+	private static final long SLOW_QUERY_NANOS = TimeUnit.MILLISECONDS.toNanos(Hibernate.getConfigInt("slow_query_ms", 200));
+	private static final int DUMP_SECONDS = Hibernate.getConfigInt("metrics_dump_seconds", 60);
+	private static final Path DUMP_FILE = Paths.get(Hibernate.getConfig().getProperty("metrics_dump_file", "metrics.txt"));
+	private static final String OBJECT_NAME = "Picturerama:type=DatabaseMetrics";
+	private static final int MAX_LOGGED_SQL_LENGTH = 500;
+	private static final Map<String, OperationStatistics> OPERATIONS = new ConcurrentSkipListMap<>();
+	private static final LatencyHistogram STATEMENT_LATENCY = new LatencyHistogram();
+	private static final AtomicLong SLOW_STATEMENTS = new AtomicLong();
+	// The innermost operation running on this thread, and the number of statements this thread has sent
+	private static final ThreadLocal<Operation> OPERATION_OF_THREAD = new ThreadLocal<>();
+	private static final ThreadLocal<long[]> STATEMENTS_OF_THREAD = ThreadLocal.withInitial(() -> new long[1]);
+	private static ScheduledExecutorService dumper;
+
+	/**
+	 * Private constructor to hinder creation of utility class
+	 */
+	private DatabaseMetrics() {
+		throw new IllegalStateException("Utility class");
+	}
+
+	/**
+	 * Class for an operation that is running on a thread
+	 * Operations can run inside other operations, and the statements of the inner operation are also counted in the outer one
+	 */
+	private static final class Operation {
+		private final String NAME;
+		private final Operation PARENT;
+		private final long START_NANOS = System.nanoTime();
+		private final long START_STATEMENTS = STATEMENTS_OF_THREAD.get()[0];
+
+		private Operation(String name, Operation parent) {
+			this.NAME = name;
+			this.PARENT = parent;
+		}
+	}
+
+	/**
+	 * Class for the metrics of one operation
+	 */
+	private static final class OperationStatistics {
+		private final LatencyHistogram LATENCY = new LatencyHistogram();
+		private final AtomicLong FAILURES = new AtomicLong();
+		private final AtomicLong STATEMENTS = new AtomicLong();
+		private final AtomicLong MAX_STATEMENTS = new AtomicLong();
+
+		private double getMeanStatements() {
+			long count = LATENCY.getCount();
+			return count == 0 ? 0 : (double) STATEMENTS.get() / count;
+		}
+	}
+
+	/**
+	 * Registers the metrics over JMX, and starts writing them to metrics_dump_file every metrics_dump_seconds, if it is not 0
+	 * Used when the program starts
+	 */
+	public static synchronized void start() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (!server.isRegistered(name)) {
+				server.registerMBean(new ManagementBean(), name);
+			}
+		} catch (JMException e) {
+			FileLogger.getLogger().log(Level.FINE, e.getMessage());
+			FileLogger.closeHandler();
+		}
+		if (dumper == null && DUMP_SECONDS > 0) {
+			dumper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "metrics-dump");
+				thread.setDaemon(true);
+				return thread;
+			});
+			dumper.scheduleWithFixedDelay(DatabaseMetrics::dump, DUMP_SECONDS, DUMP_SECONDS, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * Stops the periodic dump, and writes the metrics to metrics_dump_file and the log a last time
+	 * Used when the program is closed, before the entity manager factories are closed
+	 */
+	public static synchronized void shutdown() {
+		if (dumper != null) {
+			dumper.shutdownNow();
+			dumper = null;
+		}
+		dump();
+		FileLogger.getLogger().log(Level.INFO, getSummary());
+		FileLogger.closeHandler();
+		try {
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+		} catch (JMException e) {
+			FileLogger.getLogger().log(Level.FINE, e.getMessage());
+			FileLogger.closeHandler();
+		}
+	}
+
+	/**
+	 * Runs an operation and records its latency and the statements it sent. The operation failed if it threw
+	 *
+	 * @param operation the name of the operation
+	 * @param work      the work of the operation
+	 * @param <T>       the type of the result
+	 * @return the result of the work
+	 */
+	public static <T> T time(String operation, Supplier<T> work) {
+		Operation running = begin(operation);
+		boolean isSuccess = false;
+		try {
+			T result = work.get();
+			isSuccess = true;
+			return result;
+		} finally {
+			end(running, isSuccess);
+		}
+	}
+
+	/**
+	 * Runs a write and records its latency and the statements it sent. The write failed if it returned false or threw
+	 *
+	 * @param operation the name of the operation
+	 * @param work      the write, which returns if it succeeded
+	 * @return the result of the write
+	 */
+	public static boolean timeWrite(String operation, BooleanSupplier work) {
+		Operation running = begin(operation);
+		boolean isSuccess = false;
+		try {
+			isSuccess = work.getAsBoolean();
+			return isSuccess;
+		} finally {
+			end(running, isSuccess);
+		}
+	}
+
+	/**
+	 * Starts an operation on this thread
+	 *
+	 * @param operation the name of the operation
+	 * @return the running operation
+	 */
+	private static Operation begin(String operation) {
+		Operation running = new Operation(operation, OPERATION_OF_THREAD.get());
+		OPERATION_OF_THREAD.set(running);
+		return running;
+	}
+
+	/**
+	 * Ends an operation on this thread, and records it
+	 *
+	 * @param running   the running operation
+	 * @param isSuccess if the operation succeeded
+	 */
+	private static void end(Operation running, boolean isSuccess) {
+		long nanos = System.nanoTime() - running.START_NANOS;
+		long statements = STATEMENTS_OF_THREAD.get()[0] - running.START_STATEMENTS;
+		if (running.PARENT == null) {
+			OPERATION_OF_THREAD.remove();
+		} else {
+			OPERATION_OF_THREAD.set(running.PARENT);
+		}
+		OperationStatistics statistics = OPERATIONS.computeIfAbsent(running.NAME, name -> new OperationStatistics());
+		statistics.LATENCY.record(nanos);
+		statistics.STATEMENTS.addAndGet(statements);
+		statistics.MAX_STATEMENTS.accumulateAndGet(statements, Math::max);
+		if (!isSuccess) {
+			statistics.FAILURES.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Records a statement that was sent to the database, and logs it if it was slow
+	 * The parameters of the statement are not logged, so no user data ends up in the log
+	 * Used by TimedConnectionProvider
+	 *
+	 * @param sql   the SQL of the statement
+	 * @param nanos how long the statement took in nanoseconds
+	 */
+	static void recordStatement(String sql, long nanos) {
+		STATEMENTS_OF_THREAD.get()[0]++;
+		STATEMENT_LATENCY.record(nanos);
+		if (SLOW_QUERY_NANOS > 0 && nanos >= SLOW_QUERY_NANOS) {
+			SLOW_STATEMENTS.incrementAndGet();
+			Operation running = OPERATION_OF_THREAD.get();
+			String loggedSql = sql == null || sql.length() <= MAX_LOGGED_SQL_LENGTH ? sql : sql.substring(0, MAX_LOGGED_SQL_LENGTH) + "...";
+			FileLogger.getLogger().log(Level.INFO, String.format("Slow query: %.1f ms in %s: %s",
+					nanos / 1e6, running == null ? "no operation" : running.NAME, loggedSql));
+			FileLogger.closeHandler();
+		}
+	}
+
+	/**
+	 * Makes a summary of the operations, the statements and the Hibernate statistics
+	 *
+	 * @return the summary
+	 */
+	public static String getSummary() {
+		StringBuilder summary = new StringBuilder(String.format("Database metrics at %s:", LocalDateTime.now()));
+		OPERATIONS.forEach((name, statistics) -> summary.append(String.format(
+				"%n  %s: %d runs, %d failed, mean %.1f ms, median %.1f ms, 95th %.1f ms, 99th %.1f ms, max %.1f ms, statements mean %.1f max %d",
+				name, statistics.LATENCY.getCount(), statistics.FAILURES.get(), statistics.LATENCY.getMeanMillis(),
+				statistics.LATENCY.getPercentileMillis(50), statistics.LATENCY.getPercentileMillis(95),
+				statistics.LATENCY.getPercentileMillis(99), statistics.LATENCY.getMaxMillis(),
+				statistics.getMeanStatements(), statistics.MAX_STATEMENTS.get())));
+		summary.append(String.format("%n  statements: %d, median %.1f ms, 99th %.1f ms, max %.1f ms, %d at or above %d ms",
+				STATEMENT_LATENCY.getCount(), STATEMENT_LATENCY.getPercentileMillis(50), STATEMENT_LATENCY.getPercentileMillis(99),
+				STATEMENT_LATENCY.getMaxMillis(), SLOW_STATEMENTS.get(), TimeUnit.NANOSECONDS.toMillis(SLOW_QUERY_NANOS)));
+		summary.append(String.format("%n  second level cache: %d hits, %d misses, query cache: %d hits, %d misses",
+				sumStatistics(Statistics::getSecondLevelCacheHitCount), sumStatistics(Statistics::getSecondLevelCacheMissCount),
+				sumStatistics(Statistics::getQueryCacheHitCount), sumStatistics(Statistics::getQueryCacheMissCount)));
+		summary.append(String.format("%n  entities: %d loaded, %d fetched, %d flushes, %d transactions",
+				sumStatistics(Statistics::getEntityLoadCount), sumStatistics(Statistics::getEntityFetchCount),
+				sumStatistics(Statistics::getFlushCount), sumStatistics(Statistics::getTransactionCount)));
+		return summary.toString();
+	}
+
+	/**
+	 * Writes the summary to metrics_dump_file. It is written to a temporary file first and moved in place,
+	 * so a reader never sees half a dump
+	 * Used every metrics_dump_seconds and in shutdown
+	 */
+	private static void dump() {
+		Path temporary = DUMP_FILE.resolveSibling(DUMP_FILE.getFileName() + ".tmp");
+		try {
+			Files.write(temporary, (getSummary() + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+			try {
+				Files.move(temporary, DUMP_FILE, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temporary, DUMP_FILE, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException | RuntimeException e) {
+			FileLogger.getLogger().log(Level.FINE, e.getMessage());
+			FileLogger.closeHandler();
+		}
+	}
+
+	/**
+	 * Adds up a counter of the Hibernate statistics of the shards that are open
+	 *
+	 * @param counter the counter
+	 * @return the sum
+	 */
+	private static long sumStatistics(ToLongFunction<Statistics> counter) {
+		return Hibernate.getOpenStatistics().stream().mapToLong(counter).sum();
+	}
+
+	/**
+	 * Collects a value of every operation
+	 *
+	 * @param value the value of the metrics of an operation
+	 * @param <T>   the type of the value
+	 * @return the values by operation name
+	 */
+	private static <T> Map<String, T> collect(Function<OperationStatistics, T> value) {
+		Map<String, T> values = new TreeMap<>();
+		OPERATIONS.forEach((name, statistics) -> values.put(name, value.apply(statistics)));
+		return values;
+	}
+
+	/**
+	 * The object that is registered in the MBean server
+	 */
+	private static final class ManagementBean implements DatabaseMetricsMXBean {
+
+		@Override
+		public Map<String, Long> getOperationCounts() {
+			return collect(statistics -> statistics.LATENCY.getCount());
+		}
+
+		@Override
+		public Map<String, Long> getOperationFailures() {
+			return collect(statistics -> statistics.FAILURES.get());
+		}
+
+		@Override
+		public Map<String, Double> getOperationMedianMillis() {
+			return collect(statistics -> statistics.LATENCY.getPercentileMillis(50));
+		}
+
+		@Override
+		public Map<String, Double> getOperationP99Millis() {
+			return collect(statistics -> statistics.LATENCY.getPercentileMillis(99));
+		}
+
+		@Override
+		public Map<String, Double> getOperationMeanStatements() {
+			return collect(OperationStatistics::getMeanStatements);
+		}
+
+		@Override
+		public long getStatementCount() {
+			return STATEMENT_LATENCY.getCount();
+		}
+
+		@Override
+		public double getStatementP99Millis() {
+			return STATEMENT_LATENCY.getPercentileMillis(99);
+		}
+
+		@Override
+		public long getSlowStatementCount() {
+			return SLOW_STATEMENTS.get();
+		}
+
+		@Override
+		public long getSlowQueryThresholdMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(SLOW_QUERY_NANOS);
+		}
+
+		@Override
+		public long getSecondLevelCacheHitCount() {
+			return sumStatistics(Statistics::getSecondLevelCacheHitCount);
+		}
+
+		@Override
+		public long getSecondLevelCacheMissCount() {
+			return sumStatistics(Statistics::getSecondLevelCacheMissCount);
+		}
+
+		@Override
+		public long getQueryCacheHitCount() {
+			return sumStatistics(Statistics::getQueryCacheHitCount);
+		}
+
+		@Override
+		public long getQueryCacheMissCount() {
+			return sumStatistics(Statistics::getQueryCacheMissCount);
+		}
+
+		@Override
+		public long getEntityLoadCount() {
+			return sumStatistics(Statistics::getEntityLoadCount);
+		}
+
+		@Override
+		public long getEntityFetchCount() {
+			return sumStatistics(Statistics::getEntityFetchCount);
+		}
+
+		@Override
+		public long getFlushCount() {
+			return sumStatistics(Statistics::getFlushCount);
+		}
+
+		@Override
+		public String getSummary() {
+			return DatabaseMetrics.getSummary();
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package Database;
+
+import java.util.Map;
+
+/**
+ * Management interface of the database metrics, registered in the platform MBean server as Picturerama:type=DatabaseMetrics
+ * so the metrics can be watched with JConsole or VisualVM while the program runs
+ */
+public interface DatabaseMetricsMXBean {
+
+	/**
+	 * Gets the number of times every operation has run
+	 *
+	 * @return the count by operation name
+	 */
+	Map<String, Long> getOperationCounts();
+
+	/**
+	 * Gets the number of times every operation has failed
+	 *
+	 * @return the failures by operation name
+	 */
+	Map<String, Long> getOperationFailures();
+
+	/**
+	 * Gets the median latency of every operation
+	 *
+	 * @return the latency in milliseconds by operation name
+	 */
+	Map<String, Double> getOperationMedianMillis();
+
+	/**
+	 * Gets the 99th percentile latency of every operation
+	 *
+	 * @return the latency in milliseconds by operation name
+	 */
+	Map<String, Double> getOperationP99Millis();
+
+	/**
+	 * Gets the mean number of statements sent to the database by every operation
+	 *
+	 * @return the mean statement count by operation name
+	 */
+	Map<String, Double> getOperationMeanStatements();
+
+	long getStatementCount();
+
+	double getStatementP99Millis();
+
+	long getSlowStatementCount();
+
+	long getSlowQueryThresholdMillis();
+
+	long getSecondLevelCacheHitCount();
+
+	long getSecondLevelCacheMissCount();
+
+	long getQueryCacheHitCount();
+
+	long getQueryCacheMissCount();
+
+	long getEntityLoadCount();
+
+	long getEntityFetchCount();
+
+	long getFlushCount();
+
+	/**
+	 * Gets the summary that is also written to the dump file
+	 *
+	 * @return the summary
+	 */
+	String getSummary();
+}
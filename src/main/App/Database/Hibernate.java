@@ -2,23 +2,48 @@ package Database;
 
 import Components.FileLogger;
 import Database.HibernateClasses.User;
+import Database.Migrations.SchemaMigrator;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.jpa.QueryHints;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
 
 import javax.persistence.*;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.logging.Level;
 
 /**
  * Class that is used to connect to the database
+ * Every operation runs in its own unit of work, with an entity manager borrowed from the connection pool
  */
 public class Hibernate {
 
-	private static EntityManagerFactory entityManagerFactory;
-	private static EntityManager em;
+	private static final String USERNAME_QUERY_REGION = "Database.usernameQueries";
+	private static final CredentialsCache CREDENTIALS = new CredentialsCache(getConfigInt("credentials_cache_size", 100), TimeUnit.MINUTES.toMillis(5));
+	private static final List<String> SHARD_URLS = getShardUrls();
+	private static final ShardRing SHARD_RING = new ShardRing(SHARD_URLS.size(), 100);
+	private static final Map<Integer, EntityManagerFactory> ENTITY_MANAGER_FACTORIES = new HashMap<>();
+	private static final ThreadLocal<Integer> SHARD_OF_THREAD = new ThreadLocal<>();
+	private static volatile int currentShard;
+	private static ReplicaRouter<HikariDataSource> replicaRouter;
+	private static ScheduledExecutorService replicaHealthChecker;
 
 	/**
 	 * Private constructor to hinder creation of utility class
@@ -28,51 +53,503 @@ public class Hibernate {
 	}
 
 	/**
-	 * Gets entity manager. Creates a new one if the connection is not open anymore or the entity manager is null
+	 * Creates a new entity manager for a single unit of work, in the shard of the user that is logged in.
+	 * The caller is responsible for closing it, which returns the connection to the pool
 	 *
-	 * @return the entity manager
+	 * @return a new entity manager
 	 */
-	public static EntityManager getEm() {
-		if (em == null || !em.isOpen()) {
-			em = getEntityManagerFactory().createEntityManager();
-		}
-		return em;
+	public static EntityManager createEntityManager() {
+		return createEntityManager(getCurrentShard());
 	}
 
 	/**
-	 * Gets entity manager factory. Creates a new one if the connection is not open anymore or the entity manager factory is null
+	 * Creates a new entity manager for a single unit of work in a shard
+	 *
+	 * @param shard the shard
+	 * @return a new entity manager
+	 */
+	static EntityManager createEntityManager(int shard) {
+		return getEntityManagerFactory(shard).createEntityManager();
+	}
+
+	/**
+	 * Gets entity manager factory of the shard of the user that is logged in.
+	 * Creates a new one if the connection is not open anymore or the entity manager factory is null
 	 *
 	 * @return the entity manager factory
 	 */
 	public static EntityManagerFactory getEntityManagerFactory() {
+		return getEntityManagerFactory(getCurrentShard());
+	}
+
+	/**
+	 * Gets entity manager factory of a shard. Creates a new one if the connection is not open anymore or the entity manager factory is null
+	 * Shard 0 is the database in database_url, the other shards are the databases in shard_urls in config.properties.
+	 * The entity cache regions of the other shards are prefixed with the shard, so entities of different shards are kept apart
+	 *
+	 * @param shard the shard
+	 * @return the entity manager factory
+	 */
+	static synchronized EntityManagerFactory getEntityManagerFactory(int shard) {
+		EntityManagerFactory entityManagerFactory = ENTITY_MANAGER_FACTORIES.get(shard);
 		if (entityManagerFactory == null || !entityManagerFactory.isOpen()) {
-			entityManagerFactory = Persistence.createEntityManagerFactory("Database", getProperties());
+			Map<String, String> properties = getProperties(SHARD_URLS.get(shard));
+			if (shard != 0) {
+				properties.put("hibernate.cache.region_prefix", "shard-" + shard);
+			}
+			entityManagerFactory = Persistence.createEntityManagerFactory("Database", properties);
+			ENTITY_MANAGER_FACTORIES.put(shard, entityManagerFactory);
 		}
 		return entityManagerFactory;
 	}
 
 	/**
-	 * Sets up the password, username and url to the database
+	 * Sends the units of work that follow to the shard of a user
+	 * Used when a user is logged in
+	 *
+	 * @param userId the user id
+	 */
+	public static void useShardOf(int userId) {
+		currentShard = getShardOf(userId);
+	}
+
+	/**
+	 * Runs work in the shard of a user, instead of the shard of the user that is logged in, on this thread
+	 * Used by the local library, which can still be syncing the previous user after another user has logged in
+	 *
+	 * @param userId the user id
+	 * @param work   the work
+	 */
+	static void runInShardOf(int userId, Runnable work) {
+		SHARD_OF_THREAD.set(getShardOf(userId));
+		try {
+			work.run();
+		} finally {
+			SHARD_OF_THREAD.remove();
+		}
+	}
+
+	/**
+	 * Gets the shard the units of work on this thread are sent to
+	 *
+	 * @return the shard set with runInShardOf on this thread, otherwise the shard of the user that is logged in
+	 */
+	private static int getCurrentShard() {
+		Integer shard = SHARD_OF_THREAD.get();
+		return shard == null ? currentShard : shard;
+	}
+
+	/**
+	 * Gets the shard of a user. Without shard_urls in config.properties every user is in shard 0, and the directory is not asked
+	 *
+	 * @param userId the user id
+	 * @return the shard
+	 */
+	static int getShardOf(int userId) {
+		return SHARD_RING.getShardCount() == 1 ? 0 : ShardDirectory.getShard(userId);
+	}
+
+	/**
+	 * Gets the urls of the shards, database_url followed by the urls in shard_urls in config.properties
+	 *
+	 * @return the urls, the index is the shard
+	 */
+	private static List<String> getShardUrls() {
+		Properties prop = getConfig();
+		List<String> urls = new ArrayList<>();
+		urls.add(prop.getProperty("database_url"));
+		for (String url : prop.getProperty("shard_urls", "").split(",")) {
+			if (!url.trim().isEmpty()) {
+				urls.add(url.trim());
+			}
+		}
+		return urls;
+	}
+
+	/**
+	 * Builds the entity manager factory, which opens the connection pool, and runs a validation query
+	 * Used at startup in the background, so the first login does not wait for Hibernate and the database connection.
+	 * The time of each phase is logged
 	 *
-	 * @return a map with the password, username and url
+	 * @return if the database could be reached
 	 */
-	private static Map<String, String> getProperties() {
+	public static boolean warmUp() {
+		long start = System.nanoTime();
+		try {
+			getEntityManagerFactory();
+			long factoryBuilt = System.nanoTime();
+			EntityManager em = createEntityManager();
+			try {
+				em.createNativeQuery("select 1").getSingleResult();
+			} finally {
+				em.close();
+			}
+			long validated = System.nanoTime();
+			FileLogger.getLogger().log(Level.INFO, String.format("Startup: entity manager factory and connection pool %.1f ms, validation query %.1f ms, total %.1f ms",
+					(factoryBuilt - start) / 1e6, (validated - factoryBuilt) / 1e6, (validated - start) / 1e6));
+			FileLogger.closeHandler();
+			return true;
+		} catch (PersistenceException e) {
+			FileLogger.getLogger().log(Level.FINE, e.getMessage());
+			FileLogger.closeHandler();
+			return false;
+		}
+	}
+
+	/**
+	 * Gets the router for the read replicas. Creates it, with a connection pool for every replica in replica_urls in config.properties,
+	 * if it has not been created. Without replica_urls every read goes to the primary database
+	 * The replicas are health checked in the background every replica_health_check_seconds
+	 *
+	 * @return the replica router
+	 */
+	private static synchronized ReplicaRouter<HikariDataSource> getReplicaRouter() {
+		if (replicaRouter == null) {
+			Properties prop = getConfig();
+			List<HikariDataSource> replicas = new ArrayList<>();
+			String replicaUrls = prop.getProperty("replica_urls", "");
+			for (String url : replicaUrls.split(",")) {
+				if (!url.trim().isEmpty()) {
+					replicas.add(createReplicaDataSource(prop, url.trim(), replicas.size() + 1));
+				}
+			}
+			replicaRouter = new ReplicaRouter<>(replicas, Hibernate::isHealthy, getConfigInt("replica_read_after_write_ms", 5000));
+			if (!replicas.isEmpty()) {
+				replicaHealthChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+					Thread thread = new Thread(runnable, "replica-health-check");
+					thread.setDaemon(true);
+					return thread;
+				});
+				replicaHealthChecker.scheduleWithFixedDelay(replicaRouter::checkHealth, 0,
+						getConfigInt("replica_health_check_seconds", 10), TimeUnit.SECONDS);
+			}
+		}
+		return replicaRouter;
+	}
+
+	/**
+	 * Creates a read only connection pool for a replica, with the same username and password as the primary database
+	 * The pool does not fail if the replica is down, the health check keeps reads away from it instead
+	 * Used in getReplicaRouter
+	 *
+	 * @param prop   the properties from config.properties
+	 * @param url    the url of the replica
+	 * @param number the number of the replica, used in the name of the pool
+	 * @return the connection pool
+	 */
+	private static HikariDataSource createReplicaDataSource(Properties prop, String url, int number) {
+		HikariConfig config = new HikariConfig();
+		config.setPoolName("replica-" + number);
+		config.setJdbcUrl(url);
+		config.setUsername(prop.getProperty("username"));
+		config.setPassword(prop.getProperty("password"));
+		config.setMaximumPoolSize(getConfigInt("pool_size", 10));
+		config.setMinimumIdle(getConfigInt("pool_min_idle", 2));
+		config.setConnectionTimeout(5000);
+		config.setInitializationFailTimeout(-1);
+		config.setReadOnly(true);
+		return new HikariDataSource(config);
+	}
+
+	/**
+	 * Health check of a replica, which can be used if a valid connection can be borrowed from its pool
+	 * Used by the replica router
+	 *
+	 * @param dataSource the connection pool of the replica
+	 * @return if the replica is healthy
+	 */
+	private static boolean isHealthy(HikariDataSource dataSource) {
+		try (Connection connection = dataSource.getConnection()) {
+			return connection.isValid(2);
+		} catch (SQLException e) {
+			FileLogger.getLogger().log(Level.FINE, e.getMessage());
+			FileLogger.closeHandler();
+			return false;
+		}
+	}
+
+	/**
+	 * Runs read only work in the shard of the user that is logged in
+	 * Used in the reads of Repository
+	 *
+	 * @param work the read only work
+	 * @param <T>  the type of the result
+	 * @return the result of the work
+	 */
+	static <T> T read(Function<EntityManager, T> work) {
+		return read(getCurrentShard(), work);
+	}
+
+	/**
+	 * Runs read only work in the shard of a user, instead of the shard of the user that is logged in
+	 * Used by LibraryWatcher, which can still be refreshing the previous user after another user has logged in
+	 *
+	 * @param userId the user id
+	 * @param work   the read only work
+	 * @param <T>    the type of the result
+	 * @return the result of the work
+	 */
+	static <T> T readInShardOf(int userId, Function<EntityManager, T> work) {
+		return read(getShardOf(userId), work);
+	}
+
+	/**
+	 * Runs read only work in a shard. In shard 0 the work runs on a healthy read replica, or on the primary database
+	 * if there is none or this client has just written. The replicas in replica_urls are replicas of shard 0 only
+	 * A replica connection is given to a session of the primary entity manager factory, so the mappings and the second level cache are shared
+	 * Used in read, readInShardOf and getUser
+	 *
+	 * @param shard the shard
+	 * @param work  the read only work
+	 * @param <T>   the type of the result
+	 * @return the result of the work
+	 */
+	private static <T> T read(int shard, Function<EntityManager, T> work) {
+		if (shard != 0) {
+			return readWith(createEntityManager(shard), work);
+		}
+		ReplicaRouter<HikariDataSource> router = getReplicaRouter();
+		Optional<HikariDataSource> replica = router.route();
+		if (replica.isPresent()) {
+			Connection connection = null;
+			try {
+				connection = replica.get().getConnection();
+			} catch (SQLException e) {
+				// The replica is skipped until the health check finds it healthy, and this read goes to the primary
+				router.markUnhealthy(replica.get());
+				FileLogger.getLogger().log(Level.FINE, e.getMessage());
+				FileLogger.closeHandler();
+			}
+			if (connection != null) {
+				try {
+					return readWith(getEntityManagerFactory(0).unwrap(SessionFactory.class).withOptions()
+							.connection(TimedConnectionProvider.timed(connection)).openSession(), work);
+				} finally {
+					closeConnection(connection);
+				}
+			}
+		}
+		return readWith(createEntityManager(0), work);
+	}
+
+	/**
+	 * Runs read only work with an entity manager, and closes it
+	 * Used in read
+	 *
+	 * @param em   the entity manager
+	 * @param work the read only work
+	 * @param <T>  the type of the result
+	 * @return the result of the work
+	 */
+	private static <T> T readWith(EntityManager em, Function<EntityManager, T> work) {
+		try {
+			return work.apply(em);
+		} finally {
+			em.close();
+		}
+	}
+
+	/**
+	 * Gives a replica connection back to its pool
+	 * Used in read
+	 *
+	 * @param connection the connection
+	 */
+	private static void closeConnection(Connection connection) {
+		try {
+			connection.close();
+		} catch (SQLException e) {
+			FileLogger.getLogger().log(Level.FINE, e.getMessage());
+			FileLogger.closeHandler();
+		}
+	}
+
+	/**
+	 * Records that this client has written to the primary database, so its next reads also go to the primary
+	 * Used after every write
+	 */
+	static void recordWrite() {
+		getReplicaRouter().recordWrite();
+	}
+
+	/**
+	 * Closes the entity manager factories and the connection pools, if they are open
+	 * The cache statistics are logged before they are closed
+	 */
+	public static synchronized void close() {
+		if (replicaRouter != null) {
+			if (replicaHealthChecker != null) {
+				replicaHealthChecker.shutdownNow();
+				replicaHealthChecker = null;
+			}
+			replicaRouter.getReplicas().forEach(HikariDataSource::close);
+			replicaRouter = null;
+		}
+		ENTITY_MANAGER_FACTORIES.values().removeIf(entityManagerFactory -> !entityManagerFactory.isOpen());
+		for (EntityManagerFactory entityManagerFactory : ENTITY_MANAGER_FACTORIES.values()) {
+			FileLogger.getLogger().log(Level.INFO, getCacheStatistics(entityManagerFactory));
+			FileLogger.closeHandler();
+		}
+		// The shards share one cache manager, which is closed with the first entity manager factory
+		ENTITY_MANAGER_FACTORIES.values().forEach(EntityManagerFactory::close);
+		ENTITY_MANAGER_FACTORIES.clear();
+		currentShard = 0;
+	}
+
+	/**
+	 * Gets the statistics of the entity manager factory, with among other things the hits, misses and puts
+	 * of the second level cache and the query cache
+	 *
+	 * @return the statistics
+	 */
+	public static Statistics getStatistics() {
+		return getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+	}
+
+	/**
+	 * Gets the statistics of the entity manager factories of the shards that are open, without opening the others
+	 * Used by DatabaseMetrics
+	 *
+	 * @return the statistics
+	 */
+	static synchronized List<Statistics> getOpenStatistics() {
+		List<Statistics> statistics = new ArrayList<>();
+		for (EntityManagerFactory entityManagerFactory : ENTITY_MANAGER_FACTORIES.values()) {
+			if (entityManagerFactory.isOpen()) {
+				statistics.add(entityManagerFactory.unwrap(SessionFactory.class).getStatistics());
+			}
+		}
+		return statistics;
+	}
+
+	/**
+	 * Makes a summary of the hits, misses and puts of the caches and every cache region of the current shard
+	 *
+	 * @return the summary
+	 */
+	public static String getCacheStatistics() {
+		return getCacheStatistics(getEntityManagerFactory());
+	}
+
+	/**
+	 * Makes a summary of the hits, misses and puts of the caches of an entity manager factory
+	 * Used in close and getCacheStatistics
+	 *
+	 * @param entityManagerFactory the entity manager factory
+	 * @return the summary
+	 */
+	private static String getCacheStatistics(EntityManagerFactory entityManagerFactory) {
+		Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+		StringBuilder summary = new StringBuilder("Cache statistics:");
+		summary.append(String.format("%n  second level cache: %d hits, %d misses, %d puts",
+				statistics.getSecondLevelCacheHitCount(), statistics.getSecondLevelCacheMissCount(), statistics.getSecondLevelCachePutCount()));
+		summary.append(String.format("%n  query cache: %d hits, %d misses, %d puts",
+				statistics.getQueryCacheHitCount(), statistics.getQueryCacheMissCount(), statistics.getQueryCachePutCount()));
+		for (String region : statistics.getSecondLevelCacheRegionNames()) {
+			CacheRegionStatistics regionStatistics = statistics.getCacheRegionStatistics(region);
+			if (regionStatistics == null) {
+				continue;
+			}
+			summary.append(String.format("%n  %s: %d hits, %d misses, %d puts", region,
+					regionStatistics.getHitCount(), regionStatistics.getMissCount(), regionStatistics.getPutCount()));
+		}
+		return summary.toString();
+	}
+
+	/**
+	 * Sets up the password, username and url to the database of a shard
+	 * The optional driver, dialect and pool settings in config.properties override the defaults in persistence.xml
+	 *
+	 * @param url the url of the database
+	 * @return a map with the password, username, url and pool settings
+	 */
+	private static Map<String, String> getProperties(String url) {
 		Map<String, String> result = new HashMap<>();
-		try (InputStream input = new FileInputStream("config.properties")) {
-			Properties prop = new Properties();
+		Properties prop = getConfig();
+		result.put("hibernate.connection.username", prop.getProperty("username"));
+		result.put("hibernate.connection.password", prop.getProperty("password"));
+		result.put("hibernate.connection.url", url);
+		putIfPresent(result, "hibernate.connection.driver_class", prop.getProperty("database_driver"));
+		putIfPresent(result, "hibernate.dialect", prop.getProperty("database_dialect"));
+		putIfPresent(result, "hibernate.hikari.maximumPoolSize", prop.getProperty("pool_size"));
+		putIfPresent(result, "hibernate.hikari.minimumIdle", prop.getProperty("pool_min_idle"));
+		putIfPresent(result, "hibernate.hikari.idleTimeout", prop.getProperty("pool_idle_timeout"));
+		putIfPresent(result, "hibernate.hikari.maxLifetime", prop.getProperty("pool_max_lifetime"));
+		return result;
+	}
+
+	/**
+	 * Reads config.properties, or the file in the system property picturerama.config, which the tests use for their embedded databases
+	 *
+	 * @return the properties, empty if the file could not be read
+	 */
+	static Properties getConfig() {
+		Properties prop = new Properties();
+		try (InputStream input = new FileInputStream(System.getProperty("picturerama.config", "config.properties"))) {
 			prop.load(input);
-			result.put("hibernate.connection.username", prop.getProperty("username"));
-			result.put("hibernate.connection.password", prop.getProperty("password"));
-			result.put("hibernate.connection.url", prop.getProperty("database_url"));
 		} catch (IOException ex) {
 			FileLogger.getLogger().log(Level.FINE, ex.getMessage());
 			FileLogger.closeHandler();
 		}
-		return result;
+		return prop;
+	}
+
+	/**
+	 * Reads a whole number from config.properties
+	 *
+	 * @param key          the key of the number
+	 * @param defaultValue the value used if the key is missing or not a number
+	 * @return the number
+	 */
+	static int getConfigInt(String key, int defaultValue) {
+		String value = getConfig().getProperty(key);
+		try {
+			return value == null ? defaultValue : Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			FileLogger.getLogger().log(Level.FINE, e.getMessage());
+			FileLogger.closeHandler();
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Puts a value in the map if it is given
+	 * Used in getProperties
+	 *
+	 * @param map   the map to put the value in
+	 * @param key   the key
+	 * @param value the value, can be null
+	 */
+	private static void putIfPresent(Map<String, String> map, String key, String value) {
+		if (value != null && !value.trim().isEmpty()) {
+			map.put(key, value.trim());
+		}
+	}
+
+	/**
+	 * Finds a user by its username
+	 * The query is cached, so repeated lookups of the same username are served from the query cache and the second level cache
+	 *
+	 * @param em       the entity manager of the unit of work
+	 * @param username the username
+	 * @return the user
+	 * @throws NoResultException if the user was not found
+	 */
+	private static User findUser(EntityManager em, String username) {
+		return em.createQuery(
+				"select e from User e where e.username =:username",
+				User.class)
+				.setParameter("username", username)
+				.setHint(QueryHints.HINT_CACHEABLE, true)
+				.setHint(QueryHints.HINT_CACHE_REGION, USERNAME_QUERY_REGION)
+				.getSingleResult();
 	}
 
 	/**
 	 * Register a new user in the database
+	 * The user directory gives out the id and reserves the username, and the user is saved in the shard the id hashes to,
+	 * which is shard 0 without shard_urls in config.properties. The directory and the shard do not share a transaction,
+	 * so the user is removed from the directory again if it could not be saved in its shard or its shard could not be set
 	 *
 	 * @param username the username
 	 * @param hash     the hash
@@ -83,105 +560,151 @@ public class Hibernate {
 		if (username == null || hash == null || salt == null) {
 			throw new IllegalArgumentException();
 		}
+		return DatabaseMetrics.timeWrite("registerUser", () -> insertUser(username, hash, salt));
+	}
+
+	/**
+	 * Reserves the username in the user directory, and saves the user in its shard
+	 * Used in registerUser
+	 *
+	 * @param username the username
+	 * @param hash     the hash
+	 * @param salt     the salt
+	 * @return if the registration was successful
+	 */
+	private static boolean insertUser(String username, String hash, String salt) {
+		int userId;
+		try {
+			userId = ShardDirectory.register(username);
+		} catch (Exception e) {
+			// The username is taken, or the directory could not be reached
+			FileLogger.getLogger().log(Level.FINE, e.getMessage());
+			FileLogger.closeHandler();
+			return false;
+		}
+		int shard = SHARD_RING.getShard(userId);
+		EntityManager em = createEntityManager(shard);
 		EntityTransaction et = null;
 		boolean isSuccess = false;
 		try {
-			et = getEm().getTransaction();
+			et = em.getTransaction();
 			et.begin();
-			User user = new User();
-			user.setUsername(username);
-			user.setHash(hash);
-			user.setSalt(salt);
-			getEm().persist(user);
+			em.createNativeQuery("insert into USERS (id, username, hash, salt) values (?, ?, ?, ?)")
+					.setParameter(1, userId)
+					.setParameter(2, username)
+					.setParameter(3, hash)
+					.setParameter(4, salt)
+					.executeUpdate();
+			// The directory is updated before the user is committed, so a user is never left in a shard the directory does not point to
+			ShardDirectory.setShard(userId, username, shard);
 			et.commit();
+			recordWrite();
+			CREDENTIALS.remove(username);
 			isSuccess = true;
 		} catch (Exception e) {
-			if (et != null) {
+			if (et != null && et.isActive()) {
 				et.rollback();
 			}
 			FileLogger.getLogger().log(Level.FINE, e.getMessage());
 			FileLogger.closeHandler();
+			removeFromDirectory(userId, username);
+		} finally {
+			em.close();
 		}
 		return isSuccess;
 	}
 
 	/**
-	 * Update user.
+	 * Removes a user from the user directory
+	 * Used when a user is deleted, or could not be registered in its shard
 	 *
-	 * @param user the user to update.
+	 * @param userId   the user id
+	 * @param username the username
 	 */
-	public static void updateUser(User user) {
-		EntityTransaction et = null;
+	private static void removeFromDirectory(int userId, String username) {
 		try {
-			et = getEm().getTransaction();
-			et.begin();
-			getEm().merge(user);
-			getEm().flush();
-			et.commit();
+			ShardDirectory.remove(userId, username);
 		} catch (Exception e) {
-			if (et != null) {
-				et.rollback();
-			}
 			FileLogger.getLogger().log(Level.FINE, e.getMessage());
 			FileLogger.closeHandler();
 		}
 	}
 
 	/**
-	 * Gets salt of user.
+	 * Update user.
+	 * The user is detached, so the graph is reattached with saveOrUpdate. New photos, albums and tags are
+	 * then given their generated ids in place, instead of being replaced by copies as with merge
 	 *
-	 * @param username username of user.
-	 * @return the salt.
-	 * @throws NoResultException if the user was not found.
+	 * @param user the user to update.
 	 */
-	public static String getSalt(String username) throws NoResultException {
+	public static void updateUser(User user) {
+		DatabaseMetrics.timeWrite("updateUser", () -> saveUser(user));
+	}
+
+	/**
+	 * Saves a user graph in a transaction
+	 * Used in updateUser
+	 *
+	 * @param user the user to save
+	 * @return if the user was saved
+	 */
+	private static boolean saveUser(User user) {
+		EntityManager em = createEntityManager();
 		EntityTransaction et = null;
+		boolean isSuccess = false;
 		try {
-			et = getEm().getTransaction();
+			et = em.getTransaction();
 			et.begin();
-			User user = em.createQuery(
-					"select e from User e where e.username =:username",
-					User.class)
-					.setParameter("username", username)
-					.getSingleResult();
+			em.unwrap(Session.class).saveOrUpdate(user);
+			em.flush();
 			et.commit();
-			return user.getSalt();
-		} catch (NoResultException e) {
-			if (et != null) {
+			recordWrite();
+			isSuccess = true;
+		} catch (Exception e) {
+			if (et != null && et.isActive()) {
 				et.rollback();
 			}
 			FileLogger.getLogger().log(Level.FINE, e.getMessage());
 			FileLogger.closeHandler();
-			throw e;
-		} catch (Error | Exception e) {
-			FileLogger.getLogger().log(Level.FINE, e.getMessage());
-			FileLogger.closeHandler();
-			throw e;
+		} finally {
+			em.close();
 		}
+		return isSuccess;
 	}
 
 	/**
 	 * Gets user.
+	 * Only the user itself is loaded. The photos and albums are paged through with Repository
+	 * The credentials cache is asked first, otherwise the user is read in one query without a transaction and put in the cache.
+	 * If there are shards, the shard of the user is looked up in the user directory first
 	 *
 	 * @param username username of user.
 	 * @return the user.
+	 * @throws NoResultException if the user was not found.
 	 */
-	public static User getUser(String username) {
-		EntityTransaction et = null;
+	public static User getUser(String username) throws NoResultException {
+		return DatabaseMetrics.time("getUser", () -> findCachedUser(username));
+	}
+
+	/**
+	 * Gets a user from the credentials cache, or reads it from its shard and puts it in the cache
+	 * Used in getUser
+	 *
+	 * @param username the username
+	 * @return the user
+	 * @throws NoResultException if the user was not found
+	 */
+	private static User findCachedUser(String username) {
+		User cachedUser = CREDENTIALS.get(username);
+		if (cachedUser != null) {
+			return cachedUser;
+		}
 		try {
-			et = getEm().getTransaction();
-			et.begin();
-			User user = getEm().createQuery(
-					"select e from User e where e.username =:username",
-					User.class)
-					.setParameter("username", username)
-					.getSingleResult();
-			et.commit();
+			int shard = SHARD_RING.getShardCount() == 1 ? 0 : ShardDirectory.getShard(username);
+			User user = read(shard, em -> findUser(em, username));
+			CREDENTIALS.put(user);
 			return user;
-		} catch (Exception e) {
-			if (et != null) {
-				et.rollback();
-			}
+		} catch (Error | Exception e) {
 			FileLogger.getLogger().log(Level.FINE, e.getMessage());
 			FileLogger.closeHandler();
 			throw e;
@@ -189,62 +712,56 @@ public class Hibernate {
 	}
 
 	/**
-	 * Login user
+	 * Delete user.
+	 * The user and everything it owns is deleted with set based statements in Repository.deleteUser
 	 *
 	 * @param username the username.
-	 * @param hash     the hash.
-	 * @return if login was successful.
+	 * @return if the user was deleted.
 	 */
-	public static boolean login(String username, String hash) {
-		EntityTransaction et = null;
-		try {
-			et = getEm().getTransaction();
-			et.begin();
-			User user = getEm().createQuery(
-					"select e from User e where e.username =:username and e.hash =:hash",
-					User.class)
-					.setParameter("username", username)
-					.setParameter("hash", hash)
-					.getSingleResult();
-			et.commit();
-			return (user != null);
-		} catch (Exception e) {
-			if (et != null) {
-				et.rollback();
-			}
-			FileLogger.getLogger().log(Level.FINE, e.getMessage());
-			FileLogger.closeHandler();
-			return false;
-		}
+	public static boolean deleteUser(String username) {
+		return DatabaseMetrics.timeWrite("deleteUser", () -> deleteUserAndCredentials(username));
 	}
 
 	/**
-	 * Delete user.
+	 * Deletes a user, and removes it from the credentials cache, the user directory and the username lookups
+	 * Used in deleteUser
 	 *
-	 * @param username the username.
+	 * @param username the username
+	 * @return if the user was deleted
 	 */
-	public static void deleteUser(String username) {
-		EntityTransaction et = null;
+	private static boolean deleteUserAndCredentials(String username) {
+		User user;
+		int shard;
 		try {
-			User user = getUser(username);
-			et = getEm().getTransaction();
-			et.begin();
-			getEm().remove(user);
-			et.commit();
-		} catch (Exception e) {
-			if (et != null) {
-				et.rollback();
-			}
-			FileLogger.getLogger().log(Level.FINE, e.getMessage());
-			FileLogger.closeHandler();
+			user = getUser(username);
+			// The shard is looked up before the user is removed from the directory
+			shard = getShardOf(user.getId());
+		} catch (PersistenceException e) {
+			return false;
 		}
+		if (!Repository.deleteUser(user.getId())) {
+			return false;
+		}
+		CREDENTIALS.remove(username);
+		removeFromDirectory(user.getId(), username);
+		// The username lookups are cached in the shard of the user, and the plain SQL deletes do not invalidate them
+		getEntityManagerFactory(shard).unwrap(SessionFactory.class).getCache().evictQueryRegion(USERNAME_QUERY_REGION);
+		return true;
 	}
 
 	/**
-	 * Method that sets up the database for the application.
+	 * Method that sets up the database for the application, in every shard.
+	 * Creates the tables that are missing, and brings the schema up to date with the migrations that have not been run
 	 */
 	public static void setupDatabase() {
-		entityManagerFactory = Persistence.createEntityManagerFactory("Database-setup", getProperties());
-		entityManagerFactory.close();
+		for (int shard = 0; shard < SHARD_URLS.size(); shard++) {
+			EntityManagerFactory setupFactory = Persistence.createEntityManagerFactory("Database-setup", getProperties(SHARD_URLS.get(shard)));
+			try {
+				// The user directory is kept in shard 0
+				SchemaMigrator.migrate(setupFactory, shard == 0);
+			} finally {
+				setupFactory.close();
+			}
+		}
 	}
 }
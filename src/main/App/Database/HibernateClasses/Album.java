@@ -1,5 +1,8 @@
 package Database.HibernateClasses;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import javax.persistence.*;
 import java.io.Serializable;
 import java.util.HashSet;
@@ -9,6 +12,8 @@ import java.util.Set;
  * Hibernate database class for the table ALBUMS
  */
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @Table(name = "ALBUMS")
 public class Album implements Serializable {
 
@@ -1,20 +1,28 @@
 package Database.HibernateClasses;
 
+import Database.PhotoDerivatives;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import javax.persistence.*;
 import java.io.Serializable;
-import java.util.ArrayList;
+import java.time.LocalDateTime;
 import java.util.HashSet;
-import java.util.List;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
 /**
  * Hibernate database class for the table PHOTOS
  */
 @Entity
+@NamedEntityGraph(name = Photo.WITH_TAGS_GRAPH, attributeNodes = @NamedAttributeNode("tags"))
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @Table(name = "PHOTOS")
 public class Photo implements Serializable {
 
 	private static final long serialVersionUID = 1L;
+	public static final String WITH_TAGS_GRAPH = "Photo.withTags";
 	@Id
 	@GeneratedValue(strategy = GenerationType.IDENTITY)
 	@Column(name = "id", unique = true)
@@ -43,12 +51,21 @@ public class Photo implements Serializable {
 	private String camera;
 	@Column(name = "time")
 	private String time;
+	@Column(name = "taken_at")
+	private LocalDateTime takenAt;
+	@Column(name = "derivative_sizes", length = 64)
+	private String derivativeSizes;
 	@Column(name = "user_id")
 	private int userId;
-	@OneToMany(cascade = CascadeType.ALL, orphanRemoval = true, fetch = FetchType.LAZY)
-	@JoinColumn(name = "photo_id", nullable = false, insertable = false)
-	private List<Tags> tags = new ArrayList<>();
-	@ManyToMany(mappedBy = "photos", cascade = CascadeType.PERSIST, fetch = FetchType.EAGER)
+	@ManyToMany(fetch = FetchType.LAZY)
+	@JoinTable(
+			name = "PHOTO_TAG",
+			joinColumns = {@JoinColumn(name = "photo_id", nullable = false)},
+			inverseJoinColumns = {@JoinColumn(name = "tag_id", nullable = false)}
+	)
+	@OrderBy("name")
+	private Set<Tag> tags = new LinkedHashSet<>();
+	@ManyToMany(mappedBy = "photos", cascade = CascadeType.PERSIST, fetch = FetchType.LAZY)
 	private Set<Album> albums = new HashSet<>();
 
 	public Photo() {
@@ -174,6 +191,32 @@ public class Photo implements Serializable {
 		this.time = time;
 	}
 
+	public LocalDateTime getTakenAt() {
+		return takenAt;
+	}
+
+	public void setTakenAt(LocalDateTime takenAt) {
+		this.takenAt = takenAt;
+	}
+
+	public String getDerivativeSizes() {
+		return derivativeSizes;
+	}
+
+	public void setDerivativeSizes(String derivativeSizes) {
+		this.derivativeSizes = derivativeSizes;
+	}
+
+	/**
+	 * Gets the url of the smallest derivative of the photo that fits a view
+	 *
+	 * @param size the largest side in pixels the photo is shown with
+	 * @return the url of the derivative, or of the original if there is none that fits
+	 */
+	public String getUrl(int size) {
+		return PhotoDerivatives.getUrl(url, derivativeSizes, size);
+	}
+
 	public int getUserId() {
 		return userId;
 	}
@@ -182,11 +225,11 @@ public class Photo implements Serializable {
 		this.userId = userId;
 	}
 
-	public List<Tags> getTags() {
+	public Set<Tag> getTags() {
 		return tags;
 	}
 
-	public void setTags(List<Tags> tags) {
+	public void setTags(Set<Tag> tags) {
 		this.tags = tags;
 	}
 
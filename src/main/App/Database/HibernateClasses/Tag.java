@@ -0,0 +1,92 @@
+package Database.HibernateClasses;
+
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
+import javax.persistence.*;
+import java.io.Serializable;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * Hibernate database class for the table TAG, the dictionary of tag names
+ * Every tag name is stored once, case folded, and photos are linked to it through the join table PHOTO_TAG
+ */
+@Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+@Table(name = "TAG")
+public class Tag implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	@Id
+	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	@Column(name = "id", unique = true)
+	private int id;
+
+	@Column(name = "name", nullable = false, unique = true)
+	private String name;
+
+	public Tag() {
+	}
+
+	public Tag(String name) {
+		this.name = normalize(name);
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public void setId(int id) {
+		this.id = id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = normalize(name);
+	}
+
+	/**
+	 * Case folds a tag name, so the same tag written with different case is stored once
+	 *
+	 * @param name the tag name as written by the user
+	 * @return the trimmed name in lower case
+	 */
+	public static String normalize(String name) {
+		return name.trim().toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Equals method for tags
+	 * Tags are equal if they have the same name
+	 *
+	 * @param o an object o
+	 * @return boolean true/false, depending on if the object is equal to the tag or not.
+	 */
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof Tag)) {
+			return false;
+		}
+		Tag tag = (Tag) o;
+		return Objects.equals(this.getName(), tag.getName());
+	}
+
+	/**
+	 * Generates hashcode for the tag, based on the attributes used in the equals method
+	 *
+	 * @return the hashcode for the tag
+	 */
+	@Override
+	public int hashCode() {
+		return Objects.hashCode(this.getName());
+	}
+}
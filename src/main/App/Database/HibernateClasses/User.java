@@ -1,5 +1,8 @@
 package Database.HibernateClasses;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import javax.persistence.*;
 import java.io.Serializable;
 import java.util.ArrayList;
@@ -9,6 +12,8 @@ import java.util.List;
  * Hibernate database class for the table USERS
  */
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @Table(name = "USERS")
 public class User implements Serializable {
 
@@ -0,0 +1,120 @@
+package Database;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Class for a histogram of latencies that can be recorded from many threads without locking
+ * The buckets grow by a quarter of a power of two, from one microsecond to about a minute, so a percentile is at most
+ * about 19 percent above the real latency. Latencies above the last bucket are counted in the last bucket
+ * Used by DatabaseMetrics
+ */
+public final class LatencyHistogram {
+
+	private static final int BUCKETS_PER_DOUBLING = 4;
+	private static final long[] UPPER_BOUNDS = createUpperBounds(TimeUnit.SECONDS.toNanos(64));
+	private final AtomicLongArray COUNTS = new AtomicLongArray(UPPER_BOUNDS.length);
+	private final AtomicLong COUNT = new AtomicLong();
+	private final AtomicLong TOTAL_NANOS = new AtomicLong();
+	private final AtomicLong MAX_NANOS = new AtomicLong();
+
+	/**
+	 * Records a latency
+	 *
+	 * @param nanos the latency in nanoseconds
+	 */
+	public void record(long nanos) {
+		long latency = Math.max(0, nanos);
+		COUNTS.incrementAndGet(getBucket(latency));
+		COUNT.incrementAndGet();
+		TOTAL_NANOS.addAndGet(latency);
+		MAX_NANOS.accumulateAndGet(latency, Math::max);
+	}
+
+	public long getCount() {
+		return COUNT.get();
+	}
+
+	/**
+	 * Gets the mean latency
+	 *
+	 * @return the mean in milliseconds, 0 if nothing was recorded
+	 */
+	public double getMeanMillis() {
+		long count = COUNT.get();
+		return count == 0 ? 0 : TOTAL_NANOS.get() / 1e6 / count;
+	}
+
+	/**
+	 * Gets the highest latency
+	 *
+	 * @return the highest latency in milliseconds
+	 */
+	public double getMaxMillis() {
+		return MAX_NANOS.get() / 1e6;
+	}
+
+	/**
+	 * Gets the latency that a share of the recorded latencies are at or below
+	 * The upper bound of the bucket the percentile falls in is given, but never more than the highest latency
+	 *
+	 * @param percentile the percentile, from 0 to 100
+	 * @return the latency in milliseconds, 0 if nothing was recorded
+	 */
+	public double getPercentileMillis(double percentile) {
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException("The percentile must be from 0 to 100");
+		}
+		long count = COUNT.get();
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+		long seen = 0;
+		for (int bucket = 0; bucket < UPPER_BOUNDS.length; bucket++) {
+			seen += COUNTS.get(bucket);
+			if (seen >= rank) {
+				// The last bucket has no upper bound, so the highest latency is given
+				long bound = bucket == UPPER_BOUNDS.length - 1 ? Long.MAX_VALUE : UPPER_BOUNDS[bucket];
+				return Math.min(bound, MAX_NANOS.get()) / 1e6;
+			}
+		}
+		return getMaxMillis();
+	}
+
+	/**
+	 * Gets the bucket of a latency, the first bucket with an upper bound at or above it
+	 *
+	 * @param nanos the latency in nanoseconds
+	 * @return the index of the bucket
+	 */
+	private static int getBucket(long nanos) {
+		int low = 0;
+		int high = UPPER_BOUNDS.length - 1;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (UPPER_BOUNDS[middle] < nanos) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Creates the upper bounds of the buckets, from one microsecond and up to a highest latency
+	 *
+	 * @param maxNanos the highest latency in nanoseconds
+	 * @return the upper bounds in nanoseconds, in increasing order
+	 */
+	private static long[] createUpperBounds(long maxNanos) {
+		int doublings = 64 - Long.numberOfLeadingZeros(maxNanos / 1000);
+		long[] bounds = new long[doublings * BUCKETS_PER_DOUBLING + 1];
+		for (int i = 0; i < bounds.length; i++) {
+			bounds[i] = Math.round(1000 * Math.pow(2, (double) i / BUCKETS_PER_DOUBLING));
+		}
+		return bounds;
+	}
+}
@@ -0,0 +1,59 @@
+package Database;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Class for the changes to a user's library since the last refresh, made by this or another running program
+ * Views merge the changes into the photos and albums they have loaded, instead of loading everything again
+ */
+public final class LibraryChanges {
+
+	private final List<PhotoSummary> PHOTOS = new ArrayList<>();
+	private final List<AlbumSummary> ALBUMS = new ArrayList<>();
+	private final Set<Integer> DELETED_PHOTO_IDS = new HashSet<>();
+	private final Set<Integer> DELETED_ALBUM_IDS = new HashSet<>();
+
+	/**
+	 * Constructor for changes that are filled in by LibraryWatcher
+	 */
+	LibraryChanges() {
+	}
+
+	/**
+	 * Gets the photos that were added or changed, with their tags, ordered by id
+	 *
+	 * @return the photo summaries
+	 */
+	public List<PhotoSummary> getPhotos() {
+		return PHOTOS;
+	}
+
+	/**
+	 * Gets the albums that were added or changed, or had photos added or removed, ordered by id
+	 *
+	 * @return the album summaries
+	 */
+	public List<AlbumSummary> getAlbums() {
+		return ALBUMS;
+	}
+
+	public Set<Integer> getDeletedPhotoIds() {
+		return DELETED_PHOTO_IDS;
+	}
+
+	public Set<Integer> getDeletedAlbumIds() {
+		return DELETED_ALBUM_IDS;
+	}
+
+	/**
+	 * Checks if nothing changed
+	 *
+	 * @return if there are no changes
+	 */
+	public boolean isEmpty() {
+		return PHOTOS.isEmpty() && ALBUMS.isEmpty() && DELETED_PHOTO_IDS.isEmpty() && DELETED_ALBUM_IDS.isEmpty();
+	}
+}
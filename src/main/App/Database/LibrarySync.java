@@ -0,0 +1,388 @@
+package Database;
+
+import Components.FileLogger;
+import Database.HibernateClasses.Photo;
+import Database.HibernateClasses.Tag;
+import org.hibernate.Session;
+import org.hibernate.jdbc.ReturningWork;
+
+import javax.persistence.EntityManager;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+
+/**
+ * Class that syncs the local library with the remote database
+ * First the changes in the outbox are sent, oldest first. A change is not sent for the rows that were changed remotely
+ * after it was made, or deleted remotely, so the last writer wins. A change that fails MAX_ATTEMPTS times is given up.
+ * The rows of a change that was not sent are read again, so the local rows go back to the remote version.
+ * Then the rows that changed remotely since the last sync are read with the modification times updated_at,
+ * and the ids of all the rows are read to find the rows that were deleted remotely
+ * Used by LocalLibrary, on its own thread
+ */
+final class LibrarySync {
+
+	private static final int MAX_ATTEMPTS = 5;
+	private static final int IN_LIST_SIZE = 1000;
+	// Rows are read again from a while before the last sync, in case a transaction that set updated_at before it committed after it
+	private static final long SYNC_MARGIN_MILLIS = 5000;
+
+	/**
+	 * Private constructor to hinder creation of utility class
+	 */
+	private LibrarySync() {
+		throw new IllegalStateException("Utility class");
+	}
+
+	/**
+	 * Syncs the local library that is open with the remote database, in the shard of its user
+	 * Failures are logged, and the sync is tried again the next time
+	 */
+	static void sync() {
+		if (!LocalLibrary.isOpen()) {
+			return;
+		}
+		int userId = LocalLibrary.getUserId();
+		try {
+			Hibernate.runInShardOf(userId, () -> {
+				long localBefore = System.currentTimeMillis();
+				Timestamp remoteNow = readRemote(LibrarySync::getRemoteTime);
+				// The changes in the outbox have times from this computer, which are moved to the clock of the remote database
+				long clockOffset = remoteNow.getTime() - (localBefore + System.currentTimeMillis()) / 2;
+				send(userId, remoteNow, clockOffset);
+				// The rows of the changes that are still in the outbox are not applied, the other remote changes are
+				Timestamp syncPoint = LocalLibrary.getSyncPoint();
+				Timestamp since = new Timestamp(syncPoint == null ? 0 : syncPoint.getTime() - SYNC_MARGIN_MILLIS);
+				Map<String, Set<Integer>> repull = LocalLibrary.getRepull();
+				LocalLibrary.apply(readRemote(connection -> readChanges(connection, userId, since, repull, remoteNow)));
+			});
+		} catch (RuntimeException e) {
+			FileLogger.getLogger().log(Level.FINE, e.getMessage());
+			FileLogger.closeHandler();
+		}
+	}
+
+	/**
+	 * Sends the changes in the outbox to the remote database, oldest first, and stops at the first change that fails
+	 * Used in sync
+	 *
+	 * @param userId      the id of the user of the library
+	 * @param remoteNow   the remote time before the changes are sent
+	 * @param clockOffset the remote time minus the time on this computer, in milliseconds
+	 */
+	private static void send(int userId, Timestamp remoteNow, long clockOffset) {
+		List<LocalLibrary.OutboxEntry> entries = LocalLibrary.getOutbox();
+		if (entries.isEmpty()) {
+			return;
+		}
+		LocalLibrary.startOwnWrites(remoteNow);
+		Timestamp ownWritesFrom = LocalLibrary.getOwnWritesFrom();
+		Map<String, Map<Integer, Timestamp>> modificationTimes = readRemote(connection -> getModificationTimes(connection, userId, entries));
+		for (LocalLibrary.OutboxEntry entry : entries) {
+			OutboxOperation operation = entry.getOperation();
+			Map<Integer, Timestamp> tableTimes = modificationTimes.get(operation.getTable());
+			Timestamp changedAt = new Timestamp(entry.getChangedAt() + clockOffset);
+			List<Integer> rowIds = operation.getRowIds(entry.getTargetId(), entry.getArguments());
+			List<Integer> keptIds = rowIds.stream()
+					.filter(id -> !isNewerRemotely(tableTimes.get(id), changedAt, ownWritesFrom))
+					.collect(Collectors.toList());
+			List<String> arguments = operation.isDelete() ? keptIds.stream().map(String::valueOf).collect(Collectors.toList()) : entry.getArguments();
+			if (keptIds.isEmpty() || operation.send(entry.getTargetId(), arguments)) {
+				List<Integer> lostIds = rowIds.stream().filter(id -> !keptIds.contains(id)).collect(Collectors.toList());
+				LocalLibrary.removeFromOutbox(entry.getSeq(), operation.getTable(), lostIds);
+				if (!lostIds.isEmpty()) {
+					FileLogger.getLogger().log(Level.INFO, String.format("Sync: %s kept the remote version of %d rows that were changed or deleted after the local change",
+							operation, lostIds.size()));
+					FileLogger.closeHandler();
+				}
+			} else {
+				// The remote database was just read, so a change that keeps failing is one it does not accept
+				if (LocalLibrary.recordFailedAttempt(entry.getSeq()) >= MAX_ATTEMPTS) {
+					LocalLibrary.removeFromOutbox(entry.getSeq(), operation.getTable(), rowIds);
+					FileLogger.getLogger().log(Level.WARNING, String.format("Sync: %s was given up after %d failed attempts, and its %d rows are read again",
+							operation, MAX_ATTEMPTS, rowIds.size()));
+					FileLogger.closeHandler();
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Checks if a row was changed remotely after a local change, by another client.
+	 * Remote changes from the time this library started sending its changes are counted as its own
+	 *
+	 * @param remoteTime    the remote modification time of the row, null if the row is not in the remote database
+	 * @param changedAt     the time of the local change, on the remote clock
+	 * @param ownWritesFrom the remote time this library started sending its changes
+	 * @return if the remote row wins over the local change
+	 */
+	private static boolean isNewerRemotely(Timestamp remoteTime, Timestamp changedAt, Timestamp ownWritesFrom) {
+		return remoteTime == null || (remoteTime.after(changedAt) && remoteTime.before(ownWritesFrom));
+	}
+
+	/**
+	 * Runs JDBC work on the remote database of the current shard
+	 *
+	 * @param work the work
+	 * @param <T>  the type of the result
+	 * @return the result of the work
+	 */
+	private static <T> T readRemote(ReturningWork<T> work) {
+		EntityManager em = Hibernate.createEntityManager();
+		try {
+			return em.unwrap(Session.class).doReturningWork(work);
+		} finally {
+			em.close();
+		}
+	}
+
+	/**
+	 * Reads the time of the remote database
+	 *
+	 * @param connection the remote connection
+	 * @return the remote time
+	 * @throws SQLException if the time could not be read
+	 */
+	private static Timestamp getRemoteTime(Connection connection) throws SQLException {
+		try (Statement statement = connection.createStatement();
+		     ResultSet now = statement.executeQuery("select current_timestamp(3)")) {
+			now.next();
+			return now.getTimestamp(1);
+		}
+	}
+
+	/**
+	 * Reads the remote modification times of the rows the changes in the outbox are made on
+	 *
+	 * @param connection the remote connection
+	 * @param userId     the id of the user, rows of other users are left out
+	 * @param entries    the changes in the outbox
+	 * @return the modification times by id, by table
+	 * @throws SQLException if the times could not be read
+	 */
+	private static Map<String, Map<Integer, Timestamp>> getModificationTimes(Connection connection, int userId, List<LocalLibrary.OutboxEntry> entries) throws SQLException {
+		Map<String, Set<Integer>> rowIds = new HashMap<>();
+		for (LocalLibrary.OutboxEntry entry : entries) {
+			rowIds.computeIfAbsent(entry.getOperation().getTable(), table -> new HashSet<>())
+					.addAll(entry.getOperation().getRowIds(entry.getTargetId(), entry.getArguments()));
+		}
+		Map<String, Map<Integer, Timestamp>> times = new HashMap<>();
+		for (OutboxOperation operation : OutboxOperation.values()) {
+			times.putIfAbsent(operation.getTable(), new HashMap<>());
+		}
+		for (Map.Entry<String, Set<Integer>> table : rowIds.entrySet()) {
+			List<Integer> ids = new ArrayList<>(table.getValue());
+			for (int from = 0; from < ids.size(); from += IN_LIST_SIZE) {
+				String idList = ids.subList(from, Math.min(from + IN_LIST_SIZE, ids.size())).stream().map(String::valueOf).collect(Collectors.joining(", "));
+				try (PreparedStatement select = connection.prepareStatement("select id, updated_at from " + table.getKey()
+						+ " where user_id = ? and id in (" + idList + ")")) {
+					select.setInt(1, userId);
+					try (ResultSet rows = select.executeQuery()) {
+						while (rows.next()) {
+							times.get(table.getKey()).put(rows.getInt(1), rows.getTimestamp(2));
+						}
+					}
+				}
+			}
+		}
+		return times;
+	}
+
+	/**
+	 * Reads the rows of a user that changed remotely since a time or are read again, and the ids of all the user's photos and albums
+	 *
+	 * @param connection the remote connection
+	 * @param userId     the id of the user
+	 * @param since      the time, rows with a later modification time are read
+	 * @param repull     the ids of the rows that are read again by table, PHOTOS or ALBUMS
+	 * @param remoteNow  the remote time before the rows are read, which becomes the sync point
+	 * @return the changes
+	 * @throws SQLException if the changes could not be read
+	 */
+	private static RemoteChanges readChanges(Connection connection, int userId, Timestamp since, Map<String, Set<Integer>> repull, Timestamp remoteNow) throws SQLException {
+		RemoteChanges changes = new RemoteChanges(remoteNow);
+		Map<Integer, Photo> photos = new LinkedHashMap<>();
+		String photoChanged = getChangedCondition("p", repull.get("PHOTOS"));
+		String albumChanged = getChangedCondition("a", repull.get("ALBUMS"));
+		try (PreparedStatement select = prepare(connection, "select id, title, url, latitude, longitude, width, height, file_type, file_size,"
+				+ " aperture, exposure_time, camera_model, time, taken_at, derivative_sizes from PHOTOS p where user_id = ? and " + photoChanged, userId, since);
+		     ResultSet rows = select.executeQuery()) {
+			while (rows.next()) {
+				Photo photo = new Photo(rows.getString("title"), rows.getString("url"), (Double) rows.getObject("latitude"), (Double) rows.getObject("longitude"),
+						(Integer) rows.getObject("width"), (Integer) rows.getObject("height"), rows.getString("file_type"),
+						(Integer) rows.getObject("file_size"), rows.getString("aperture"), rows.getString("exposure_time"),
+						rows.getString("camera_model"), rows.getString("time"), userId);
+				photo.setId(rows.getInt("id"));
+				Timestamp takenAt = rows.getTimestamp("taken_at");
+				photo.setTakenAt(takenAt == null ? null : takenAt.toLocalDateTime());
+				photo.setDerivativeSizes(rows.getString("derivative_sizes"));
+				photos.put(photo.getId(), photo);
+			}
+		}
+		try (PreparedStatement select = prepare(connection, "select pt.photo_id, t.name from PHOTO_TAG pt join TAG t on t.id = pt.tag_id"
+				+ " join PHOTOS p on p.id = pt.photo_id where p.user_id = ? and " + photoChanged, userId, since);
+		     ResultSet rows = select.executeQuery()) {
+			while (rows.next()) {
+				Photo photo = photos.get(rows.getInt(1));
+				if (photo != null) {
+					photo.getTags().add(new Tag(rows.getString(2)));
+				}
+			}
+		}
+		changes.PHOTOS.addAll(photos.values());
+		try (PreparedStatement select = prepare(connection, "select id, name from ALBUMS a where user_id = ? and " + albumChanged, userId, since);
+		     ResultSet rows = select.executeQuery()) {
+			while (rows.next()) {
+				changes.ALBUM_NAMES.put(rows.getInt(1), rows.getString(2));
+				changes.ALBUM_PHOTO_IDS.put(rows.getInt(1), new ArrayList<>());
+			}
+		}
+		try (PreparedStatement select = prepare(connection, "select ap.album_id, ap.photo_id from ALBUMPHOTO ap join ALBUMS a on a.id = ap.album_id"
+				+ " where a.user_id = ? and " + albumChanged, userId, since);
+		     ResultSet rows = select.executeQuery()) {
+			while (rows.next()) {
+				changes.ALBUM_PHOTO_IDS.computeIfAbsent(rows.getInt(1), id -> new ArrayList<>()).add(rows.getInt(2));
+			}
+		}
+		readIds(connection, "select id from PHOTOS where user_id = ?", userId, changes.PHOTO_IDS);
+		readIds(connection, "select id from ALBUMS where user_id = ?", userId, changes.ALBUM_IDS);
+		return changes;
+	}
+
+	/**
+	 * Makes the condition for the rows that changed since a time, with the time as parameter, or that are read again
+	 *
+	 * @param alias  the alias of the table in the query
+	 * @param repull the ids of the rows of the table that are read again, null if there are none
+	 * @return the condition
+	 */
+	private static String getChangedCondition(String alias, Set<Integer> repull) {
+		if (repull == null || repull.isEmpty()) {
+			return alias + ".updated_at > ?";
+		}
+		String idList = repull.stream().map(String::valueOf).collect(Collectors.joining(", "));
+		return "(" + alias + ".updated_at > ? or " + alias + ".id in (" + idList + "))";
+	}
+
+	/**
+	 * Prepares a query on the rows of a user that changed since a time
+	 *
+	 * @param connection the remote connection
+	 * @param sql        the query, with the user id and the time as parameters
+	 * @param userId     the id of the user
+	 * @param since      the time
+	 * @return the prepared query
+	 * @throws SQLException if the query could not be prepared
+	 */
+	private static PreparedStatement prepare(Connection connection, String sql, int userId, Timestamp since) throws SQLException {
+		PreparedStatement statement = connection.prepareStatement(sql);
+		statement.setInt(1, userId);
+		statement.setTimestamp(2, since);
+		return statement;
+	}
+
+	/**
+	 * Reads the ids of a user's rows
+	 *
+	 * @param connection the remote connection
+	 * @param sql        the query, with the user id as parameter
+	 * @param userId     the id of the user
+	 * @param ids        the collection the ids are added to
+	 * @throws SQLException if the ids could not be read
+	 */
+	private static void readIds(Connection connection, String sql, int userId, Collection<Integer> ids) throws SQLException {
+		try (PreparedStatement select = connection.prepareStatement(sql)) {
+			select.setInt(1, userId);
+			try (ResultSet rows = select.executeQuery()) {
+				while (rows.next()) {
+					ids.add(rows.getInt(1));
+				}
+			}
+		}
+	}
+
+	/**
+	 * The rows that changed remotely since the last sync, and the ids of all the remote rows
+	 */
+	static final class RemoteChanges {
+
+		private final List<Photo> PHOTOS = new ArrayList<>();
+		private final Map<Integer, String> ALBUM_NAMES = new LinkedHashMap<>();
+		private final Map<Integer, List<Integer>> ALBUM_PHOTO_IDS = new HashMap<>();
+		private final Set<Integer> PHOTO_IDS = new HashSet<>();
+		private final Set<Integer> ALBUM_IDS = new HashSet<>();
+		private final Timestamp SYNC_POINT;
+
+		private RemoteChanges(Timestamp syncPoint) {
+			this.SYNC_POINT = syncPoint;
+		}
+
+		/**
+		 * Gets the photos that changed, with their tags
+		 *
+		 * @return the photos
+		 */
+		List<Photo> getPhotos() {
+			return PHOTOS;
+		}
+
+		/**
+		 * Gets the names of the albums that changed
+		 *
+		 * @return the names by album id
+		 */
+		Map<Integer, String> getAlbumNames() {
+			return ALBUM_NAMES;
+		}
+
+		/**
+		 * Gets the photos of the albums that changed
+		 *
+		 * @return the photo ids by album id
+		 */
+		Map<Integer, List<Integer>> getAlbumPhotoIds() {
+			return ALBUM_PHOTO_IDS;
+		}
+
+		/**
+		 * Gets the ids of all the remote photos of the user
+		 *
+		 * @return the photo ids
+		 */
+		Set<Integer> getPhotoIds() {
+			return PHOTO_IDS;
+		}
+
+		/**
+		 * Gets the ids of all the remote albums of the user
+		 *
+		 * @return the album ids
+		 */
+		Set<Integer> getAlbumIds() {
+			return ALBUM_IDS;
+		}
+
+		/**
+		 * Gets the remote time the changes were read at, the next sync reads the rows that changed after it
+		 *
+		 * @return the time
+		 */
+		Timestamp getSyncPoint() {
+			return SYNC_POINT;
+		}
+	}
+}
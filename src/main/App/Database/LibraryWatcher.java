@@ -0,0 +1,454 @@
+package Database;
+
+import Components.FileLogger;
+import Database.HibernateClasses.Album;
+import Database.HibernateClasses.Photo;
+import javafx.application.Platform;
+import org.hibernate.Session;
+
+import javax.persistence.Cache;
+import javax.persistence.EntityManager;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+/**
+ * Class that refreshes the program with the changes other running programs make to the library of the user that is logged in.
+ * Every library_refresh_seconds one query reads how many photos and albums the user has and their newest modification times updated_at.
+ * Only if those differ from the last refresh are the rows that changed since then read, and the ids of all the rows only if rows were deleted.
+ * The changed rows are evicted from the second level cache, and the changes are given to the listeners on the JavaFX thread.
+ * The user is not refreshed while the local library serves it, since the local library is synced by itself
+ */
+public final class LibraryWatcher {
+
+	// Rows are read again from a while before the last refresh, in case a transaction that set updated_at before it committed after it
+	private static final long REFRESH_MARGIN_MILLIS = 5000;
+	private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "library-watcher");
+		thread.setDaemon(true);
+		return thread;
+	});
+	// Views are only kept weakly, so a view that is not shown anymore can be collected without removing its listener
+	private static final Set<Consumer<LibraryChanges>> LISTENERS = Collections.newSetFromMap(new WeakHashMap<>());
+	private static int userId;
+	private static Snapshot snapshot;
+	private static ScheduledFuture<?> refreshTask;
+
+	/**
+	 * Private constructor to hinder creation of utility class
+	 */
+	private LibraryWatcher() {
+		throw new IllegalStateException("Utility class");
+	}
+
+	/**
+	 * Starts refreshing the library of a user every library_refresh_seconds in the background, unless it is 0
+	 * Used when a user is logged in
+	 *
+	 * @param loggedInUserId the id of the user
+	 */
+	public static void start(int loggedInUserId) {
+		int seconds = Hibernate.getConfigInt("library_refresh_seconds", 15);
+		if (seconds <= 0) {
+			return;
+		}
+		submit(() -> {
+			stopRefreshing();
+			synchronized (LibraryWatcher.class) {
+				userId = loggedInUserId;
+			}
+			// The first refresh only remembers the state of the library
+			refreshTask = EXECUTOR.scheduleWithFixedDelay(LibraryWatcher::refresh, 0, seconds, TimeUnit.SECONDS);
+		});
+	}
+
+	/**
+	 * Stops refreshing the library in the background
+	 * Used when the user logs out
+	 */
+	public static void stop() {
+		submit(LibraryWatcher::stopRefreshing);
+	}
+
+	/**
+	 * Stops refreshing, without waiting for a refresh that is running
+	 * Used when the program is closed
+	 */
+	public static void shutdown() {
+		EXECUTOR.shutdownNow();
+	}
+
+	/**
+	 * Runs work on the thread of the watcher
+	 *
+	 * @param work the work
+	 */
+	private static void submit(Runnable work) {
+		try {
+			EXECUTOR.execute(work);
+		} catch (RejectedExecutionException e) {
+			FileLogger.getLogger().log(Level.FINE, e.getMessage());
+			FileLogger.closeHandler();
+		}
+	}
+
+	/**
+	 * Cancels the refreshes and forgets the library that was refreshed
+	 * Used in start and stop
+	 */
+	private static void stopRefreshing() {
+		if (refreshTask != null) {
+			refreshTask.cancel(false);
+			refreshTask = null;
+		}
+		synchronized (LibraryWatcher.class) {
+			userId = 0;
+			snapshot = null;
+		}
+	}
+
+	/**
+	 * Adds a listener that is given the changes of every refresh that found changes, on the JavaFX thread.
+	 * The listener is only kept weakly, so the view that adds it must keep a reference to it as long as it wants the changes
+	 *
+	 * @param listener the listener
+	 */
+	public static void addListener(Consumer<LibraryChanges> listener) {
+		synchronized (LISTENERS) {
+			LISTENERS.add(listener);
+		}
+	}
+
+	/**
+	 * Removes a listener, so it is not given the changes of the next refreshes.
+	 * Used when the view that added it is replaced, so a view nobody sees does not merge changes until it is garbage collected
+	 *
+	 * @param listener the listener
+	 */
+	public static void removeListener(Consumer<LibraryChanges> listener) {
+		synchronized (LISTENERS) {
+			LISTENERS.remove(listener);
+		}
+	}
+
+	/**
+	 * Reads the changes to the library since the last refresh, evicts the changed rows from the second level cache and gives the changes to the listeners
+	 * The first refresh after a user has logged in only remembers the state of the library. Failures are logged, and the changes are read again the next time
+	 * Used every library_refresh_seconds, and can be used to refresh at once from a background thread
+	 *
+	 * @return the changes, empty if nothing changed or the changes could not be read
+	 */
+	public static synchronized LibraryChanges refresh() {
+		LibraryChanges changes = new LibraryChanges();
+		if (userId == 0 || LocalLibrary.isServing(userId)) {
+			return changes;
+		}
+		int watchedUserId = userId;
+		Snapshot last = snapshot;
+		Snapshot next = new Snapshot(last);
+		try {
+			DatabaseMetrics.time("refreshLibrary", () -> Hibernate.readInShardOf(watchedUserId, em -> readChanges(em, watchedUserId, last, next, changes)));
+		} catch (RuntimeException e) {
+			FileLogger.getLogger().log(Level.FINE, e.getMessage());
+			FileLogger.closeHandler();
+			return new LibraryChanges();
+		}
+		snapshot = next;
+		if (!changes.isEmpty()) {
+			evictFromCache(watchedUserId, changes);
+			notifyListeners(changes);
+		}
+		return changes;
+	}
+
+	/**
+	 * Reads the changes since the last snapshot of the library, and updates the next snapshot
+	 * Used in refresh
+	 *
+	 * @param em      the entity manager of the read
+	 * @param userId  the id of the user
+	 * @param last    the snapshot of the last refresh, null if there was none
+	 * @param next    the snapshot that is updated
+	 * @param changes the changes that are filled in
+	 * @return nothing
+	 */
+	private static Void readChanges(EntityManager em, int userId, Snapshot last, Snapshot next, LibraryChanges changes) {
+		Session session = em.unwrap(Session.class);
+		Counts counts = session.doReturningWork(connection -> readCounts(connection, userId));
+		boolean isFirst = last == null;
+		if (isFirst || counts.PHOTO_COUNT != last.PHOTO_IDS.size() || !Objects.equals(counts.PHOTOS_CHANGED_AT, last.photosChangedAt)) {
+			session.doWork(connection -> readPhotoChanges(connection, userId, isFirst, counts.PHOTO_COUNT, next, changes));
+			next.photosChangedAt = counts.PHOTOS_CHANGED_AT;
+		}
+		if (isFirst || counts.ALBUM_COUNT != last.ALBUM_IDS.size() || !Objects.equals(counts.ALBUMS_CHANGED_AT, last.albumsChangedAt)) {
+			List<Integer> changedAlbumIds = session.doReturningWork(connection -> readAlbumChanges(connection, userId, isFirst, counts.ALBUM_COUNT, next, changes));
+			if (!changedAlbumIds.isEmpty()) {
+				changes.getAlbums().addAll(em.createQuery("select new Database.AlbumSummary(a.id, a.name, count(p), max(p.takenAt), max(p.id))" +
+						" from Album a left join a.photos p where a.id in :albumIds group by a.id, a.name order by a.id", AlbumSummary.class)
+						.setParameter("albumIds", changedAlbumIds)
+						.getResultList());
+			}
+			next.albumsChangedAt = counts.ALBUMS_CHANGED_AT;
+		}
+		return null;
+	}
+
+	/**
+	 * Reads how many photos and albums a user has, and their newest modification times, in one query on the indexes of user_id and updated_at
+	 *
+	 * @param connection the connection
+	 * @param userId     the id of the user
+	 * @return the counts and times
+	 * @throws SQLException if the query failed
+	 */
+	private static Counts readCounts(Connection connection, int userId) throws SQLException {
+		try (PreparedStatement select = connection.prepareStatement("select (select count(*) from PHOTOS where user_id = ?), (select max(updated_at) from PHOTOS where user_id = ?),"
+				+ " (select count(*) from ALBUMS where user_id = ?), (select max(updated_at) from ALBUMS where user_id = ?)")) {
+			for (int i = 1; i <= 4; i++) {
+				select.setInt(i, userId);
+			}
+			try (ResultSet row = select.executeQuery()) {
+				row.next();
+				return new Counts(row.getLong(1), row.getTimestamp(2), row.getLong(3), row.getTimestamp(4));
+			}
+		}
+	}
+
+	/**
+	 * Reads the photos that changed since the last snapshot with their tags, and finds the deleted photos if the number of photos does not add up
+	 * The first refresh only reads the ids of the photos
+	 *
+	 * @param connection the connection
+	 * @param userId     the id of the user
+	 * @param isFirst    if this is the first refresh
+	 * @param photoCount the number of photos the user has
+	 * @param next       the snapshot that is updated
+	 * @param changes    the changes that are filled in
+	 * @throws SQLException if the photos could not be read
+	 */
+	private static void readPhotoChanges(Connection connection, int userId, boolean isFirst, long photoCount, Snapshot next, LibraryChanges changes) throws SQLException {
+		if (isFirst) {
+			readIds(connection, "select id from PHOTOS where user_id = ?", userId, next.PHOTO_IDS);
+			return;
+		}
+		Timestamp since = getSince(next.photosChangedAt);
+		Map<Integer, PhotoSummary> photos = new LinkedHashMap<>();
+		try (PreparedStatement select = prepare(connection, "select id, title, url, derivative_sizes from PHOTOS where user_id = ? and updated_at > ? order by id", userId, since);
+		     ResultSet rows = select.executeQuery()) {
+			while (rows.next()) {
+				photos.put(rows.getInt(1), new PhotoSummary(rows.getInt(1), rows.getString(2), rows.getString(3), rows.getString(4)));
+			}
+		}
+		try (PreparedStatement select = prepare(connection, "select pt.photo_id, t.name from PHOTO_TAG pt join TAG t on t.id = pt.tag_id"
+				+ " join PHOTOS p on p.id = pt.photo_id where p.user_id = ? and p.updated_at > ? order by t.name", userId, since);
+		     ResultSet rows = select.executeQuery()) {
+			while (rows.next()) {
+				PhotoSummary photo = photos.get(rows.getInt(1));
+				if (photo != null) {
+					photo.getTags().add(rows.getString(2));
+				}
+			}
+		}
+		changes.getPhotos().addAll(photos.values());
+		findDeleted(connection, "select id from PHOTOS where user_id = ?", userId, photoCount, photos.keySet(), next.PHOTO_IDS, changes.getDeletedPhotoIds());
+	}
+
+	/**
+	 * Reads the ids of the albums that changed since the last snapshot, and finds the deleted albums if the number of albums does not add up
+	 * The first refresh only reads the ids of the albums
+	 *
+	 * @param connection the connection
+	 * @param userId     the id of the user
+	 * @param isFirst    if this is the first refresh
+	 * @param albumCount the number of albums the user has
+	 * @param next       the snapshot that is updated
+	 * @param changes    the changes the deleted albums are added to
+	 * @return the ids of the changed albums
+	 * @throws SQLException if the albums could not be read
+	 */
+	private static List<Integer> readAlbumChanges(Connection connection, int userId, boolean isFirst, long albumCount, Snapshot next, LibraryChanges changes) throws SQLException {
+		if (isFirst) {
+			readIds(connection, "select id from ALBUMS where user_id = ?", userId, next.ALBUM_IDS);
+			return Collections.emptyList();
+		}
+		List<Integer> albumIds = new ArrayList<>();
+		try (PreparedStatement select = prepare(connection, "select id from ALBUMS where user_id = ? and updated_at > ?", userId, getSince(next.albumsChangedAt));
+		     ResultSet rows = select.executeQuery()) {
+			while (rows.next()) {
+				albumIds.add(rows.getInt(1));
+			}
+		}
+		findDeleted(connection, "select id from ALBUMS where user_id = ?", userId, albumCount, albumIds, next.ALBUM_IDS, changes.getDeletedAlbumIds());
+		return albumIds;
+	}
+
+	/**
+	 * Adds the changed ids to the known ids. If the user has fewer rows than that, rows were deleted,
+	 * and the ids of all the rows are read to find them
+	 *
+	 * @param connection the connection
+	 * @param sql        the query for the ids of all the rows of the user
+	 * @param userId     the id of the user
+	 * @param count      the number of rows the user has
+	 * @param changedIds the ids of the rows that changed
+	 * @param knownIds   the ids of the rows at the last refresh, which are updated
+	 * @param deletedIds the set the ids of the deleted rows are added to
+	 * @throws SQLException if the ids could not be read
+	 */
+	private static void findDeleted(Connection connection, String sql, int userId, long count, Iterable<Integer> changedIds, Set<Integer> knownIds, Set<Integer> deletedIds) throws SQLException {
+		changedIds.forEach(knownIds::add);
+		if (count == knownIds.size()) {
+			return;
+		}
+		Set<Integer> ids = new HashSet<>();
+		readIds(connection, sql, userId, ids);
+		knownIds.stream().filter(id -> !ids.contains(id)).forEach(deletedIds::add);
+		knownIds.clear();
+		knownIds.addAll(ids);
+	}
+
+	/**
+	 * Gets the time rows are read from, a while before the newest modification time of the last refresh
+	 *
+	 * @param changedAt the newest modification time of the last refresh, null if there were no rows
+	 * @return the time
+	 */
+	private static Timestamp getSince(Timestamp changedAt) {
+		return new Timestamp(changedAt == null ? 0 : changedAt.getTime() - REFRESH_MARGIN_MILLIS);
+	}
+
+	/**
+	 * Prepares a query on the rows of a user that changed since a time
+	 *
+	 * @param connection the connection
+	 * @param sql        the query, with the user id and the time as parameters
+	 * @param userId     the id of the user
+	 * @param since      the time
+	 * @return the prepared query
+	 * @throws SQLException if the query could not be prepared
+	 */
+	private static PreparedStatement prepare(Connection connection, String sql, int userId, Timestamp since) throws SQLException {
+		PreparedStatement statement = connection.prepareStatement(sql);
+		statement.setInt(1, userId);
+		statement.setTimestamp(2, since);
+		return statement;
+	}
+
+	/**
+	 * Reads the ids of a user's rows
+	 *
+	 * @param connection the connection
+	 * @param sql        the query, with the user id as parameter
+	 * @param userId     the id of the user
+	 * @param ids        the set the ids are added to
+	 * @throws SQLException if the ids could not be read
+	 */
+	private static void readIds(Connection connection, String sql, int userId, Set<Integer> ids) throws SQLException {
+		try (PreparedStatement select = connection.prepareStatement(sql)) {
+			select.setInt(1, userId);
+			try (ResultSet rows = select.executeQuery()) {
+				while (rows.next()) {
+					ids.add(rows.getInt(1));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Evicts the photos and albums that changed or were deleted from the second level cache, since they were changed by another program
+	 * Used in refresh
+	 *
+	 * @param userId  the id of the user, whose shard has the cache
+	 * @param changes the changes
+	 */
+	private static void evictFromCache(int userId, LibraryChanges changes) {
+		Cache cache = Hibernate.getEntityManagerFactory(Hibernate.getShardOf(userId)).getCache();
+		changes.getPhotos().forEach(photo -> cache.evict(Photo.class, photo.getId()));
+		changes.getDeletedPhotoIds().forEach(id -> cache.evict(Photo.class, id));
+		changes.getAlbums().forEach(album -> cache.evict(Album.class, album.getId()));
+		changes.getDeletedAlbumIds().forEach(id -> cache.evict(Album.class, id));
+	}
+
+	/**
+	 * Gives changes to the listeners on the JavaFX thread
+	 * The listeners are read on the JavaFX thread, so a view that was replaced before the changes got there is not given them
+	 * Used in refresh
+	 *
+	 * @param changes the changes
+	 */
+	private static void notifyListeners(LibraryChanges changes) {
+		synchronized (LISTENERS) {
+			if (LISTENERS.isEmpty()) {
+				return;
+			}
+		}
+		Platform.runLater(() -> {
+			List<Consumer<LibraryChanges>> listeners;
+			synchronized (LISTENERS) {
+				listeners = new ArrayList<>(LISTENERS);
+			}
+			listeners.forEach(listener -> listener.accept(changes));
+		});
+	}
+
+	/**
+	 * The ids of a user's photos and albums, and their newest modification times, at the last refresh
+	 */
+	private static final class Snapshot {
+
+		private final Set<Integer> PHOTO_IDS = new HashSet<>();
+		private final Set<Integer> ALBUM_IDS = new HashSet<>();
+		private Timestamp photosChangedAt;
+		private Timestamp albumsChangedAt;
+
+		/**
+		 * Copies a snapshot, so a refresh that fails leaves the last snapshot as it was
+		 *
+		 * @param last the snapshot to copy, null for an empty snapshot
+		 */
+		private Snapshot(Snapshot last) {
+			if (last != null) {
+				PHOTO_IDS.addAll(last.PHOTO_IDS);
+				ALBUM_IDS.addAll(last.ALBUM_IDS);
+				photosChangedAt = last.photosChangedAt;
+				albumsChangedAt = last.albumsChangedAt;
+			}
+		}
+	}
+
+	/**
+	 * How many photos and albums a user has, and their newest modification times
+	 */
+	private static final class Counts {
+
+		private final long PHOTO_COUNT;
+		private final Timestamp PHOTOS_CHANGED_AT;
+		private final long ALBUM_COUNT;
+		private final Timestamp ALBUMS_CHANGED_AT;
+
+		private Counts(long photoCount, Timestamp photosChangedAt, long albumCount, Timestamp albumsChangedAt) {
+			this.PHOTO_COUNT = photoCount;
+			this.PHOTOS_CHANGED_AT = photosChangedAt;
+			this.ALBUM_COUNT = albumCount;
+			this.ALBUMS_CHANGED_AT = albumsChangedAt;
+		}
+	}
+}
@@ -0,0 +1,1249 @@
+package Database;
+
+import Components.FileLogger;
+import Database.HibernateClasses.Album;
+import Database.HibernateClasses.Photo;
+import Database.HibernateClasses.Tag;
+import org.h2.api.ErrorCode;
+
+import javax.persistence.PersistenceException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.SecureRandom;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+
+/**
+ * A copy of the logged in user's photos, tags and albums in an embedded H2 database in the user's home directory,
+ * which serves the reads of the views without going to the remote database.
+ * Changes are made in the copy at once and put in an outbox, which LibrarySync sends to the remote database in the background,
+ * before it reads the rows that changed remotely since the last sync. The copy is turned on with local_library=true in config.properties
+ * Used by Repository, which sends the reads and writes here while the library is serving
+ */
+public final class LocalLibrary {
+
+	private static final String SYNC_POINT = "sync_point";
+	private static final String OWN_WRITES_FROM = "own_writes_from";
+	private static final String USER = "sa";
+	private static final String PASSWORD_FILE = "library.key";
+	private static final String[] SCHEMA = {
+			"create table if not exists PHOTOS (id int primary key, title varchar(255), url varchar(1024), latitude double, longitude double, "
+					+ "width int, height int, file_type varchar(255), file_size int, aperture varchar(255), exposure_time varchar(255), "
+					+ "camera_model varchar(255), time varchar(255), taken_at timestamp, derivative_sizes varchar(64))",
+			"alter table PHOTOS add column if not exists derivative_sizes varchar(64)",
+			"create table if not exists PHOTO_TAGS (photo_id int not null, name varchar(255) not null, primary key (photo_id, name))",
+			"create table if not exists ALBUMS (id int primary key, name varchar(255))",
+			"create table if not exists ALBUM_PHOTOS (album_id int not null, photo_id int not null, primary key (album_id, photo_id))",
+			"create table if not exists OUTBOX (seq bigint auto_increment primary key, operation varchar(32) not null, target_id int not null, "
+					+ "arguments varchar, changed_at bigint not null, attempts int default 0 not null)",
+			"create table if not exists SYNC_STATE (name varchar(64) primary key, state_time timestamp)",
+			"create table if not exists REPULL (table_name varchar(16) not null, row_id int not null, primary key (table_name, row_id))"
+	};
+	private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "local-library");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private static Connection connection;
+	// The user whose library is open
+	private static volatile int userId;
+	// The user whose library was asked for last, 0 when it was closed. A library only serves while its user is the one asked for
+	private static volatile int requestedUserId;
+	private static volatile boolean isServing;
+	private static ScheduledFuture<?> syncTask;
+
+	/**
+	 * Private constructor to hinder creation of utility class
+	 */
+	private LocalLibrary() {
+		throw new IllegalStateException("Utility class");
+	}
+
+	/**
+	 * Opens the library of a user in the background, if local_library is turned on, and syncs it every local_sync_seconds.
+	 * A library that has been synced before serves reads at once, also without a connection to the remote database.
+	 * A new library first serves reads when it has been filled by the first sync.
+	 * Opening, syncing and closing run in turn on one thread, so a library is closed before the next one is opened
+	 * Used when a user is logged in
+	 *
+	 * @param loggedInUserId the id of the user
+	 */
+	public static void open(int loggedInUserId) {
+		if (Boolean.parseBoolean(Hibernate.getConfig().getProperty("local_library", "false"))) {
+			requestedUserId = loggedInUserId;
+			submit(() -> openLibrary(loggedInUserId));
+		}
+	}
+
+	/**
+	 * Stops serving at once, and sends the changes in the outbox to the remote database one last time and closes the library, in the background.
+	 * Changes that could not be sent stay in the outbox until the user logs in again
+	 * Used when the user logs out
+	 */
+	public static void close() {
+		requestedUserId = 0;
+		isServing = false;
+		submit(LocalLibrary::closeLibrary);
+	}
+
+	/**
+	 * Closes the library without syncing, and deletes its files, in the background
+	 * Used when the user is deleted
+	 */
+	public static void delete() {
+		requestedUserId = 0;
+		isServing = false;
+		submit(() -> {
+			if (syncTask != null) {
+				syncTask.cancel(false);
+				syncTask = null;
+			}
+			int deletedUserId = userId;
+			synchronized (LocalLibrary.class) {
+				closeConnection();
+			}
+			deleteFiles(deletedUserId);
+		});
+	}
+
+	/**
+	 * Closes the library, and waits until the changes in the outbox have been sent or the library could not reach the remote database
+	 * Used when the program is closed
+	 */
+	public static void shutdown() {
+		close();
+		EXECUTOR.shutdown();
+		try {
+			if (!EXECUTOR.awaitTermination(30, TimeUnit.SECONDS)) {
+				EXECUTOR.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			EXECUTOR.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Runs work on the thread of the library
+	 *
+	 * @param work the work
+	 */
+	private static void submit(Runnable work) {
+		try {
+			EXECUTOR.execute(work);
+		} catch (RejectedExecutionException e) {
+			FileLogger.getLogger().log(Level.FINE, e.getMessage());
+			FileLogger.closeHandler();
+		}
+	}
+
+	/**
+	 * Opens the library of a user, creates its tables if they are missing, and starts syncing it
+	 * Used in open
+	 *
+	 * @param loggedInUserId the id of the user
+	 */
+	private static void openLibrary(int loggedInUserId) {
+		closeLibrary();
+		synchronized (LocalLibrary.class) {
+			try {
+				getDirectory().mkdirs();
+				connection = connect(loggedInUserId);
+				try (Statement statement = connection.createStatement()) {
+					for (String sql : SCHEMA) {
+						statement.executeUpdate(sql);
+					}
+				}
+				userId = loggedInUserId;
+				isServing = loggedInUserId == requestedUserId && getState(SYNC_POINT) != null;
+			} catch (SQLException e) {
+				FileLogger.getLogger().log(Level.FINE, e.getMessage());
+				FileLogger.closeHandler();
+				closeConnection();
+				return;
+			}
+		}
+		syncTask = EXECUTOR.scheduleWithFixedDelay(LibrarySync::sync, 0, Hibernate.getConfigInt("local_sync_seconds", 30), TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Connects to the library of a user, with the password of this install. Only this program opens the file, so no server is started on it.
+	 * A library that was made without a password gets the password of this install. The library is made again if its file
+	 * was written by an older version of H2, or has a password that is not the password of this install.
+	 * The rows are then read from the remote database in the first sync
+	 * Used in openLibrary
+	 *
+	 * @param ownerId the id of the user
+	 * @return the connection
+	 * @throws SQLException if the library could not be opened
+	 */
+	private static Connection connect(int ownerId) throws SQLException {
+		String url = "jdbc:h2:file:" + getFile(ownerId) + ";MODE=MySQL";
+		String password = getPassword();
+		try {
+			return DriverManager.getConnection(url, USER, password);
+		} catch (SQLException e) {
+			if (e.getErrorCode() == ErrorCode.WRONG_USER_OR_PASSWORD) {
+				Connection unprotected = connectWithoutPassword(url);
+				if (unprotected != null) {
+					try (Statement statement = unprotected.createStatement()) {
+						// The password is Base64 without padding, so it has no quotes
+						statement.executeUpdate("alter user " + USER + " set password '" + password + "'");
+					} catch (SQLException alterException) {
+						unprotected.close();
+						throw alterException;
+					}
+					return unprotected;
+				}
+			} else if (e.getErrorCode() != ErrorCode.FILE_VERSION_ERROR_1) {
+				throw e;
+			}
+			FileLogger.getLogger().log(Level.WARNING, "Local library of user " + ownerId + " could not be opened, and is made again: " + e.getMessage());
+			FileLogger.closeHandler();
+			deleteFiles(ownerId);
+			return DriverManager.getConnection(url, USER, password);
+		}
+	}
+
+	/**
+	 * Connects to a library that was made without a password
+	 * Used in connect
+	 *
+	 * @param url the url of the library
+	 * @return the connection, null if the library has a password
+	 * @throws SQLException if the library could not be opened
+	 */
+	private static Connection connectWithoutPassword(String url) throws SQLException {
+		try {
+			return DriverManager.getConnection(url, USER, "");
+		} catch (SQLException e) {
+			if (e.getErrorCode() != ErrorCode.WRONG_USER_OR_PASSWORD) {
+				throw e;
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Gets the password of the libraries of this install, which is made at random the first time and kept in local_library_directory,
+	 * in a file only the user that runs the program can read
+	 * Used in connect
+	 *
+	 * @return the password
+	 * @throws SQLException if the password could not be read or made
+	 */
+	private static String getPassword() throws SQLException {
+		File file = new File(getDirectory(), PASSWORD_FILE);
+		try {
+			if (file.createNewFile()) {
+				// The file is only made readable by its owner before the password is written to it
+				file.setReadable(false, false);
+				file.setWritable(false, false);
+				file.setReadable(true, true);
+				file.setWritable(true, true);
+				byte[] password = new byte[24];
+				new SecureRandom().nextBytes(password);
+				Files.write(file.toPath(), Base64.getUrlEncoder().withoutPadding().encode(password));
+			}
+			String password = new String(Files.readAllBytes(file.toPath()), StandardCharsets.US_ASCII).trim();
+			if (password.isEmpty()) {
+				throw new IOException("The password file " + file + " is empty");
+			}
+			return password;
+		} catch (IOException e) {
+			throw new SQLException("The password of the local library could not be read", e);
+		}
+	}
+
+	/**
+	 * Stops syncing, syncs one last time and closes the library, if it is open
+	 * Used in close and openLibrary
+	 */
+	private static void closeLibrary() {
+		if (syncTask == null) {
+			return;
+		}
+		syncTask.cancel(false);
+		syncTask = null;
+		LibrarySync.sync();
+		synchronized (LocalLibrary.class) {
+			closeConnection();
+		}
+	}
+
+	/**
+	 * Checks if the reads and writes of a user are served by the library
+	 * The library stops serving as soon as it is asked to close, before the last sync runs.
+	 * The reads and writes of the library check the user again, since another library may have been opened after this check
+	 *
+	 * @param ownerId the id of the user that owns the data
+	 * @return if the library of the user is open and has been synced
+	 */
+	static boolean isServing(int ownerId) {
+		return isServing && userId == ownerId && requestedUserId == ownerId;
+	}
+
+	/**
+	 * Gets the number of changes that have not been sent to the remote database yet
+	 *
+	 * @return the number of changes in the outbox, 0 if the library is not open
+	 */
+	public static synchronized int getPendingChanges() {
+		if (connection == null) {
+			return 0;
+		}
+		try (Statement statement = connection.createStatement();
+		     ResultSet count = statement.executeQuery("select count(*) from OUTBOX")) {
+			count.next();
+			return count.getInt(1);
+		} catch (SQLException e) {
+			FileLogger.getLogger().log(Level.FINE, e.getMessage());
+			FileLogger.closeHandler();
+			return 0;
+		}
+	}
+
+	static synchronized int getUserId() {
+		return userId;
+	}
+
+	static synchronized boolean isOpen() {
+		return connection != null;
+	}
+
+	/**
+	 * Gets the directory of the libraries, local_library_directory in config.properties or .picturerama in the home directory
+	 *
+	 * @return the directory
+	 */
+	private static File getDirectory() {
+		String home = System.getProperty("user.home") + File.separator + ".picturerama";
+		return new File(Hibernate.getConfig().getProperty("local_library_directory", home));
+	}
+
+	/**
+	 * Gets the database file of a user's library, without the extension H2 adds
+	 *
+	 * @param ownerId the id of the user
+	 * @return the absolute path of the file
+	 */
+	private static String getFile(int ownerId) {
+		return new File(getDirectory(), "library-" + ownerId).getAbsolutePath();
+	}
+
+	/**
+	 * Deletes the files of a user's library
+	 *
+	 * @param ownerId the id of the user
+	 */
+	private static void deleteFiles(int ownerId) {
+		File[] files = getDirectory().listFiles((dir, name) -> name.startsWith("library-" + ownerId + "."));
+		if (files != null) {
+			Arrays.stream(files).forEach(File::delete);
+		}
+	}
+
+	/**
+	 * Closes the connection to the library, if it is open
+	 */
+	private static void closeConnection() {
+		isServing = false;
+		if (connection == null) {
+			return;
+		}
+		try {
+			connection.close();
+		} catch (SQLException e) {
+			FileLogger.getLogger().log(Level.FINE, e.getMessage());
+			FileLogger.closeHandler();
+		}
+		connection = null;
+	}
+
+	/**
+	 * Functional interface for work on the library
+	 *
+	 * @param <T> the type of the result
+	 */
+	@FunctionalInterface
+	private interface LibraryWork<T> {
+		T execute() throws SQLException;
+	}
+
+	/**
+	 * Runs a read on the library
+	 * Fails with a PersistenceException, like the reads of the remote database
+	 *
+	 * @param work the read
+	 * @param <T>  the type of the result
+	 * @return the result of the read
+	 */
+	private static synchronized <T> T read(LibraryWork<T> work) {
+		return read(userId, work);
+	}
+
+	/**
+	 * Runs a read on the library of a user
+	 * Fails with a PersistenceException, like the reads of the remote database, also if the library of another user is open
+	 *
+	 * @param ownerId the id of the user that owns the data
+	 * @param work    the read
+	 * @param <T>     the type of the result
+	 * @return the result of the read
+	 */
+	private static synchronized <T> T read(int ownerId, LibraryWork<T> work) {
+		try {
+			if (connection == null || userId != ownerId) {
+				throw new SQLException("The local library of user " + ownerId + " is not open");
+			}
+			return work.execute();
+		} catch (SQLException e) {
+			FileLogger.getLogger().log(Level.FINE, e.getMessage());
+			FileLogger.closeHandler();
+			throw new PersistenceException(e);
+		}
+	}
+
+	/**
+	 * Runs changes on the library in one transaction, and gives their result
+	 * Rolls back and fails with a PersistenceException, like read, if something went wrong
+	 *
+	 * @param work the changes
+	 * @param <T>  the type of the result
+	 * @return the result of the changes
+	 */
+	private static synchronized <T> T write(LibraryWork<T> work) {
+		try {
+			if (connection == null) {
+				throw new SQLException("The local library is not open");
+			}
+			connection.setAutoCommit(false);
+			try {
+				T result = work.execute();
+				connection.commit();
+				return result;
+			} catch (SQLException e) {
+				connection.rollback();
+				throw e;
+			} finally {
+				connection.setAutoCommit(true);
+			}
+		} catch (SQLException e) {
+			FileLogger.getLogger().log(Level.FINE, e.getMessage());
+			FileLogger.closeHandler();
+			throw new PersistenceException(e);
+		}
+	}
+
+	/**
+	 * Runs changes on the library in one transaction
+	 * Rolls back and logs if something went wrong
+	 *
+	 * @param work the changes
+	 * @return if the transaction was committed
+	 */
+	private static synchronized boolean inTransaction(LibraryWork<?> work) {
+		return inTransaction(userId, work);
+	}
+
+	/**
+	 * Runs changes on the library of a user in one transaction
+	 * Nothing is changed if the library of another user is open
+	 *
+	 * @param ownerId the id of the user that owns the data
+	 * @param work    the changes
+	 * @return if the transaction was committed
+	 */
+	private static synchronized boolean inTransaction(int ownerId, LibraryWork<?> work) {
+		if (connection == null || userId != ownerId) {
+			return false;
+		}
+		try {
+			connection.setAutoCommit(false);
+			try {
+				work.execute();
+				connection.commit();
+				return true;
+			} catch (SQLException e) {
+				connection.rollback();
+				throw e;
+			} finally {
+				connection.setAutoCommit(true);
+			}
+		} catch (SQLException e) {
+			FileLogger.getLogger().log(Level.FINE, e.getMessage());
+			FileLogger.closeHandler();
+			return false;
+		}
+	}
+
+	/**
+	 * Adds tags to a photo and puts the change in the outbox
+	 *
+	 * @param ownerId the id of the user that owns the data
+	 * @param photoId the id of the photo
+	 * @param names   the case folded names of the tags
+	 * @return if the tags were added
+	 */
+	static boolean addTags(int ownerId, int photoId, Collection<String> names) {
+		return inTransaction(ownerId, () -> {
+			executeBatch("merge into PHOTO_TAGS (photo_id, name) key (photo_id, name) values (?, ?)", photoId, names);
+			return enqueue(OutboxOperation.ADD_TAGS, photoId, names);
+		});
+	}
+
+	/**
+	 * Removes tags from a photo and puts the change in the outbox
+	 *
+	 * @param ownerId the id of the user that owns the data
+	 * @param photoId the id of the photo
+	 * @param names   the case folded names of the tags
+	 * @return if the tags were removed
+	 */
+	static boolean removeTags(int ownerId, int photoId, Collection<String> names) {
+		return inTransaction(ownerId, () -> {
+			executeBatch("delete from PHOTO_TAGS where photo_id = ? and name = ?", photoId, names);
+			return enqueue(OutboxOperation.REMOVE_TAGS, photoId, names);
+		});
+	}
+
+	/**
+	 * Adds photos to an album and puts the change in the outbox
+	 *
+	 * @param ownerId  the id of the user that owns the data
+	 * @param albumId  the id of the album
+	 * @param photoIds the ids of the photos
+	 * @return if the photos were added
+	 */
+	static boolean linkPhotosToAlbum(int ownerId, int albumId, Collection<Integer> photoIds) {
+		return inTransaction(ownerId, () -> {
+			executeBatch("merge into ALBUM_PHOTOS (album_id, photo_id) key (album_id, photo_id) values (?, ?)", albumId, photoIds);
+			return enqueue(OutboxOperation.LINK_PHOTOS, albumId, photoIds);
+		});
+	}
+
+	/**
+	 * Removes photos from an album and puts the change in the outbox
+	 *
+	 * @param ownerId  the id of the user that owns the data
+	 * @param albumId  the id of the album
+	 * @param photoIds the ids of the photos
+	 * @return if the photos were removed from the album
+	 */
+	static boolean unlinkPhotosFromAlbum(int ownerId, int albumId, Collection<Integer> photoIds) {
+		return inTransaction(ownerId, () -> {
+			executeBatch("delete from ALBUM_PHOTOS where album_id = ? and photo_id = ?", albumId, photoIds);
+			return enqueue(OutboxOperation.UNLINK_PHOTOS, albumId, photoIds);
+		});
+	}
+
+	/**
+	 * Removes albums and puts the change in the outbox
+	 *
+	 * @param ownerId  the id of the user that owns the data
+	 * @param albumIds the ids of the albums
+	 * @return if the albums were removed
+	 */
+	static boolean removeAlbums(int ownerId, Collection<Integer> albumIds) {
+		return inTransaction(ownerId, () -> {
+			deleteAlbums(albumIds);
+			return enqueue(OutboxOperation.REMOVE_ALBUMS, 0, albumIds);
+		});
+	}
+
+	/**
+	 * Deletes photos and puts the change in the outbox
+	 *
+	 * @param ownerId  the id of the user that owns the data
+	 * @param photoIds the ids of the photos
+	 * @return if the photos were deleted
+	 */
+	static boolean deletePhotos(int ownerId, Collection<Integer> photoIds) {
+		return inTransaction(ownerId, () -> {
+			deletePhotoRows(photoIds);
+			return enqueue(OutboxOperation.DELETE_PHOTOS, 0, photoIds);
+		});
+	}
+
+	/**
+	 * Copies a photo that was inserted in the remote database to the library
+	 * Used after an upload, which needs the remote database for the id of the photo
+	 *
+	 * @param photo the photo, with its id
+	 */
+	static void put(Photo photo) {
+		inTransaction(photo.getUserId(), () -> {
+			putPhotos(Collections.singletonList(photo));
+			return null;
+		});
+	}
+
+	/**
+	 * Copies an album that was inserted in the remote database to the library
+	 *
+	 * @param album the album, with its id
+	 */
+	static void put(Album album) {
+		inTransaction(album.getUserId(), () -> {
+			putAlbum(album.getId(), album.getName(), album.getPhotos().stream().map(Photo::getId).collect(Collectors.toList()));
+			return null;
+		});
+	}
+
+	/**
+	 * Puts a change in the outbox, with the time it was made on this computer
+	 *
+	 * @param operation the operation that is sent to the remote database
+	 * @param targetId  the photo or album that is changed, 0 if the arguments are the ids of the rows
+	 * @param arguments the tag names or ids
+	 * @return null
+	 * @throws SQLException if the change could not be saved
+	 */
+	private static Void enqueue(OutboxOperation operation, int targetId, Collection<?> arguments) throws SQLException {
+		try (PreparedStatement insert = connection.prepareStatement(
+				"insert into OUTBOX (operation, target_id, arguments, changed_at) values (?, ?, ?, ?)")) {
+			insert.setString(1, operation.name());
+			insert.setInt(2, targetId);
+			insert.setString(3, arguments.stream().map(String::valueOf).collect(Collectors.joining("\n")));
+			insert.setLong(4, System.currentTimeMillis());
+			insert.executeUpdate();
+		}
+		return null;
+	}
+
+	/**
+	 * Runs one statement for every value, with the same first parameter, as a JDBC batch
+	 *
+	 * @param sql    the statement, with the first parameter and the value as parameters
+	 * @param first  the first parameter of every statement
+	 * @param values the values
+	 * @throws SQLException if the statements failed
+	 */
+	private static void executeBatch(String sql, int first, Collection<?> values) throws SQLException {
+		try (PreparedStatement statement = connection.prepareStatement(sql)) {
+			for (Object value : values) {
+				statement.setInt(1, first);
+				statement.setObject(2, value);
+				statement.addBatch();
+			}
+			statement.executeBatch();
+		}
+	}
+
+	/**
+	 * Runs one statement for every id as a JDBC batch
+	 *
+	 * @param sql the statement, with the id as the only parameter
+	 * @param ids the ids
+	 * @throws SQLException if the statements failed
+	 */
+	private static void executeForEach(String sql, Collection<Integer> ids) throws SQLException {
+		try (PreparedStatement statement = connection.prepareStatement(sql)) {
+			for (int id : ids) {
+				statement.setInt(1, id);
+				statement.addBatch();
+			}
+			statement.executeBatch();
+		}
+	}
+
+	/**
+	 * Deletes albums with their memberships
+	 *
+	 * @param albumIds the ids of the albums
+	 * @throws SQLException if the albums could not be deleted
+	 */
+	private static void deleteAlbums(Collection<Integer> albumIds) throws SQLException {
+		executeForEach("delete from ALBUM_PHOTOS where album_id = ?", albumIds);
+		executeForEach("delete from ALBUMS where id = ?", albumIds);
+	}
+
+	/**
+	 * Deletes photos with their tags and album memberships
+	 *
+	 * @param photoIds the ids of the photos
+	 * @throws SQLException if the photos could not be deleted
+	 */
+	private static void deletePhotoRows(Collection<Integer> photoIds) throws SQLException {
+		executeForEach("delete from ALBUM_PHOTOS where photo_id = ?", photoIds);
+		executeForEach("delete from PHOTO_TAGS where photo_id = ?", photoIds);
+		executeForEach("delete from PHOTOS where id = ?", photoIds);
+	}
+
+	/**
+	 * Inserts or replaces photos, and replaces their tags
+	 *
+	 * @param photos the photos, with their tags
+	 * @throws SQLException if the photos could not be saved
+	 */
+	private static void putPhotos(Collection<Photo> photos) throws SQLException {
+		try (PreparedStatement merge = connection.prepareStatement("merge into PHOTOS (id, title, url, latitude, longitude, width, height, "
+				+ "file_type, file_size, aperture, exposure_time, camera_model, time, taken_at, derivative_sizes) key (id) values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+		     PreparedStatement deleteTags = connection.prepareStatement("delete from PHOTO_TAGS where photo_id = ?");
+		     PreparedStatement insertTag = connection.prepareStatement("insert into PHOTO_TAGS (photo_id, name) values (?, ?)")) {
+			for (Photo photo : photos) {
+				merge.setInt(1, photo.getId());
+				merge.setString(2, photo.getTitle());
+				merge.setString(3, photo.getUrl());
+				merge.setObject(4, photo.getLatitude());
+				merge.setObject(5, photo.getLongitude());
+				merge.setObject(6, photo.getWidth());
+				merge.setObject(7, photo.getHeight());
+				merge.setString(8, photo.getFileType());
+				merge.setObject(9, photo.getFileSize());
+				merge.setString(10, photo.getAperture());
+				merge.setString(11, photo.getExposureTime());
+				merge.setString(12, photo.getCamera());
+				merge.setString(13, photo.getTime());
+				merge.setTimestamp(14, photo.getTakenAt() == null ? null : Timestamp.valueOf(photo.getTakenAt()));
+				merge.setString(15, photo.getDerivativeSizes());
+				merge.addBatch();
+				deleteTags.setInt(1, photo.getId());
+				deleteTags.addBatch();
+				for (Tag tag : photo.getTags()) {
+					insertTag.setInt(1, photo.getId());
+					insertTag.setString(2, tag.getName());
+					insertTag.addBatch();
+				}
+			}
+			merge.executeBatch();
+			deleteTags.executeBatch();
+			insertTag.executeBatch();
+		}
+	}
+
+	/**
+	 * Inserts or replaces an album, and replaces its photos
+	 *
+	 * @param albumId  the id of the album
+	 * @param name     the name of the album
+	 * @param photoIds the ids of the photos in the album
+	 * @throws SQLException if the album could not be saved
+	 */
+	private static void putAlbum(int albumId, String name, Collection<Integer> photoIds) throws SQLException {
+		try (PreparedStatement merge = connection.prepareStatement("merge into ALBUMS (id, name) key (id) values (?, ?)")) {
+			merge.setInt(1, albumId);
+			merge.setString(2, name);
+			merge.executeUpdate();
+		}
+		executeForEach("delete from ALBUM_PHOTOS where album_id = ?", Collections.singletonList(albumId));
+		executeBatch("insert into ALBUM_PHOTOS (album_id, photo_id) values (?, ?)", albumId, photoIds);
+	}
+
+	/**
+	 * Gets the changes in the outbox, oldest first
+	 * Used by LibrarySync
+	 *
+	 * @return the changes
+	 */
+	static List<OutboxEntry> getOutbox() {
+		return read(LocalLibrary::readOutbox);
+	}
+
+	/**
+	 * Reads the changes in the outbox, oldest first
+	 *
+	 * @return the changes
+	 * @throws SQLException if the changes could not be read
+	 */
+	private static List<OutboxEntry> readOutbox() throws SQLException {
+		List<OutboxEntry> entries = new ArrayList<>();
+		try (Statement statement = connection.createStatement();
+		     ResultSet rows = statement.executeQuery("select seq, operation, target_id, arguments, changed_at from OUTBOX order by seq")) {
+			while (rows.next()) {
+				String arguments = rows.getString("arguments");
+				entries.add(new OutboxEntry(rows.getLong("seq"), OutboxOperation.valueOf(rows.getString("operation")), rows.getInt("target_id"),
+						arguments == null || arguments.isEmpty() ? Collections.emptyList() : Arrays.asList(arguments.split("\n")),
+						rows.getLong("changed_at")));
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * Removes a change from the outbox, and marks the rows whose local change was not sent to be read again from the remote database,
+	 * so the local row goes back to the remote version in the next sync
+	 * Used by LibrarySync when the change has been sent, lost to a newer remote change, or given up
+	 *
+	 * @param seq       the number of the change
+	 * @param table     the table of the rows, PHOTOS or ALBUMS
+	 * @param repullIds the ids of the rows whose local change was not sent
+	 */
+	static void removeFromOutbox(long seq, String table, Collection<Integer> repullIds) {
+		inTransaction(() -> {
+			try (PreparedStatement delete = connection.prepareStatement("delete from OUTBOX where seq = ?")) {
+				delete.setLong(1, seq);
+				delete.executeUpdate();
+			}
+			try (PreparedStatement merge = connection.prepareStatement("merge into REPULL (table_name, row_id) key (table_name, row_id) values (?, ?)")) {
+				for (int id : repullIds) {
+					merge.setString(1, table);
+					merge.setInt(2, id);
+					merge.addBatch();
+				}
+				merge.executeBatch();
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * Counts a failed attempt to send a change
+	 * Used by LibrarySync, which gives the change up after a number of attempts
+	 *
+	 * @param seq the number of the change
+	 * @return the number of failed attempts, 0 if the change is not in the outbox
+	 */
+	static int recordFailedAttempt(long seq) {
+		return write(() -> {
+			try (PreparedStatement update = connection.prepareStatement("update OUTBOX set attempts = attempts + 1 where seq = ?");
+			     PreparedStatement select = connection.prepareStatement("select attempts from OUTBOX where seq = ?")) {
+				update.setLong(1, seq);
+				update.executeUpdate();
+				select.setLong(1, seq);
+				try (ResultSet attempts = select.executeQuery()) {
+					return attempts.next() ? attempts.getInt(1) : 0;
+				}
+			}
+		});
+	}
+
+	/**
+	 * Gets the rows that are read again from the remote database in the next sync
+	 * Used by LibrarySync
+	 *
+	 * @return the ids of the rows by table, PHOTOS or ALBUMS
+	 */
+	static Map<String, Set<Integer>> getRepull() {
+		return read(LocalLibrary::readRepull);
+	}
+
+	/**
+	 * Reads the rows that are read again from the remote database in the next sync
+	 *
+	 * @return the ids of the rows by table, PHOTOS or ALBUMS
+	 * @throws SQLException if the rows could not be read
+	 */
+	private static Map<String, Set<Integer>> readRepull() throws SQLException {
+		Map<String, Set<Integer>> repull = new HashMap<>();
+		try (Statement statement = connection.createStatement();
+		     ResultSet rows = statement.executeQuery("select table_name, row_id from REPULL")) {
+			while (rows.next()) {
+				repull.computeIfAbsent(rows.getString(1), table -> new HashSet<>()).add(rows.getInt(2));
+			}
+		}
+		return repull;
+	}
+
+	/**
+	 * Gets a time kept in the library
+	 *
+	 * @param name the name of the time
+	 * @return the time, null if it is not set
+	 * @throws SQLException if the time could not be read
+	 */
+	private static Timestamp getState(String name) throws SQLException {
+		try (PreparedStatement select = connection.prepareStatement("select state_time from SYNC_STATE where name = ?")) {
+			select.setString(1, name);
+			try (ResultSet state = select.executeQuery()) {
+				return state.next() ? state.getTimestamp(1) : null;
+			}
+		}
+	}
+
+	/**
+	 * Sets or clears a time kept in the library
+	 *
+	 * @param name  the name of the time
+	 * @param value the time, null to clear it
+	 * @throws SQLException if the time could not be saved
+	 */
+	private static void setState(String name, Timestamp value) throws SQLException {
+		try (PreparedStatement merge = connection.prepareStatement("merge into SYNC_STATE (name, state_time) key (name) values (?, ?)")) {
+			merge.setString(1, name);
+			merge.setTimestamp(2, value);
+			merge.executeUpdate();
+		}
+	}
+
+	/**
+	 * Gets the remote time of the last sync, the rows that changed after it are read in the next sync
+	 *
+	 * @return the time, null if the library has not been synced
+	 */
+	static Timestamp getSyncPoint() {
+		return read(() -> getState(SYNC_POINT));
+	}
+
+	/**
+	 * Gets the remote time from which remote changes may have been made by this library, since changes in the outbox were being sent.
+	 * Remote changes after it are not counted as conflicts with the changes in the outbox
+	 *
+	 * @return the time, null if every change has been sent
+	 */
+	static Timestamp getOwnWritesFrom() {
+		return read(() -> getState(OWN_WRITES_FROM));
+	}
+
+	/**
+	 * Remembers that changes in the outbox are about to be sent, unless it is already remembered
+	 *
+	 * @param remoteNow the remote time before the changes are sent
+	 */
+	static void startOwnWrites(Timestamp remoteNow) {
+		write(() -> {
+			if (getState(OWN_WRITES_FROM) == null) {
+				setState(OWN_WRITES_FROM, remoteNow);
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * Applies the rows that changed remotely since the last sync, and deletes the rows that are not in the remote database anymore
+	 * Rows that a change in the outbox is made on are skipped, since the change was made after the remote rows were read
+	 * and would be overwritten. Sending the change sets the modification time of the row, or marks it to be read again
+	 * if the change is not sent, so the skipped rows are read again in a later sync
+	 * Used by LibrarySync
+	 *
+	 * @param changes the remote changes
+	 * @return if the changes were applied
+	 */
+	static synchronized boolean apply(LibrarySync.RemoteChanges changes) {
+		if (connection == null) {
+			return false;
+		}
+		boolean isApplied = inTransaction(() -> {
+			Set<Integer> pendingPhotoIds = new HashSet<>();
+			Set<Integer> pendingAlbumIds = new HashSet<>();
+			Set<Integer> deletedPhotoIds = new HashSet<>();
+			List<OutboxEntry> outbox = readOutbox();
+			for (OutboxEntry entry : outbox) {
+				List<Integer> rowIds = entry.getOperation().getRowIds(entry.getTargetId(), entry.getArguments());
+				(entry.getOperation().getTable().equals("PHOTOS") ? pendingPhotoIds : pendingAlbumIds).addAll(rowIds);
+				if (entry.getOperation() == OutboxOperation.DELETE_PHOTOS) {
+					deletedPhotoIds.addAll(rowIds);
+				}
+			}
+			putPhotos(changes.getPhotos().stream().filter(photo -> !pendingPhotoIds.contains(photo.getId())).collect(Collectors.toList()));
+			for (Map.Entry<Integer, String> album : changes.getAlbumNames().entrySet()) {
+				if (!pendingAlbumIds.contains(album.getKey())) {
+					List<Integer> photoIds = changes.getAlbumPhotoIds().getOrDefault(album.getKey(), Collections.emptyList());
+					putAlbum(album.getKey(), album.getValue(), photoIds.stream().filter(id -> !deletedPhotoIds.contains(id)).collect(Collectors.toList()));
+				}
+			}
+			List<Integer> missingPhotoIds = getMissingIds("select id from PHOTOS", changes.getPhotoIds());
+			missingPhotoIds.removeAll(pendingPhotoIds);
+			deletePhotoRows(missingPhotoIds);
+			List<Integer> missingAlbumIds = getMissingIds("select id from ALBUMS", changes.getAlbumIds());
+			missingAlbumIds.removeAll(pendingAlbumIds);
+			deleteAlbums(missingAlbumIds);
+			// The rows that were read again are done with, unless a newer change in the outbox is made on them
+			Map<String, Set<Integer>> repull = readRepull();
+			repull.getOrDefault("PHOTOS", Collections.emptySet()).removeAll(pendingPhotoIds);
+			repull.getOrDefault("ALBUMS", Collections.emptySet()).removeAll(pendingAlbumIds);
+			try (PreparedStatement delete = connection.prepareStatement("delete from REPULL where table_name = ? and row_id = ?")) {
+				for (Map.Entry<String, Set<Integer>> table : repull.entrySet()) {
+					for (int id : table.getValue()) {
+						delete.setString(1, table.getKey());
+						delete.setInt(2, id);
+						delete.addBatch();
+					}
+				}
+				delete.executeBatch();
+			}
+			setState(SYNC_POINT, changes.getSyncPoint());
+			if (outbox.isEmpty()) {
+				setState(OWN_WRITES_FROM, null);
+			}
+			return null;
+		});
+		if (isApplied && userId == requestedUserId) {
+			isServing = true;
+		}
+		return isApplied;
+	}
+
+	/**
+	 * Finds the ids in the library that are not in a set of remote ids
+	 *
+	 * @param sql       the query for the ids in the library
+	 * @param remoteIds the remote ids
+	 * @return the ids that are only in the library
+	 * @throws SQLException if the ids could not be read
+	 */
+	private static List<Integer> getMissingIds(String sql, Set<Integer> remoteIds) throws SQLException {
+		List<Integer> missing = new ArrayList<>();
+		try (Statement statement = connection.createStatement();
+		     ResultSet ids = statement.executeQuery(sql)) {
+			while (ids.next()) {
+				if (!remoteIds.contains(ids.getInt(1))) {
+					missing.add(ids.getInt(1));
+				}
+			}
+		}
+		return missing;
+	}
+
+	/**
+	 * Gets the page of summaries of the photos that comes after a given photo, ordered by id
+	 *
+	 * @param ownerId  the id of the user that owns the photos
+	 * @param after    the last photo of the previous page, null for the first page
+	 * @param pageSize the largest number of photos on the page
+	 * @param plan     WITH_TAGS to also read the tag names of the photos
+	 * @return the page of photo summaries
+	 */
+	static PhotoPage<PhotoSummary> getPhotoSummaryPage(int ownerId, PhotoSummary after, int pageSize, PhotoFetchPlan plan) {
+		return read(ownerId, () -> getSummaryPage("select id, title, url, derivative_sizes from PHOTOS where id > ? order by id limit ?",
+				pageSize, plan, after == null ? 0 : after.getId(), pageSize + 1));
+	}
+
+	/**
+	 * Gets the page of summaries of an album's photos that comes after a given photo, ordered by id
+	 *
+	 * @param ownerId  the id of the user that owns the album
+	 * @param albumId  the id of the album
+	 * @param after    the last photo of the previous page, null for the first page
+	 * @param pageSize the largest number of photos on the page
+	 * @param plan     WITH_TAGS to also read the tag names of the photos
+	 * @return the page of photo summaries
+	 */
+	static PhotoPage<PhotoSummary> getAlbumPhotoSummaryPage(int ownerId, int albumId, PhotoSummary after, int pageSize, PhotoFetchPlan plan) {
+		return read(ownerId, () -> getSummaryPage("select p.id, p.title, p.url, p.derivative_sizes from ALBUM_PHOTOS ap join PHOTOS p on p.id = ap.photo_id"
+				+ " where ap.album_id = ? and p.id > ? order by p.id limit ?", pageSize, plan, albumId, after == null ? 0 : after.getId(), pageSize + 1));
+	}
+
+	/**
+	 * Reads a page of photo summaries, and the tag names of the photos on the page with the WITH_TAGS plan
+	 *
+	 * @param sql        the page query, which asks for one photo more than the page size
+	 * @param pageSize   the largest number of photos on the page
+	 * @param plan       what is read together with the photos
+	 * @param parameters the parameters of the page query
+	 * @return the page of photo summaries
+	 * @throws SQLException if the page could not be read
+	 */
+	private static PhotoPage<PhotoSummary> getSummaryPage(String sql, int pageSize, PhotoFetchPlan plan, int... parameters) throws SQLException {
+		Map<Integer, PhotoSummary> photos = new LinkedHashMap<>();
+		boolean hasMore = false;
+		try (PreparedStatement select = connection.prepareStatement(sql)) {
+			for (int i = 0; i < parameters.length; i++) {
+				select.setInt(i + 1, parameters[i]);
+			}
+			try (ResultSet rows = select.executeQuery()) {
+				while (rows.next()) {
+					if (photos.size() == pageSize) {
+						hasMore = true;
+						break;
+					}
+					photos.put(rows.getInt(1), new PhotoSummary(rows.getInt(1), rows.getString(2), rows.getString(3), rows.getString(4)));
+				}
+			}
+		}
+		if (plan == PhotoFetchPlan.WITH_TAGS) {
+			for (Map.Entry<Integer, List<String>> tags : getTags(photos.keySet()).entrySet()) {
+				photos.get(tags.getKey()).getTags().addAll(tags.getValue());
+			}
+		}
+		return new PhotoPage<>(new ArrayList<>(photos.values()), hasMore);
+	}
+
+	/**
+	 * Reads the tag names of photos, ordered by name
+	 *
+	 * @param photoIds the ids of the photos
+	 * @return the tag names by photo id
+	 * @throws SQLException if the tags could not be read
+	 */
+	private static Map<Integer, List<String>> getTags(Collection<Integer> photoIds) throws SQLException {
+		Map<Integer, List<String>> tags = new LinkedHashMap<>();
+		if (photoIds.isEmpty()) {
+			return tags;
+		}
+		String ids = photoIds.stream().map(String::valueOf).collect(Collectors.joining(", "));
+		try (Statement statement = connection.createStatement();
+		     ResultSet rows = statement.executeQuery("select photo_id, name from PHOTO_TAGS where photo_id in (" + ids + ") order by name")) {
+			while (rows.next()) {
+				tags.computeIfAbsent(rows.getInt(1), id -> new ArrayList<>()).add(rows.getString(2));
+			}
+		}
+		return tags;
+	}
+
+	/**
+	 * Gets the page of the locations of the photos that comes after a given photo, ordered by id
+	 * Only photos with a location are included
+	 *
+	 * @param ownerId  the id of the user that owns the photos
+	 * @param after    the last photo of the previous page, null for the first page
+	 * @param pageSize the largest number of photos on the page
+	 * @return the page of photo locations
+	 */
+	static PhotoPage<PhotoLocation> getPhotoLocationPage(int ownerId, PhotoLocation after, int pageSize) {
+		return read(ownerId, () -> {
+			List<PhotoLocation> photos = new ArrayList<>();
+			try (PreparedStatement select = connection.prepareStatement("select id, title, url, latitude, longitude, width, height, derivative_sizes from PHOTOS"
+					+ " where latitude is not null and longitude is not null and id > ? order by id limit ?")) {
+				select.setInt(1, after == null ? 0 : after.getId());
+				select.setInt(2, pageSize + 1);
+				try (ResultSet rows = select.executeQuery()) {
+					while (rows.next()) {
+						photos.add(new PhotoLocation(rows.getInt(1), rows.getString(2), rows.getString(3), rows.getDouble(4), rows.getDouble(5),
+								(Integer) rows.getObject(6), (Integer) rows.getObject(7), rows.getString(8)));
+					}
+				}
+			}
+			boolean hasMore = photos.size() > pageSize;
+			return new PhotoPage<>(new ArrayList<>(hasMore ? photos.subList(0, pageSize) : photos), hasMore);
+		});
+	}
+
+	/**
+	 * Gets a photo
+	 *
+	 * @param ownerId the id of the user that owns the photo
+	 * @param photoId the id of the photo
+	 * @param plan    WITH_TAGS to also read the tags of the photo
+	 * @return the photo, null if it is not in the library
+	 */
+	static Photo getPhoto(int ownerId, int photoId, PhotoFetchPlan plan) {
+		return read(ownerId, () -> {
+			Photo photo;
+			try (PreparedStatement select = connection.prepareStatement("select * from PHOTOS where id = ?")) {
+				select.setInt(1, photoId);
+				try (ResultSet row = select.executeQuery()) {
+					if (!row.next()) {
+						return null;
+					}
+					photo = new Photo(row.getString("title"), row.getString("url"), (Double) row.getObject("latitude"), (Double) row.getObject("longitude"),
+							(Integer) row.getObject("width"), (Integer) row.getObject("height"), row.getString("file_type"),
+							(Integer) row.getObject("file_size"), row.getString("aperture"), row.getString("exposure_time"),
+							row.getString("camera_model"), row.getString("time"), ownerId);
+					photo.setId(photoId);
+					Timestamp takenAt = row.getTimestamp("taken_at");
+					photo.setTakenAt(takenAt == null ? null : takenAt.toLocalDateTime());
+					photo.setDerivativeSizes(row.getString("derivative_sizes"));
+				}
+			}
+			if (plan == PhotoFetchPlan.WITH_TAGS) {
+				getTags(Collections.singletonList(photoId)).getOrDefault(photoId, Collections.emptyList())
+						.forEach(name -> photo.getTags().add(new Tag(name)));
+			}
+			return photo;
+		});
+	}
+
+	/**
+	 * Gets the summaries of the albums, ordered by id
+	 *
+	 * @param ownerId the id of the user that owns the albums
+	 * @return the summaries of the albums
+	 */
+	static List<AlbumSummary> getAlbumSummaries(int ownerId) {
+		return read(ownerId, () -> {
+			List<AlbumSummary> albums = new ArrayList<>();
+			try (Statement statement = connection.createStatement();
+			     ResultSet rows = statement.executeQuery("select a.id, a.name, count(p.id), max(p.taken_at), max(p.id) from ALBUMS a"
+					     + " left join ALBUM_PHOTOS ap on ap.album_id = a.id left join PHOTOS p on p.id = ap.photo_id group by a.id, a.name order by a.id")) {
+				while (rows.next()) {
+					Timestamp newestTakenAt = rows.getTimestamp(4);
+					albums.add(new AlbumSummary(rows.getInt(1), rows.getString(2), rows.getLong(3),
+							newestTakenAt == null ? null : newestTakenAt.toLocalDateTime(), (Integer) rows.getObject(5)));
+				}
+			}
+			return albums;
+		});
+	}
+
+	/**
+	 * Gets the albums, without their photos
+	 *
+	 * @param ownerId the id of the user that owns the albums
+	 * @return the albums
+	 */
+	static List<Album> getAlbums(int ownerId) {
+		return read(ownerId, () -> {
+			List<Album> albums = new ArrayList<>();
+			try (Statement statement = connection.createStatement();
+			     ResultSet rows = statement.executeQuery("select id, name from ALBUMS order by id")) {
+				while (rows.next()) {
+					Album album = new Album(rows.getString(2), ownerId);
+					album.setId(rows.getInt(1));
+					albums.add(album);
+				}
+			}
+			return albums;
+		});
+	}
+
+	/**
+	 * A change in the outbox
+	 */
+	static final class OutboxEntry {
+
+		private final long SEQ;
+		private final OutboxOperation OPERATION;
+		private final int TARGET_ID;
+		private final List<String> ARGUMENTS;
+		private final long CHANGED_AT;
+
+		private OutboxEntry(long seq, OutboxOperation operation, int targetId, List<String> arguments, long changedAt) {
+			this.SEQ = seq;
+			this.OPERATION = operation;
+			this.TARGET_ID = targetId;
+			this.ARGUMENTS = arguments;
+			this.CHANGED_AT = changedAt;
+		}
+
+		long getSeq() {
+			return SEQ;
+		}
+
+		OutboxOperation getOperation() {
+			return OPERATION;
+		}
+
+		int getTargetId() {
+			return TARGET_ID;
+		}
+
+		List<String> getArguments() {
+			return ARGUMENTS;
+		}
+
+		/**
+		 * Gets when the change was made
+		 *
+		 * @return the time on this computer, in milliseconds since the epoch
+		 */
+		long getChangedAt() {
+			return CHANGED_AT;
+		}
+	}
+}
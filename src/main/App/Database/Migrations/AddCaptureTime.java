@@ -0,0 +1,56 @@
+package Database.Migrations;
+
+import Components.ImageAnalyzer;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+
+/**
+ * Migration that fills in the typed capture time PHOTOS.taken_at from the EXIF time string PHOTOS.time,
+ * for the photos that were analyzed before the column was added, and indexes it together with the user
+ * Times that can not be parsed are left empty
+ */
+final class AddCaptureTime implements Migration {
+
+	private static final int BATCH_SIZE = 500;
+
+	@Override
+	public int getVersion() {
+		return 3;
+	}
+
+	@Override
+	public String getDescription() {
+		return "Add capture time";
+	}
+
+	@Override
+	public void migrate(Connection connection) throws SQLException {
+		try (Statement select = connection.createStatement();
+		     ResultSet photos = select.executeQuery("select id, time from PHOTOS where taken_at is null and time is not null");
+		     PreparedStatement update = connection.prepareStatement("update PHOTOS set taken_at = ? where id = ?")) {
+			int count = 0;
+			while (photos.next()) {
+				LocalDateTime takenAt = ImageAnalyzer.parseTime(photos.getString("time"));
+				if (takenAt == null) {
+					continue;
+				}
+				update.setTimestamp(1, Timestamp.valueOf(takenAt));
+				update.setInt(2, photos.getInt("id"));
+				update.addBatch();
+				if (++count % BATCH_SIZE == 0) {
+					update.executeBatch();
+				}
+			}
+			if (count % BATCH_SIZE != 0) {
+				update.executeBatch();
+			}
+		}
+		Schema.createIndex(connection, "PHOTOS", "IDX_PHOTOS_USER_ID_TAKEN_AT", "user_id", "taken_at");
+	}
+}
@@ -0,0 +1,28 @@
+package Database.Migrations;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Migration that adds PHOTOS.derivative_sizes, the sizes of the scaled down copies Cloudinary made of a photo when it was uploaded
+ * The photos that were uploaded before have no derivatives, and are shown from their originals
+ */
+final class AddDerivativeSizes implements Migration {
+
+	@Override
+	public int getVersion() {
+		return 6;
+	}
+
+	@Override
+	public String getDescription() {
+		return "Add derivative sizes";
+	}
+
+	@Override
+	public void migrate(Connection connection) throws SQLException {
+		if (Schema.tableExists(connection, "PHOTOS") && !Schema.columnExists(connection, "PHOTOS", "derivative_sizes")) {
+			Schema.execute(connection, "alter table PHOTOS add column derivative_sizes varchar(64)");
+		}
+	}
+}
@@ -0,0 +1,34 @@
+package Database.Migrations;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Migration that adds indexes to the columns that the application looks rows up by
+ * An index is only added if the table has no index that starts with the same columns already,
+ * such as the unique key on USERS.username or the primary key of ALBUMPHOTO
+ */
+final class AddLookupIndexes implements Migration {
+
+	@Override
+	public int getVersion() {
+		return 2;
+	}
+
+	@Override
+	public String getDescription() {
+		return "Add lookup indexes";
+	}
+
+	@Override
+	public void migrate(Connection connection) throws SQLException {
+		Schema.createIndex(connection, "USERS", "IDX_USERS_USERNAME", "username");
+		Schema.createIndex(connection, "PHOTOS", "IDX_PHOTOS_USER_ID", "user_id");
+		Schema.createIndex(connection, "ALBUMS", "IDX_ALBUMS_USER_ID", "user_id");
+		Schema.createIndex(connection, "ALBUMPHOTO", "IDX_ALBUMPHOTO_ALBUM_ID_PHOTO_ID", "album_id", "photo_id");
+		Schema.createIndex(connection, "ALBUMPHOTO", "IDX_ALBUMPHOTO_PHOTO_ID", "photo_id");
+		// PHOTO_TAG replaces TAGS, so the lookups by photo go through its primary key and the lookups by tag through this index
+		Schema.createIndex(connection, "PHOTO_TAG", "IDX_PHOTO_TAG_PHOTO_ID", "photo_id");
+		Schema.createIndex(connection, "PHOTO_TAG", "IDX_PHOTO_TAG_TAG_ID_PHOTO_ID", "tag_id", "photo_id");
+	}
+}
@@ -0,0 +1,34 @@
+package Database.Migrations;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Migration that adds the modification time updated_at to PHOTOS and ALBUMS, and indexes it together with the user
+ * The database sets it when a row is inserted or updated, and the writes on the tag links and album memberships
+ * set it on the photo or album they belong to. Clients use it to read only the rows that changed since they last synced
+ */
+final class AddModificationTimes implements Migration {
+
+	private static final String COLUMN = "updated_at datetime(3) not null default current_timestamp(3) on update current_timestamp(3)";
+
+	@Override
+	public int getVersion() {
+		return 5;
+	}
+
+	@Override
+	public String getDescription() {
+		return "Add modification times";
+	}
+
+	@Override
+	public void migrate(Connection connection) throws SQLException {
+		for (String table : new String[]{"PHOTOS", "ALBUMS"}) {
+			if (Schema.tableExists(connection, table) && !Schema.columnExists(connection, table, "updated_at")) {
+				Schema.execute(connection, "alter table " + table + " add column " + COLUMN);
+			}
+			Schema.createIndex(connection, table, "IDX_" + table + "_USER_ID_UPDATED_AT", "user_id", "updated_at");
+		}
+	}
+}
@@ -0,0 +1,38 @@
+package Database.Migrations;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Migration that creates the user directory USER_DIRECTORY, which gives out the user ids and knows the shard of every user
+ * by username and by id. The users that exist are put in the directory on shard 0, the database they are in.
+ * The directory is only created in the database of shard 0, the only shard that uses it
+ */
+final class AddUserDirectory implements Migration {
+
+	@Override
+	public int getVersion() {
+		return 4;
+	}
+
+	@Override
+	public String getDescription() {
+		return "Add user directory";
+	}
+
+	@Override
+	public boolean isDirectoryOnly() {
+		return true;
+	}
+
+	@Override
+	public void migrate(Connection connection) throws SQLException {
+		if (Schema.tableExists(connection, "USER_DIRECTORY")) {
+			return;
+		}
+		Schema.execute(connection,
+				"create table USER_DIRECTORY (user_id int not null auto_increment, username varchar(255) not null, shard int not null, "
+						+ "primary key (user_id), constraint UK_USER_DIRECTORY_USERNAME unique (username))",
+				"insert into USER_DIRECTORY (user_id, username, shard) select id, username, 0 from USERS");
+	}
+}
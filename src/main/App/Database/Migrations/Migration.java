@@ -0,0 +1,43 @@
+package Database.Migrations;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Interface for a versioned change of the database schema
+ * Every migration is run once, in the order of the versions, by SchemaMigrator
+ */
+public interface Migration {
+
+	/**
+	 * Gets the version of the migration, which decides the order the migrations are run in
+	 *
+	 * @return the version
+	 */
+	int getVersion();
+
+	/**
+	 * Gets a short description of what the migration does, which is stored in the schema version table
+	 *
+	 * @return the description
+	 */
+	String getDescription();
+
+	/**
+	 * Checks if the migration only changes the database of shard 0, which keeps the user directory
+	 * The other shards record the version of such a migration without running it, so all the shards have the same version
+	 *
+	 * @return if the migration is only run on shard 0
+	 */
+	default boolean isDirectoryOnly() {
+		return false;
+	}
+
+	/**
+	 * Changes the schema
+	 *
+	 * @param connection the connection to the database, in a transaction that is committed by SchemaMigrator
+	 * @throws SQLException if the schema could not be changed
+	 */
+	void migrate(Connection connection) throws SQLException;
+}
@@ -0,0 +1,36 @@
+package Database.Migrations;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Migration that moves the tags in the old TAGS table, with one row per tag and photo,
+ * to the tag dictionary TAG and the join table PHOTO_TAG.
+ * The names are case folded, so the same tag written with different case becomes one tag. TAGS is dropped afterwards
+ */
+final class MoveTagsToDictionary implements Migration {
+
+	@Override
+	public int getVersion() {
+		return 1;
+	}
+
+	@Override
+	public String getDescription() {
+		return "Move tags to the tag dictionary";
+	}
+
+	@Override
+	public void migrate(Connection connection) throws SQLException {
+		if (!Schema.tableExists(connection, "TAGS")) {
+			return;
+		}
+		Schema.execute(connection,
+				"insert ignore into TAG (name)" +
+						" select distinct lower(trim(tag)) from TAGS where tag is not null and trim(tag) <> ''",
+				"insert ignore into PHOTO_TAG (photo_id, tag_id)" +
+						" select distinct t.photo_id, d.id from TAGS t join TAG d on d.name = lower(trim(t.tag))");
+		connection.commit();
+		Schema.execute(connection, "drop table TAGS");
+	}
+}
@@ -0,0 +1,127 @@
+package Database.Migrations;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class with helper methods for migrations that inspect the schema through the JDBC metadata
+ */
+final class Schema {
+
+	/**
+	 * Private constructor to hinder creation of utility class
+	 */
+	private Schema() {
+		throw new IllegalStateException("Utility class");
+	}
+
+	/**
+	 * Checks if a table exists
+	 *
+	 * @param connection the connection to the database
+	 * @param table      the name of the table
+	 * @return if the table exists
+	 * @throws SQLException if the metadata could not be read
+	 */
+	static boolean tableExists(Connection connection, String table) throws SQLException {
+		try (ResultSet tables = connection.getMetaData().getTables(connection.getCatalog(), null, table, new String[]{"TABLE"})) {
+			return tables.next();
+		}
+	}
+
+	/**
+	 * Checks if a table has a column
+	 * Column names are compared without case, as the database does, since some databases store them in upper case
+	 *
+	 * @param connection the connection to the database
+	 * @param table      the name of the table
+	 * @param column     the name of the column
+	 * @return if the column exists
+	 * @throws SQLException if the metadata could not be read
+	 */
+	static boolean columnExists(Connection connection, String table, String column) throws SQLException {
+		try (ResultSet columns = connection.getMetaData().getColumns(connection.getCatalog(), null, table, null)) {
+			while (columns.next()) {
+				if (column.equalsIgnoreCase(columns.getString("COLUMN_NAME"))) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Checks if a table has an index that starts with the given columns, in the given order
+	 * Such an index can be used for lookups on the columns, whether it is a primary key, a unique key or a plain index
+	 *
+	 * @param connection the connection to the database
+	 * @param table      the name of the table
+	 * @param columns    the columns
+	 * @return if there is an index that starts with the columns
+	 * @throws SQLException if the metadata could not be read
+	 */
+	static boolean hasIndex(Connection connection, String table, String... columns) throws SQLException {
+		Map<String, List<String>> indexes = new LinkedHashMap<>();
+		DatabaseMetaData metaData = connection.getMetaData();
+		try (ResultSet indexInfo = metaData.getIndexInfo(connection.getCatalog(), null, table, false, false)) {
+			while (indexInfo.next()) {
+				String indexName = indexInfo.getString("INDEX_NAME");
+				String column = indexInfo.getString("COLUMN_NAME");
+				if (indexName == null || column == null) {
+					continue;
+				}
+				List<String> indexColumns = indexes.computeIfAbsent(indexName, name -> new ArrayList<>());
+				int position = indexInfo.getShort("ORDINAL_POSITION");
+				while (indexColumns.size() < position) {
+					indexColumns.add(null);
+				}
+				indexColumns.set(position - 1, column.toLowerCase());
+			}
+		}
+		List<String> wanted = new ArrayList<>();
+		Arrays.stream(columns).forEach(column -> wanted.add(column.toLowerCase()));
+		return indexes.values().stream()
+				.anyMatch(indexColumns -> indexColumns.size() >= wanted.size() && indexColumns.subList(0, wanted.size()).equals(wanted));
+	}
+
+	/**
+	 * Creates an index, unless the table does not exist or already has an index that starts with the same columns
+	 *
+	 * @param connection the connection to the database
+	 * @param table      the name of the table
+	 * @param indexName  the name of the new index
+	 * @param columns    the columns of the index, in order
+	 * @throws SQLException if the index could not be created
+	 */
+	static void createIndex(Connection connection, String table, String indexName, String... columns) throws SQLException {
+		if (!tableExists(connection, table) || hasIndex(connection, table, columns)) {
+			return;
+		}
+		try (Statement statement = connection.createStatement()) {
+			statement.executeUpdate("create index " + indexName + " on " + table + " (" + String.join(", ", columns) + ")");
+		}
+	}
+
+	/**
+	 * Runs statements that do not give a result
+	 *
+	 * @param connection the connection to the database
+	 * @param sql        the statements
+	 * @throws SQLException if one of the statements failed
+	 */
+	static void execute(Connection connection, String... sql) throws SQLException {
+		try (Statement statement = connection.createStatement()) {
+			for (String s : sql) {
+				statement.executeUpdate(s);
+			}
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package Database.Migrations;
+
+import Components.FileLogger;
+import org.hibernate.Session;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+
+/**
+ * Class that brings the database schema up to date with versioned migrations
+ * The version of the schema is kept in the table SCHEMA_VERSION, with one row per migration that has been run.
+ * Migrations with a higher version than the schema are run in order, each in its own transaction
+ */
+public final class SchemaMigrator {
+
+	private static final List<Migration> MIGRATIONS = Arrays.asList(
+			new MoveTagsToDictionary(),
+			new AddLookupIndexes(),
+			new AddCaptureTime(),
+			new AddUserDirectory(),
+			new AddModificationTimes(),
+			new AddDerivativeSizes()
+	);
+
+	/**
+	 * Private constructor to hinder creation of utility class
+	 */
+	private SchemaMigrator() {
+		throw new IllegalStateException("Utility class");
+	}
+
+	/**
+	 * Runs the migrations that have not been run on the database yet
+	 * Used in Hibernate.setupDatabase, after the tables are created
+	 *
+	 * @param entityManagerFactory the entity manager factory to get a connection from
+	 * @param isDirectoryShard     if the database is shard 0, which keeps the user directory
+	 */
+	public static void migrate(EntityManagerFactory entityManagerFactory, boolean isDirectoryShard) {
+		EntityManager em = entityManagerFactory.createEntityManager();
+		try {
+			em.unwrap(Session.class).doWork(connection -> migrate(connection, MIGRATIONS, isDirectoryShard));
+		} finally {
+			em.close();
+		}
+	}
+
+	/**
+	 * Runs the given migrations that have a higher version than the schema
+	 * Migrations that only change the directory shard are recorded without being run on the other shards
+	 *
+	 * @param connection       the connection to the database
+	 * @param migrations       the migrations
+	 * @param isDirectoryShard if the database is shard 0, which keeps the user directory
+	 * @throws SQLException if a migration failed, the migrations before it are kept
+	 */
+	static void migrate(Connection connection, List<Migration> migrations, boolean isDirectoryShard) throws SQLException {
+		boolean autoCommit = connection.getAutoCommit();
+		connection.setAutoCommit(false);
+		try {
+			createVersionTable(connection);
+			int currentVersion = getVersion(connection);
+			List<Migration> pending = migrations.stream()
+					.filter(migration -> migration.getVersion() > currentVersion)
+					.sorted(Comparator.comparingInt(Migration::getVersion))
+					.collect(Collectors.toList());
+			for (Migration migration : pending) {
+				try {
+					if (isDirectoryShard || !migration.isDirectoryOnly()) {
+						migration.migrate(connection);
+					}
+					recordVersion(connection, migration);
+					connection.commit();
+				} catch (SQLException e) {
+					connection.rollback();
+					FileLogger.getLogger().log(Level.FINE, "Migration " + migration.getVersion() + " failed: " + e.getMessage());
+					FileLogger.closeHandler();
+					throw e;
+				}
+				FileLogger.getLogger().log(Level.INFO, "Migrated schema to version {0}: {1}", new Object[]{migration.getVersion(), migration.getDescription()});
+				FileLogger.closeHandler();
+			}
+		} finally {
+			connection.setAutoCommit(autoCommit);
+		}
+	}
+
+	/**
+	 * Creates the table that keeps the version of the schema, if it does not exist
+	 *
+	 * @param connection the connection to the database
+	 * @throws SQLException if the table could not be created
+	 */
+	private static void createVersionTable(Connection connection) throws SQLException {
+		try (Statement statement = connection.createStatement()) {
+			statement.executeUpdate("create table if not exists SCHEMA_VERSION (" +
+					"version int not null primary key, " +
+					"description varchar(255) not null, " +
+					"installed_on timestamp not null default current_timestamp)");
+		}
+		connection.commit();
+	}
+
+	/**
+	 * Gets the version of the schema, which is the version of the last migration that was run
+	 *
+	 * @param connection the connection to the database
+	 * @return the version, 0 if no migration has been run
+	 * @throws SQLException if the version could not be read
+	 */
+	static int getVersion(Connection connection) throws SQLException {
+		try (Statement statement = connection.createStatement();
+		     ResultSet result = statement.executeQuery("select max(version) from SCHEMA_VERSION")) {
+			return result.next() ? result.getInt(1) : 0;
+		}
+	}
+
+	/**
+	 * Stores that a migration has been run
+	 *
+	 * @param connection the connection to the database
+	 * @param migration  the migration
+	 * @throws SQLException if the version could not be stored
+	 */
+	private static void recordVersion(Connection connection, Migration migration) throws SQLException {
+		try (PreparedStatement statement = connection.prepareStatement("insert into SCHEMA_VERSION (version, description) values (?, ?)")) {
+			statement.setInt(1, migration.getVersion());
+			statement.setString(2, migration.getDescription());
+			statement.executeUpdate();
+		}
+	}
+}
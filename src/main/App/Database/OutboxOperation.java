@@ -0,0 +1,106 @@
+package Database;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Enum OutboxOperation is a change made in the local library, that is sent to the remote database by LibrarySync
+ * The tag and album membership changes have the photo or album they change as target, and the tag names or photo ids as arguments.
+ * The deletes have the ids of the deleted rows as arguments
+ */
+enum OutboxOperation {
+
+	ADD_TAGS("PHOTOS", false) {
+		@Override
+		boolean send(int targetId, List<String> arguments) {
+			return Repository.addTagsInDatabase(targetId, arguments);
+		}
+	},
+	REMOVE_TAGS("PHOTOS", false) {
+		@Override
+		boolean send(int targetId, List<String> arguments) {
+			return Repository.removeTagsInDatabase(targetId, arguments);
+		}
+	},
+	LINK_PHOTOS("ALBUMS", false) {
+		@Override
+		boolean send(int targetId, List<String> arguments) {
+			return Repository.linkPhotosInDatabase(targetId, toIds(arguments));
+		}
+	},
+	UNLINK_PHOTOS("ALBUMS", false) {
+		@Override
+		boolean send(int targetId, List<String> arguments) {
+			return Repository.unlinkPhotosInDatabase(targetId, toIds(arguments));
+		}
+	},
+	REMOVE_ALBUMS("ALBUMS", true) {
+		@Override
+		boolean send(int targetId, List<String> arguments) {
+			return Repository.removeAlbumsInDatabase(toIds(arguments));
+		}
+	},
+	DELETE_PHOTOS("PHOTOS", true) {
+		@Override
+		boolean send(int targetId, List<String> arguments) {
+			return Repository.deletePhotosInDatabase(toIds(arguments));
+		}
+	};
+
+	private final String TABLE;
+	private final boolean IS_DELETE;
+
+	OutboxOperation(String table, boolean isDelete) {
+		this.TABLE = table;
+		this.IS_DELETE = isDelete;
+	}
+
+	/**
+	 * Sends the change to the remote database
+	 *
+	 * @param targetId  the photo or album that is changed, 0 for the deletes
+	 * @param arguments the tag names or ids
+	 * @return if the change was committed
+	 */
+	abstract boolean send(int targetId, List<String> arguments);
+
+	/**
+	 * Gets the table of the rows the change is made on, which is checked for newer remote changes before the change is sent
+	 *
+	 * @return PHOTOS or ALBUMS
+	 */
+	String getTable() {
+		return TABLE;
+	}
+
+	/**
+	 * Gets if the change deletes the rows in its arguments, in which case every row is checked on its own
+	 *
+	 * @return if the operation is a delete
+	 */
+	boolean isDelete() {
+		return IS_DELETE;
+	}
+
+	/**
+	 * Gets the ids of the rows the change is made on
+	 *
+	 * @param targetId  the photo or album that is changed, 0 for the deletes
+	 * @param arguments the tag names or ids
+	 * @return the ids of the rows
+	 */
+	List<Integer> getRowIds(int targetId, List<String> arguments) {
+		return IS_DELETE ? toIds(arguments) : Collections.singletonList(targetId);
+	}
+
+	/**
+	 * Parses ids that were saved as text in the outbox
+	 *
+	 * @param arguments the ids as text
+	 * @return the ids
+	 */
+	private static List<Integer> toIds(List<String> arguments) {
+		return arguments.stream().map(Integer::valueOf).collect(Collectors.toList());
+	}
+}
@@ -0,0 +1,232 @@
+package Database;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Class for changes to a user's library that have not been written yet, coalesced so every row is only written once.
+ * Only the last change to a tag of a photo or to a photo in an album is kept, and the changes to photos and albums
+ * that are deleted are dropped, since the delete removes the rows anyway
+ * Used by WriteBehind
+ */
+public final class PendingWrites {
+
+	// The last change of every tag of a photo, true if the tag was added and false if it was removed
+	private final Map<Integer, Map<String, Boolean>> TAGS = new LinkedHashMap<>();
+	// The last change of every photo in an album, true if the photo was added and false if it was removed
+	private final Map<Integer, Map<Integer, Boolean>> MEMBERSHIPS = new LinkedHashMap<>();
+	private final Set<Integer> DELETED_PHOTO_IDS = new LinkedHashSet<>();
+	private final Set<Integer> REMOVED_ALBUM_IDS = new LinkedHashSet<>();
+
+	/**
+	 * Adds tags to a photo
+	 *
+	 * @param photoId the id of the photo
+	 * @param names   the case folded names of the tags
+	 */
+	public void addTags(int photoId, Collection<String> names) {
+		changeTags(photoId, names, true);
+	}
+
+	/**
+	 * Removes tags from a photo
+	 *
+	 * @param photoId the id of the photo
+	 * @param names   the case folded names of the tags
+	 */
+	public void removeTags(int photoId, Collection<String> names) {
+		changeTags(photoId, names, false);
+	}
+
+	/**
+	 * Adds photos to an album
+	 *
+	 * @param albumId  the id of the album
+	 * @param photoIds the ids of the photos
+	 */
+	public void linkPhotos(int albumId, Collection<Integer> photoIds) {
+		changeMemberships(albumId, photoIds, true);
+	}
+
+	/**
+	 * Removes photos from an album
+	 *
+	 * @param albumId  the id of the album
+	 * @param photoIds the ids of the photos
+	 */
+	public void unlinkPhotos(int albumId, Collection<Integer> photoIds) {
+		changeMemberships(albumId, photoIds, false);
+	}
+
+	/**
+	 * Deletes photos, and drops the changes to their tags and album memberships
+	 *
+	 * @param photoIds the ids of the photos
+	 */
+	public void deletePhotos(Collection<Integer> photoIds) {
+		DELETED_PHOTO_IDS.addAll(photoIds);
+		photoIds.forEach(TAGS::remove);
+		MEMBERSHIPS.values().forEach(photos -> photos.keySet().removeAll(photoIds));
+		MEMBERSHIPS.values().removeIf(Map::isEmpty);
+	}
+
+	/**
+	 * Removes albums, and drops the changes to their photos
+	 *
+	 * @param albumIds the ids of the albums
+	 */
+	public void removeAlbums(Collection<Integer> albumIds) {
+		REMOVED_ALBUM_IDS.addAll(albumIds);
+		albumIds.forEach(MEMBERSHIPS::remove);
+	}
+
+	/**
+	 * Adds changes that were made after the changes in this object, so they win over the changes in this object
+	 * Used when changes that could not be written are put back in front of the changes made since
+	 *
+	 * @param later the later changes
+	 */
+	public void addAll(PendingWrites later) {
+		later.TAGS.forEach((photoId, tags) -> tags.forEach((name, isAdded) -> changeTags(photoId, Set.of(name), isAdded)));
+		later.MEMBERSHIPS.forEach((albumId, photos) -> photos.forEach((photoId, isLinked) -> changeMemberships(albumId, Set.of(photoId), isLinked)));
+		deletePhotos(later.DELETED_PHOTO_IDS);
+		removeAlbums(later.REMOVED_ALBUM_IDS);
+	}
+
+	/**
+	 * Records the last change of tags of a photo, unless the photo is deleted
+	 *
+	 * @param photoId the id of the photo
+	 * @param names   the case folded names of the tags
+	 * @param isAdded true if the tags were added, false if they were removed
+	 */
+	private void changeTags(int photoId, Collection<String> names, boolean isAdded) {
+		if (names.isEmpty() || DELETED_PHOTO_IDS.contains(photoId)) {
+			return;
+		}
+		Map<String, Boolean> tags = TAGS.computeIfAbsent(photoId, id -> new LinkedHashMap<>());
+		names.forEach(name -> tags.put(name, isAdded));
+	}
+
+	/**
+	 * Records the last change of photos in an album, unless the album is removed. Photos that are deleted are left out
+	 *
+	 * @param albumId  the id of the album
+	 * @param photoIds the ids of the photos
+	 * @param isLinked true if the photos were added, false if they were removed
+	 */
+	private void changeMemberships(int albumId, Collection<Integer> photoIds, boolean isLinked) {
+		if (REMOVED_ALBUM_IDS.contains(albumId)) {
+			return;
+		}
+		photoIds.stream()
+				.filter(photoId -> !DELETED_PHOTO_IDS.contains(photoId))
+				.forEach(photoId -> MEMBERSHIPS.computeIfAbsent(albumId, id -> new LinkedHashMap<>()).put(photoId, isLinked));
+	}
+
+	/**
+	 * Gets the tags that were added, by photo
+	 *
+	 * @return the case folded names of the added tags by photo id
+	 */
+	public Map<Integer, Set<String>> getAddedTags() {
+		return select(TAGS, true);
+	}
+
+	/**
+	 * Gets the tags that were removed, by photo
+	 *
+	 * @return the case folded names of the removed tags by photo id
+	 */
+	public Map<Integer, Set<String>> getRemovedTags() {
+		return select(TAGS, false);
+	}
+
+	/**
+	 * Gets the photos that were added to albums, by album
+	 *
+	 * @return the ids of the added photos by album id
+	 */
+	public Map<Integer, Set<Integer>> getLinkedPhotos() {
+		return select(MEMBERSHIPS, true);
+	}
+
+	/**
+	 * Gets the photos that were removed from albums, by album
+	 *
+	 * @return the ids of the removed photos by album id
+	 */
+	public Map<Integer, Set<Integer>> getUnlinkedPhotos() {
+		return select(MEMBERSHIPS, false);
+	}
+
+	/**
+	 * Checks if any of the given photos has a change, to its tags, its albums or because it is deleted
+	 *
+	 * @param photoIds the ids of the photos
+	 * @return if a change touches one of the photos
+	 */
+	public boolean changesPhotos(Collection<Integer> photoIds) {
+		return photoIds.stream().anyMatch(photoId -> TAGS.containsKey(photoId) || DELETED_PHOTO_IDS.contains(photoId)
+				|| MEMBERSHIPS.values().stream().anyMatch(photos -> photos.containsKey(photoId)));
+	}
+
+	/**
+	 * Checks if any of the given albums has a change, to its photos or because it is removed
+	 *
+	 * @param albumIds the ids of the albums
+	 * @return if a change touches one of the albums
+	 */
+	public boolean changesAlbums(Collection<Integer> albumIds) {
+		return albumIds.stream().anyMatch(albumId -> MEMBERSHIPS.containsKey(albumId) || REMOVED_ALBUM_IDS.contains(albumId));
+	}
+
+	public boolean changesTags() {
+		return !TAGS.isEmpty();
+	}
+
+	public Set<Integer> getDeletedPhotoIds() {
+		return DELETED_PHOTO_IDS;
+	}
+
+	public Set<Integer> getRemovedAlbumIds() {
+		return REMOVED_ALBUM_IDS;
+	}
+
+	/**
+	 * Gets the number of rows that will be written
+	 *
+	 * @return the number of changed tags, memberships, photos and albums
+	 */
+	public int size() {
+		return TAGS.values().stream().mapToInt(Map::size).sum()
+				+ MEMBERSHIPS.values().stream().mapToInt(Map::size).sum()
+				+ DELETED_PHOTO_IDS.size()
+				+ REMOVED_ALBUM_IDS.size();
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * Selects the keys that had one kind of change
+	 *
+	 * @param changes the last change of every key, by owner id
+	 * @param change  the kind of change to select
+	 * @param <K>     the type of the keys
+	 * @return the selected keys by owner id, without owners that have none
+	 */
+	private static <K> Map<Integer, Set<K>> select(Map<Integer, Map<K, Boolean>> changes, boolean change) {
+		Map<Integer, Set<K>> selected = new LinkedHashMap<>();
+		changes.forEach((ownerId, keys) -> keys.forEach((key, keyChange) -> {
+			if (keyChange == change) {
+				selected.computeIfAbsent(ownerId, id -> new LinkedHashSet<>()).add(key);
+			}
+		}));
+		return selected;
+	}
+}
@@ -0,0 +1,87 @@
+package Database;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.stream.Collectors;
+
+/**
+ * Utility class for the scaled down copies of a photo that Cloudinary makes when the photo is uploaded,
+ * so a view can load the smallest copy that fits instead of downloading and decoding the original.
+ * A derivative fits the photo inside a square of its size, and is loaded by putting its transformation in the url of the original.
+ * The sizes a photo has derivatives of are stored comma separated in PHOTOS.derivative_sizes
+ * Used by UploadRoot, Photo, PhotoSummary and PhotoLocation
+ */
+public final class PhotoDerivatives {
+
+	private static final int[] SIZES = {64, 160, 320, 1024};
+	private static final String UPLOAD_PATH = "/upload/";
+
+	/**
+	 * Private constructor to hinder creation of utility class
+	 */
+	private PhotoDerivatives() {
+		throw new IllegalStateException("Utility class");
+	}
+
+	/**
+	 * Gets the Cloudinary transformation that scales a photo down to fit inside a square, and never scales it up
+	 *
+	 * @param size the side of the square in pixels
+	 * @return the transformation
+	 */
+	public static String getTransformation(int size) {
+		return "c_limit,h_" + size + ",w_" + size;
+	}
+
+	/**
+	 * Gets the transformations of all the derivative sizes, separated by |, as Cloudinary takes them in the eager upload option
+	 * Used in UploadRoot.storePhoto
+	 *
+	 * @return the eager transformations
+	 */
+	public static String getEagerTransformations() {
+		return Arrays.stream(SIZES).mapToObj(PhotoDerivatives::getTransformation).collect(Collectors.joining("|"));
+	}
+
+	/**
+	 * Gets the sizes of the derivatives Cloudinary made, in the form they are stored on the photo
+	 * Used in UploadRoot.storePhoto
+	 *
+	 * @param transformations the transformations of the eager derivatives in the upload result
+	 * @return the comma separated sizes, null if no derivatives were made
+	 */
+	public static String getSizes(Collection<String> transformations) {
+		String sizes = Arrays.stream(SIZES)
+				.filter(size -> transformations.contains(getTransformation(size)))
+				.mapToObj(String::valueOf)
+				.collect(Collectors.joining(","));
+		return sizes.isEmpty() ? null : sizes;
+	}
+
+	/**
+	 * Gets the url of the smallest derivative of a photo that is at least as large as a view shows it
+	 * The original is used if the photo has no such derivative, or is not stored on Cloudinary
+	 *
+	 * @param url   the url of the original
+	 * @param sizes the comma separated sizes of the photo's derivatives, null if it has none
+	 * @param size  the largest side in pixels the photo is shown with
+	 * @return the url of the derivative, or the url of the original
+	 */
+	public static String getUrl(String url, String sizes, int size) {
+		if (url == null || sizes == null || !url.contains(UPLOAD_PATH)) {
+			return url;
+		}
+		int fit = 0;
+		for (String recorded : sizes.split(",")) {
+			int derivativeSize = Integer.parseInt(recorded.trim());
+			if (derivativeSize >= size && (fit == 0 || derivativeSize < fit)) {
+				fit = derivativeSize;
+			}
+		}
+		if (fit == 0) {
+			return url;
+		}
+		int index = url.indexOf(UPLOAD_PATH) + UPLOAD_PATH.length();
+		return url.substring(0, index) + getTransformation(fit) + "/" + url.substring(index);
+	}
+}
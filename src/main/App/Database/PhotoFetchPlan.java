@@ -0,0 +1,28 @@
+package Database;
+
+import Database.HibernateClasses.Photo;
+
+/**
+ * Enum PhotoFetchPlan is what is loaded together with the photos a view shows
+ * WITH_TAGS loads the tags of the photos, for the photos view, where photos are searched by tag, and the photo viewer
+ * PHOTO_ONLY loads only the photos themselves, for the album details view and the PDF export, which only use the columns of the photos
+ */
+public enum PhotoFetchPlan {
+
+	WITH_TAGS(Photo.WITH_TAGS_GRAPH), PHOTO_ONLY(null);
+
+	private final String GRAPH_NAME;
+
+	PhotoFetchPlan(String graphName) {
+		this.GRAPH_NAME = graphName;
+	}
+
+	/**
+	 * Gets the name of the entity graph of the plan
+	 *
+	 * @return the name of the graph, null if nothing but the photos is loaded
+	 */
+	String getGraphName() {
+		return GRAPH_NAME;
+	}
+}
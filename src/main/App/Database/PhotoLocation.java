@@ -0,0 +1,78 @@
+package Database;
+
+/**
+ * Read only projection of a photo with what a map marker shows, the id, title, url, location, size and derivative sizes
+ * Made with a constructor expression, so the photos are neither managed nor dirty checked
+ */
+public final class PhotoLocation {
+
+	private final int ID;
+	private final String TITLE;
+	private final String URL;
+	private final Double LATITUDE;
+	private final Double LONGITUDE;
+	private final Integer WIDTH;
+	private final Integer HEIGHT;
+	private final String DERIVATIVE_SIZES;
+
+	/**
+	 * Constructor used by the constructor expression in Repository
+	 *
+	 * @param id              the id of the photo
+	 * @param title           the title of the photo
+	 * @param url             the url of the photo
+	 * @param latitude        the latitude of the photo
+	 * @param longitude       the longitude of the photo
+	 * @param width           the width of the photo
+	 * @param height          the height of the photo
+	 * @param derivativeSizes the comma separated sizes of the photo's derivatives, null if it has none
+	 */
+	public PhotoLocation(int id, String title, String url, Double latitude, Double longitude, Integer width, Integer height, String derivativeSizes) {
+		this.ID = id;
+		this.TITLE = title;
+		this.URL = url;
+		this.LATITUDE = latitude;
+		this.LONGITUDE = longitude;
+		this.WIDTH = width;
+		this.HEIGHT = height;
+		this.DERIVATIVE_SIZES = derivativeSizes;
+	}
+
+	public int getId() {
+		return ID;
+	}
+
+	public String getTitle() {
+		return TITLE;
+	}
+
+	public String getUrl() {
+		return URL;
+	}
+
+	/**
+	 * Gets the url of the smallest derivative of the photo that fits a view
+	 *
+	 * @param size the largest side in pixels the photo is shown with
+	 * @return the url of the derivative, or of the original if there is none that fits
+	 */
+	public String getUrl(int size) {
+		return PhotoDerivatives.getUrl(URL, DERIVATIVE_SIZES, size);
+	}
+
+	public Double getLatitude() {
+		return LATITUDE;
+	}
+
+	public Double getLongitude() {
+		return LONGITUDE;
+	}
+
+	public Integer getWidth() {
+		return WIDTH;
+	}
+
+	public Integer getHeight() {
+		return HEIGHT;
+	}
+}
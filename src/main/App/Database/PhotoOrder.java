@@ -0,0 +1,11 @@
+package Database;
+
+/**
+ * Enum PhotoOrder is the order photos are paged through in
+ * ID gives the order the photos were uploaded in
+ * TIME gives the order the photos were taken in, with the photos without a capture time first
+ */
+public enum PhotoOrder {
+
+	ID, TIME
+}
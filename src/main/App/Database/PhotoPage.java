@@ -0,0 +1,43 @@
+package Database;
+
+import java.util.List;
+
+/**
+ * Class for one page of photos from a keyset paginated query
+ * The last photo of a page is the key used to get the next page
+ *
+ * @param <T> how the photos are loaded, as Photo entities or as read only projections
+ */
+public final class PhotoPage<T> {
+
+	private final List<T> PHOTOS;
+	private final boolean HAS_MORE;
+
+	/**
+	 * Constructor for a page of photos
+	 *
+	 * @param photos  the photos on the page
+	 * @param hasMore if there are more photos after this page
+	 */
+	PhotoPage(List<T> photos, boolean hasMore) {
+		this.PHOTOS = photos;
+		this.HAS_MORE = hasMore;
+	}
+
+	public List<T> getPhotos() {
+		return PHOTOS;
+	}
+
+	public boolean hasMore() {
+		return HAS_MORE;
+	}
+
+	/**
+	 * Gets the last photo on the page, which is given to the query for the next page
+	 *
+	 * @return the last photo, null if the page is empty
+	 */
+	public T getLast() {
+		return PHOTOS.isEmpty() ? null : PHOTOS.get(PHOTOS.size() - 1);
+	}
+}
@@ -0,0 +1,88 @@
+package Database;
+
+import java.util.LinkedHashSet;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Read only projection of a photo with what a photo container shows, the id, title, url and derivative sizes
+ * Made with a constructor expression, so the photos are neither managed nor dirty checked.
+ * The tag names are only filled when the summaries are loaded with the WITH_TAGS fetch plan
+ */
+public final class PhotoSummary {
+
+	private final int ID;
+	private final String TITLE;
+	private final String URL;
+	private final String DERIVATIVE_SIZES;
+	private final Set<String> TAGS = new LinkedHashSet<>();
+
+	/**
+	 * Constructor used by the constructor expressions in Repository
+	 *
+	 * @param id              the id of the photo
+	 * @param title           the title of the photo
+	 * @param url             the url of the photo
+	 * @param derivativeSizes the comma separated sizes of the photo's derivatives, null if it has none
+	 */
+	public PhotoSummary(int id, String title, String url, String derivativeSizes) {
+		this.ID = id;
+		this.TITLE = title;
+		this.URL = url;
+		this.DERIVATIVE_SIZES = derivativeSizes;
+	}
+
+	public int getId() {
+		return ID;
+	}
+
+	public String getTitle() {
+		return TITLE;
+	}
+
+	public String getUrl() {
+		return URL;
+	}
+
+	/**
+	 * Gets the url of the smallest derivative of the photo that fits a view
+	 *
+	 * @param size the largest side in pixels the photo is shown with
+	 * @return the url of the derivative, or of the original if there is none that fits
+	 */
+	public String getUrl(int size) {
+		return PhotoDerivatives.getUrl(URL, DERIVATIVE_SIZES, size);
+	}
+
+	/**
+	 * Gets the case folded names of the photo's tags
+	 * The set can be changed, so it can be kept up to date when the tags are edited in the photo viewer
+	 *
+	 * @return the tag names
+	 */
+	public Set<String> getTags() {
+		return TAGS;
+	}
+
+	/**
+	 * Summaries are equal if they are of the same photo
+	 *
+	 * @param o an object o
+	 * @return if the object is a summary of the same photo
+	 */
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof PhotoSummary)) {
+			return false;
+		}
+		return ID == ((PhotoSummary) o).ID;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(ID);
+	}
+}
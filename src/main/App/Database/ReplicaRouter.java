@@ -0,0 +1,120 @@
+package Database;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+/**
+ * Chooses where read only work is sent, to one of the read replicas or to the primary database
+ * Healthy replicas are used in turn. Replicas that fail are skipped until a health check finds them healthy again,
+ * and for a while after this client has written, reads go to the primary so the client reads its own writes
+ * even if the replicas lag behind
+ *
+ * @param <T> the type of the replicas
+ */
+public final class ReplicaRouter<T> {
+
+	private final List<T> REPLICAS;
+	private final Predicate<T> HEALTH_CHECK;
+	private final long READ_YOUR_WRITES_NANOS;
+	private final LongSupplier CLOCK;
+	private final AtomicInteger NEXT = new AtomicInteger();
+	private final Set<T> UNHEALTHY = ConcurrentHashMap.newKeySet();
+	private volatile boolean hasWritten;
+	private volatile long lastWrite;
+
+	/**
+	 * Creates a router that measures time with System.nanoTime
+	 *
+	 * @param replicas             the replicas, can be empty
+	 * @param healthCheck          tells if a replica can be used
+	 * @param readYourWritesMillis how long reads go to the primary after a write, in milliseconds
+	 */
+	public ReplicaRouter(List<T> replicas, Predicate<T> healthCheck, long readYourWritesMillis) {
+		this(replicas, healthCheck, readYourWritesMillis, System::nanoTime);
+	}
+
+	/**
+	 * Creates a router
+	 *
+	 * @param replicas             the replicas, can be empty
+	 * @param healthCheck          tells if a replica can be used
+	 * @param readYourWritesMillis how long reads go to the primary after a write, in milliseconds
+	 * @param clock                the current time in nanoseconds
+	 */
+	public ReplicaRouter(List<T> replicas, Predicate<T> healthCheck, long readYourWritesMillis, LongSupplier clock) {
+		this.REPLICAS = Collections.unmodifiableList(new ArrayList<>(replicas));
+		this.HEALTH_CHECK = healthCheck;
+		this.READ_YOUR_WRITES_NANOS = TimeUnit.MILLISECONDS.toNanos(readYourWritesMillis);
+		this.CLOCK = clock;
+	}
+
+	/**
+	 * Chooses the replica for the next read only unit of work
+	 *
+	 * @return the replica, empty if the read should go to the primary
+	 */
+	public Optional<T> route() {
+		if (REPLICAS.isEmpty() || (hasWritten && CLOCK.getAsLong() - lastWrite < READ_YOUR_WRITES_NANOS)) {
+			return Optional.empty();
+		}
+		for (int i = 0; i < REPLICAS.size(); i++) {
+			T replica = REPLICAS.get(Math.floorMod(NEXT.getAndIncrement(), REPLICAS.size()));
+			if (!UNHEALTHY.contains(replica)) {
+				return Optional.of(replica);
+			}
+		}
+		return Optional.empty();
+	}
+
+	/**
+	 * Records that this client has written to the primary
+	 */
+	public void recordWrite() {
+		lastWrite = CLOCK.getAsLong();
+		hasWritten = true;
+	}
+
+	/**
+	 * Stops sending reads to a replica until a health check finds it healthy again
+	 * Used when a replica fails
+	 *
+	 * @param replica the replica that failed
+	 */
+	public void markUnhealthy(T replica) {
+		UNHEALTHY.add(replica);
+	}
+
+	/**
+	 * Runs the health check on every replica, and only sends reads to the ones that passed
+	 */
+	public void checkHealth() {
+		for (T replica : REPLICAS) {
+			if (HEALTH_CHECK.test(replica)) {
+				UNHEALTHY.remove(replica);
+			} else {
+				UNHEALTHY.add(replica);
+			}
+		}
+	}
+
+	public List<T> getReplicas() {
+		return REPLICAS;
+	}
+
+	/**
+	 * Gets the number of replicas that reads are sent to
+	 *
+	 * @return the number of healthy replicas
+	 */
+	public int getHealthyCount() {
+		return REPLICAS.size() - UNHEALTHY.size();
+	}
+}
@@ -0,0 +1,1078 @@
+package Database;
+
+import Components.FileLogger;
+import Database.HibernateClasses.Album;
+import Database.HibernateClasses.Photo;
+import Database.HibernateClasses.Tag;
+import Database.HibernateClasses.User;
+import org.hibernate.Session;
+
+import javax.persistence.Cache;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+import javax.persistence.TypedQuery;
+import java.sql.PreparedStatement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+
+/**
+ * Class with fine grained operations against the database
+ * Each write only issues the statements it needs, instead of saving the whole user graph.
+ * Writes on many rows are sent to the database as JDBC batches, and photos are read one keyset paginated page at a time.
+ * While the local library is serving, the views read from it, and the changes are made in it and sent to the database in the background
+ */
+public final class Repository {
+
+	private static final int BATCH_SIZE = 50;
+	private static final int IN_LIST_SIZE = 1000;
+	public static final int PAGE_SIZE = Hibernate.getConfigInt("photo_page_size", 50);
+
+	/**
+	 * Private constructor to hinder creation of utility class
+	 */
+	private Repository() {
+		throw new IllegalStateException("Utility class");
+	}
+
+	/**
+	 * Functional interface for the work done inside a transaction
+	 */
+	@FunctionalInterface
+	private interface UnitOfWork {
+		void execute(EntityManager em) throws Exception;
+	}
+
+	/**
+	 * Runs the work in a transaction with its own entity manager, in the shard of the user that is logged in
+	 * Rolls back and logs if something went wrong
+	 *
+	 * @param operation the name of the operation in DatabaseMetrics
+	 * @param work      the work to execute
+	 * @return if the transaction was committed
+	 */
+	private static boolean inTransaction(String operation, UnitOfWork work) {
+		return inTransaction(operation, Hibernate.createEntityManager(), work);
+	}
+
+	/**
+	 * Runs the work in a transaction with the given entity manager, and closes it
+	 * Rolls back and logs if something went wrong. The time and the statements of the transaction are recorded as an operation
+	 *
+	 * @param operation the name of the operation in DatabaseMetrics
+	 * @param em        the entity manager of the shard to run the work in
+	 * @param work      the work to execute
+	 * @return if the transaction was committed
+	 */
+	private static boolean inTransaction(String operation, EntityManager em, UnitOfWork work) {
+		return DatabaseMetrics.timeWrite(operation, () -> commit(em, work));
+	}
+
+	/**
+	 * Runs the work in a transaction with the given entity manager, and closes it
+	 * Used in inTransaction
+	 *
+	 * @param em   the entity manager of the shard to run the work in
+	 * @param work the work to execute
+	 * @return if the transaction was committed
+	 */
+	private static boolean commit(EntityManager em, UnitOfWork work) {
+		EntityTransaction et = null;
+		boolean isSuccess = false;
+		try {
+			et = em.getTransaction();
+			et.begin();
+			work.execute(em);
+			et.commit();
+			Hibernate.recordWrite();
+			isSuccess = true;
+		} catch (Exception e) {
+			if (et != null && et.isActive()) {
+				et.rollback();
+			}
+			FileLogger.getLogger().log(Level.FINE, e.getMessage());
+			FileLogger.closeHandler();
+		} finally {
+			em.close();
+		}
+		return isSuccess;
+	}
+
+	/**
+	 * Runs one statement for every pair of parameters as a JDBC batch
+	 * Used in the multi row operations
+	 *
+	 * @param em     the entity manager of the transaction
+	 * @param sql    the statement with two parameters
+	 * @param first  the first parameter, the same for every row
+	 * @param values the second parameter, one row per value
+	 */
+	private static void executeBatch(EntityManager em, String sql, Object first, Collection<?> values) {
+		em.unwrap(Session.class).doWork(connection -> {
+			try (PreparedStatement statement = connection.prepareStatement(sql)) {
+				int count = 0;
+				for (Object value : values) {
+					statement.setObject(1, first);
+					statement.setObject(2, value);
+					statement.addBatch();
+					if (++count % BATCH_SIZE == 0) {
+						statement.executeBatch();
+					}
+				}
+				if (count % BATCH_SIZE != 0) {
+					statement.executeBatch();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Runs one statement for every value as a JDBC batch
+	 * Used in the multi row operations
+	 *
+	 * @param em     the entity manager of the transaction
+	 * @param sql    the statement with one parameter
+	 * @param values the parameter, one row per value
+	 */
+	private static void executeBatch(EntityManager em, String sql, Collection<?> values) {
+		em.unwrap(Session.class).doWork(connection -> {
+			try (PreparedStatement statement = connection.prepareStatement(sql)) {
+				int count = 0;
+				for (Object value : values) {
+					statement.setObject(1, value);
+					statement.addBatch();
+					if (++count % BATCH_SIZE == 0) {
+						statement.executeBatch();
+					}
+				}
+				if (count % BATCH_SIZE != 0) {
+					statement.executeBatch();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Runs a statement with an in list of ids once for every chunk of the ids, so very large selections
+	 * are removed with a few set based statements without going over the limits of the database
+	 * Used in the bulk deletes
+	 *
+	 * @param em  the entity manager of the transaction
+	 * @param sql the statement, with %s where the in list of parameters goes
+	 * @param ids the ids
+	 */
+	private static void executeInChunks(EntityManager em, String sql, Collection<Integer> ids) {
+		List<Integer> idList = new ArrayList<>(ids);
+		em.unwrap(Session.class).doWork(connection -> {
+			for (int from = 0; from < idList.size(); from += IN_LIST_SIZE) {
+				List<Integer> chunk = idList.subList(from, Math.min(from + IN_LIST_SIZE, idList.size()));
+				String parameters = String.join(", ", Collections.nCopies(chunk.size(), "?"));
+				try (PreparedStatement statement = connection.prepareStatement(String.format(sql, parameters))) {
+					for (int i = 0; i < chunk.size(); i++) {
+						statement.setInt(i + 1, chunk.get(i));
+					}
+					statement.executeUpdate();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Runs statements that each have the same single parameter
+	 * Used in deleteUser and the writes that set a modification time
+	 *
+	 * @param em        the entity manager of the transaction
+	 * @param parameter the parameter of every statement
+	 * @param sql       the statements, in the order they are run
+	 */
+	private static void executeEach(EntityManager em, Object parameter, String... sql) {
+		em.unwrap(Session.class).doWork(connection -> {
+			for (String statementSql : sql) {
+				try (PreparedStatement statement = connection.prepareStatement(statementSql)) {
+					statement.setObject(1, parameter);
+					statement.executeUpdate();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Inserts a new photo
+	 * The generated id is set on the given photo
+	 *
+	 * @param photo the photo to insert
+	 * @return if the photo was inserted
+	 */
+	public static boolean insertPhoto(Photo photo) {
+		if (!inTransaction("insertPhoto", em -> em.persist(photo))) {
+			return false;
+		}
+		if (LocalLibrary.isServing(photo.getUserId())) {
+			LocalLibrary.put(photo);
+		}
+		return true;
+	}
+
+	/**
+	 * Inserts a new album
+	 * The generated id is set on the given album
+	 *
+	 * @param album the album to insert
+	 * @return if the album was inserted
+	 */
+	public static boolean insertAlbum(Album album) {
+		if (!inTransaction("insertAlbum", em -> em.persist(album))) {
+			return false;
+		}
+		if (LocalLibrary.isServing(album.getUserId())) {
+			LocalLibrary.put(album);
+		}
+		return true;
+	}
+
+	/**
+	 * Adds tags to a photo
+	 * Tag names that are not in the tag dictionary yet are added to it first, and tags the photo already has are skipped
+	 *
+	 * @param userId  the id of the user that owns the photo
+	 * @param photoId the id of the photo
+	 * @param tags    the names of the tags to add
+	 * @return if the tags were added
+	 */
+	public static boolean addTags(int userId, int photoId, Collection<String> tags) {
+		if (tags.isEmpty()) {
+			return true;
+		}
+		Set<String> names = normalizeTags(tags);
+		if (LocalLibrary.isServing(userId)) {
+			return LocalLibrary.addTags(userId, photoId, names);
+		}
+		return addTagsInDatabase(photoId, names);
+	}
+
+	/**
+	 * Adds tags to a photo in the database, and sets the modification time of the photo
+	 * Used in addTags, and when the change is sent from the local library
+	 *
+	 * @param photoId the id of the photo
+	 * @param names   the case folded names of the tags
+	 * @return if the tags were added
+	 */
+	static boolean addTagsInDatabase(int photoId, Collection<String> names) {
+		return inTransaction("addTags", em -> addTags(em, photoId, names));
+	}
+
+	/**
+	 * Adds tags to a photo, and sets the modification time of the photo, in a transaction
+	 * Used in addTagsInDatabase and write
+	 *
+	 * @param em      the entity manager of the transaction
+	 * @param photoId the id of the photo
+	 * @param names   the case folded names of the tags
+	 */
+	private static void addTags(EntityManager em, int photoId, Collection<String> names) {
+		executeBatch(em, "insert ignore into TAG (name) values (?)", names);
+		executeBatch(em, "insert ignore into PHOTO_TAG (photo_id, tag_id) select ?, id from TAG where name = ?", photoId, names);
+		executeEach(em, photoId, "update PHOTOS set updated_at = current_timestamp(3) where id = ?");
+	}
+
+	/**
+	 * Removes tags from a photo
+	 * The names stay in the tag dictionary
+	 *
+	 * @param userId  the id of the user that owns the photo
+	 * @param photoId the id of the photo
+	 * @param tags    the names of the tags to remove
+	 * @return if the tags were removed
+	 */
+	public static boolean removeTags(int userId, int photoId, Collection<String> tags) {
+		if (tags.isEmpty()) {
+			return true;
+		}
+		Set<String> names = normalizeTags(tags);
+		if (LocalLibrary.isServing(userId)) {
+			return LocalLibrary.removeTags(userId, photoId, names);
+		}
+		return removeTagsInDatabase(photoId, names);
+	}
+
+	/**
+	 * Removes tags from a photo in the database, and sets the modification time of the photo
+	 * Used in removeTags, and when the change is sent from the local library
+	 *
+	 * @param photoId the id of the photo
+	 * @param names   the case folded names of the tags
+	 * @return if the tags were removed
+	 */
+	static boolean removeTagsInDatabase(int photoId, Collection<String> names) {
+		return inTransaction("removeTags", em -> removeTags(em, photoId, names));
+	}
+
+	/**
+	 * Removes tags from a photo, and sets the modification time of the photo, in a transaction
+	 * Used in removeTagsInDatabase and write
+	 *
+	 * @param em      the entity manager of the transaction
+	 * @param photoId the id of the photo
+	 * @param names   the case folded names of the tags
+	 */
+	private static void removeTags(EntityManager em, int photoId, Collection<String> names) {
+		executeBatch(em, "delete from PHOTO_TAG where photo_id = ? and tag_id = (select id from TAG where name = ?)", photoId, names);
+		executeEach(em, photoId, "update PHOTOS set updated_at = current_timestamp(3) where id = ?");
+	}
+
+	/**
+	 * Case folds tag names the same way as the tag dictionary, without duplicates
+	 * Used in addTags, removeTags, the tag queries and WriteBehind
+	 *
+	 * @param tags the tag names as written by the user
+	 * @return the case folded names
+	 */
+	static Set<String> normalizeTags(Collection<String> tags) {
+		return tags.stream()
+				.filter(tag -> tag != null && !tag.trim().isEmpty())
+				.map(Tag::normalize)
+				.collect(Collectors.toCollection(LinkedHashSet::new));
+	}
+
+	/**
+	 * Adds photos to an album
+	 * Photos that already are in the album are skipped
+	 *
+	 * @param userId   the id of the user that owns the album
+	 * @param albumId  the id of the album
+	 * @param photoIds the ids of the photos
+	 * @return if the photos were added
+	 */
+	public static boolean linkPhotosToAlbum(int userId, int albumId, Collection<Integer> photoIds) {
+		if (photoIds.isEmpty()) {
+			return true;
+		}
+		if (LocalLibrary.isServing(userId)) {
+			return LocalLibrary.linkPhotosToAlbum(userId, albumId, photoIds);
+		}
+		return linkPhotosInDatabase(albumId, photoIds);
+	}
+
+	/**
+	 * Adds photos to an album in the database, and sets the modification time of the album
+	 * Used in linkPhotosToAlbum, and when the change is sent from the local library
+	 *
+	 * @param albumId  the id of the album
+	 * @param photoIds the ids of the photos
+	 * @return if the photos were added
+	 */
+	static boolean linkPhotosInDatabase(int albumId, Collection<Integer> photoIds) {
+		return inTransaction("linkPhotos", em -> linkPhotos(em, albumId, photoIds));
+	}
+
+	/**
+	 * Adds photos to an album, and sets the modification time of the album, in a transaction
+	 * Used in linkPhotosInDatabase and write
+	 *
+	 * @param em       the entity manager of the transaction
+	 * @param albumId  the id of the album
+	 * @param photoIds the ids of the photos
+	 */
+	private static void linkPhotos(EntityManager em, int albumId, Collection<Integer> photoIds) {
+		executeBatch(em, "insert ignore into ALBUMPHOTO (album_id, photo_id) values (?, ?)", albumId, photoIds);
+		executeEach(em, albumId, "update ALBUMS set updated_at = current_timestamp(3) where id = ?");
+	}
+
+	/**
+	 * Removes photos from an album, the photos themselves are kept
+	 *
+	 * @param userId   the id of the user that owns the album
+	 * @param albumId  the id of the album
+	 * @param photoIds the ids of the photos
+	 * @return if the photos were removed from the album
+	 */
+	public static boolean unlinkPhotosFromAlbum(int userId, int albumId, Collection<Integer> photoIds) {
+		if (photoIds.isEmpty()) {
+			return true;
+		}
+		if (LocalLibrary.isServing(userId)) {
+			return LocalLibrary.unlinkPhotosFromAlbum(userId, albumId, photoIds);
+		}
+		return unlinkPhotosInDatabase(albumId, photoIds);
+	}
+
+	/**
+	 * Removes photos from an album in the database, and sets the modification time of the album
+	 * Used in unlinkPhotosFromAlbum, and when the change is sent from the local library
+	 *
+	 * @param albumId  the id of the album
+	 * @param photoIds the ids of the photos
+	 * @return if the photos were removed from the album
+	 */
+	static boolean unlinkPhotosInDatabase(int albumId, Collection<Integer> photoIds) {
+		return inTransaction("unlinkPhotos", em -> unlinkPhotos(em, albumId, photoIds));
+	}
+
+	/**
+	 * Removes photos from an album, and sets the modification time of the album, in a transaction
+	 * Used in unlinkPhotosInDatabase and write
+	 *
+	 * @param em       the entity manager of the transaction
+	 * @param albumId  the id of the album
+	 * @param photoIds the ids of the photos
+	 */
+	private static void unlinkPhotos(EntityManager em, int albumId, Collection<Integer> photoIds) {
+		executeBatch(em, "delete from ALBUMPHOTO where album_id = ? and photo_id = ?", albumId, photoIds);
+		executeEach(em, albumId, "update ALBUMS set updated_at = current_timestamp(3) where id = ?");
+	}
+
+	/**
+	 * Removes an album, the photos in the album are kept
+	 *
+	 * @param userId  the id of the user that owns the album
+	 * @param albumId the id of the album
+	 * @return if the album was removed
+	 */
+	public static boolean removeAlbum(int userId, int albumId) {
+		return removeAlbums(userId, Collections.singletonList(albumId));
+	}
+
+	/**
+	 * Removes albums, the photos in the albums are kept
+	 *
+	 * @param userId   the id of the user that owns the albums
+	 * @param albumIds the ids of the albums
+	 * @return if the albums were removed
+	 */
+	public static boolean removeAlbums(int userId, Collection<Integer> albumIds) {
+		if (albumIds.isEmpty()) {
+			return true;
+		}
+		if (LocalLibrary.isServing(userId)) {
+			return LocalLibrary.removeAlbums(userId, albumIds);
+		}
+		return removeAlbumsInDatabase(albumIds);
+	}
+
+	/**
+	 * Removes albums from the database
+	 * Used in removeAlbums, and when the change is sent from the local library
+	 *
+	 * @param albumIds the ids of the albums
+	 * @return if the albums were removed
+	 */
+	static boolean removeAlbumsInDatabase(Collection<Integer> albumIds) {
+		if (!inTransaction("removeAlbums", em -> removeAlbums(em, albumIds))) {
+			return false;
+		}
+		evictFromCache(Album.class, albumIds);
+		return true;
+	}
+
+	/**
+	 * Removes albums together with their memberships, in a transaction
+	 * Used in removeAlbumsInDatabase and write
+	 *
+	 * @param em       the entity manager of the transaction
+	 * @param albumIds the ids of the albums
+	 */
+	private static void removeAlbums(EntityManager em, Collection<Integer> albumIds) {
+		executeInChunks(em, "delete from ALBUMPHOTO where album_id in (%s)", albumIds);
+		executeInChunks(em, "delete from ALBUMS where id in (%s)", albumIds);
+	}
+
+	/**
+	 * Deletes photos together with their tag links and album memberships
+	 *
+	 * @param userId   the id of the user that owns the photos
+	 * @param photoIds the ids of the photos
+	 * @return if the photos were deleted
+	 */
+	public static boolean deletePhotos(int userId, Collection<Integer> photoIds) {
+		if (photoIds.isEmpty()) {
+			return true;
+		}
+		if (LocalLibrary.isServing(userId)) {
+			return LocalLibrary.deletePhotos(userId, photoIds);
+		}
+		return deletePhotosInDatabase(photoIds);
+	}
+
+	/**
+	 * Deletes photos from the database
+	 * Used in deletePhotos, and when the change is sent from the local library
+	 *
+	 * @param photoIds the ids of the photos
+	 * @return if the photos were deleted
+	 */
+	static boolean deletePhotosInDatabase(Collection<Integer> photoIds) {
+		if (!inTransaction("deletePhotos", em -> deletePhotos(em, photoIds))) {
+			return false;
+		}
+		evictFromCache(Photo.class, photoIds);
+		return true;
+	}
+
+	/**
+	 * Deletes photos together with their tag links and album memberships, in a transaction
+	 * Used in deletePhotosInDatabase and write
+	 *
+	 * @param em       the entity manager of the transaction
+	 * @param photoIds the ids of the photos
+	 */
+	private static void deletePhotos(EntityManager em, Collection<Integer> photoIds) {
+		// The albums of the photos lose photos, so their modification times are set before the memberships are gone
+		executeInChunks(em, "update ALBUMS set updated_at = current_timestamp(3) where id in (select album_id from ALBUMPHOTO where photo_id in (%s))", photoIds);
+		executeInChunks(em, "delete from ALBUMPHOTO where photo_id in (%s)", photoIds);
+		executeInChunks(em, "delete from PHOTO_TAG where photo_id in (%s)", photoIds);
+		executeInChunks(em, "delete from PHOTOS where id in (%s)", photoIds);
+	}
+
+	/**
+	 * Writes the changes that were queued by WriteBehind. In the database all the changes are written in one transaction.
+	 * While the local library is serving, the changes are made in it, and it sends them to the database by itself
+	 * Used by WriteBehind
+	 *
+	 * @param userId the id of the user that made the changes, 0 if no user was logged in
+	 * @param writes the coalesced changes
+	 * @return if every change was written
+	 */
+	static boolean write(int userId, PendingWrites writes) {
+		if (LocalLibrary.isServing(userId)) {
+			boolean isWritten = true;
+			for (Map.Entry<Integer, Set<String>> tags : writes.getRemovedTags().entrySet()) {
+				isWritten &= LocalLibrary.removeTags(userId, tags.getKey(), tags.getValue());
+			}
+			for (Map.Entry<Integer, Set<String>> tags : writes.getAddedTags().entrySet()) {
+				isWritten &= LocalLibrary.addTags(userId, tags.getKey(), tags.getValue());
+			}
+			for (Map.Entry<Integer, Set<Integer>> photos : writes.getUnlinkedPhotos().entrySet()) {
+				isWritten &= LocalLibrary.unlinkPhotosFromAlbum(userId, photos.getKey(), photos.getValue());
+			}
+			for (Map.Entry<Integer, Set<Integer>> photos : writes.getLinkedPhotos().entrySet()) {
+				isWritten &= LocalLibrary.linkPhotosToAlbum(userId, photos.getKey(), photos.getValue());
+			}
+			if (!writes.getRemovedAlbumIds().isEmpty()) {
+				isWritten &= LocalLibrary.removeAlbums(userId, writes.getRemovedAlbumIds());
+			}
+			if (!writes.getDeletedPhotoIds().isEmpty()) {
+				isWritten &= LocalLibrary.deletePhotos(userId, writes.getDeletedPhotoIds());
+			}
+			return isWritten;
+		}
+		if (!inTransaction("writeBehind", em -> {
+			writes.getRemovedTags().forEach((photoId, names) -> removeTags(em, photoId, names));
+			writes.getAddedTags().forEach((photoId, names) -> addTags(em, photoId, names));
+			writes.getUnlinkedPhotos().forEach((albumId, photoIds) -> unlinkPhotos(em, albumId, photoIds));
+			writes.getLinkedPhotos().forEach((albumId, photoIds) -> linkPhotos(em, albumId, photoIds));
+			if (!writes.getRemovedAlbumIds().isEmpty()) {
+				removeAlbums(em, writes.getRemovedAlbumIds());
+			}
+			if (!writes.getDeletedPhotoIds().isEmpty()) {
+				deletePhotos(em, writes.getDeletedPhotoIds());
+			}
+		})) {
+			return false;
+		}
+		evictFromCache(Album.class, writes.getRemovedAlbumIds());
+		evictFromCache(Photo.class, writes.getDeletedPhotoIds());
+		return true;
+	}
+
+	/**
+	 * Deletes a user with all its photos, albums, tag links and album memberships
+	 * Every table is cleared with one statement on the user id, children first, in one transaction,
+	 * instead of loading the user graph and letting the cascades delete it row by row.
+	 * The statements run in the shard of the user, which does not have to be the user that is logged in
+	 *
+	 * @param userId the id of the user
+	 * @return if the user was deleted
+	 */
+	public static boolean deleteUser(int userId) {
+		int shard = Hibernate.getShardOf(userId);
+		if (!inTransaction("deleteUserRows", Hibernate.createEntityManager(shard), em -> executeEach(em, userId,
+				"delete from ALBUMPHOTO where album_id in (select id from ALBUMS where user_id = ?)",
+				"delete from ALBUMPHOTO where photo_id in (select id from PHOTOS where user_id = ?)",
+				"delete from PHOTO_TAG where photo_id in (select id from PHOTOS where user_id = ?)",
+				"delete from PHOTOS where user_id = ?",
+				"delete from ALBUMS where user_id = ?",
+				"delete from USERS where id = ?"))) {
+			return false;
+		}
+		// The ids of the deleted photos and albums are not known, so their whole regions are evicted
+		Cache cache = Hibernate.getEntityManagerFactory(shard).getCache();
+		cache.evict(Photo.class);
+		cache.evict(Album.class);
+		cache.evict(User.class, userId);
+		return true;
+	}
+
+	/**
+	 * Evicts entities that were changed with plain SQL from the second level cache, since Hibernate does not see those statements
+	 * Used in the writes that are sent as JDBC batches
+	 *
+	 * @param entityClass the class of the entities
+	 * @param ids         the ids of the changed entities
+	 */
+	private static void evictFromCache(Class<?> entityClass, Collection<Integer> ids) {
+		Cache cache = Hibernate.getEntityManagerFactory().getCache();
+		ids.forEach(id -> cache.evict(entityClass, id));
+	}
+
+	/**
+	 * Runs a read only query with its own entity manager, on a read replica if one is configured. Logs and rethrows if something went wrong
+	 * If the result has a photo or album with a change queued by WriteBehind, the queue is written and the query runs again,
+	 * so the views read their own changes. Other reads leave the queue waiting, so its changes are still coalesced
+	 * The time and the statements of the query are recorded as an operation
+	 *
+	 * @param operation      the name of the operation in DatabaseMetrics
+	 * @param query          the query to run
+	 * @param isQueuedChange checks if the result has a photo or album with a queued change
+	 * @param <T>            the type of the result
+	 * @return the result of the query
+	 */
+	private static <T> T read(String operation, Function<EntityManager, T> query, Predicate<T> isQueuedChange) {
+		return readOwnWrites(() -> readDatabase(operation, query), isQueuedChange);
+	}
+
+	/**
+	 * Runs a read on the local library of a user while it is serving, otherwise a read only query like read
+	 * The queue of WriteBehind is written and the read runs again in the same way as in read
+	 *
+	 * @param operation      the name of the operation in DatabaseMetrics
+	 * @param userId         the id of the user that owns the data
+	 * @param libraryRead    the read on the local library
+	 * @param query          the query to run when the local library is not serving
+	 * @param isQueuedChange checks if the result has a photo or album with a queued change
+	 * @param <T>            the type of the result
+	 * @return the result of the read
+	 */
+	private static <T> T read(String operation, int userId, Supplier<T> libraryRead, Function<EntityManager, T> query, Predicate<T> isQueuedChange) {
+		return readOwnWrites(() -> LocalLibrary.isServing(userId) ? libraryRead.get() : readDatabase(operation, query), isQueuedChange);
+	}
+
+	/**
+	 * Runs a read, and runs it again after the queue of WriteBehind is written if the result has a photo or album with a queued change
+	 * Used in read
+	 *
+	 * @param read           the read
+	 * @param isQueuedChange checks if the result has a photo or album with a queued change
+	 * @param <T>            the type of the result
+	 * @return the result of the read
+	 */
+	private static <T> T readOwnWrites(Supplier<T> read, Predicate<T> isQueuedChange) {
+		T result = read.get();
+		if (!isQueuedChange.test(result)) {
+			return result;
+		}
+		WriteBehind.flush();
+		return read.get();
+	}
+
+	/**
+	 * Checks if a page has a photo with a change queued by WriteBehind
+	 * Used in the page reads
+	 *
+	 * @param page  the page
+	 * @param getId gets the id of a photo on the page
+	 * @param <P>   the type of the photos
+	 * @return if a photo on the page has a queued change
+	 */
+	private static <P> boolean isQueuedChange(PhotoPage<P> page, Function<P, Integer> getId) {
+		return WriteBehind.isPhotoChanged(page.getPhotos().stream().map(getId).collect(Collectors.toList()));
+	}
+
+	/**
+	 * Runs a read only query with its own entity manager, on a read replica if one is configured
+	 * Used in read
+	 *
+	 * @param operation the name of the operation in DatabaseMetrics
+	 * @param query     the query to run
+	 * @param <T>       the type of the result
+	 * @return the result of the query
+	 */
+	private static <T> T readDatabase(String operation, Function<EntityManager, T> query) {
+		try {
+			return DatabaseMetrics.time(operation, () -> Hibernate.read(em -> {
+				// The entities that are read are only used detached, so no snapshots are kept for dirty checking
+				em.unwrap(Session.class).setDefaultReadOnly(true);
+				return query.apply(em);
+			}));
+		} catch (Exception e) {
+			FileLogger.getLogger().log(Level.FINE, e.getMessage());
+			FileLogger.closeHandler();
+			throw e;
+		}
+	}
+
+	/**
+	 * Gets the page of a user's photos that comes after a given photo
+	 * The page starts right after the key of the given photo, so the database can seek to it instead of skipping rows
+	 *
+	 * @param userId   the id of the user
+	 * @param order    the order to page through the photos in
+	 * @param after    the last photo of the previous page, null for the first page
+	 * @param pageSize the largest number of photos on the page
+	 * @param plan     what is loaded together with the photos
+	 * @return the page of photos
+	 */
+	public static PhotoPage<Photo> getPhotoPage(int userId, PhotoOrder order, Photo after, int pageSize, PhotoFetchPlan plan) {
+		return read("getPhotoPage", em -> {
+			TypedQuery<Photo> query;
+			if (order == PhotoOrder.TIME) {
+				query = em.createQuery("select p from Photo p where p.userId =:userId" + afterTakenAt(after) +
+						" order by p.takenAt, p.id", Photo.class);
+				setAfterTakenAt(query, after);
+			} else {
+				query = em.createQuery("select p from Photo p where p.userId =:userId" +
+						" and p.id > :afterId order by p.id", Photo.class);
+			}
+			List<Photo> photos = query
+					.setParameter("userId", userId)
+					.setParameter("afterId", after == null ? 0 : after.getId())
+					.setMaxResults(pageSize + 1)
+					.getResultList();
+			return toPage(em, photos, pageSize, plan);
+		}, page -> isQueuedChange(page, Photo::getId));
+	}
+
+	/**
+	 * Gets the page of a user's photos taken in a period that comes after a given photo, in the order they were taken
+	 * The period is looked up in the index on the user and the capture time
+	 *
+	 * @param userId   the id of the user
+	 * @param from     the start of the period, included
+	 * @param to       the end of the period, not included
+	 * @param after    the last photo of the previous page, null for the first page
+	 * @param pageSize the largest number of photos on the page
+	 * @param plan     what is loaded together with the photos
+	 * @return the page of photos
+	 */
+	public static PhotoPage<Photo> getPhotosTakenBetween(int userId, LocalDateTime from, LocalDateTime to, Photo after, int pageSize, PhotoFetchPlan plan) {
+		return read("getPhotosTakenBetween", em -> {
+			TypedQuery<Photo> query = em.createQuery("select p from Photo p where p.userId =:userId" +
+					" and p.takenAt >= :from and p.takenAt < :to" + afterTakenAt(after) +
+					" order by p.takenAt, p.id", Photo.class)
+					.setParameter("userId", userId)
+					.setParameter("from", from)
+					.setParameter("to", to)
+					.setParameter("afterId", after == null ? 0 : after.getId());
+			setAfterTakenAt(query, after);
+			return toPage(em, query.setMaxResults(pageSize + 1).getResultList(), pageSize, plan);
+		}, page -> isQueuedChange(page, Photo::getId));
+	}
+
+	/**
+	 * Makes the condition for the photos that come after a given photo in the order they were taken
+	 * Photos without a capture time come first, as null is sorted first in ascending order
+	 * Used in the queries ordered by capture time
+	 *
+	 * @param after the last photo of the previous page, null for the first page
+	 * @return the condition, that uses the parameters afterId and afterTakenAt
+	 */
+	private static String afterTakenAt(Photo after) {
+		if (after == null) {
+			return " and p.id > :afterId";
+		} else if (after.getTakenAt() == null) {
+			return " and (p.takenAt is not null or p.id > :afterId)";
+		}
+		return " and (p.takenAt > :afterTakenAt or (p.takenAt = :afterTakenAt and p.id > :afterId))";
+	}
+
+	/**
+	 * Sets the capture time parameter of the condition made by afterTakenAt, if it is used
+	 *
+	 * @param query the query
+	 * @param after the last photo of the previous page, null for the first page
+	 */
+	private static void setAfterTakenAt(TypedQuery<Photo> query, Photo after) {
+		if (after != null && after.getTakenAt() != null) {
+			query.setParameter("afterTakenAt", after.getTakenAt());
+		}
+	}
+
+	/**
+	 * Gets the page of a user's photos that have all of the given tags, ordered by id
+	 * The tag names are looked up in the unique index of the tag dictionary, and the photos through the index of PHOTO_TAG
+	 *
+	 * @param userId   the id of the user
+	 * @param tags     the names of the tags
+	 * @param after    the last photo of the previous page, null for the first page
+	 * @param pageSize the largest number of photos on the page
+	 * @param plan     what is loaded together with the photos
+	 * @return the page of photos
+	 */
+	public static PhotoPage<Photo> getPhotosWithAllTags(int userId, Collection<String> tags, Photo after, int pageSize, PhotoFetchPlan plan) {
+		Set<String> names = normalizeTags(tags);
+		return getTaggedPhotoPage(userId, names, " group by tp.id having count(t) = " + names.size(), after, pageSize, plan);
+	}
+
+	/**
+	 * Gets the page of a user's photos that have at least one of the given tags, ordered by id
+	 * The tag names are looked up in the unique index of the tag dictionary, and the photos through the index of PHOTO_TAG
+	 *
+	 * @param userId   the id of the user
+	 * @param tags     the names of the tags
+	 * @param after    the last photo of the previous page, null for the first page
+	 * @param pageSize the largest number of photos on the page
+	 * @param plan     what is loaded together with the photos
+	 * @return the page of photos
+	 */
+	public static PhotoPage<Photo> getPhotosWithAnyTags(int userId, Collection<String> tags, Photo after, int pageSize, PhotoFetchPlan plan) {
+		return getTaggedPhotoPage(userId, normalizeTags(tags), "", after, pageSize, plan);
+	}
+
+	/**
+	 * Gets a page of a user's photos that are linked to the given tags
+	 * Used in getPhotosWithAllTags and getPhotosWithAnyTags
+	 *
+	 * @param userId   the id of the user
+	 * @param names    the case folded names of the tags
+	 * @param grouping the clause that decides how many of the tags a photo must have, empty for any
+	 * @param after    the last photo of the previous page, null for the first page
+	 * @param pageSize the largest number of photos on the page
+	 * @param plan     what is loaded together with the photos
+	 * @return the page of photos
+	 */
+	private static PhotoPage<Photo> getTaggedPhotoPage(int userId, Set<String> names, String grouping, Photo after, int pageSize, PhotoFetchPlan plan) {
+		if (names.isEmpty()) {
+			return new PhotoPage<>(Collections.emptyList(), false);
+		}
+		// A queued tag change can change which photos are found, not only the photos on the page
+		return read("getTaggedPhotoPage", em -> {
+			List<Photo> photos = em.createQuery("select p from Photo p where p.userId =:userId and p.id > :afterId" +
+					" and p.id in (select tp.id from Photo tp join tp.tags t where t.name in :names" + grouping + ")" +
+					" order by p.id", Photo.class)
+					.setParameter("userId", userId)
+					.setParameter("afterId", after == null ? 0 : after.getId())
+					.setParameter("names", names)
+					.setMaxResults(pageSize + 1)
+					.getResultList();
+			return toPage(em, photos, pageSize, plan);
+		}, page -> WriteBehind.isTagChanged() || isQueuedChange(page, Photo::getId));
+	}
+
+	/**
+	 * Gets the page of an album's photos that comes after a given photo, ordered by id
+	 *
+	 * @param albumId  the id of the album
+	 * @param after    the last photo of the previous page, null for the first page
+	 * @param pageSize the largest number of photos on the page
+	 * @param plan     what is loaded together with the photos
+	 * @return the page of photos
+	 */
+	public static PhotoPage<Photo> getAlbumPhotoPage(int albumId, Photo after, int pageSize, PhotoFetchPlan plan) {
+		return read("getAlbumPhotoPage", em -> {
+			List<Photo> photos = em.createQuery("select p from Album a join a.photos p where a.id =:albumId" +
+					" and p.id > :afterId order by p.id", Photo.class)
+					.setParameter("albumId", albumId)
+					.setParameter("afterId", after == null ? 0 : after.getId())
+					.setMaxResults(pageSize + 1)
+					.getResultList();
+			return toPage(em, photos, pageSize, plan);
+		}, page -> WriteBehind.isAlbumChanged(Collections.singleton(albumId)) || isQueuedChange(page, Photo::getId));
+	}
+
+	/**
+	 * Gets all the photos of an album, one page at a time, without their associations
+	 *
+	 * @param albumId the id of the album
+	 * @return the photos of the album
+	 */
+	public static List<Photo> getAllAlbumPhotos(int albumId) {
+		List<Photo> photos = new ArrayList<>();
+		PhotoPage<Photo> page = getAlbumPhotoPage(albumId, null, PAGE_SIZE, PhotoFetchPlan.PHOTO_ONLY);
+		photos.addAll(page.getPhotos());
+		while (page.hasMore()) {
+			page = getAlbumPhotoPage(albumId, page.getLast(), PAGE_SIZE, PhotoFetchPlan.PHOTO_ONLY);
+			photos.addAll(page.getPhotos());
+		}
+		return photos;
+	}
+
+	/**
+	 * Gets the page of summaries of a user's photos that comes after a given photo, ordered by id
+	 * Used by the photos view, which only shows the id, title and url of the photos
+	 *
+	 * @param userId   the id of the user
+	 * @param after    the last photo of the previous page, null for the first page
+	 * @param pageSize the largest number of photos on the page
+	 * @param plan     WITH_TAGS to also load the tag names of the photos
+	 * @return the page of photo summaries
+	 */
+	public static PhotoPage<PhotoSummary> getPhotoSummaryPage(int userId, PhotoSummary after, int pageSize, PhotoFetchPlan plan) {
+		return read("getPhotoSummaryPage", userId, () -> LocalLibrary.getPhotoSummaryPage(userId, after, pageSize, plan), em -> {
+			List<PhotoSummary> photos = em.createQuery("select new Database.PhotoSummary(p.id, p.title, p.url, p.derivativeSizes) from Photo p" +
+					" where p.userId =:userId and p.id > :afterId order by p.id", PhotoSummary.class)
+					.setParameter("userId", userId)
+					.setParameter("afterId", after == null ? 0 : after.getId())
+					.setMaxResults(pageSize + 1)
+					.getResultList();
+			return toSummaryPage(em, photos, pageSize, plan);
+		}, page -> isQueuedChange(page, PhotoSummary::getId));
+	}
+
+	/**
+	 * Gets the page of summaries of an album's photos that comes after a given photo, ordered by id
+	 * Used by the album details view, which only shows the id, title and url of the photos
+	 *
+	 * @param userId   the id of the user that owns the album
+	 * @param albumId  the id of the album
+	 * @param after    the last photo of the previous page, null for the first page
+	 * @param pageSize the largest number of photos on the page
+	 * @param plan     WITH_TAGS to also load the tag names of the photos
+	 * @return the page of photo summaries
+	 */
+	public static PhotoPage<PhotoSummary> getAlbumPhotoSummaryPage(int userId, int albumId, PhotoSummary after, int pageSize, PhotoFetchPlan plan) {
+		return read("getAlbumPhotoSummaryPage", userId, () -> LocalLibrary.getAlbumPhotoSummaryPage(userId, albumId, after, pageSize, plan), em -> {
+			List<PhotoSummary> photos = em.createQuery("select new Database.PhotoSummary(p.id, p.title, p.url, p.derivativeSizes) from Album a join a.photos p" +
+					" where a.id =:albumId and p.id > :afterId order by p.id", PhotoSummary.class)
+					.setParameter("albumId", albumId)
+					.setParameter("afterId", after == null ? 0 : after.getId())
+					.setMaxResults(pageSize + 1)
+					.getResultList();
+			return toSummaryPage(em, photos, pageSize, plan);
+		}, page -> WriteBehind.isAlbumChanged(Collections.singleton(albumId)) || isQueuedChange(page, PhotoSummary::getId));
+	}
+
+	/**
+	 * Gets the page of the locations of a user's photos that comes after a given photo, ordered by id
+	 * Only photos with a location are included. Used by the map
+	 *
+	 * @param userId   the id of the user
+	 * @param after    the last photo of the previous page, null for the first page
+	 * @param pageSize the largest number of photos on the page
+	 * @return the page of photo locations
+	 */
+	public static PhotoPage<PhotoLocation> getPhotoLocationPage(int userId, PhotoLocation after, int pageSize) {
+		return read("getPhotoLocationPage", userId, () -> LocalLibrary.getPhotoLocationPage(userId, after, pageSize), em -> {
+			List<PhotoLocation> photos = em.createQuery("select new Database.PhotoLocation(p.id, p.title, p.url, p.latitude, p.longitude, p.width, p.height, p.derivativeSizes)" +
+					" from Photo p where p.userId =:userId and p.latitude is not null and p.longitude is not null" +
+					" and p.id > :afterId order by p.id", PhotoLocation.class)
+					.setParameter("userId", userId)
+					.setParameter("afterId", after == null ? 0 : after.getId())
+					.setMaxResults(pageSize + 1)
+					.getResultList();
+			boolean hasMore = photos.size() > pageSize;
+			return new PhotoPage<>(new ArrayList<>(hasMore ? photos.subList(0, pageSize) : photos), hasMore);
+		}, page -> isQueuedChange(page, PhotoLocation::getId));
+	}
+
+	/**
+	 * Makes a page from the result of a summary page query, that asked for one photo more than the page size
+	 * With the WITH_TAGS plan the tag names of all the photos on the page are read in one more query
+	 * Used in getPhotoSummaryPage and getAlbumPhotoSummaryPage
+	 *
+	 * @param em       the entity manager of the page query
+	 * @param photos   the result of the page query
+	 * @param pageSize the largest number of photos on the page
+	 * @param plan     what is loaded together with the photos
+	 * @return the page of photo summaries
+	 */
+	private static PhotoPage<PhotoSummary> toSummaryPage(EntityManager em, List<PhotoSummary> photos, int pageSize, PhotoFetchPlan plan) {
+		boolean hasMore = photos.size() > pageSize;
+		List<PhotoSummary> pagePhotos = new ArrayList<>(hasMore ? photos.subList(0, pageSize) : photos);
+		if (!pagePhotos.isEmpty() && plan == PhotoFetchPlan.WITH_TAGS) {
+			Map<Integer, PhotoSummary> photosById = pagePhotos.stream().collect(Collectors.toMap(PhotoSummary::getId, Function.identity()));
+			em.createQuery("select p.id, t.name from Photo p join p.tags t where p.id in :photoIds order by t.name", Object[].class)
+					.setParameter("photoIds", photosById.keySet())
+					.getResultList()
+					.forEach(row -> photosById.get((Integer) row[0]).getTags().add((String) row[1]));
+		}
+		return new PhotoPage<>(pagePhotos, hasMore);
+	}
+
+	/**
+	 * Gets a photo
+	 * Used when a photo is opened from a view that did not load what the photo viewer needs
+	 *
+	 * @param userId  the id of the user that owns the photo
+	 * @param photoId the id of the photo
+	 * @param plan    what is loaded together with the photo
+	 * @return the photo, null if it does not exist or is owned by another user
+	 */
+	public static Photo getPhoto(int userId, int photoId, PhotoFetchPlan plan) {
+		return read("getPhoto", userId, () -> LocalLibrary.getPhoto(userId, photoId, plan), em -> {
+			TypedQuery<Photo> query = em.createQuery("select p from Photo p where p.id =:photoId and p.userId =:userId", Photo.class)
+					.setParameter("photoId", photoId)
+					.setParameter("userId", userId);
+			applyFetchPlan(em, query, plan);
+			List<Photo> photos = query.getResultList();
+			return photos.isEmpty() ? null : photos.get(0);
+		}, photo -> WriteBehind.isPhotoChanged(Collections.singleton(photoId)));
+	}
+
+	/**
+	 * Makes a page from the result of a page query, that asked for one photo more than the page size
+	 * The associations in the fetch plan are loaded for all the photos on the page in one more query, since the photos are used detached.
+	 * They are not fetched in the page query itself, since the limit of a query that fetches a collection is applied in memory
+	 * Used in the page queries
+	 *
+	 * @param em       the entity manager the photos were loaded with
+	 * @param photos   the result of the page query
+	 * @param pageSize the largest number of photos on the page
+	 * @param plan     what is loaded together with the photos
+	 * @return the page of photos
+	 */
+	private static PhotoPage<Photo> toPage(EntityManager em, List<Photo> photos, int pageSize, PhotoFetchPlan plan) {
+		boolean hasMore = photos.size() > pageSize;
+		List<Photo> pagePhotos = new ArrayList<>(hasMore ? photos.subList(0, pageSize) : photos);
+		if (!pagePhotos.isEmpty() && plan.getGraphName() != null) {
+			TypedQuery<Photo> query = em.createQuery("select p from Photo p where p in :photos", Photo.class)
+					.setParameter("photos", pagePhotos);
+			applyFetchPlan(em, query, plan);
+			query.getResultList();
+		}
+		return new PhotoPage<>(pagePhotos, hasMore);
+	}
+
+	/**
+	 * Makes a query load the associations in a fetch plan, with the entity graph of the plan
+	 * Used in getPhoto and toPage
+	 *
+	 * @param em    the entity manager of the query
+	 * @param query the query
+	 * @param plan  the fetch plan
+	 */
+	private static void applyFetchPlan(EntityManager em, TypedQuery<Photo> query, PhotoFetchPlan plan) {
+		if (plan.getGraphName() != null) {
+			query.setHint("javax.persistence.fetchgraph", em.getEntityGraph(plan.getGraphName()));
+		}
+	}
+
+	/**
+	 * Gets the summaries of a user's albums, ordered by id
+	 * The number of photos, the newest capture time and the cover photo of every album are counted by the database in one grouped query.
+	 * The cover photo is the photo that was added last, the one with the highest id
+	 *
+	 * @param userId the id of the user
+	 * @return the summaries of the user's albums
+	 */
+	public static List<AlbumSummary> getAlbumSummaries(int userId) {
+		return read("getAlbumSummaries", userId, () -> LocalLibrary.getAlbumSummaries(userId), em -> em.createQuery("select new Database.AlbumSummary(a.id, a.name, count(p), max(p.takenAt), max(p.id))" +
+				" from Album a left join a.photos p where a.userId =:userId group by a.id, a.name order by a.id", AlbumSummary.class)
+				.setParameter("userId", userId)
+				.getResultList(),
+				// A queued photo delete changes the counts of the albums the photo is in
+				albums -> WriteBehind.isPhotoDeleted() || WriteBehind.isAlbumChanged(albums.stream().map(AlbumSummary::getId).collect(Collectors.toList())));
+	}
+
+	/**
+	 * Gets the albums of a user, without their photos
+	 *
+	 * @param userId the id of the user
+	 * @return the albums of the user
+	 */
+	public static List<Album> getAlbums(int userId) {
+		return read("getAlbums", userId, () -> LocalLibrary.getAlbums(userId), em -> em.createQuery("select a from Album a where a.userId =:userId order by a.id", Album.class)
+				.setParameter("userId", userId)
+				.getResultList(),
+				albums -> WriteBehind.isAlbumChanged(albums.stream().map(Album::getId).collect(Collectors.toList())));
+	}
+}
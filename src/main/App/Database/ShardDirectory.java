@@ -0,0 +1,164 @@
+package Database;
+
+import org.hibernate.Session;
+
+import javax.persistence.EntityManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * The user directory, the table USER_DIRECTORY in the database of shard 0, which gives out the user ids
+ * and knows which shard every user is in. A user never moves, so the shards that are found are remembered.
+ * Users that are not in the directory are in shard 0, which is not remembered since they can be registered later
+ * Used by Hibernate when users are registered, logged in and deleted
+ */
+final class ShardDirectory {
+
+	private static final Map<String, Integer> SHARDS_BY_USERNAME = new ConcurrentHashMap<>();
+	private static final Map<Integer, Integer> SHARDS_BY_USER_ID = new ConcurrentHashMap<>();
+
+	/**
+	 * Private constructor to hinder creation of utility class
+	 */
+	private ShardDirectory() {
+		throw new IllegalStateException("Utility class");
+	}
+
+	/**
+	 * Puts a new user in the directory, in shard 0 until setShard is called, which reserves the username
+	 *
+	 * @param username the username
+	 * @return the id of the new user
+	 * @throws org.hibernate.JDBCException if the username is taken or the directory could not be reached
+	 */
+	static int register(String username) {
+		return inDirectory(em -> em.unwrap(Session.class).doReturningWork(connection -> {
+			try (PreparedStatement insert = connection.prepareStatement(
+					"insert into USER_DIRECTORY (username, shard) values (?, 0)", Statement.RETURN_GENERATED_KEYS)) {
+				insert.setString(1, username);
+				insert.executeUpdate();
+				try (ResultSet keys = insert.getGeneratedKeys()) {
+					keys.next();
+					return keys.getInt(1);
+				}
+			}
+		}));
+	}
+
+	/**
+	 * Sets the shard of a user
+	 *
+	 * @param userId   the user id
+	 * @param username the username
+	 * @param shard    the shard the user is in
+	 */
+	static void setShard(int userId, String username, int shard) {
+		if (shard != 0) {
+			inDirectory(em -> em.unwrap(Session.class).doReturningWork(connection -> {
+				try (PreparedStatement update = connection.prepareStatement("update USER_DIRECTORY set shard = ? where user_id = ?")) {
+					update.setInt(1, shard);
+					update.setInt(2, userId);
+					return update.executeUpdate();
+				}
+			}));
+		}
+		SHARDS_BY_USERNAME.put(username, shard);
+		SHARDS_BY_USER_ID.put(userId, shard);
+	}
+
+	/**
+	 * Gets the shard of a user by username
+	 *
+	 * @param username the username
+	 * @return the shard, 0 if the user is not in the directory
+	 */
+	static int getShard(String username) {
+		Integer shard = SHARDS_BY_USERNAME.get(username);
+		if (shard == null) {
+			shard = lookUp("select user_id, shard from USER_DIRECTORY where username = ?", username);
+			if (shard == null) {
+				return 0;
+			}
+			SHARDS_BY_USERNAME.put(username, shard);
+		}
+		return shard;
+	}
+
+	/**
+	 * Gets the shard of a user by user id
+	 *
+	 * @param userId the user id
+	 * @return the shard, 0 if the user is not in the directory
+	 */
+	static int getShard(int userId) {
+		Integer shard = SHARDS_BY_USER_ID.get(userId);
+		if (shard == null) {
+			shard = lookUp("select user_id, shard from USER_DIRECTORY where user_id = ?", userId);
+			if (shard == null) {
+				return 0;
+			}
+		}
+		return shard;
+	}
+
+	/**
+	 * Removes a user from the directory, which frees the username
+	 * Used when a user is deleted, or could not be registered in its shard
+	 *
+	 * @param userId   the user id
+	 * @param username the username
+	 */
+	static void remove(int userId, String username) {
+		SHARDS_BY_USERNAME.remove(username);
+		SHARDS_BY_USER_ID.remove(userId);
+		inDirectory(em -> em.unwrap(Session.class).doReturningWork(connection -> {
+			try (PreparedStatement delete = connection.prepareStatement("delete from USER_DIRECTORY where username = ?")) {
+				delete.setString(1, username);
+				return delete.executeUpdate();
+			}
+		}));
+	}
+
+	/**
+	 * Looks up the shard of a user, and remembers it by user id, so a user that logs in is only looked up once
+	 * Used in getShard
+	 *
+	 * @param sql the query for the user id and shard, with the username or user id as the only parameter
+	 * @param key the username or user id
+	 * @return the shard, null if the user is not in the directory
+	 */
+	private static Integer lookUp(String sql, Object key) {
+		return inDirectory(em -> em.unwrap(Session.class).doReturningWork(connection -> {
+			try (PreparedStatement select = connection.prepareStatement(sql)) {
+				select.setObject(1, key);
+				try (ResultSet entry = select.executeQuery()) {
+					if (!entry.next()) {
+						return null;
+					}
+					SHARDS_BY_USER_ID.put(entry.getInt("user_id"), entry.getInt("shard"));
+					return entry.getInt("shard");
+				}
+			}
+		}));
+	}
+
+	/**
+	 * Runs work on the database of shard 0, where the directory is. Every statement is committed on its own
+	 *
+	 * @param work the work
+	 * @param <T>  the type of the result
+	 * @return the result of the work
+	 */
+	private static <T> T inDirectory(Function<EntityManager, T> work) {
+		EntityManager em = Hibernate.createEntityManager(0);
+		try {
+			return work.apply(em);
+		} finally {
+			em.close();
+		}
+	}
+}
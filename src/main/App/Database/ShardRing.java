@@ -0,0 +1,72 @@
+package Database;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Consistent hashing of user ids to shards
+ * Every shard is placed on a ring at many points, and a user id belongs to the first shard after the hash of the id.
+ * When a shard is added, only the ids that land just before its points move to it, about one in the new number of shards.
+ * Used by Hibernate to choose the shard of a new user, the shard of an existing user is looked up in the user directory
+ */
+public final class ShardRing {
+
+	private final NavigableMap<Integer, Integer> RING = new TreeMap<>();
+	private final int SHARD_COUNT;
+
+	/**
+	 * Creates a ring
+	 *
+	 * @param shardCount   the number of shards, numbered from 0
+	 * @param virtualNodes the number of points on the ring for every shard, more points spread the ids more evenly
+	 */
+	public ShardRing(int shardCount, int virtualNodes) {
+		if (shardCount < 1 || virtualNodes < 1) {
+			throw new IllegalArgumentException("There must be at least one shard with at least one point on the ring");
+		}
+		this.SHARD_COUNT = shardCount;
+		for (int shard = 0; shard < shardCount; shard++) {
+			for (int node = 0; node < virtualNodes; node++) {
+				RING.putIfAbsent(hash("shard-" + shard + "#" + node), shard);
+			}
+		}
+	}
+
+	/**
+	 * Gets the shard of a user id
+	 *
+	 * @param userId the user id
+	 * @return the shard, from 0 to the number of shards minus one
+	 */
+	public int getShard(int userId) {
+		if (SHARD_COUNT == 1) {
+			return 0;
+		}
+		Map.Entry<Integer, Integer> entry = RING.ceilingEntry(hash(Integer.toString(userId)));
+		return entry == null ? RING.firstEntry().getValue() : entry.getValue();
+	}
+
+	public int getShardCount() {
+		return SHARD_COUNT;
+	}
+
+	/**
+	 * Hashes a key to a point on the ring with the first four bytes of its MD5 digest
+	 * Used for the points of the shards and for the user ids
+	 *
+	 * @param key the key
+	 * @return the point on the ring
+	 */
+	private static int hash(String key) {
+		try {
+			byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+			return ((digest[0] & 0xFF) << 24) | ((digest[1] & 0xFF) << 16) | ((digest[2] & 0xFF) << 8) | (digest[3] & 0xFF);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
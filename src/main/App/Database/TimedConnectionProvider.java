@@ -0,0 +1,116 @@
+package Database;
+
+import org.hibernate.hikaricp.internal.HikariCPConnectionProvider;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Connection provider that hands out the HikariCP connections of Hibernate with every statement timed
+ * Every execute call is recorded in DatabaseMetrics with its SQL, which counts the statements of the operations and logs the slow ones
+ * Set as hibernate.connection.provider_class in persistence.xml. The read replica connections are wrapped the same way in Hibernate.read
+ */
+public class TimedConnectionProvider extends HikariCPConnectionProvider {
+
+	private static final long serialVersionUID = 1L;
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		return timed(super.getConnection());
+	}
+
+	/**
+	 * Wraps a connection, so the statements it makes are timed
+	 *
+	 * @param connection the connection
+	 * @return the connection with timed statements
+	 */
+	static Connection timed(Connection connection) {
+		return (Connection) Proxy.newProxyInstance(TimedConnectionProvider.class.getClassLoader(), new Class<?>[]{Connection.class},
+				(proxy, method, args) -> {
+					Object result = invoke(proxy, connection, method, args);
+					if (result instanceof Statement) {
+						String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : null;
+						return timed((Statement) result, (Connection) proxy, sql);
+					}
+					return result;
+				});
+	}
+
+	/**
+	 * Wraps a statement, so its execute calls are timed
+	 * The result sets it returns give the wrapped statement back, which Hibernate uses to release them
+	 *
+	 * @param statement  the statement
+	 * @param connection the wrapped connection that made the statement
+	 * @param sql        the SQL of a prepared statement, null for a plain statement that gets its SQL when it is executed
+	 * @return the timed statement
+	 */
+	private static Statement timed(Statement statement, Connection connection, String sql) {
+		Class<?> type = statement instanceof CallableStatement ? CallableStatement.class
+				: statement instanceof PreparedStatement ? PreparedStatement.class : Statement.class;
+		return (Statement) Proxy.newProxyInstance(TimedConnectionProvider.class.getClassLoader(), new Class<?>[]{type},
+				(proxy, method, args) -> {
+					if (method.getName().equals("getConnection")) {
+						return connection;
+					}
+					if (!method.getName().startsWith("execute")) {
+						return timed(invoke(proxy, statement, method, args), proxy);
+					}
+					long start = System.nanoTime();
+					try {
+						return timed(invoke(proxy, statement, method, args), proxy);
+					} finally {
+						DatabaseMetrics.recordStatement(args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : sql,
+								System.nanoTime() - start);
+					}
+				});
+	}
+
+	/**
+	 * Wraps a result set, so it gives the wrapped statement that made it
+	 *
+	 * @param result    the result of a call on a statement
+	 * @param statement the wrapped statement
+	 * @return the wrapped result set, or the result as it is if it is not a result set
+	 */
+	private static Object timed(Object result, Object statement) {
+		if (!(result instanceof ResultSet)) {
+			return result;
+		}
+		ResultSet resultSet = (ResultSet) result;
+		return Proxy.newProxyInstance(TimedConnectionProvider.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+				(proxy, method, args) -> method.getName().equals("getStatement") ? statement : invoke(proxy, resultSet, method, args));
+	}
+
+	/**
+	 * Calls a method on the wrapped object. A wrapper is only equal to itself, and the exceptions of the wrapped object are thrown as they are
+	 *
+	 * @param proxy   the wrapper
+	 * @param target  the wrapped object
+	 * @param method  the method
+	 * @param args    the arguments, null if there are none
+	 * @return the result of the method
+	 * @throws Throwable the exception of the method
+	 */
+	private static Object invoke(Object proxy, Object target, Method method, Object[] args) throws Throwable {
+		if (method.getName().equals("equals") && args != null && args.length == 1) {
+			return proxy == args[0];
+		}
+		if (method.getName().equals("hashCode") && args == null) {
+			return System.identityHashCode(proxy);
+		}
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+}
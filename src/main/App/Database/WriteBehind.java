@@ -0,0 +1,442 @@
+package Database;
+
+import Components.FileLogger;
+
+import javax.persistence.PersistenceException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+/**
+ * Class that queues the changes the views make to the library, and writes them in the background.
+ * Repeated changes to the same rows are coalesced, and the queue is written in one transaction write_behind_millis after
+ * the first change, or at once when write_behind_size rows are waiting. A read in Repository that finds a photo or album
+ * with a queued change writes the queue and reads again, so the program always reads its own changes, while other reads leave the queue waiting. The queue is written when the user logs out and when the program is closed.
+ * Every queued change gives a future, which the views use to show that the change was saved, or that it was given up
+ */
+public final class WriteBehind {
+
+	private static final int DELAY_MILLIS = Hibernate.getConfigInt("write_behind_millis", 2000);
+	private static final int MAX_PENDING = Hibernate.getConfigInt("write_behind_size", 100);
+	private static final int MAX_ATTEMPTS = 5;
+	private static final int STOP_WAIT_SECONDS = 10;
+	private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "write-behind");
+		thread.setDaemon(true);
+		return thread;
+	});
+	// Only one thread writes at a time, so a read that writes the queue first waits for a write that is running
+	private static final Object FLUSH_LOCK = new Object();
+	// The changes of users that logged out, which are tried again until they are written
+	private static final List<PendingWrites> RETRYING = new ArrayList<>();
+	private static PendingWrites pending = new PendingWrites();
+	// The changes that are being written by flush, which a read must also wait for
+	private static PendingWrites writing = new PendingWrites();
+	// The futures of the queued changes, completed when the queue they are in is written or given up
+	private static List<CompletableFuture<Void>> waiting = new ArrayList<>();
+	private static int userId;
+	private static int attempts;
+	private static ScheduledFuture<?> flushTask;
+
+	/**
+	 * Private constructor to hinder creation of utility class
+	 */
+	private WriteBehind() {
+		throw new IllegalStateException("Utility class");
+	}
+
+	/**
+	 * Starts queueing the changes of a user
+	 * Used when a user is logged in
+	 *
+	 * @param loggedInUserId the id of the user
+	 */
+	public static synchronized void start(int loggedInUserId) {
+		userId = loggedInUserId;
+	}
+
+	/**
+	 * Writes the changes of the user in the shard of the user, and waits up to STOP_WAIT_SECONDS seconds until they are written,
+	 * so they are made in the local library of the user before it is closed. Changes that could not be written are tried again
+	 * every write_behind_millis until they are, even if another user logs in before they are written
+	 * Used when the user logs out, before the local library is closed
+	 */
+	public static void stop() {
+		PendingWrites writes;
+		List<CompletableFuture<Void>> written;
+		int writesUserId;
+		synchronized (WriteBehind.class) {
+			writes = pending;
+			written = waiting;
+			writesUserId = userId;
+			pending = new PendingWrites();
+			waiting = new ArrayList<>();
+			userId = 0;
+			attempts = 0;
+		}
+		if (writes.isEmpty()) {
+			return;
+		}
+		CompletableFuture<Void> isWritten = CompletableFuture.allOf(written.toArray(new CompletableFuture<?>[0]));
+		try {
+			EXECUTOR.execute(() -> writeUntilWritten(writesUserId, writes, written));
+			isWritten.get(STOP_WAIT_SECONDS, TimeUnit.SECONDS);
+		} catch (RejectedExecutionException | ExecutionException | TimeoutException e) {
+			FileLogger.getLogger().log(Level.FINE, e.getMessage());
+			FileLogger.closeHandler();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Writes the changes of the user, and waits until they are written
+	 * Changes that still could not be written when the program is closed are logged as lost
+	 * Used when the program is closed
+	 */
+	public static void shutdown() {
+		stop();
+		EXECUTOR.shutdown();
+		try {
+			if (!EXECUTOR.awaitTermination(30, TimeUnit.SECONDS)) {
+				EXECUTOR.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			EXECUTOR.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+		synchronized (RETRYING) {
+			RETRYING.forEach(WriteBehind::logLost);
+			RETRYING.clear();
+		}
+	}
+
+	/**
+	 * Queues tags that are added to a photo
+	 *
+	 * @param photoId the id of the photo
+	 * @param tags    the names of the tags
+	 * @return a future that is completed when the change is written, or exceptionally if it was given up
+	 */
+	public static CompletableFuture<Void> addTags(int photoId, Collection<String> tags) {
+		CompletableFuture<Void> written;
+		synchronized (WriteBehind.class) {
+			pending.addTags(photoId, Repository.normalizeTags(tags));
+			written = track();
+		}
+		scheduleFlush();
+		return written;
+	}
+
+	/**
+	 * Queues tags that are removed from a photo
+	 *
+	 * @param photoId the id of the photo
+	 * @param tags    the names of the tags
+	 * @return a future that is completed when the change is written, or exceptionally if it was given up
+	 */
+	public static CompletableFuture<Void> removeTags(int photoId, Collection<String> tags) {
+		CompletableFuture<Void> written;
+		synchronized (WriteBehind.class) {
+			pending.removeTags(photoId, Repository.normalizeTags(tags));
+			written = track();
+		}
+		scheduleFlush();
+		return written;
+	}
+
+	/**
+	 * Queues photos that are added to an album
+	 *
+	 * @param albumId  the id of the album
+	 * @param photoIds the ids of the photos
+	 * @return a future that is completed when the change is written, or exceptionally if it was given up
+	 */
+	public static CompletableFuture<Void> linkPhotosToAlbum(int albumId, Collection<Integer> photoIds) {
+		CompletableFuture<Void> written;
+		synchronized (WriteBehind.class) {
+			pending.linkPhotos(albumId, photoIds);
+			written = track();
+		}
+		scheduleFlush();
+		return written;
+	}
+
+	/**
+	 * Queues photos that are removed from an album
+	 *
+	 * @param albumId  the id of the album
+	 * @param photoIds the ids of the photos
+	 * @return a future that is completed when the change is written, or exceptionally if it was given up
+	 */
+	public static CompletableFuture<Void> unlinkPhotosFromAlbum(int albumId, Collection<Integer> photoIds) {
+		CompletableFuture<Void> written;
+		synchronized (WriteBehind.class) {
+			pending.unlinkPhotos(albumId, photoIds);
+			written = track();
+		}
+		scheduleFlush();
+		return written;
+	}
+
+	/**
+	 * Queues albums that are removed
+	 *
+	 * @param albumIds the ids of the albums
+	 * @return a future that is completed when the change is written, or exceptionally if it was given up
+	 */
+	public static CompletableFuture<Void> removeAlbums(Collection<Integer> albumIds) {
+		CompletableFuture<Void> written;
+		synchronized (WriteBehind.class) {
+			pending.removeAlbums(albumIds);
+			written = track();
+		}
+		scheduleFlush();
+		return written;
+	}
+
+	/**
+	 * Queues photos that are deleted
+	 *
+	 * @param photoIds the ids of the photos
+	 * @return a future that is completed when the change is written, or exceptionally if it was given up
+	 */
+	public static CompletableFuture<Void> deletePhotos(Collection<Integer> photoIds) {
+		CompletableFuture<Void> written;
+		synchronized (WriteBehind.class) {
+			pending.deletePhotos(photoIds);
+			written = track();
+		}
+		scheduleFlush();
+		return written;
+	}
+
+	/**
+	 * Gets the number of rows that are waiting to be written
+	 *
+	 * @return the number of queued rows
+	 */
+	public static synchronized int getPendingCount() {
+		return pending.size();
+	}
+
+	/**
+	 * Checks if any of the given photos has a change that is queued or being written
+	 * Used by the reads in Repository, to decide if they must write the queue and read again
+	 *
+	 * @param photoIds the ids of the photos
+	 * @return if one of the photos has a change that is not written yet
+	 */
+	static synchronized boolean isPhotoChanged(Collection<Integer> photoIds) {
+		return pending.changesPhotos(photoIds) || writing.changesPhotos(photoIds);
+	}
+
+	/**
+	 * Checks if any of the given albums has a change that is queued or being written
+	 * Used by the reads in Repository, to decide if they must write the queue and read again
+	 *
+	 * @param albumIds the ids of the albums
+	 * @return if one of the albums has a change that is not written yet
+	 */
+	static synchronized boolean isAlbumChanged(Collection<Integer> albumIds) {
+		return pending.changesAlbums(albumIds) || writing.changesAlbums(albumIds);
+	}
+
+	/**
+	 * Checks if photos are deleted by a change that is queued or being written, which changes the photo counts of their albums
+	 * Used by the album summary read in Repository
+	 *
+	 * @return if a deleted photo is not written yet
+	 */
+	static synchronized boolean isPhotoDeleted() {
+		return !pending.getDeletedPhotoIds().isEmpty() || !writing.getDeletedPhotoIds().isEmpty();
+	}
+
+	/**
+	 * Checks if tags are changed by a change that is queued or being written, which changes the photos a tag search finds
+	 * Used by the tag searches in Repository
+	 *
+	 * @return if a tag change is not written yet
+	 */
+	static synchronized boolean isTagChanged() {
+		return pending.changesTags() || writing.changesTags();
+	}
+
+	/**
+	 * Makes the future of a change that was just queued
+	 * Used in the queue methods, while the class is locked
+	 *
+	 * @return the future of the change
+	 */
+	private static CompletableFuture<Void> track() {
+		CompletableFuture<Void> written = new CompletableFuture<>();
+		waiting.add(written);
+		return written;
+	}
+
+	/**
+	 * Writes the queue at once if it is full, otherwise after write_behind_millis if no write is waiting already
+	 * Used when a change is queued
+	 */
+	private static synchronized void scheduleFlush() {
+		if (pending.size() >= MAX_PENDING) {
+			submit(WriteBehind::flush);
+		} else if (!pending.isEmpty() && (flushTask == null || flushTask.isDone())) {
+			scheduleFlushLater();
+		}
+	}
+
+	/**
+	 * Writes the queue after write_behind_millis
+	 * Used in scheduleFlush, and when a write failed
+	 */
+	private static synchronized void scheduleFlushLater() {
+		try {
+			flushTask = EXECUTOR.schedule(WriteBehind::flush, DELAY_MILLIS, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			FileLogger.getLogger().log(Level.FINE, e.getMessage());
+			FileLogger.closeHandler();
+		}
+	}
+
+	/**
+	 * Writes the queued changes, and waits until they are written. Changes that could not be written are queued again
+	 * in front of the changes made since, and are given up after a few attempts, which fails their futures so the views can tell the user.
+	 * Changes of a user that logged out while they were being written are tried again until they are written
+	 * Used on the thread of the queue, and by the reads in Repository that read a photo or album with a queued change
+	 */
+	public static void flush() {
+		synchronized (FLUSH_LOCK) {
+			PendingWrites writes;
+			List<CompletableFuture<Void>> written;
+			int writesUserId;
+			synchronized (WriteBehind.class) {
+				if (pending.isEmpty()) {
+					return;
+				}
+				writes = pending;
+				written = waiting;
+				writesUserId = userId;
+				pending = new PendingWrites();
+				waiting = new ArrayList<>();
+				writing = writes;
+			}
+			if (write(writesUserId, writes)) {
+				synchronized (WriteBehind.class) {
+					attempts = 0;
+					writing = new PendingWrites();
+				}
+				written.forEach(future -> future.complete(null));
+				return;
+			}
+			synchronized (WriteBehind.class) {
+				writing = new PendingWrites();
+				if (userId != writesUserId) {
+					submit(() -> writeUntilWritten(writesUserId, writes, written));
+					return;
+				}
+				if (++attempts < MAX_ATTEMPTS) {
+					writes.addAll(pending);
+					pending = writes;
+					written.addAll(waiting);
+					waiting = written;
+					// Tried again later, also if the queue is full
+					scheduleFlushLater();
+					return;
+				}
+				attempts = 0;
+			}
+			logLost(writes);
+			PersistenceException e = new PersistenceException(writes.size() + " changed rows could not be written");
+			written.forEach(future -> future.completeExceptionally(e));
+		}
+	}
+
+	/**
+	 * Writes the changes of a user that logged out, and tries again every write_behind_millis until they are written
+	 * Used on the thread of the queue
+	 *
+	 * @param writesUserId the id of the user, 0 if no user was logged in when the changes were made
+	 * @param writes       the changes
+	 * @param written      the futures of the changes
+	 */
+	private static void writeUntilWritten(int writesUserId, PendingWrites writes, List<CompletableFuture<Void>> written) {
+		boolean isWritten;
+		synchronized (FLUSH_LOCK) {
+			isWritten = write(writesUserId, writes);
+		}
+		synchronized (RETRYING) {
+			RETRYING.remove(writes);
+			if (!isWritten) {
+				RETRYING.add(writes);
+			}
+		}
+		if (isWritten) {
+			written.forEach(future -> future.complete(null));
+			return;
+		}
+		try {
+			EXECUTOR.schedule(() -> writeUntilWritten(writesUserId, writes, written), DELAY_MILLIS, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// The program is being closed, and shutdown logs the changes as lost
+			FileLogger.getLogger().log(Level.FINE, e.getMessage());
+			FileLogger.closeHandler();
+		}
+	}
+
+	/**
+	 * Writes changes in the shard of a user
+	 *
+	 * @param writesUserId the id of the user, 0 if no user was logged in when the changes were made
+	 * @param writes       the changes
+	 * @return if the changes were written
+	 */
+	private static boolean write(int writesUserId, PendingWrites writes) {
+		try {
+			if (writesUserId == 0) {
+				return Repository.write(writesUserId, writes);
+			}
+			AtomicBoolean isWritten = new AtomicBoolean();
+			Hibernate.runInShardOf(writesUserId, () -> isWritten.set(Repository.write(writesUserId, writes)));
+			return isWritten.get();
+		} catch (RuntimeException e) {
+			FileLogger.getLogger().log(Level.FINE, e.getMessage());
+			FileLogger.closeHandler();
+			return false;
+		}
+	}
+
+	/**
+	 * Logs changes that were given up
+	 *
+	 * @param writes the changes
+	 */
+	private static void logLost(PendingWrites writes) {
+		FileLogger.getLogger().log(Level.WARNING, String.format("Write behind: %d changed rows could not be written and were given up", writes.size()));
+		FileLogger.closeHandler();
+	}
+
+	/**
+	 * Runs work on the thread of the queue
+	 *
+	 * @param work the work
+	 */
+	private static void submit(Runnable work) {
+		try {
+			EXECUTOR.execute(work);
+		} catch (RejectedExecutionException e) {
+			FileLogger.getLogger().log(Level.FINE, e.getMessage());
+			FileLogger.closeHandler();
+		}
+	}
+}
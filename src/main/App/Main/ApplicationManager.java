@@ -1,7 +1,13 @@
 package Main;
 
 import Components.ConfirmationBox;
+import Components.ImageLoader;
+import Database.AsyncDatabase;
+import Database.DatabaseMetrics;
 import Database.Hibernate;
+import Database.LibraryWatcher;
+import Database.LocalLibrary;
+import Database.WriteBehind;
 import Roots.LoginRoot;
 import Roots.SceneRoot;
 import javafx.scene.Scene;
@@ -19,6 +25,7 @@ public final class ApplicationManager {
 	private static final double HEIGHT = 600.0;
 	private static Stage stage;
 	private static Scene scene;
+	private static SceneRoot currentRoot;
 
 	/**
 	 * Private constructor to hinder creation of utility class
@@ -28,7 +35,7 @@ public final class ApplicationManager {
 	}
 
 	/**
-	 * Initializes the stage
+	 * Initializes the stage and starts connecting to the database
 	 * Can only be used once, when the stage and scene is still null
 	 *
 	 * @param primaryStage is the stage used as the main stage through the whole application
@@ -49,8 +56,8 @@ public final class ApplicationManager {
 			stage.setMinWidth(WIDTH);
 			stage.setMinHeight(HEIGHT);
 
-			SceneRoot root = new LoginRoot();
-			scene = new Scene(root.getBorderPane(), WIDTH, HEIGHT);
+			currentRoot = new LoginRoot();
+			scene = new Scene(currentRoot.getBorderPane(), WIDTH, HEIGHT);
 
 			//Sets the escape key to run the closeProgram method
 			scene.setOnKeyPressed(e -> {
@@ -61,6 +68,10 @@ public final class ApplicationManager {
 
 			stage.setScene(scene);
 			stage.show();
+
+			//Connects to the database in the background while the login screen is shown
+			AsyncDatabase.run(Hibernate::warmUp);
+			DatabaseMetrics.start();
 		}
 	}
 
@@ -74,25 +85,34 @@ public final class ApplicationManager {
 	}
 
 	/**
-	 * Sets the root of the scene
+	 * Sets the root of the scene, and disposes the root it replaces
 	 * Uses the border pane of an object of a SceneRoot class, since the border pane is the outer layer
 	 *
 	 * @param root an object of a subclass of the SceneRoot class
 	 */
 	public static void setRoot(SceneRoot root) {
+		if (currentRoot != null && currentRoot != root) {
+			currentRoot.dispose();
+		}
+		currentRoot = root;
 		scene.setRoot(root.getBorderPane());
 	}
 
 	/**
 	 * Gives a confirmation box with the choices of exiting or not.
-	 * If the user exits the program the connection to the database will be closed
+	 * If the user exits the program the running database work is finished and the connection to the database will be closed
 	 */
 	private static void closeProgram() {
 		boolean close = ConfirmationBox.display(250, 150, "Exit", "Are you sure you want to exit?");
 		if (close) {
 			stage.close();
-			Hibernate.getEm().clear();
-			Hibernate.getEntityManagerFactory().close();
+			ImageLoader.shutdown();
+			AsyncDatabase.shutdown();
+			WriteBehind.shutdown();
+			LibraryWatcher.shutdown();
+			LocalLibrary.shutdown();
+			DatabaseMetrics.shutdown();
+			Hibernate.close();
 		}
 	}
 }
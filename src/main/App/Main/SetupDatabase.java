@@ -21,8 +21,7 @@ public class SetupDatabase {
 		try {
 			Hibernate.setupDatabase();
 			System.out.println("Database setup complete. You can now run the program");
-			Hibernate.getEm().close();
-			Hibernate.getEntityManagerFactory().close();
+			Hibernate.close();
 		} catch (Exception e) {
 			FileLogger.getLogger().log(Level.FINE, e.getMessage());
 			FileLogger.closeHandler();
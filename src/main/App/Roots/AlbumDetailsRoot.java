@@ -3,9 +3,14 @@ package Roots;
 import Components.*;
 import Css.Css;
 import Css.FeedbackType;
-import Database.Hibernate;
-import Database.HibernateClasses.Album;
 import Database.HibernateClasses.Photo;
+import Database.AlbumSummary;
+import Database.AsyncDatabase;
+import Database.PhotoFetchPlan;
+import Database.PhotoPage;
+import Database.PhotoSummary;
+import Database.Repository;
+import Database.WriteBehind;
 import Main.ApplicationManager;
 import com.itextpdf.text.DocumentException;
 import javafx.scene.control.Button;
@@ -21,11 +26,13 @@ import javafx.stage.Stage;
 import java.awt.*;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
-import java.util.Set;
 import java.util.logging.Level;
+import java.util.stream.Collectors;
 
 /**
  * Class for the album details root, which shows all the pictures in an album.
@@ -40,14 +47,17 @@ final class AlbumDetailsRoot extends SceneRoot {
 	private final TextField SAVE_LOCATION = new TextField();
 	private final Label DIALOG_FEEDBACK_LABEL = new Label();
 	private final List<PhotoContainer> CONTAINERS = new ArrayList<>();
-	private Set<Photo> albumPhotoList;
+	private final List<PhotoSummary> ALBUM_PHOTO_LIST = new ArrayList<>();
+	private PhotoPage<PhotoSummary> lastPage;
+	private boolean isLoading;
+	private int albumId;
 	private String albumName;
 
 	/**
 	 * Album details root constructor, uses SceneRoot constructor to create an object of the album details root class
 	 * Calls the setLayout method
 	 */
-	AlbumDetailsRoot(Album album) {
+	AlbumDetailsRoot(AlbumSummary album) {
 		super();
 		this.setLayout();
 		this.setup(album);
@@ -83,6 +93,51 @@ final class AlbumDetailsRoot extends SceneRoot {
 		SCROLL_PANE_VBOX.setStyle("-fx-background-color: transparent;");
 		SCROLL_PANE.fitToWidthProperty().set(true);
 		SCROLL_PANE.hbarPolicyProperty().setValue(ScrollPane.ScrollBarPolicy.NEVER);
+		// Loads the next page when the user has scrolled to the bottom
+		SCROLL_PANE.vvalueProperty().addListener((observable, oldValue, newValue) -> {
+			if (newValue.doubleValue() >= SCROLL_PANE.getVmax()) {
+				loadNextPage();
+			}
+		});
+	}
+
+	/**
+	 * Starts loading the next page of the album's photos in the background, if there is one and no page is being loaded
+	 * Used in setupScrollPane, setup and removePhotoContainers
+	 */
+	private void loadNextPage() {
+		if (isLoading || (lastPage != null && !lastPage.hasMore())) {
+			return;
+		}
+		isLoading = true;
+		int id = albumId;
+		PhotoSummary after = lastPage == null ? null : lastPage.getLast();
+		int userId = UserInfo.getUser().getId();
+		AsyncDatabase.supplyOnFx(() -> Repository.getAlbumPhotoSummaryPage(userId, id, after, Repository.PAGE_SIZE, PhotoFetchPlan.PHOTO_ONLY), page -> {
+			isLoading = false;
+			addPage(page);
+		}, e -> isLoading = false);
+	}
+
+	/**
+	 * Adds a loaded page of the album's photos to the scroll pane
+	 * Used in loadNextPage
+	 *
+	 * @param page the loaded page
+	 */
+	private void addPage(PhotoPage<PhotoSummary> page) {
+		lastPage = page;
+		ALBUM_PHOTO_LIST.addAll(page.getPhotos());
+		page.getPhotos().forEach(photo -> {
+			PhotoContainer p = new PhotoContainer(photo);
+			SCROLL_PANE_VBOX.getChildren().add(p.getPhotoContainerHBox());
+			CONTAINERS.add(p);
+		});
+		if (ALBUM_PHOTO_LIST.isEmpty() && !page.hasMore()) {
+			PDF_BUTTON.setDisable(true);
+			DELETE_PHOTOS_BUTTON.setDisable(true);
+			showAlbumIsEmpty();
+		}
 	}
 
 	/**
@@ -92,27 +147,21 @@ final class AlbumDetailsRoot extends SceneRoot {
 	 * @param album the album which will be shown with all the pictures in the album. If the album contains no pictures,
 	 *              a text will be shown in the scene to inform the user.
 	 */
-	private void setup(Album album) {
+	private void setup(AlbumSummary album) {
 		super.setPageTitle(album.getName());
-		this.albumPhotoList = album.getPhotos();
+		this.albumId = album.getId();
 		this.albumName = album.getName();
 
-		if (!albumPhotoList.isEmpty()) {
-			albumPhotoList.forEach(photo -> {
-				PhotoContainer p = new PhotoContainer(photo);
-				SCROLL_PANE_VBOX.getChildren().add(p.getPhotoContainerHBox());
-				CONTAINERS.add(p);
-			});
-		} else {
-			showAlbumIsEmpty();
-			PDF_BUTTON.setDisable(true);
-			DELETE_PHOTOS_BUTTON.setDisable(true);
-		}
+		loadNextPage();
 
 		DELETE_ALBUM_BUTTON.setOnAction(e -> {
-			UserInfo.getUser().getAlbums().remove(album);
-			Hibernate.updateUser(UserInfo.getUser());
-			ApplicationManager.setRoot(new AlbumsRoot());
+			DELETE_ALBUM_BUTTON.setDisable(true);
+			AsyncDatabase.onFx(WriteBehind.removeAlbums(Collections.singletonList(album.getId())),
+					written -> ApplicationManager.setRoot(new AlbumsRoot()),
+					error -> {
+						DELETE_ALBUM_BUTTON.setDisable(false);
+						PopUpWindow.showMessage("Delete album", "The album could not be deleted. Please try again");
+					});
 		});
 		DELETE_PHOTOS_BUTTON.setOnAction(e -> deleteSelectedPhotos(album));
 	}
@@ -162,7 +211,7 @@ final class AlbumDetailsRoot extends SceneRoot {
 	/**
 	 * Tells user that the selected album does not contain any photos
 	 * Used in deleteSelectedPhotos
-	 * Used in setup
+	 * Used in addPage and removePhotoContainers
 	 */
 	private void showAlbumIsEmpty() {
 		Text text = new Text("This album does not contain any photos yet. You can add photos from the \"Photos\" screen");
@@ -176,28 +225,44 @@ final class AlbumDetailsRoot extends SceneRoot {
 	 *
 	 * @param album the album that the selected photos will be removed from
 	 */
-	private void deleteSelectedPhotos(Album album) {
-		if (albumPhotoList.isEmpty()) {
+	private void deleteSelectedPhotos(AlbumSummary album) {
+		if (ALBUM_PHOTO_LIST.isEmpty()) {
 			showAlbumIsEmpty();
 		} else {
-			ArrayList<Photo> selectedPhotos = getSelectedPhotos();
-			selectedPhotos.forEach(photo -> {
-				Optional<PhotoContainer> optionalPhotoContainer = CONTAINERS.stream().filter(c -> c.getPhoto().equals(photo)).findAny();
-				if (optionalPhotoContainer.isPresent()) {
-					album.getPhotos().remove(photo);
-					PhotoContainer photoContainer = optionalPhotoContainer.get();
-					SCROLL_PANE_VBOX.getChildren().remove(photoContainer.getPhotoContainerHBox());
-				} else {
-					FileLogger.getLogger().log(Level.FINE, "Photo: {0} is not present in the list containers", photo);
-					FileLogger.closeHandler();
-				}
-			});
-			Hibernate.updateUser(UserInfo.getUser());
+			ArrayList<PhotoSummary> selectedPhotos = getSelectedPhotos();
+			AsyncDatabase.onFx(WriteBehind.unlinkPhotosFromAlbum(album.getId(), selectedPhotos.stream().map(PhotoSummary::getId).collect(Collectors.toList())),
+					written -> removePhotoContainers(selectedPhotos),
+					e -> PopUpWindow.showMessage("Remove photos", "The photos could not be removed from the album. Please try again"));
 		}
-		if (albumPhotoList.isEmpty()) {
-			PDF_BUTTON.setDisable(true);
-			DELETE_PHOTOS_BUTTON.setDisable(true);
-			showAlbumIsEmpty();
+	}
+
+	/**
+	 * Removes the containers of photos that were removed from the album
+	 * Used in deleteSelectedPhotos
+	 *
+	 * @param removedPhotos the photos that were removed from the album in the database
+	 */
+	private void removePhotoContainers(List<PhotoSummary> removedPhotos) {
+		removedPhotos.forEach(photo -> {
+			Optional<PhotoContainer> optionalPhotoContainer = CONTAINERS.stream().filter(c -> c.getPhoto().equals(photo)).findAny();
+			if (optionalPhotoContainer.isPresent()) {
+				ALBUM_PHOTO_LIST.remove(photo);
+				PhotoContainer photoContainer = optionalPhotoContainer.get();
+				CONTAINERS.remove(photoContainer);
+				SCROLL_PANE_VBOX.getChildren().remove(photoContainer.getPhotoContainerHBox());
+			} else {
+				FileLogger.getLogger().log(Level.FINE, "Photo: {0} is not present in the list containers", photo);
+				FileLogger.closeHandler();
+			}
+		});
+		if (ALBUM_PHOTO_LIST.isEmpty()) {
+			if (lastPage != null && lastPage.hasMore()) {
+				loadNextPage();
+			} else {
+				PDF_BUTTON.setDisable(true);
+				DELETE_PHOTOS_BUTTON.setDisable(true);
+				showAlbumIsEmpty();
+			}
 		}
 	}
 
@@ -207,8 +272,8 @@ final class AlbumDetailsRoot extends SceneRoot {
 	 *
 	 * @return photos which is a list of the photos that are selected.
 	 */
-	private ArrayList<Photo> getSelectedPhotos() {
-		ArrayList<Photo> photos = new ArrayList<>();
+	private ArrayList<PhotoSummary> getSelectedPhotos() {
+		ArrayList<PhotoSummary> photos = new ArrayList<>();
 		CONTAINERS.forEach(container -> {
 			if (container.getCheckBox().isSelected()) {
 				photos.add(container.getPhoto());
@@ -235,29 +300,64 @@ final class AlbumDetailsRoot extends SceneRoot {
 
 	/**
 	 * Method to generate PDF and is ran when clicking download in generatePDF window
+	 * The photos are read and the PDF is written in the background
 	 * Used in generatePDFPressed
 	 *
 	 * @param saveLocation is the location that the user wanted the PDF saved to
 	 */
 	private void generatePDF(String saveLocation) {
-		List<Photo> photos = new ArrayList<>();
-		photos.addAll(this.albumPhotoList);
+		int id = albumId;
+		String name = albumName;
 		String saveLink = saveLocation + "/" + albumName + ".pdf";
+		PDF_BUTTON.setDisable(true);
+		AsyncDatabase.supplyOnFx(() -> createPDF(id, name, saveLink), pdfFile -> {
+			PDF_BUTTON.setDisable(false);
+			openPDF(pdfFile);
+		}, e -> {
+			PDF_BUTTON.setDisable(false);
+			if (e instanceof UncheckedIOException) {
+				Css.playFeedBackLabelTransition(FeedbackType.ERROR, "Could not retrieve images", 13, DIALOG_FEEDBACK_LABEL);
+			} else {
+				Css.playFeedBackLabelTransition(FeedbackType.ERROR, "Could not create a PDF", 13, DIALOG_FEEDBACK_LABEL);
+			}
+		});
+	}
+
+	/**
+	 * Reads all the photos in an album and writes them to a PDF
+	 * Runs in the background, used in generatePDF
+	 *
+	 * @param albumId   the id of the album
+	 * @param albumName the name of the album
+	 * @param saveLink  the path of the PDF
+	 * @return the PDF file
+	 */
+	private static File createPDF(int albumId, String albumName, String saveLink) {
+		List<Photo> photos = Repository.getAllAlbumPhotos(albumId);
 		try {
 			PDFCreator.createPDF(photos, saveLink, albumName);
-			File pdfFile = new File(saveLink);
+			return new File(saveLink);
+		} catch (DocumentException e) {
+			throw new IllegalStateException(e);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Opens a created PDF in the default program of the desktop
+	 * Used in generatePDF
+	 *
+	 * @param pdfFile the PDF file
+	 */
+	private static void openPDF(File pdfFile) {
+		try {
 			if (pdfFile.exists() && Desktop.isDesktopSupported()) {
 				Desktop.getDesktop().open(pdfFile);
 			}
-		} catch (DocumentException e) {
-			FileLogger.getLogger().log(Level.FINE, e.getMessage());
-			FileLogger.closeHandler();
-			Css.playFeedBackLabelTransition(FeedbackType.ERROR, "Could not create a PDF", 13, DIALOG_FEEDBACK_LABEL);
-
 		} catch (IOException e) {
 			FileLogger.getLogger().log(Level.FINE, e.getMessage());
 			FileLogger.closeHandler();
-			Css.playFeedBackLabelTransition(FeedbackType.ERROR, "Could not retrieve images", 13, DIALOG_FEEDBACK_LABEL);
 		}
 	}
 }
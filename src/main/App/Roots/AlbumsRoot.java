@@ -5,8 +5,13 @@ import Components.FileLogger;
 import Components.PopUpWindow;
 import Components.UserInfo;
 import Css.Css;
-import Database.Hibernate;
 import Database.HibernateClasses.Album;
+import Database.AlbumSummary;
+import Database.AsyncDatabase;
+import Database.LibraryChanges;
+import Database.LibraryWatcher;
+import Database.Repository;
+import Database.WriteBehind;
 import Main.ApplicationManager;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
@@ -21,9 +26,14 @@ import javafx.scene.text.TextAlignment;
 import javafx.stage.Screen;
 
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
 import java.util.logging.Level;
+import java.util.stream.Collectors;
 
 /**
  * Class for the albums root
@@ -36,19 +46,36 @@ final class AlbumsRoot extends SceneRoot {
 	private final Button DELETE_ALBUM_BUTTON = new Button("Delete selected albums");
 	private final Text feedbackText = new Text();
 	private final List<AlbumContainer> ALBUM_CONTAINER_LIST = new ArrayList<>();
+	private final List<AlbumSummary> ALBUM_LIST = new ArrayList<>();
+	private final Consumer<LibraryChanges> LIBRARY_LISTENER = this::mergeChanges;
 
 	/**
 	 * Constructor that initializes the albums root
-	 * Calls the set layout method
+	 * Calls the set layout method and loads the summaries of the user's albums, without their photos, in the background
+	 * Changes from other programs are merged in when they are found
 	 */
 	AlbumsRoot() {
 		super();
 		this.setLayout();
+		int userId = UserInfo.getUser().getId();
+		AsyncDatabase.supplyOnFx(() -> Repository.getAlbumSummaries(userId), albums -> {
+			ALBUM_LIST.addAll(albums);
+			addAlbumsScrollPane();
+		}, e -> addAlbumsScrollPane());
+		LibraryWatcher.addListener(LIBRARY_LISTENER);
+	}
+
+	/**
+	 * Stops merging the changes of other programs, since the root is not shown anymore
+	 * Used by ApplicationManager when the root is replaced
+	 */
+	@Override
+	public void dispose() {
+		LibraryWatcher.removeListener(LIBRARY_LISTENER);
 	}
 
 	/**
 	 * Overrides the setLayout in SceneRoot and adds the structure of the albums root
-	 * Uses addAlbumsScrollPane
 	 * Uses addScrollPane
 	 * Uses addButtonsToBorderPane
 	 */
@@ -59,22 +86,21 @@ final class AlbumsRoot extends SceneRoot {
 		super.setPageTitle("Albums");
 
 		this.addScrollPane();
-		this.addAlbumsScrollPane();
 		this.addButtonsToBorderPane();
 	}
 
 	/**
 	 * Adds all the albums of the user in to the scroll pane of the root
-	 * Used in constructor
+	 * Used in constructor and createAlbum
 	 */
 	private void addAlbumsScrollPane() {
 		SCROLL_PANE_VBOX.getChildren().clear();
 		ALBUM_CONTAINER_LIST.clear();
 		try {
-			if (UserInfo.getUser().getAlbums().isEmpty()) {
+			if (ALBUM_LIST.isEmpty()) {
 				showNoAlbum();
 			} else {
-				UserInfo.getUser().getAlbums().forEach(album -> {
+				ALBUM_LIST.forEach(album -> {
 					AlbumContainer albumContainer = new AlbumContainer(album);
 					albumContainer.getAlbumButton().setOnAction(e -> ApplicationManager.setRoot(new AlbumDetailsRoot(album)));
 					ALBUM_CONTAINER_LIST.add(albumContainer);
@@ -188,23 +214,37 @@ final class AlbumsRoot extends SceneRoot {
 		Album album = new Album();
 		album.setUserId(UserInfo.getUser().getId());
 		album.setName(albumName);
-		UserInfo.getUser().getAlbums().add(album);
-		Hibernate.updateUser(UserInfo.getUser());
-		AlbumContainer albumContainer = new AlbumContainer(album);
-		albumContainer.getAlbumButton().setOnAction(e -> ApplicationManager.setRoot(new AlbumDetailsRoot(album)));
-		addAlbumsScrollPane();
-		DELETE_ALBUM_BUTTON.setDisable(false);
+		AsyncDatabase.supplyOnFx(() -> Repository.insertAlbum(album), isSuccess -> {
+			if (isSuccess) {
+				ALBUM_LIST.add(new AlbumSummary(album.getId(), album.getName(), 0, null, null));
+			}
+			addAlbumsScrollPane();
+			DELETE_ALBUM_BUTTON.setDisable(ALBUM_LIST.isEmpty());
+		}, e -> addAlbumsScrollPane());
 	}
 
 	/**
 	 * Method to delete an album and the album button gets removed from the layout.
+	 * The albums are removed from the database in the background with the other queued changes, and from the layout when they are removed
 	 */
 	private void deleteSelectedAlbums() {
-		ArrayList<Album> selectedAlbums = getCheckedAlbums();
-		for (Album album : selectedAlbums) {
+		ArrayList<AlbumSummary> selectedAlbums = getCheckedAlbums();
+		AsyncDatabase.onFx(WriteBehind.removeAlbums(selectedAlbums.stream().map(AlbumSummary::getId).collect(Collectors.toList())),
+				written -> removeAlbumContainers(selectedAlbums),
+				e -> PopUpWindow.showMessage("Delete albums", "The albums could not be deleted. Please try again"));
+	}
+
+	/**
+	 * Removes the containers of deleted albums from the layout
+	 * Used in deleteSelectedAlbums
+	 *
+	 * @param selectedAlbums the albums that were deleted from the database
+	 */
+	private void removeAlbumContainers(List<AlbumSummary> selectedAlbums) {
+		for (AlbumSummary album : selectedAlbums) {
 			Optional<AlbumContainer> optionalAlbumContainer = ALBUM_CONTAINER_LIST.stream().filter(c -> c.getALBUM().equals(album)).findAny();
 			if (optionalAlbumContainer.isPresent()) {
-				UserInfo.getUser().getAlbums().remove(album);
+				ALBUM_LIST.remove(album);
 				AlbumContainer albumContainer = optionalAlbumContainer.get();
 				albumContainer.getCheckBox().setSelected(false);
 				SCROLL_PANE_VBOX.getChildren().remove(albumContainer.getAlbumContainerHBox());
@@ -212,21 +252,40 @@ final class AlbumsRoot extends SceneRoot {
 				FileLogger.getLogger().log(Level.FINE, "Album: {0} is not present in the list containers", album);
 				FileLogger.closeHandler();
 			}
-			Hibernate.updateUser(UserInfo.getUser());
 		}
-		if (UserInfo.getUser().getAlbums().isEmpty()) {
+		if (ALBUM_LIST.isEmpty()) {
 			showNoAlbum();
 		}
 	}
 
+	/**
+	 * Merges the changes other programs made to the albums into the layout. Deleted albums are removed, and changed and new albums are shown
+	 * with their new summaries. The albums that were checked stay checked
+	 * Used as listener of LibraryWatcher
+	 *
+	 * @param changes the changes
+	 */
+	private void mergeChanges(LibraryChanges changes) {
+		if (changes.getAlbums().isEmpty() && changes.getDeletedAlbumIds().isEmpty()) {
+			return;
+		}
+		Set<AlbumSummary> checkedAlbums = new HashSet<>(getCheckedAlbums());
+		ALBUM_LIST.removeIf(album -> changes.getDeletedAlbumIds().contains(album.getId()) || changes.getAlbums().contains(album));
+		ALBUM_LIST.addAll(changes.getAlbums());
+		ALBUM_LIST.sort(Comparator.comparingInt(AlbumSummary::getId));
+		addAlbumsScrollPane();
+		ALBUM_CONTAINER_LIST.forEach(container -> container.getCheckBox().setSelected(checkedAlbums.contains(container.getALBUM())));
+		DELETE_ALBUM_BUTTON.setDisable(ALBUM_LIST.isEmpty());
+	}
+
 	/**
 	 * Helper method to get the checked album in the album root
 	 * Used in deleteSelectedAlbums
 	 *
 	 * @return a list of checked albums
 	 */
-	private ArrayList<Album> getCheckedAlbums() {
-		ArrayList<Album> checkedPhotos = new ArrayList<>();
+	private ArrayList<AlbumSummary> getCheckedAlbums() {
+		ArrayList<AlbumSummary> checkedPhotos = new ArrayList<>();
 		for (AlbumContainer albumContainer : ALBUM_CONTAINER_LIST) {
 			if (albumContainer.getCheckBox().isSelected()) {
 				checkedPhotos.add(albumContainer.getALBUM());
@@ -2,17 +2,14 @@ package Roots;
 
 import Components.Authentication;
 import Components.ConfirmationBox;
-import Components.FileLogger;
 import Components.UserInfo;
 import Css.Css;
 import Css.FeedbackType;
+import Database.AsyncDatabase;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
 import javafx.scene.control.PasswordField;
 
-import javax.persistence.PersistenceException;
-import java.util.logging.Level;
-
 /**
  * Class for the delete user root
  */
@@ -64,22 +61,35 @@ final class DeleteUserRoot extends SceneRoot {
 	 * If the password is correct and the user confirms the choice
 	 */
 	private void deleteUser() {
-		try {
-			String currentUsername = UserInfo.getUser().getUsername();
-			if (PASSWORD_FIELD.getText().trim().length() == 0) {
-				Css.playFeedBackLabelTransition(FeedbackType.ERROR, "Password is missing", 13, FEEDBACK_LABEL);
-			} else if (Authentication.isCurrentUser(currentUsername, PASSWORD_FIELD.getText())) {
-				if (Authentication.deleteUser(currentUsername, PASSWORD_FIELD.getText(), ConfirmationBox.display(350, 150, "Delete user", "Are you sure you want to delete your user?"))) {
+		String currentUsername = UserInfo.getUser().getUsername();
+		String password = PASSWORD_FIELD.getText();
+		if (password.trim().length() == 0) {
+			Css.playFeedBackLabelTransition(FeedbackType.ERROR, "Password is missing", 13, FEEDBACK_LABEL);
+			return;
+		}
+		// The password is checked against the credentials of the current user, which are already loaded
+		if (!Authentication.isCurrentUser(currentUsername, password)) {
+			Css.playFeedBackLabelTransition(FeedbackType.ERROR, "Password does not match your current password", 13, FEEDBACK_LABEL);
+		} else if (ConfirmationBox.display(350, 150, "Delete user", "Are you sure you want to delete your user?")) {
+			DELETE_USER_BUTTON.setDisable(true);
+			AsyncDatabase.supplyOnFx(() -> Authentication.deleteUser(currentUsername, password, true), isDeleted -> {
+				DELETE_USER_BUTTON.setDisable(false);
+				if (isDeleted) {
 					Css.playFeedBackLabelTransition(FeedbackType.SUCCESSFUL, "User successfully deleted", 13, Authentication.logout().getLOG_IN_LABEL());
 				}
-			} else {
-				Css.playFeedBackLabelTransition(FeedbackType.ERROR, "Password does not match your current password", 13, FEEDBACK_LABEL);
-			}
-		} catch (ExceptionInInitializerError | PersistenceException e) {
-			Css.playFeedBackLabelTransition(FeedbackType.ERROR, "Could not connect to database", 13, FEEDBACK_LABEL);
-			FileLogger.getLogger().log(Level.FINE, e.getMessage());
-			FileLogger.closeHandler();
+			}, this::showConnectionError);
 		}
 	}
 
+	/**
+	 * Tells the user that the database could not be reached
+	 * Used in deleteUser
+	 *
+	 * @param e the cause, which is logged by AsyncDatabase
+	 */
+	private void showConnectionError(Throwable e) {
+		DELETE_USER_BUTTON.setDisable(false);
+		Css.playFeedBackLabelTransition(FeedbackType.ERROR, "Could not connect to database", 13, FEEDBACK_LABEL);
+	}
+
 }
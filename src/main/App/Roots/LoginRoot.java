@@ -1,16 +1,11 @@
 package Roots;
 
 import Components.Authentication;
-import Components.FileLogger;
 import Css.Css;
 import Css.FeedbackType;
+import Database.AsyncDatabase;
 import Main.ApplicationManager;
-import javafx.animation.PauseTransition;
 import javafx.scene.control.*;
-import javafx.util.Duration;
-
-import javax.persistence.PersistenceException;
-import java.util.logging.Level;
 
 /**
  * Class for the login root
@@ -79,26 +74,27 @@ public final class LoginRoot extends SceneRoot {
 	 * Used in setLayout
 	 */
 	private void login() {
+		if (USERNAME_FIELD.getText().trim().length() == 0 || PASSWORD_FIELD.getText().trim().length() == 0) {
+			Css.playFeedBackLabelTransition(FeedbackType.ERROR, "Username or password is missing", 13, LOG_IN_LABEL);
+			return;
+		}
 		LOADING_ANIMATION.setVisible(true);
-		PauseTransition pause = new PauseTransition(Duration.seconds(1));
-		pause.setOnFinished(p -> {
-			try {
-				if (USERNAME_FIELD.getText().trim().length() == 0 || PASSWORD_FIELD.getText().trim().length() == 0) {
-					Css.playFeedBackLabelTransition(FeedbackType.ERROR, "Username or password is missing", 13, LOG_IN_LABEL);
-					LOADING_ANIMATION.setVisible(false);
-				} else if (Authentication.logIn(USERNAME_FIELD.getText(), PASSWORD_FIELD.getText())) {
-					ApplicationManager.setRoot(new MenuRoot());
-				} else {
-					Css.playFeedBackLabelTransition(FeedbackType.ERROR, "Username or password is wrong", 13, LOG_IN_LABEL);
-					LOADING_ANIMATION.setVisible(false);
-				}
-			} catch (ExceptionInInitializerError | PersistenceException e) {
-				Css.playFeedBackLabelTransition(FeedbackType.ERROR, "Could not connect to database", 13, LOG_IN_LABEL);
+		LOG_IN_BUTTON.setDisable(true);
+		String username = USERNAME_FIELD.getText();
+		String password = PASSWORD_FIELD.getText();
+		// The database is asked in the background, so the window does not freeze while waiting
+		AsyncDatabase.supplyOnFx(() -> Authentication.logIn(username, password), isLoggedIn -> {
+			if (isLoggedIn) {
+				ApplicationManager.setRoot(new MenuRoot());
+			} else {
+				Css.playFeedBackLabelTransition(FeedbackType.ERROR, "Username or password is wrong", 13, LOG_IN_LABEL);
 				LOADING_ANIMATION.setVisible(false);
-				FileLogger.getLogger().log(Level.FINE, e.getMessage());
-				FileLogger.closeHandler();
+				LOG_IN_BUTTON.setDisable(false);
 			}
+		}, e -> {
+			Css.playFeedBackLabelTransition(FeedbackType.ERROR, "Could not connect to database", 13, LOG_IN_LABEL);
+			LOADING_ANIMATION.setVisible(false);
+			LOG_IN_BUTTON.setDisable(false);
 		});
-		pause.play();
 	}
 }
@@ -4,7 +4,13 @@ import Components.FileLogger;
 import Components.PhotoViewer;
 import Components.UserInfo;
 import Css.Css;
-import Database.HibernateClasses.Photo;
+import Database.AsyncDatabase;
+import Database.PhotoFetchPlan;
+import Database.PhotoLocation;
+import Database.PhotoPage;
+import Database.Repository;
+import javafx.application.Platform;
+import javafx.concurrent.Worker;
 import javafx.scene.layout.StackPane;
 import javafx.scene.shape.Rectangle;
 import javafx.scene.web.WebView;
@@ -23,17 +29,19 @@ import java.util.logging.Level;
  */
 final class MapRoot extends SceneRoot {
 
-	private final List<Photo> PHOTO_LIST = new ArrayList<>();
+	private static final int MARKER_SIZE = 60;
+	private final List<PhotoLocation> PHOTO_LIST = new ArrayList<>();
 	private final WebView WEB_VIEW = new WebView();
 	private final StackPane STACK_PANE = new StackPane();
 	private final MapBridge MAP_BRIDGE = new MapBridge();
+	private PhotoPage<PhotoLocation> lastPage;
 
 	/**
 	 * Instantiates a new Map root.
+	 * The map is rendered first, and the photos with a location are added one page at a time when the map has loaded
 	 */
 	MapRoot() {
 		super();
-		PHOTO_LIST.addAll(UserInfo.getUser().getPhotos());
 		this.setLayout();
 	}
 
@@ -60,6 +68,9 @@ final class MapRoot extends SceneRoot {
 		WEB_VIEW.getEngine().getLoadWorker().stateProperty().addListener((observable, oldValue, newValue) -> {
 			JSObject window = (JSObject) WEB_VIEW.getEngine().executeScript("window");
 			window.setMember("java", MAP_BRIDGE);
+			if (newValue == Worker.State.SUCCEEDED) {
+				Platform.runLater(this::addNextPage);
+			}
 		});
 
 		// Styles the stack pane which contains the webview
@@ -90,28 +101,20 @@ final class MapRoot extends SceneRoot {
 		html.append("<style>html,body{height:100%;margin:0;padding:0;}#map_canvas{height:100%}</style>");
 		html.append("<script type=\"text/javascript\" src=\"https://maps.googleapis.com/maps/api/js?sensor=false").append(getApiKey()).append("\"></script>");
 		html.append("<script type=\"text/javascript\">");
+		html.append("var map;");
+		html.append("var bounds;");
+		html.append("function addMarker(id, latitude, longitude, url, size, title) {");
+		html.append("  var location = new google.maps.LatLng(latitude, longitude);");
+		html.append("  var image = {url: url, scaledSize: new google.maps.Size(size[0], size[1]), origin: new google.maps.Point(0, 0), anchor: new google.maps.Point(30, 30)};");
+		html.append("  bounds.extend(location);");
+		html.append("  var marker = new google.maps.Marker({position: location, map: map, icon: image, optimized: false, title: title});");
+		html.append("  google.maps.event.addListener(marker, 'click', function() { java.open(id); });");
+		html.append("}");
 		html.append("function initialise() {");
 		html.append("  var options = { zoom:2, mapTypeId:google.maps.MapTypeId.ROADMAP, center:new google.maps.LatLng(0.0, 0.0), mapTypeControl: true, mapTypeControlOptions: {mapTypeIds: ['roadmap', 'hybrid']}, scaleControl: false, streetViewControl: false, rotateControl: false, fullscreenControl: false};");
-		html.append("  var map = new google.maps.Map(document.getElementById('map_canvas'), options);");
-		html.append("  var marker;");
-		html.append("  var bounds = new google.maps.LatLngBounds();");
-
-		for (Photo photo : PHOTO_LIST) {
-			// Only add photos which has a location to the map
-			if (photo.getLatitude() != null && photo.getLongitude() != null) {
-				String location = "new google.maps.LatLng(" + photo.getLatitude() + "," + photo.getLongitude() + ")";
-				html.append("  var image = {url: '").append(photo.getUrl()).append("', scaledSize: new google.maps.Size(").append(getMarkerSize(photo)).append("), origin: new google.maps.Point(0, 0), anchor: new google.maps.Point(30, 30)};");
-				html.append("  bounds.extend(").append(location).append(");");
-				html.append("  marker = new google.maps.Marker({");
-				html.append("    position: ").append(location).append(",");
-				html.append("    map: map,");
-				html.append("    icon: image,");
-				html.append("    optimized: false,");
-				html.append("    title: \"").append(photo.getTitle()).append("\"});");
-				html.append("  google.maps.event.addListener(marker, 'click', function() { java.open(").append(photo.getId()).append("); });");
-			}
-		}
-
+		html.append("  map = new google.maps.Map(document.getElementById('map_canvas'), options);");
+		html.append("  bounds = new google.maps.LatLngBounds();");
+		html.append(getMarkersScript(PHOTO_LIST));
 		html.append("  map.fitBounds(bounds);");
 		html.append("}");
 		html.append("</script>");
@@ -123,6 +126,60 @@ final class MapRoot extends SceneRoot {
 		return html.toString();
 	}
 
+	/**
+	 * Gets the javascript that adds markers for photos to the map
+	 * Used in getHtml and addNextPage
+	 *
+	 * @param photos the photos, which all have a location
+	 * @return string with javascript
+	 */
+	private String getMarkersScript(List<PhotoLocation> photos) {
+		StringBuilder script = new StringBuilder();
+		for (PhotoLocation photo : photos) {
+			script.append("  addMarker(").append(photo.getId())
+					.append(", ").append(photo.getLatitude())
+					.append(", ").append(photo.getLongitude())
+					.append(", '").append(escape(photo.getUrl(MARKER_SIZE)))
+					.append("', [").append(getMarkerSize(photo))
+					.append("], '").append(escape(photo.getTitle())).append("');");
+		}
+		return script.toString();
+	}
+
+	/**
+	 * Escapes a string so it can be used inside a javascript string
+	 * Used in getMarkersScript
+	 *
+	 * @param text the text to escape
+	 * @return the escaped text
+	 */
+	private String escape(String text) {
+		return text.replace("\\", "\\\\").replace("'", "\\'").replace("\"", "\\\"");
+	}
+
+	/**
+	 * Loads the next page of photos with a location in the background, if there is one, and adds their markers to the map
+	 * The next page is not loaded before the markers of the previous page are added, so the map stays responsive
+	 * Used in setUpMap
+	 */
+	private void addNextPage() {
+		if (lastPage != null && !lastPage.hasMore()) {
+			return;
+		}
+		int userId = UserInfo.getUser().getId();
+		PhotoLocation after = lastPage == null ? null : lastPage.getLast();
+		AsyncDatabase.supplyOnFx(() -> Repository.getPhotoLocationPage(userId, after, Repository.PAGE_SIZE), page -> {
+			lastPage = page;
+			PHOTO_LIST.addAll(page.getPhotos());
+			if (!page.getPhotos().isEmpty()) {
+				WEB_VIEW.getEngine().executeScript(getMarkersScript(page.getPhotos()) + "map.fitBounds(bounds);");
+			}
+			addNextPage();
+		}, e -> {
+			// The failure is logged by AsyncDatabase, and the map keeps the markers it has
+		});
+	}
+
 	/**
 	 * Calculates size of the map marker based on the photo's width and height to avoid stretching the photo.
 	 * Used in getHtml
@@ -130,15 +187,15 @@ final class MapRoot extends SceneRoot {
 	 * @param photo the photo
 	 * @return string with width and height separated by a comma
 	 */
-	private String getMarkerSize(Photo photo) {
+	private String getMarkerSize(PhotoLocation photo) {
 		if (photo.getWidth().equals(photo.getHeight())) {
-			return "60, 60";
+			return MARKER_SIZE + ", " + MARKER_SIZE;
 		} else if (photo.getWidth() > photo.getHeight()) {
-			double height = 60 * ((double) photo.getHeight() / (double) photo.getWidth());
-			return "60," + height;
+			double height = MARKER_SIZE * ((double) photo.getHeight() / (double) photo.getWidth());
+			return MARKER_SIZE + "," + height;
 		} else {
-			int width = 60 * (photo.getWidth() / photo.getHeight());
-			return width + ", 60";
+			int width = MARKER_SIZE * (photo.getWidth() / photo.getHeight());
+			return width + ", " + MARKER_SIZE;
 		}
 	}
 
@@ -172,15 +229,23 @@ final class MapRoot extends SceneRoot {
 
 		/**
 		 * Open PhotoViewer with the given photo id
+		 * The map only loads the locations of the photos, so the photo is loaded with its tags before it is shown
 		 *
 		 * @param photo_id the photo id of the photo
 		 */
 		public final void open(int photo_id) {
-			Photo photo = findPhotoById(photo_id);
-			if (photo != null) {
-				PhotoViewer photoViewer = new PhotoViewer(photo);
-				photoViewer.display();
+			if (findPhotoById(photo_id) == null) {
+				return;
 			}
+			int userId = UserInfo.getUser().getId();
+			AsyncDatabase.supplyOnFx(() -> Repository.getPhoto(userId, photo_id, PhotoFetchPlan.WITH_TAGS), photo -> {
+				if (photo != null) {
+					PhotoViewer photoViewer = new PhotoViewer(photo);
+					photoViewer.display();
+				}
+			}, e -> {
+				// The failure is logged by AsyncDatabase, and the photo is not opened
+			});
 		}
 
 		/**
@@ -189,8 +254,8 @@ final class MapRoot extends SceneRoot {
 		 * @param photo_id id of photo
 		 * @return photo if found, else null
 		 */
-		private Photo findPhotoById(int photo_id) {
-			for (Photo photo : PHOTO_LIST) {
+		private PhotoLocation findPhotoById(int photo_id) {
+			for (PhotoLocation photo : PHOTO_LIST) {
 				if (photo.getId() == photo_id) {
 					return photo;
 				}
@@ -6,10 +6,16 @@ import Components.PopUpWindow;
 import Components.UserInfo;
 import Css.Css;
 import Css.FeedbackType;
-import Database.Hibernate;
 import Database.HibernateClasses.Album;
-import Database.HibernateClasses.Photo;
-import Database.HibernateClasses.Tags;
+import Database.AlbumSummary;
+import Database.AsyncDatabase;
+import Database.LibraryChanges;
+import Database.LibraryWatcher;
+import Database.PhotoFetchPlan;
+import Database.PhotoPage;
+import Database.PhotoSummary;
+import Database.Repository;
+import Database.WriteBehind;
 import Main.ApplicationManager;
 import javafx.geometry.HPos;
 import javafx.geometry.Pos;
@@ -23,7 +29,9 @@ import javafx.stage.Screen;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 
@@ -32,7 +40,8 @@ import java.util.stream.Collectors;
  */
 final class PhotosRoot extends SceneRoot {
 
-	private final List<Photo> PHOTO_LIST = new ArrayList<>();
+	private final List<PhotoSummary> PHOTO_LIST = new ArrayList<>();
+	private final List<Album> ALBUM_LIST = new ArrayList<>();
 	private final ScrollPane SCROLL_PANE = new ScrollPane();
 	private final VBox SCROLL_PANE_VBOX = new VBox();
 	private final List<CheckBox> CHECKBOX_ARRAY_LIST = new ArrayList<>();
@@ -45,14 +54,35 @@ final class PhotosRoot extends SceneRoot {
 	private final Button DELETE_BUTTON = new Button("Delete selected photos");
 	private final Label FEEDBACK_LABEL = new Label();
 	private final Button ADD_PHOTO_BUTTON = new Button("Add photo");
+	private final Consumer<LibraryChanges> LIBRARY_LISTENER = this::mergeChanges;
+	private final int USER_ID;
+	private PhotoPage<PhotoSummary> lastPage;
+	private boolean isLoading;
 
 	/**
-	 * Sets up the photos root and adds all the users photos to the photo list
+	 * Sets up the photos root and starts loading the user's albums and the first page of the user's photos
+	 * The next pages are loaded when the user scrolls to the bottom, and changes from other programs are merged in when they are found
 	 */
 	PhotosRoot() {
 		super();
-		PHOTO_LIST.addAll(UserInfo.getUser().getPhotos());
 		this.setLayout();
+		// The id is kept, since pages can be loaded and changes merged in after the user has logged out
+		USER_ID = UserInfo.getUser().getId();
+		AsyncDatabase.supplyOnFx(() -> Repository.getAlbums(USER_ID), albums -> {
+			ALBUM_LIST.addAll(albums);
+			ADD_TO_ALBUM_BUTTON.setDisable(ALBUM_LIST.isEmpty() || SEARCH_TEXT_FIELD.isDisabled());
+		}, e -> Css.playFeedBackLabelTransition(FeedbackType.ERROR, "Could not connect to database", 13, FEEDBACK_LABEL));
+		loadNextPage();
+		LibraryWatcher.addListener(LIBRARY_LISTENER);
+	}
+
+	/**
+	 * Stops merging the changes of other programs, since the root is not shown anymore
+	 * Used by ApplicationManager when the root is replaced
+	 */
+	@Override
+	public void dispose() {
+		LibraryWatcher.removeListener(LIBRARY_LISTENER);
 	}
 
 	/**
@@ -95,20 +125,94 @@ final class PhotosRoot extends SceneRoot {
 	 * Used in setLayout
 	 */
 	private void setupImagesInAScrollPane() {
-		if (!PHOTO_LIST.isEmpty()) {
-			PHOTO_LIST.forEach(photo -> {
-				PhotoContainer photoContainer = new PhotoContainer(photo);
-				SCROLL_PANE_VBOX.getChildren().add(photoContainer.getPhotoContainerHBox());
-				PHOTO_CONTAINER_LIST.add(photoContainer);
-				CHECKBOX_ARRAY_LIST.add(photoContainer.getCheckBox());
-			});
-		} else {
-			showNoPhotos();
-		}
 		SCROLL_PANE.setContent(SCROLL_PANE_VBOX);
 		SCROLL_PANE.setPrefHeight(Screen.getPrimary().getVisualBounds().getHeight());
 		SCROLL_PANE.fitToWidthProperty().set(true);
 		SCROLL_PANE.hbarPolicyProperty().setValue(ScrollPane.ScrollBarPolicy.NEVER);
+		// Loads the next page when the user has scrolled to the bottom
+		SCROLL_PANE.vvalueProperty().addListener((observable, oldValue, newValue) -> {
+			if (newValue.doubleValue() >= SCROLL_PANE.getVmax() && SEARCH_TEXT_FIELD.getText().trim().equals("")) {
+				loadNextPage();
+			}
+		});
+	}
+
+	/**
+	 * Makes photo containers for photos and adds them to the scroll pane
+	 * Used in addPage
+	 *
+	 * @param photos the photos to add
+	 */
+	private void addPhotoContainers(List<PhotoSummary> photos) {
+		photos.forEach(photo -> {
+			PhotoContainer photoContainer = new PhotoContainer(photo);
+			SCROLL_PANE_VBOX.getChildren().add(photoContainer.getPhotoContainerHBox());
+			PHOTO_CONTAINER_LIST.add(photoContainer);
+			CHECKBOX_ARRAY_LIST.add(photoContainer.getCheckBox());
+			photoContainer.getCheckBox().setSelected(SELECT_ALL_CHECKBOX.isSelected());
+		});
+	}
+
+	/**
+	 * Starts loading the next page of photos in the background, if there is one and no page is being loaded
+	 * Used in the constructor, setupImagesInAScrollPane and removePhotoContainers
+	 */
+	private void loadNextPage() {
+		if (isLoading || (lastPage != null && !lastPage.hasMore())) {
+			return;
+		}
+		isLoading = true;
+		PhotoSummary after = lastPage == null ? null : lastPage.getLast();
+		AsyncDatabase.supplyOnFx(() -> Repository.getPhotoSummaryPage(USER_ID, after, Repository.PAGE_SIZE, PhotoFetchPlan.WITH_TAGS), page -> {
+			isLoading = false;
+			addPage(page);
+		}, e -> {
+			isLoading = false;
+			Css.playFeedBackLabelTransition(FeedbackType.ERROR, "Could not connect to database", 13, FEEDBACK_LABEL);
+		});
+	}
+
+	/**
+	 * Starts loading all the remaining pages of photos in the background, and filters the photos when they are loaded
+	 * Used in filter
+	 */
+	private void loadRemainingPagesAndFilter() {
+		if (isLoading) {
+			return;
+		}
+		isLoading = true;
+		PhotoPage<PhotoSummary> from = lastPage;
+		AsyncDatabase.supplyOnFx(() -> {
+			List<PhotoPage<PhotoSummary>> pages = new ArrayList<>();
+			PhotoPage<PhotoSummary> page = from;
+			while (page.hasMore()) {
+				page = Repository.getPhotoSummaryPage(USER_ID, page.getLast(), Repository.PAGE_SIZE, PhotoFetchPlan.WITH_TAGS);
+				pages.add(page);
+			}
+			return pages;
+		}, pages -> {
+			isLoading = false;
+			pages.forEach(this::addPage);
+			filter();
+		}, e -> {
+			isLoading = false;
+			Css.playFeedBackLabelTransition(FeedbackType.ERROR, "Could not connect to database", 13, FEEDBACK_LABEL);
+		});
+	}
+
+	/**
+	 * Adds a loaded page of photos to the scroll pane
+	 * Used in loadNextPage and loadRemainingPagesAndFilter
+	 *
+	 * @param page the loaded page
+	 */
+	private void addPage(PhotoPage<PhotoSummary> page) {
+		lastPage = page;
+		PHOTO_LIST.addAll(page.getPhotos());
+		addPhotoContainers(page.getPhotos());
+		if (PHOTO_CONTAINER_LIST.isEmpty() && !page.hasMore()) {
+			showNoPhotos();
+		}
 	}
 
 	/**
@@ -163,7 +267,7 @@ final class PhotosRoot extends SceneRoot {
 	private void setupAlbumButtons() {
 		Css.setButton(700, 25, 20, ADD_TO_ALBUM_BUTTON);
 		ADD_TO_ALBUM_BUTTON.setOnAction(s -> addToAlbumPressed());
-		if (UserInfo.getUser().getAlbums().isEmpty()) {
+		if (ALBUM_LIST.isEmpty()) {
 			ADD_TO_ALBUM_BUTTON.setDisable(true);
 		}
 	}
@@ -176,7 +280,7 @@ final class PhotosRoot extends SceneRoot {
 		CHOICE_BOX.getItems().clear();
 		CHOICE_BOX.getStyleClass().add("choice-box");
 		CHOICE_BOX.getStylesheets().add("file:src/main/App/Css/ChoiceBoxStyle.css");
-		UserInfo.getUser().getAlbums().forEach(s -> CHOICE_BOX.getItems().add(s.getName()));
+		ALBUM_LIST.forEach(s -> CHOICE_BOX.getItems().add(s.getName()));
 	}
 
 	/**
@@ -185,6 +289,11 @@ final class PhotosRoot extends SceneRoot {
 	 * Used in setupSearchBar
 	 */
 	private void filter() {
+		// Searching needs every photo, so the remaining pages are loaded first
+		if (!SEARCH_TEXT_FIELD.getText().trim().equals("") && lastPage != null && lastPage.hasMore()) {
+			loadRemainingPagesAndFilter();
+			return;
+		}
 		SCROLL_PANE_VBOX.getChildren().clear();
 		// Checks if search input is empty, if so show all photos
 		if (SEARCH_TEXT_FIELD.getText().trim().equals("")) {
@@ -213,11 +322,8 @@ final class PhotosRoot extends SceneRoot {
 	 * @param photo gets the tags of the photo.
 	 * @return all the tags to the specific photo.
 	 */
-	private List<String> getPhotoTags(Photo photo) {
-		return photo.getTags().stream()
-				.map(Tags::getTag)
-				.map(String::toLowerCase)
-				.collect(Collectors.toList());
+	private List<String> getPhotoTags(PhotoSummary photo) {
+		return new ArrayList<>(photo.getTags());
 	}
 
 	/**
@@ -248,11 +354,11 @@ final class PhotosRoot extends SceneRoot {
 	 *
 	 * @return a list of checked photos
 	 */
-	private ArrayList<Photo> getCheckedPhotos() {
-		ArrayList<Photo> checkedPhotos = new ArrayList<>();
-		for (int i = 0; i < CHECKBOX_ARRAY_LIST.size(); i++) {
-			if (CHECKBOX_ARRAY_LIST.get(i).isSelected()) {
-				checkedPhotos.add(PHOTO_LIST.get(i));
+	private ArrayList<PhotoSummary> getCheckedPhotos() {
+		ArrayList<PhotoSummary> checkedPhotos = new ArrayList<>();
+		for (PhotoContainer photoContainer : PHOTO_CONTAINER_LIST) {
+			if (photoContainer.getCheckBox().isSelected()) {
+				checkedPhotos.add(photoContainer.getPhoto());
 			}
 		}
 		return checkedPhotos;
@@ -265,53 +371,157 @@ final class PhotosRoot extends SceneRoot {
 	 * @param albumName name of the selected album
 	 */
 	private void updateUser(String albumName) {
-		Album album = UserInfo.getUser().getAlbums().stream().filter(a -> a.getName().equals(albumName)).findAny().orElse(null);
-		ArrayList<Photo> checkedPhoto = getCheckedPhotos();
+		Album album = ALBUM_LIST.stream().filter(a -> a.getName().equals(albumName)).findAny().orElse(null);
+		ArrayList<PhotoSummary> checkedPhoto = getCheckedPhotos();
 		if (checkedPhoto.isEmpty()) {
 			Css.playFeedBackLabelTransition(FeedbackType.ERROR, "Unsuccessful: No photos were chosen", 13, FEEDBACK_LABEL);
 		} else if (album == null) {
 			Css.playFeedBackLabelTransition(FeedbackType.ERROR, "Unsuccessful: No album were chosen", 13, FEEDBACK_LABEL);
 		} else {
-			checkedPhoto.forEach(s -> s.addAlbum(album));
-			Css.playFeedBackLabelTransition(FeedbackType.SUCCESSFUL, "Added to " + albumName, 13, FEEDBACK_LABEL);
+			List<Integer> photoIds = checkedPhoto.stream().map(PhotoSummary::getId).collect(Collectors.toList());
+			AsyncDatabase.onFx(WriteBehind.linkPhotosToAlbum(album.getId(), photoIds),
+					written -> Css.playFeedBackLabelTransition(FeedbackType.SUCCESSFUL, "Added to " + albumName, 13, FEEDBACK_LABEL),
+					e -> Css.playFeedBackLabelTransition(FeedbackType.ERROR, "Unsuccessful: The photos could not be added to " + albumName, 13, FEEDBACK_LABEL));
 		}
-		Hibernate.updateUser(UserInfo.getUser());
 	}
 
 	/**
 	 * Private method for deleting selected photos.
+	 * The photos are deleted from the database in the background with the other queued changes, and removed from the layout when they are deleted
 	 * Used in setupDeleteButton
 	 */
 	private void deleteSelectedPhotos() {
-		ArrayList<Photo> selectedPhotos = getCheckedPhotos();
+		ArrayList<PhotoSummary> selectedPhotos = getCheckedPhotos();
 		if (selectedPhotos.isEmpty()) {
 			Css.playFeedBackLabelTransition(FeedbackType.ERROR, "Unsuccessful: No photos were chosen", 13, FEEDBACK_LABEL);
-		} else {
-			boolean successfulDeleteSelectedPhotos = true;
-			for (Photo photo : selectedPhotos) {
-				Optional<PhotoContainer> optionalPhotoContainer = PHOTO_CONTAINER_LIST.stream().filter(c -> c.getPhoto().equals(photo)).findAny();
-				if (optionalPhotoContainer.isPresent()) {
-					photo.getAlbums().forEach(album -> album.getPhotos().remove(photo));
-					UserInfo.getUser().getPhotos().remove(photo);
-					PhotoContainer photoContainer = optionalPhotoContainer.get();
-					photoContainer.getCheckBox().setSelected(false);
-					SCROLL_PANE_VBOX.getChildren().remove(photoContainer.getPhotoContainerHBox());
-				} else {
-					//If one of the pictures were not successfully deleted, then the operation was not successful
-					successfulDeleteSelectedPhotos = false;
-					FileLogger.getLogger().log(Level.FINE, "Photo: {0} is not present in the list containers", photo);
-					FileLogger.closeHandler();
-				}
+			return;
+		}
+		AsyncDatabase.onFx(WriteBehind.deletePhotos(selectedPhotos.stream().map(PhotoSummary::getId).collect(Collectors.toList())),
+				written -> removePhotoContainers(selectedPhotos),
+				e -> Css.playFeedBackLabelTransition(FeedbackType.ERROR, "The photos could not be deleted", 13, FEEDBACK_LABEL));
+	}
+
+	/**
+	 * Removes the containers of deleted photos from the scroll pane
+	 * Used in deleteSelectedPhotos
+	 *
+	 * @param deletedPhotos the photos that were deleted from the database
+	 */
+	private void removePhotoContainers(List<PhotoSummary> deletedPhotos) {
+		boolean successfulDeleteSelectedPhotos = true;
+		for (PhotoSummary photo : deletedPhotos) {
+			Optional<PhotoContainer> optionalPhotoContainer = PHOTO_CONTAINER_LIST.stream().filter(c -> c.getPhoto().equals(photo)).findAny();
+			if (optionalPhotoContainer.isPresent()) {
+				removePhotoContainer(optionalPhotoContainer.get());
+			} else {
+				//If one of the pictures were not successfully deleted, then the operation was not successful
+				successfulDeleteSelectedPhotos = false;
+				FileLogger.getLogger().log(Level.FINE, "Photo: {0} is not present in the list containers", photo);
+				FileLogger.closeHandler();
 			}
-			Hibernate.updateUser(UserInfo.getUser());
-			if (successfulDeleteSelectedPhotos) {
-				Css.playFeedBackLabelTransition(FeedbackType.SUCCESSFUL, "Deleted successfully", 13, FEEDBACK_LABEL);
+		}
+		if (successfulDeleteSelectedPhotos) {
+			Css.playFeedBackLabelTransition(FeedbackType.SUCCESSFUL, "Deleted successfully", 13, FEEDBACK_LABEL);
+		} else {
+			Css.playFeedBackLabelTransition(FeedbackType.ERROR, "One or more photos could not be deleted", 13, FEEDBACK_LABEL);
+		}
+		showNextPageIfEmpty();
+	}
+
+	/**
+	 * Removes the container of a photo from the scroll pane
+	 * Used in removePhotoContainers and mergeChanges
+	 *
+	 * @param photoContainer the container of the photo
+	 */
+	private void removePhotoContainer(PhotoContainer photoContainer) {
+		PHOTO_LIST.remove(photoContainer.getPhoto());
+		PHOTO_CONTAINER_LIST.remove(photoContainer);
+		CHECKBOX_ARRAY_LIST.remove(photoContainer.getCheckBox());
+		SCROLL_PANE_VBOX.getChildren().remove(photoContainer.getPhotoContainerHBox());
+	}
+
+	/**
+	 * Loads the next page if every loaded photo has been removed, or shows that the user has no photos
+	 * Used in removePhotoContainers and mergeChanges
+	 */
+	private void showNextPageIfEmpty() {
+		if (PHOTO_CONTAINER_LIST.isEmpty()) {
+			if (lastPage != null && lastPage.hasMore()) {
+				loadNextPage();
 			} else {
-				Css.playFeedBackLabelTransition(FeedbackType.ERROR, "One or more photos could not be deleted", 13, FEEDBACK_LABEL);
+				showNoPhotos();
 			}
 		}
-		if (UserInfo.getUser().getPhotos().isEmpty()) {
-			showNoPhotos();
+	}
+
+	/**
+	 * Merges the changes other programs made to the library into the loaded photos and albums.
+	 * Deleted photos are removed and changed photos are updated. New photos are added if every page is loaded,
+	 * otherwise they come with their page, since the photos are ordered by id
+	 * Used as listener of LibraryWatcher
+	 *
+	 * @param changes the changes
+	 */
+	private void mergeChanges(LibraryChanges changes) {
+		PHOTO_CONTAINER_LIST.stream()
+				.filter(container -> changes.getDeletedPhotoIds().contains(container.getPhoto().getId()))
+				.collect(Collectors.toList())
+				.forEach(this::removePhotoContainer);
+		int lastId = PHOTO_LIST.isEmpty() ? 0 : PHOTO_LIST.get(PHOTO_LIST.size() - 1).getId();
+		List<PhotoSummary> newPhotos = new ArrayList<>();
+		for (PhotoSummary photo : changes.getPhotos()) {
+			int index = PHOTO_LIST.indexOf(photo);
+			if (index >= 0) {
+				updatePhotoContainer(index, photo);
+			} else if (lastPage != null && !lastPage.hasMore() && photo.getId() > lastId) {
+				newPhotos.add(photo);
+			}
+		}
+		if (!newPhotos.isEmpty()) {
+			if (PHOTO_CONTAINER_LIST.isEmpty()) {
+				// The message that the user has no photos is replaced, and the buttons are enabled again
+				SELECT_ALL_HBOX.setDisable(false);
+				DELETE_BUTTON.setDisable(false);
+				SEARCH_TEXT_FIELD.setDisable(false);
+				ADD_TO_ALBUM_BUTTON.setDisable(ALBUM_LIST.isEmpty());
+			}
+			PHOTO_LIST.addAll(newPhotos);
+			addPhotoContainers(newPhotos);
+		}
+		ALBUM_LIST.removeIf(album -> changes.getDeletedAlbumIds().contains(album.getId()));
+		for (AlbumSummary summary : changes.getAlbums()) {
+			if (ALBUM_LIST.stream().noneMatch(album -> album.getId() == summary.getId())) {
+				Album album = new Album(summary.getName(), USER_ID);
+				album.setId(summary.getId());
+				ALBUM_LIST.add(album);
+			}
+		}
+		ADD_TO_ALBUM_BUTTON.setDisable(ALBUM_LIST.isEmpty() || SEARCH_TEXT_FIELD.isDisabled());
+		filter();
+		showNextPageIfEmpty();
+	}
+
+	/**
+	 * Updates a loaded photo that was changed by another program. Only the tags are updated if the title and url are the same,
+	 * so the image is not loaded again
+	 * Used in mergeChanges
+	 *
+	 * @param index the index of the photo in the loaded photos
+	 * @param photo the changed photo
+	 */
+	private void updatePhotoContainer(int index, PhotoSummary photo) {
+		PhotoSummary loaded = PHOTO_LIST.get(index);
+		if (Objects.equals(loaded.getTitle(), photo.getTitle()) && Objects.equals(loaded.getUrl(), photo.getUrl())) {
+			loaded.getTags().clear();
+			loaded.getTags().addAll(photo.getTags());
+			return;
 		}
+		PhotoContainer oldContainer = PHOTO_CONTAINER_LIST.get(index);
+		PhotoContainer photoContainer = new PhotoContainer(photo);
+		photoContainer.getCheckBox().setSelected(oldContainer.getCheckBox().isSelected());
+		PHOTO_LIST.set(index, photo);
+		PHOTO_CONTAINER_LIST.set(index, photoContainer);
+		CHECKBOX_ARRAY_LIST.set(CHECKBOX_ARRAY_LIST.indexOf(oldContainer.getCheckBox()), photoContainer.getCheckBox());
 	}
 }
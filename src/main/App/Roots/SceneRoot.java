@@ -45,6 +45,13 @@ public abstract class SceneRoot {
 		gridPane.setAlignment(Pos.CENTER);
 	}
 
+	/**
+	 * Releases what the root holds on to outside of itself, like its listeners. Does nothing by default
+	 * Used by ApplicationManager when the root is replaced by another root
+	 */
+	public void dispose() {
+	}
+
 	/**
 	 * Sets the basic layout of the application
 	 */
@@ -1,17 +1,15 @@
 package Roots;
 
 import Components.Authentication;
-import Components.FileLogger;
 import Css.Css;
 import Css.FeedbackType;
+import Database.AsyncDatabase;
 import Database.Hibernate;
 import Database.HibernateClasses.User;
 import Main.ApplicationManager;
-import javafx.animation.PauseTransition;
 import javafx.scene.control.*;
-import javafx.util.Duration;
 
-import java.util.logging.Level;
+import javax.persistence.NoResultException;
 
 /**
  * Class for the SignUpRoot
@@ -29,6 +27,13 @@ final class SignUpRoot extends SceneRoot {
 	private final ProgressBar PASSWORD_STRENGTH_BAR = new ProgressBar(0);
 	private final ProgressIndicator LOADING_ANIMATION = new ProgressIndicator();
 
+	/**
+	 * The outcome of a sign up, found on a database thread
+	 */
+	private enum SignUpResult {
+		REGISTERED, USERNAME_TAKEN, FAILED
+	}
+
 	/**
 	 * Creates an object of the class SignUpRoot
 	 */
@@ -86,28 +91,63 @@ final class SignUpRoot extends SceneRoot {
 	 * Used in setLayout
 	 */
 	private void signUp() {
+		if (!feedback()) {
+			return;
+		}
 		LOADING_ANIMATION.setVisible(true);
-		PauseTransition pause = new PauseTransition(Duration.seconds(1));
-		pause.setOnFinished(e -> {
-			try {
-				if (feedback()) {
-					if (Authentication.register(USERNAME_FIELD.getText(), PASSWORD_FIELD.getText())) {
-						ApplicationManager.setRoot(new LoginRoot());
-					} else {
-						Css.playFeedBackLabelTransition(FeedbackType.ERROR, "Error: Could not connect to database", 13, SIGN_UP_FEEDBACK_LABEL);
-						LOADING_ANIMATION.setVisible(false);
-					}
-				} else {
-					LOADING_ANIMATION.setVisible(false);
-				}
-			} catch (ExceptionInInitializerError error) {
+		SIGN_UP_BUTTON.setDisable(true);
+		String username = USERNAME_FIELD.getText();
+		String password = PASSWORD_FIELD.getText();
+		// The database is asked in the background, so the window does not freeze while waiting
+		AsyncDatabase.supplyOnFx(() -> register(username, password), result -> {
+			if (result == SignUpResult.REGISTERED) {
+				ApplicationManager.setRoot(new LoginRoot());
+				return;
+			}
+			if (result == SignUpResult.USERNAME_TAKEN) {
+				Css.playFeedBackLabelTransition(FeedbackType.ERROR, "Error: Username is already taken", 13, SIGN_UP_FEEDBACK_LABEL);
+			} else {
 				Css.playFeedBackLabelTransition(FeedbackType.ERROR, "Error: Could not connect to database", 13, SIGN_UP_FEEDBACK_LABEL);
-				LOADING_ANIMATION.setVisible(false);
-				FileLogger.getLogger().log(Level.FINE, error.getMessage());
-				FileLogger.closeHandler();
 			}
+			LOADING_ANIMATION.setVisible(false);
+			SIGN_UP_BUTTON.setDisable(false);
+		}, e -> {
+			Css.playFeedBackLabelTransition(FeedbackType.ERROR, "Error: Could not connect to database", 13, SIGN_UP_FEEDBACK_LABEL);
+			LOADING_ANIMATION.setVisible(false);
+			SIGN_UP_BUTTON.setDisable(false);
 		});
-		pause.play();
+	}
+
+	/**
+	 * Registers the user if the username is not taken
+	 * Runs on a database thread
+	 * Used in signUp
+	 *
+	 * @param username the username
+	 * @param password the password
+	 * @return the outcome of the sign up
+	 */
+	private static SignUpResult register(String username, String password) {
+		if (isUsernameTaken(username)) {
+			return SignUpResult.USERNAME_TAKEN;
+		}
+		return Authentication.register(username, password) ? SignUpResult.REGISTERED : SignUpResult.FAILED;
+	}
+
+	/**
+	 * Checks if a username is already taken
+	 * Used in register
+	 *
+	 * @param username the username
+	 * @return if there is a user with the username
+	 */
+	private static boolean isUsernameTaken(String username) {
+		try {
+			User user = Hibernate.getUser(username);
+			return username.equals(user.getUsername());
+		} catch (NoResultException e) {
+			return false;
+		}
 	}
 
 	/**
@@ -220,19 +260,6 @@ final class SignUpRoot extends SceneRoot {
 			return false;
 		}
 
-		try {
-			User testUser = Hibernate.getUser(USERNAME_FIELD.getText());
-			//Checks if username is available
-			if (USERNAME_FIELD.getText().equals(testUser.getUsername())) {
-				Css.playFeedBackLabelTransition(FeedbackType.ERROR, "Error: Username is already taken", 13, SIGN_UP_FEEDBACK_LABEL);
-				return false;
-			}
-		} catch (javax.persistence.PersistenceException e) {
-			Css.playFeedBackLabelTransition(FeedbackType.ERROR, "Error: Could not connect to database", 13, SIGN_UP_FEEDBACK_LABEL);
-			FileLogger.getLogger().log(Level.FINE, e.getMessage());
-			FileLogger.closeHandler();
-		}
-
 		return true;
 	}
 }
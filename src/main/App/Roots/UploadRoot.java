@@ -2,15 +2,15 @@ package Roots;
 
 import Components.FileLogger;
 import Components.ImageAnalyzer;
-import Components.UserInfo;
 import Css.Css;
 import Css.FeedbackType;
-import Database.Hibernate;
+import Database.AsyncDatabase;
 import Database.HibernateClasses.Photo;
+import Database.PhotoDerivatives;
+import Database.Repository;
 import Main.ApplicationManager;
 import com.cloudinary.Cloudinary;
 import com.cloudinary.utils.ObjectUtils;
-import javafx.animation.PauseTransition;
 import javafx.geometry.Pos;
 import javafx.scene.control.*;
 import javafx.stage.FileChooser;
@@ -19,7 +19,10 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.logging.Level;
@@ -136,41 +139,85 @@ final class UploadRoot extends SceneRoot {
 	 * Sets feedbackLabel to error message if something went wrong
 	 */
 	private void uploadComplete() {
+		if (!checkField()) {
+			return;
+		}
 		LOADING_ANIMATION.setVisible(true);
-		PauseTransition pause = new PauseTransition();
-		pause.setOnFinished(e -> {
-			if (checkField()) {
-				try {
-					String photo_url;
-					if (!URL_FIELD.getText().contains("https")) {
-						Cloudinary cloudinary = new Cloudinary(getProperties());
-						File file = new File(URL_FIELD.getText());
-						Map uploadResult = cloudinary.uploader().upload(file, ObjectUtils.emptyMap());
-						photo_url = uploadResult.get("url").toString();
-					} else {
-						photo_url = URL_FIELD.getText();
-					}
-					Photo photo = ImageAnalyzer.analyze(TITLE_FIELD.getText(), photo_url);
-					UserInfo.getUser().getPhotos().add(photo);
-					Hibernate.updateUser(UserInfo.getUser());
-					TITLE_FIELD.clear();
-					URL_FIELD.clear();
-					Css.playFeedBackLabelTransition(FeedbackType.SUCCESSFUL, photo.getTitle() + " was stored", 13, FEEDBACK_LABEL);
-				} catch (IOException ex) {
-					Css.playFeedBackLabelTransition(FeedbackType.ERROR, "Something went wrong when retrieving the image from the url.", 13, FEEDBACK_LABEL);
-					FileLogger.getLogger().log(Level.FINE, ex.getMessage());
-					FileLogger.closeHandler();
-				} catch (NullPointerException ex) {
-					Css.playFeedBackLabelTransition(FeedbackType.ERROR, "Something went wrong when analyzing the image.", 13, FEEDBACK_LABEL);
-					FileLogger.getLogger().log(Level.FINE, ex.getMessage());
-					FileLogger.closeHandler();
-				} finally {
-					LOADING_ANIMATION.setVisible(false);
-				}
+		UPLOAD_BUTTON.setDisable(true);
+		String title = TITLE_FIELD.getText();
+		String url = URL_FIELD.getText();
+		// Uploading, analyzing and storing is done in the background, so the window does not freeze while waiting
+		AsyncDatabase.supplyOnFx(() -> storePhoto(title, url), photo -> {
+			if (photo != null) {
+				TITLE_FIELD.clear();
+				URL_FIELD.clear();
+				Css.playFeedBackLabelTransition(FeedbackType.SUCCESSFUL, photo.getTitle() + " was stored", 13, FEEDBACK_LABEL);
 			} else {
-				LOADING_ANIMATION.setVisible(false);
+				Css.playFeedBackLabelTransition(FeedbackType.ERROR, "Something went wrong when storing the image.", 13, FEEDBACK_LABEL);
 			}
+			LOADING_ANIMATION.setVisible(false);
+			UPLOAD_BUTTON.setDisable(false);
+		}, e -> {
+			if (e instanceof UncheckedIOException) {
+				Css.playFeedBackLabelTransition(FeedbackType.ERROR, "Something went wrong when retrieving the image from the url.", 13, FEEDBACK_LABEL);
+			} else {
+				Css.playFeedBackLabelTransition(FeedbackType.ERROR, "Something went wrong when analyzing the image.", 13, FEEDBACK_LABEL);
+			}
+			LOADING_ANIMATION.setVisible(false);
+			UPLOAD_BUTTON.setDisable(false);
 		});
-		pause.play();
+	}
+
+	/**
+	 * Uploads a local image to Cloudinary together with its derivatives, analyzes it and stores it in the database
+	 * Images given by url are not uploaded, and have no derivatives
+	 * Runs on a database thread
+	 * Used in uploadComplete
+	 *
+	 * @param title the title of the image
+	 * @param url   the url or local path of the image
+	 * @return the stored photo, null if it could not be stored
+	 * @throws UncheckedIOException if the image could not be retrieved
+	 */
+	private static Photo storePhoto(String title, String url) {
+		try {
+			String photo_url;
+			String derivativeSizes = null;
+			if (!url.contains("https")) {
+				Cloudinary cloudinary = new Cloudinary(getProperties());
+				File file = new File(url);
+				Map<?, ?> uploadResult = cloudinary.uploader().upload(file, ObjectUtils.asMap("eager", PhotoDerivatives.getEagerTransformations()));
+				photo_url = uploadResult.get("url").toString();
+				derivativeSizes = PhotoDerivatives.getSizes(getTransformations(uploadResult));
+			} else {
+				photo_url = url;
+			}
+			Photo photo = ImageAnalyzer.analyze(title, photo_url);
+			photo.setDerivativeSizes(derivativeSizes);
+			return Repository.insertPhoto(photo) ? photo : null;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Gets the transformations of the derivatives Cloudinary made when an image was uploaded
+	 * Used in storePhoto
+	 *
+	 * @param uploadResult the result of the upload
+	 * @return the transformations, empty if no derivatives were made
+	 */
+	private static List<String> getTransformations(Map<?, ?> uploadResult) {
+		List<String> transformations = new ArrayList<>();
+		Object eager = uploadResult.get("eager");
+		if (eager instanceof List) {
+			for (Object derivative : (List<?>) eager) {
+				Object transformation = derivative instanceof Map ? ((Map<?, ?>) derivative).get("transformation") : null;
+				if (transformation != null) {
+					transformations.add(transformation.toString());
+				}
+			}
+		}
+		return transformations;
 	}
 }